@@ -21,6 +21,10 @@ case $1 in
   stop)
     pid=$(cat pid.txt)
     kill $pid
+    # the indexer writes buffered records and checkpoints before it exits
+    while kill -0 $pid 2> /dev/null;do
+      sleep 1
+    done
     ;;
   *)
     echo Unknown command: $1
@@ -0,0 +1,143 @@
+package de.webis.wasp.index;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of finding near-duplicate and random fingerprints
+ * in a {@link NearDuplicateIndex} of random fingerprints, and the time needed
+ * to fill such an index.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NearDuplicateIndexBenchmark {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // PARAMETERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The number of fingerprints in the index.
+   */
+  @Param("1000000")
+  public int numFingerprints;
+
+  /**
+   * The maximum Hamming distance of near-duplicates.
+   */
+  @Param("" + NearDuplicateIndex.DEFAULT_MAX_DISTANCE)
+  public int maxDistance;
+
+  /**
+   * The number of fingerprints per URI.
+   */
+  @Param("10")
+  public int fingerprintsPerUri;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private NearDuplicateIndex index;
+
+  private int numUris;
+
+  private Random lookups;
+
+  private int lookup;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETUP
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Fills the index and prints its size.
+   */
+  @Setup
+  public void setup() {
+    this.numUris = Math.max(1, this.numFingerprints / this.fingerprintsPerUri);
+    this.index = this.fill();
+    this.lookups = new Random(1);
+    this.lookup = 0;
+    System.out.println(String.format("%d fingerprints, %.0f MB allocated",
+        this.numFingerprints, this.index.getAllocatedBytes() / 1e6));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // BENCHMARKS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Fills a new index.
+   * @return The index
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 1)
+  public NearDuplicateIndex fill() {
+    final NearDuplicateIndex index = new NearDuplicateIndex(
+        this.maxDistance, NearDuplicateIndex.Mode.MERGE, this.numFingerprints);
+    final Random random = new Random(0);
+    for (int i = 0; i < this.numFingerprints; ++i) {
+      index.add(this.getUri(i), random.nextLong(),
+          "<urn:uuid:" + new UUID(i, i) + ">");
+    }
+    return index;
+  }
+
+  /**
+   * Finds a near-duplicate of an added fingerprint.
+   * @return The ID of the near-duplicate
+   */
+  @Benchmark
+  public String findNearDuplicate() {
+    // replays the fingerprints as added by fill()
+    final int i = Math.floorMod(this.lookup++, this.numFingerprints);
+    if (i == 0) { this.lookups = new Random(0); }
+    long fingerprint = this.lookups.nextLong();
+    for (int d = 0; d < this.maxDistance; ++d) {
+      fingerprint ^= 1L << Math.floorMod(i * 31 + d * 17, SimHash.NUM_BITS);
+    }
+    return this.index.find(this.getUri(i), fingerprint);
+  }
+
+  /**
+   * Finds a random fingerprint, which usually has no near-duplicate.
+   * @return The ID of the near-duplicate or <code>null</code>
+   */
+  @Benchmark
+  public String findRandom() {
+    final int i = Math.floorMod(this.lookup++, this.numFingerprints);
+    return this.index.find(this.getUri(i), this.lookups.nextLong());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private String getUri(final int fingerprint) {
+    return "http://example.org/" + (fingerprint % this.numUris);
+  }
+
+}
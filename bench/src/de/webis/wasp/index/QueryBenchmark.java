@@ -0,0 +1,303 @@
+package de.webis.wasp.index;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.mapping.IndexOptions;
+import co.elastic.clients.elasticsearch._types.mapping.TermVectorOption;
+import co.elastic.clients.elasticsearch._types.mapping.TextProperty;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.GetIndexTemplateResponse;
+
+/**
+ * Measures the latency of queries to a local index, with and without time
+ * constraints and with the requests matched by the index or by the client,
+ * optionally seeding it with random responses first.
+ * <p>
+ * Seeding writes to {@link Index#INDEX_NAME}, so run this against a scratch
+ * instance of Elasticsearch, not the one of an archive. Responses are only
+ * seeded if the index has fewer documents than requested, so that all
+ * parameter combinations query the same index. To measure the effect of
+ * stored offsets on highlighting, vary {@link #contentOffsets} and use many
+ * content words to simulate long pages: if the index stores other offsets,
+ * seeding deletes and re-creates it with the same random responses, which
+ * needs no migration (and thus neither the reindex nor the painless module
+ * of Elasticsearch). Run the values one after another, as each change
+ * re-seeds the index.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QueryBenchmark {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Number of different words in the seeded responses.
+   */
+  protected static final int NUM_WORDS = 10000;
+
+  /**
+   * Maximum number of requests of a seeded response.
+   */
+  protected static final int MAX_REQUESTS = 8;
+
+  /**
+   * Time of the earliest request of a seeded response.
+   */
+  protected static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+
+  /**
+   * Number of days over which the requests of seeded responses are spread.
+   */
+  protected static final int NUM_DAYS = 730;
+
+  /**
+   * Number of days of the time interval of constrained queries.
+   */
+  protected static final int QUERY_DAYS = 30;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // PARAMETERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The port of the index.
+   */
+  @Param("" + Index.DEFAULT_PORT)
+  public int port;
+
+  /**
+   * The number of responses to seed the index with.
+   */
+  @Param("0")
+  public int numResponses;
+
+  /**
+   * The number of words in the content of a seeded response.
+   */
+  @Param("300")
+  public int numContentWords;
+
+  /**
+   * The number of results per query.
+   */
+  @Param("10")
+  public int pageSize;
+
+  /**
+   * Whether the queries have time constraints.
+   */
+  @Param({ "false", "true" })
+  public boolean constrained;
+
+  /**
+   * Whether the requests are matched by the index or by the client.
+   * @see Index#setMatchingRequestsInIndex(boolean)
+   */
+  @Param({ "false", "true" })
+  public boolean matchingRequestsInIndex;
+
+  /**
+   * How the seeded index stores the offsets of the terms in the content.
+   */
+  @Param("NONE")
+  public ResponseRecord.ContentOffsets contentOffsets;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private Index index;
+
+  private Random random;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETUP
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Connects to the index and seeds it if needed.
+   * @throws IOException On writing to the index
+   */
+  @Setup
+  public void setup() throws IOException {
+    this.index = new Index(this.port);
+    this.index.setMatchingRequestsInIndex(this.matchingRequestsInIndex);
+    this.random = new Random(0);
+    if (this.numResponses > 0) {
+      final long start = System.nanoTime();
+      final int numSeeded = this.seed(this.numResponses);
+      System.out.println(String.format("seed: %d responses in %.1f s",
+          numSeeded, (System.nanoTime() - start) / 1e9));
+    }
+  }
+
+  /**
+   * Closes the connection to the index.
+   * @throws IOException On closing the connection
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    this.index.close();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // BENCHMARKS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Runs a random query.
+   * @return The results
+   * @throws IOException On searching the index
+   */
+  @Benchmark
+  public List<Result> search() throws IOException {
+    Instant from = null;
+    Instant to = null;
+    if (this.constrained) {
+      from = this.randomTime();
+      to = from.plus(QUERY_DAYS, ChronoUnit.DAYS);
+    }
+    final Query query = new Query(this.randomText(2), from, to);
+    return this.index.search(query, this.pageSize, 0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Indexes random responses and makes them searchable, unless the index has
+   * enough documents already and stores the offsets of
+   * {@link #contentOffsets}.
+   * <p>
+   * If the index stores other offsets, it is deleted first. If the index does
+   * not exist, it is created with the offsets of {@link #contentOffsets}.
+   * </p>
+   * @param numResponses The number of responses the index should have
+   * @return The number of indexed responses
+   * @throws IOException On writing to the index
+   */
+  protected int seed(final int numResponses)
+  throws IOException {
+    final ElasticsearchIndicesClient indices =
+        this.index.getClient().indices();
+    if (indices.exists(request -> request.index(Index.INDEX_NAME)).value()) {
+      if (this.getContentOffsets() != this.contentOffsets) {
+        final List<String> names = new ArrayList<>(indices.get(
+            request -> request.index(Index.INDEX_NAME)).result().keySet());
+        indices.delete(request -> request.index(names));
+        System.out.println("seed: deleted " + names + " to store offsets "
+            + this.contentOffsets);
+      } else if (this.index.getClient().count(
+          request -> request.index(Index.INDEX_NAME)).count()
+            >= numResponses) {
+        return 0;
+      }
+    }
+    if (!indices.exists(request -> request.index(Index.INDEX_NAME)).value()) {
+      this.index.initialize(this.contentOffsets);
+    }
+    final Random random = new Random(0);
+    for (int r = 0; r < numResponses; ++r) {
+      final String uri = "http://example.org/" + r;
+      final List<RequestRecord> requests = new ArrayList<>();
+      final int numRequests = 1 + random.nextInt(MAX_REQUESTS);
+      Instant time = QueryBenchmark.randomTime(random);
+      for (int q = 0; q < numRequests; ++q) {
+        requests.add(new RequestRecord(uri, time));
+        time = time.plus(1 + random.nextInt(7), ChronoUnit.DAYS);
+      }
+      this.index.index("benchmark-" + r, ResponseRecord.builder(uri)
+          .title(QueryBenchmark.randomText(random, 8))
+          .content(QueryBenchmark.randomText(random, this.numContentWords))
+          .requests(requests)
+          .build());
+    }
+    this.index.getClient().indices().refresh(
+        request -> request.index(Index.INDEX_NAME));
+    return numResponses;
+  }
+
+  /**
+   * Gets how the index template stores the offsets of the terms in the
+   * content.
+   * @return The offsets or <code>null</code> if there is no template
+   * @throws IOException On requesting the template
+   */
+  protected ResponseRecord.ContentOffsets getContentOffsets()
+  throws IOException {
+    final GetIndexTemplateResponse response;
+    try {
+      response = this.index.getClient().indices().getIndexTemplate(
+          request -> request.name(Index.INDEX_NAME));
+    } catch (final ElasticsearchException exception) {
+      if (exception.status() != 404) { throw exception; }
+      return null;
+    }
+    if (response.indexTemplates().isEmpty()) { return null; }
+    final TextProperty content = response.indexTemplates().get(0)
+        .indexTemplate().template().mappings().properties()
+        .get(ResponseRecord.FIELD_CONTENT).text();
+    if (content.indexOptions() == IndexOptions.Offsets) {
+      return ResponseRecord.ContentOffsets.POSTINGS;
+    } else if (content.termVector() == TermVectorOption.WithPositionsOffsets) {
+      return ResponseRecord.ContentOffsets.TERM_VECTORS;
+    } else {
+      return ResponseRecord.ContentOffsets.NONE;
+    }
+  }
+
+  private Instant randomTime() {
+    return QueryBenchmark.randomTime(this.random);
+  }
+
+  private String randomText(final int numWords) {
+    return QueryBenchmark.randomText(this.random, numWords);
+  }
+
+  private static Instant randomTime(final Random random) {
+    return START.plus(random.nextInt(NUM_DAYS), ChronoUnit.DAYS);
+  }
+
+  private static String randomText(final Random random, final int numWords) {
+    final StringBuilder text = new StringBuilder();
+    for (int w = 0; w < numWords; ++w) {
+      if (w > 0) { text.append(' '); }
+      // roughly Zipfian: low word numbers are much more frequent
+      final double uniform = random.nextDouble();
+      text.append('w').append((int) Math.pow(NUM_WORDS, uniform));
+    }
+    return text.toString();
+  }
+
+}
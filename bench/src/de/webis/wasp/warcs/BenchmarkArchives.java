@@ -0,0 +1,84 @@
+package de.webis.wasp.warcs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Access to the archive that benchmarks read from, which is set by the
+ * <code>archive</code> parameter of the benchmark.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class BenchmarkArchives {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////////////////////////////////////////////////
+
+  // Utility class
+  private BenchmarkArchives() { }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the archive to read from.
+   * @param archive The value of the <code>archive</code> parameter
+   * @return The archive
+   * @throws IllegalArgumentException If the archive is not set or does not
+   * exist
+   */
+  public static Path get(final String archive) {
+    if (archive == null || archive.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Set the archive to read from with -p archive=<file>");
+    }
+    final Path file = Paths.get(archive);
+    if (!Files.isRegularFile(file)) {
+      throw new IllegalArgumentException("No such archive: " + file);
+    }
+    return file;
+  }
+
+  /**
+   * Reads the HTTP responses of an archive into memory.
+   * @param archive The value of the <code>archive</code> parameter
+   * @param filter The filter for the responses to keep
+   * @return The responses
+   * @throws IOException On reading the archive
+   */
+  public static List<WarcHttpResponse> readResponses(
+      final String archive, final Predicate<WarcHttpResponse> filter)
+  throws IOException {
+    final List<WarcHttpResponse> responses = new ArrayList<>();
+    try (final WarcFramingReader reader =
+        WarcFramingReader.open(BenchmarkArchives.get(archive))) {
+      WarcRecord record = null;
+      while ((record = reader.read()) != null) {
+        try {
+          final WarcHttpResponse response = WarcHttpResponse.parse(record);
+          if (response != null && filter.test(response)) {
+            responses.add(response);
+          }
+        } catch (final Exception exception) {
+          // not a valid response
+        }
+      }
+    }
+    if (responses.isEmpty()) {
+      throw new IllegalArgumentException(
+          "No matching responses in " + archive);
+    }
+    return responses;
+  }
+
+}
@@ -0,0 +1,125 @@
+package de.webis.wasp.warcs;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.DeflateInputStreamFactory;
+import org.apache.http.client.entity.GZIPInputStreamFactory;
+import org.apache.http.client.entity.InputStreamFactory;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time needed to decode the content of all content-encoded
+ * responses in an archive, using the decoders of {@link ContentDecoders}
+ * (<code>pooled</code>) and those of the HTTP client library
+ * (<code>unpooled</code>).
+ * <p>
+ * Run with <code>-p archive=&lt;file&gt;</code>.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContentDecodersBenchmark {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The decoders of the HTTP client library, which create a new inflater for
+   * each stream.
+   */
+  protected static final Lookup<InputStreamFactory> UNPOOLED_REGISTRY =
+      RegistryBuilder.<InputStreamFactory>create()
+        .register("gzip", GZIPInputStreamFactory.getInstance())
+        .register("x-gzip", GZIPInputStreamFactory.getInstance())
+        .register("deflate", DeflateInputStreamFactory.getInstance())
+        .register("br", ContentDecoders.BROTLI)
+        .register("zstd", ContentDecoders.ZSTD)
+        .build();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // PARAMETERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The archive to read the responses from.
+   */
+  @Param("")
+  public String archive;
+
+  /**
+   * The decoders to use.
+   */
+  @Param({ "pooled", "unpooled" })
+  public String decoders;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private List<WarcHttpResponse> responses;
+
+  private Lookup<InputStreamFactory> registry;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETUP
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads the content-encoded responses of the archive into memory.
+   * @throws Exception On reading the archive
+   */
+  @Setup
+  public void setup() throws Exception {
+    this.responses = BenchmarkArchives.readResponses(this.archive,
+        response -> response.getContentEncoding() != null);
+    this.registry = this.decoders.equals("pooled")
+        ? ContentDecoders.REGISTRY : UNPOOLED_REGISTRY;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // BENCHMARKS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads and decodes the bodies of all responses.
+   * @return The number of decoded bytes
+   * @throws Exception On decoding
+   */
+  @Benchmark
+  public long decodeAll() throws Exception {
+    final byte[] buffer = new byte[ContentDecoders.CONTENT_BUFFER_SIZE];
+    long numBytes = 0;
+    for (final WarcHttpResponse response : this.responses) {
+      final HttpEntity entity = response.getEntity(this.registry);
+      try (final InputStream input = entity.getContent()) {
+        int read = 0;
+        while ((read = input.read(buffer)) >= 0) { numBytes += read; }
+      }
+    }
+    return numBytes;
+  }
+
+}
@@ -0,0 +1,154 @@
+package de.webis.wasp.warcs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.webis.wasp.warcs.GenericHtmlWarcRecordConsumer.Document;
+
+/**
+ * Compares the time needed to extract the documents from all HTML responses
+ * in an archive using the {@link StreamingDocumentExtractor} and the
+ * {@link JerichoDocumentExtractor}.
+ * <p>
+ * Run with <code>-p archive=&lt;file&gt;</code>. The setup of the
+ * <code>streaming</code> extractor also prints how often its output agrees
+ * with the one of the <code>jericho</code> extractor.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StreamingDocumentExtractorBenchmark {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // PARAMETERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The archive to read the HTML responses from.
+   */
+  @Param("")
+  public String archive;
+
+  /**
+   * The extractor to use.
+   */
+  @Param({ "jericho", "streaming" })
+  public String extractor;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private List<CharSequence> pages;
+
+  private Function<CharSequence, Document> function;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETUP
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads and decodes the HTML responses of the archive into memory.
+   * @throws Exception On reading the archive
+   */
+  @Setup
+  public void setup() throws Exception {
+    this.pages = new ArrayList<>();
+    for (final WarcHttpResponse response : BenchmarkArchives.readResponses(
+        this.archive, WarcHttpResponse::isHtml)) {
+      try {
+        this.pages.add(HtmlDecoder.DEFAULT.decode(response.getEntity()));
+      } catch (final Exception exception) {
+        // not a valid response
+      }
+    }
+    if (this.extractor.equals("jericho")) {
+      this.function = JerichoDocumentExtractor.INSTANCE;
+    } else {
+      this.function = StreamingDocumentExtractor.INSTANCE;
+      this.printParity();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // BENCHMARKS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Extracts the documents from all pages.
+   * @param blackhole The sink for the documents
+   */
+  @Benchmark
+  public void extractAll(final Blackhole blackhole) {
+    for (final CharSequence html : this.pages) {
+      blackhole.consume(this.function.apply(html));
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private void printParity() {
+    int sameTitle = 0;
+    double similarity = 0;
+    for (final CharSequence html : this.pages) {
+      final Document expected = JerichoDocumentExtractor.INSTANCE.apply(html);
+      final Document actual = StreamingDocumentExtractor.INSTANCE.apply(html);
+      if (Objects.equals(expected.getTitle(), actual.getTitle())) {
+        ++sameTitle;
+      }
+      similarity += StreamingDocumentExtractorBenchmark.getWordOverlap(
+          expected.getContent(), actual.getContent());
+    }
+    System.out.println(String.format(
+        "%d pages: same title %.1f%%, mean word overlap %.3f",
+        this.pages.size(), 100.0 * sameTitle / this.pages.size(),
+        similarity / this.pages.size()));
+  }
+
+  /**
+   * Gets the Jaccard similarity of the sets of words in two texts.
+   * @param first The first text
+   * @param second The second text
+   * @return The similarity
+   */
+  private static double getWordOverlap(
+      final String first, final String second) {
+    final Set<String> firstWords =
+        new HashSet<>(Arrays.asList(first.split("\\s+")));
+    final Set<String> secondWords =
+        new HashSet<>(Arrays.asList(second.split("\\s+")));
+    final Set<String> union = new HashSet<>(firstWords);
+    union.addAll(secondWords);
+    firstWords.retainAll(secondWords);
+    return union.isEmpty() ? 1.0 : (double) firstWords.size() / union.size();
+  }
+
+}
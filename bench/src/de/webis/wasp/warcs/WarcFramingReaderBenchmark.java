@@ -0,0 +1,119 @@
+package de.webis.wasp.warcs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Compares the time needed to read all records from an archive using the
+ * {@link WarcFramingReader} and using
+ * {@link WarcRecord#readNextWarcRecord(DataInputStream)}.
+ * <p>
+ * Run with <code>-p archive=&lt;file&gt;</code>.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WarcFramingReaderBenchmark {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // PARAMETERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The archive to read.
+   */
+  @Param("")
+  public String archive;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private Path file;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETUP
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Checks the archive.
+   */
+  @Setup
+  public void setup() {
+    this.file = BenchmarkArchives.get(this.archive);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // BENCHMARKS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads all records using the framing reader.
+   * @return The number of records
+   * @throws IOException On reading the archive
+   */
+  @Benchmark
+  public long framingReader() throws IOException {
+    long records = 0;
+    try (final WarcFramingReader reader = WarcFramingReader.open(this.file)) {
+      while (reader.read() != null) { ++records; }
+    }
+    return records;
+  }
+
+  /**
+   * Reads all records using the reader of the lemur project.
+   * @return The number of records
+   * @throws IOException On reading the archive
+   */
+  @Benchmark
+  public long lemurReader() throws IOException {
+    InputStream input =
+        new BufferedInputStream(new FileInputStream(this.file.toFile()));
+    if (Warcs.isGzipArchive(this.file)) {
+      input = new GZIPInputStream(input);
+    } else if (Warcs.isZstdArchive(this.file)) {
+      input = ContentDecoders.ZSTD.create(input);
+    }
+    long records = 0;
+    try (final DataInputStream dataInput = new DataInputStream(input)) {
+      try {
+        while (WarcRecord.readNextWarcRecord(dataInput) != null) {
+          ++records;
+        }
+      } catch (final EOFException exception) {
+        // end of file in the middle of a line
+      }
+    }
+    return records;
+  }
+
+}
@@ -1,15 +1,30 @@
 package de.webis.wasp;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import de.webis.wasp.index.BulkIndex;
 import de.webis.wasp.index.Index;
+import de.webis.wasp.index.NearDuplicateIndex;
 import de.webis.wasp.index.WarcIndexer;
 import de.webis.wasp.warcs.ArchiveWatcher;
+import de.webis.wasp.warcs.CheckpointStore;
+import de.webis.wasp.warcs.HtmlDecoder;
+import de.webis.wasp.warcs.GenericHtmlWarcRecordConsumer.Document;
+import de.webis.wasp.warcs.HtmlPayloadFilter;
+import de.webis.wasp.warcs.JerichoDocumentExtractor;
+import de.webis.wasp.warcs.MainContentExtractor;
+import de.webis.wasp.warcs.ParallelWarcRecordConsumer;
+import de.webis.wasp.warcs.RecordLimits;
+import de.webis.wasp.warcs.StreamingDocumentExtractor;
+import edu.cmu.lemurproject.WarcRecord;
 
 /**
  * Service to index WARC records.
@@ -19,18 +34,228 @@ import de.webis.wasp.warcs.ArchiveWatcher;
  */
 public class WarcIndexingService
 extends ArchiveWatcher {
+  
+  /////////////////////////////////////////////////////////////////////////////
+  // LOGGING
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG =
+      Logger.getLogger(WarcIndexingService.class.getName());
+  
+  /////////////////////////////////////////////////////////////////////////////
+  // CONFIGURATION
+  /////////////////////////////////////////////////////////////////////////////
+
+  public static final String PROPERTY_BULK = "wasp.indexer.bulk";
+
+  public static final boolean DEFAULT_BULK = true;
+
+  public static final String PROPERTY_BULK_MAX_ACTIONS =
+      "wasp.indexer.bulk.actions";
+
+  public static final int DEFAULT_BULK_MAX_ACTIONS =
+      BulkIndex.DEFAULT_MAX_ACTIONS;
+
+  public static final String PROPERTY_BULK_MAX_BYTES =
+      "wasp.indexer.bulk.bytes";
+
+  public static final long DEFAULT_BULK_MAX_BYTES =
+      BulkIndex.DEFAULT_MAX_BYTES;
+
+  public static final String PROPERTY_BULK_FLUSH_INTERVAL_MILLIS =
+      "wasp.indexer.bulk.interval";
+
+  public static final long DEFAULT_BULK_FLUSH_INTERVAL_MILLIS =
+      BulkIndex.DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+  public static final String PROPERTY_BULK_MAX_CONCURRENT_REQUESTS =
+      "wasp.indexer.bulk.concurrent";
+
+  public static final int DEFAULT_BULK_MAX_CONCURRENT_REQUESTS =
+      BulkIndex.DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+  public static final String PROPERTY_THREADS = "wasp.indexer.threads";
+
+  public static final int DEFAULT_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+  public static final String PROPERTY_QUEUE_SIZE = "wasp.indexer.queue";
+
+  public static final int DEFAULT_QUEUE_SIZE =
+      ParallelWarcRecordConsumer.DEFAULT_QUEUE_SIZE;
+
+  /**
+   * Whether to also index the records already in the archives on start.
+   */
+  public static final String PROPERTY_BACKFILL = "wasp.indexer.backfill";
+
+  public static final boolean DEFAULT_BACKFILL = false;
+
+  public static final String PROPERTY_BACKFILL_THREADS =
+      "wasp.indexer.backfill.threads";
+
+  public static final int DEFAULT_BACKFILL_THREADS = DEFAULT_THREADS;
+
+  /**
+   * File to store the checkpoints in (not used if not set). If set, indexing
+   * resumes where it stopped.
+   */
+  public static final String PROPERTY_CHECKPOINT_FILE =
+      "wasp.indexer.checkpoints";
+
+  public static final String PROPERTY_CHECKPOINT_INTERVAL_MILLIS =
+      "wasp.indexer.checkpoints.interval";
+
+  public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS =
+      ArchiveWatcher.DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+
+  /**
+   * Directory to write the offset index files of the archives to (not written
+   * if not set).
+   */
+  public static final String PROPERTY_OFFSET_INDEX_DIRECTORY =
+      "wasp.indexer.offsets";
+
+  /**
+   * Maximum number of characters of HTML to decode and index per response.
+   */
+  public static final String PROPERTY_HTML_MAX_LENGTH =
+      "wasp.indexer.html.max";
+
+  public static final int DEFAULT_HTML_MAX_LENGTH =
+      HtmlDecoder.DEFAULT_MAX_LENGTH;
+
+  /**
+   * Whether to skip the content of non-HTML responses already when reading
+   * the archives.
+   */
+  public static final String PROPERTY_PREFILTER = "wasp.indexer.prefilter";
+
+  public static final boolean DEFAULT_PREFILTER = true;
+
+  /**
+   * Maximum content length of a WARC record in bytes; the rest of the content
+   * of larger records is skipped while reading the archives.
+   */
+  public static final String PROPERTY_RECORD_MAX_LENGTH =
+      "wasp.indexer.record.max";
+
+  public static final int DEFAULT_RECORD_MAX_LENGTH =
+      RecordLimits.DEFAULT_MAX_RECORD_LENGTH;
+
+  /**
+   * Whether to index a truncated prefix of records that exceed the maximum
+   * length (<code>truncate</code>) or only their headers (<code>skip</code>).
+   */
+  public static final String PROPERTY_RECORD_OVERSIZE =
+      "wasp.indexer.record.oversize";
+
+  public static final RecordLimits.Mode DEFAULT_RECORD_OVERSIZE =
+      RecordLimits.Mode.TRUNCATE;
+
+  /**
+   * Maximum number of characters of extracted text to index per response.
+   */
+  public static final String PROPERTY_TEXT_MAX_LENGTH =
+      "wasp.indexer.text.max";
+
+  public static final int DEFAULT_TEXT_MAX_LENGTH =
+      WarcIndexer.DEFAULT_MAX_TEXT_LENGTH;
+
+  /**
+   * The extractor for title and text of HTML responses: <code>jericho</code>
+   * (renders the page) or <code>streaming</code> (single pass, faster).
+   */
+  public static final String PROPERTY_EXTRACTOR = "wasp.indexer.extractor";
+
+  public static final String DEFAULT_EXTRACTOR = "jericho";
+
+  /**
+   * Whether to index only the main text of HTML responses as their content,
+   * dropping boilerplate like navigation menus and footers.
+   */
+  public static final String PROPERTY_MAIN_CONTENT =
+      "wasp.indexer.maincontent";
+
+  public static final boolean DEFAULT_MAIN_CONTENT = false;
+
+  /**
+   * Whether to index the full text of HTML responses in a separate field if
+   * only their main text is indexed as their content.
+   */
+  public static final String PROPERTY_FULL_CONTENT =
+      "wasp.indexer.fullcontent";
+
+  public static final boolean DEFAULT_FULL_CONTENT = false;
+
+  /**
+   * Whether to add responses with the same URI, title and content as an
+   * indexed response as requests to that response.
+   * <p>
+   * Off by default: each response that is not in the cache of recent contents
+   * costs a search of the index, and duplicates that are indexed concurrently
+   * by different lanes are not detected.
+   * </p>
+   */
+  public static final String PROPERTY_DEDUPLICATE = "wasp.indexer.dedup";
+
+  public static final boolean DEFAULT_DEDUPLICATE = false;
+
+  /**
+   * How responses with a similar content as an indexed response for the same
+   * URI are indexed: <code>off</code> (as other responses), <code>merge</code>
+   * (as requests to that response), or <code>link</code> (with a pointer to
+   * that response).
+   */
+  public static final String PROPERTY_NEAR_DUPLICATES =
+      "wasp.indexer.neardup";
+
+  public static final String DEFAULT_NEAR_DUPLICATES = "off";
+
+  /**
+   * Maximum number of differing bits between the SimHash fingerprints of
+   * near-duplicate responses.
+   */
+  public static final String PROPERTY_NEAR_DUPLICATES_MAX_DISTANCE =
+      "wasp.indexer.neardup.distance";
+
+  public static final int DEFAULT_NEAR_DUPLICATES_MAX_DISTANCE =
+      NearDuplicateIndex.DEFAULT_MAX_DISTANCE;
+
+  /**
+   * Number of fingerprints for which memory is allocated initially.
+   */
+  public static final String PROPERTY_NEAR_DUPLICATES_CAPACITY =
+      "wasp.indexer.neardup.capacity";
+
+  public static final int DEFAULT_NEAR_DUPLICATES_CAPACITY =
+      NearDuplicateIndex.DEFAULT_INITIAL_CAPACITY;
+  
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
 
   private final Index index;
 
+  private boolean closed;
+  
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
   /**
    * Creates a new WARC indexing service.
+   * <p>
+   * The index client is configured from the system properties (see the
+   * <code>PROPERTY_*</code> constants).
+   * </p>
    * @param directory The directory that contains the archive files
    * @param port The port of the index to add new WARC records to
    * @throws IOException On reading records
    */
   public WarcIndexingService(final Path directory, final int port)
   throws IOException {
-    this(directory, new Index(port));
+    this(directory, WarcIndexingService.createIndex(port));
   }
 
   /**
@@ -41,19 +266,253 @@ extends ArchiveWatcher {
    */
   public WarcIndexingService(final Path directory, final Index index)
   throws IOException {
-    super(directory, false, new WarcIndexer(index));
+    this(directory, index,
+        Integer.getInteger(PROPERTY_THREADS, DEFAULT_THREADS));
+  }
+
+  /**
+   * Creates a new WARC indexing service.
+   * @param directory The directory that contains the archive files
+   * @param index The index to add new WARC records to
+   * @param numThreads The number of threads that process records
+   * @throws IOException On reading records
+   */
+  public WarcIndexingService(
+      final Path directory, final Index index, final int numThreads)
+  throws IOException {
+    super(directory,
+        Boolean.parseBoolean(System.getProperty(
+            PROPERTY_BACKFILL, String.valueOf(DEFAULT_BACKFILL))),
+        WarcIndexingService.createConsumer(index, numThreads),
+        WarcIndexingService.createWatcherOptions());
     this.index = index;
+    this.closed = false;
   }
 
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Stops reading, stores the checkpoints, and writes all buffered records to
+   * the index before closing it. Does nothing if closed already.
+   * @throws IOException On storing the checkpoints or writing to the index
+   */
   @Override
   public void close() throws IOException {
-    super.close();
-    this.index.close();
+    synchronized (this) {
+      if (this.closed) { return; }
+      this.closed = true;
+    }
+    try {
+      super.close();
+    } finally {
+      try {
+        final Consumer<WarcRecord> consumer = this.getConsumer();
+        if (consumer instanceof ParallelWarcRecordConsumer) {
+          ((ParallelWarcRecordConsumer) consumer).close();
+        } else {
+          ((Flushable) consumer).flush();
+        }
+      } finally {
+        this.index.close();
+        this.logLimits();
+      }
+    }
+  }
+  
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates the record consumer.
+   * @param index The index to add new WARC records to
+   * @param numThreads The number of threads that process records
+   * @return The consumer
+   */
+  protected static Consumer<WarcRecord> createConsumer(
+      final Index index, final int numThreads) {
+    final WarcIndexer indexer = new WarcIndexer(index,
+        WarcIndexingService.getDocumentExtractor(System.getProperty(
+            PROPERTY_EXTRACTOR, DEFAULT_EXTRACTOR)));
+    indexer.setHtmlDecoder(new HtmlDecoder(Integer.getInteger(
+        PROPERTY_HTML_MAX_LENGTH, DEFAULT_HTML_MAX_LENGTH)));
+    indexer.setMaxTextLength(Integer.getInteger(
+        PROPERTY_TEXT_MAX_LENGTH, DEFAULT_TEXT_MAX_LENGTH));
+    if (Boolean.parseBoolean(System.getProperty(
+        PROPERTY_MAIN_CONTENT, String.valueOf(DEFAULT_MAIN_CONTENT)))) {
+      indexer.setMainContentExtractor(
+          Boolean.parseBoolean(System.getProperty(
+              PROPERTY_FULL_CONTENT, String.valueOf(DEFAULT_FULL_CONTENT)))
+            ? MainContentExtractor.KEEP_FULL
+            : MainContentExtractor.MAIN_ONLY);
+    }
+    if (numThreads <= 1) {
+      return indexer;
+    } else {
+      return new ParallelWarcRecordConsumer(indexer, numThreads,
+          Integer.getInteger(PROPERTY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+    }
   }
+
+  /**
+   * Gets a document extractor by its name.
+   * @param name The name (see {@link #PROPERTY_EXTRACTOR})
+   * @return The extractor
+   * @throws IllegalArgumentException If there is no extractor of that name
+   */
+  protected static Function<CharSequence, Document> getDocumentExtractor(
+      final String name) {
+    switch (name.trim().toLowerCase()) {
+    case "jericho":
+      return JerichoDocumentExtractor.INSTANCE;
+    case "streaming":
+      return StreamingDocumentExtractor.INSTANCE;
+    default:
+      throw new IllegalArgumentException("Unknown extractor: " + name);
+    }
+  }
+
+  /**
+   * Creates the options for reading the archives as configured by the system
+   * properties.
+   * @return The options
+   * @throws IOException On reading the checkpoints
+   */
+  protected static ArchiveWatcher.Options createWatcherOptions()
+  throws IOException {
+    return new ArchiveWatcher.Options()
+        .offsetIndexDirectory(
+            WarcIndexingService.getConfiguredOffsetIndexDirectory())
+        .numBackfillThreads(Integer.getInteger(
+            PROPERTY_BACKFILL_THREADS, DEFAULT_BACKFILL_THREADS))
+        .checkpointStore(WarcIndexingService.createCheckpointStore())
+        .checkpointIntervalMillis(Long.getLong(
+            PROPERTY_CHECKPOINT_INTERVAL_MILLIS,
+            DEFAULT_CHECKPOINT_INTERVAL_MILLIS))
+        .contentFilter(Boolean.parseBoolean(System.getProperty(
+            PROPERTY_PREFILTER, String.valueOf(DEFAULT_PREFILTER)))
+          ? HtmlPayloadFilter.INSTANCE : null)
+        .recordLimits(WarcIndexingService.createRecordLimits());
+  }
+
+  /**
+   * Creates the limits on the length of records as configured by the system
+   * properties.
+   * @return The limits
+   */
+  protected static RecordLimits createRecordLimits() {
+    final String mode = System.getProperty(PROPERTY_RECORD_OVERSIZE);
+    return new RecordLimits(
+        Integer.getInteger(
+            PROPERTY_RECORD_MAX_LENGTH, DEFAULT_RECORD_MAX_LENGTH),
+        mode == null ? DEFAULT_RECORD_OVERSIZE
+            : RecordLimits.Mode.valueOf(mode.trim().toUpperCase()));
+  }
+
+  /**
+   * Logs how many records, bodies and texts were truncated for exceeding
+   * their limits.
+   */
+  protected void logLimits() {
+    Consumer<WarcRecord> consumer = this.getConsumer();
+    if (consumer instanceof ParallelWarcRecordConsumer) {
+      consumer = ((ParallelWarcRecordConsumer) consumer).getConsumer();
+    }
+    final StringBuilder message = new StringBuilder();
+    message.append("Records: ").append(this.getRecordLimits());
+    if (consumer instanceof WarcIndexer) {
+      final WarcIndexer indexer = (WarcIndexer) consumer;
+      message.append("; HTML truncated: ")
+        .append(indexer.getHtmlDecoder().getNumTruncated())
+        .append("; text truncated: ")
+        .append(indexer.getNumTextTruncated());
+    }
+    LOG.info(message.toString());
+  }
+
+  /**
+   * Creates the checkpoint store as configured by the system properties.
+   * @return The store or <code>null</code> if not configured
+   * @throws IOException On reading the checkpoints
+   */
+  protected static CheckpointStore createCheckpointStore()
+  throws IOException {
+    final String file = System.getProperty(PROPERTY_CHECKPOINT_FILE);
+    return file == null ? null : new CheckpointStore(Paths.get(file));
+  }
+
+  /**
+   * Gets the directory for offset index files as configured by the system
+   * properties.
+   * @return The directory or <code>null</code> if not configured
+   */
+  protected static Path getConfiguredOffsetIndexDirectory() {
+    final String directory =
+        System.getProperty(PROPERTY_OFFSET_INDEX_DIRECTORY);
+    return directory == null ? null : Paths.get(directory);
+  }
+
+  /**
+   * Creates the index client as configured by the system properties.
+   * @param port The port of the index
+   * @return The client
+   */
+  protected static Index createIndex(final int port) {
+    final boolean bulk = Boolean.parseBoolean(
+        System.getProperty(PROPERTY_BULK, String.valueOf(DEFAULT_BULK)));
+    final Index index;
+    if (bulk) {
+      index = new BulkIndex(port,
+          Integer.getInteger(
+              PROPERTY_BULK_MAX_ACTIONS, DEFAULT_BULK_MAX_ACTIONS),
+          Long.getLong(
+              PROPERTY_BULK_MAX_BYTES, DEFAULT_BULK_MAX_BYTES),
+          Long.getLong(PROPERTY_BULK_FLUSH_INTERVAL_MILLIS,
+              DEFAULT_BULK_FLUSH_INTERVAL_MILLIS),
+          Integer.getInteger(PROPERTY_BULK_MAX_CONCURRENT_REQUESTS,
+              DEFAULT_BULK_MAX_CONCURRENT_REQUESTS));
+    } else {
+      index = new Index(port);
+    }
+    index.setDeduplicating(Boolean.parseBoolean(System.getProperty(
+        PROPERTY_DEDUPLICATE, String.valueOf(DEFAULT_DEDUPLICATE))));
+    index.setNearDuplicateIndex(
+        WarcIndexingService.createNearDuplicateIndex());
+    return index;
+  }
+
+  /**
+   * Creates the index for detecting near-duplicate responses as configured
+   * by the system properties.
+   * @return The index or <code>null</code> if near-duplicates are not
+   * detected
+   */
+  protected static NearDuplicateIndex createNearDuplicateIndex() {
+    final String mode = System.getProperty(
+        PROPERTY_NEAR_DUPLICATES, DEFAULT_NEAR_DUPLICATES).trim();
+    if (mode.equalsIgnoreCase("off")) { return null; }
+    return new NearDuplicateIndex(
+        Integer.getInteger(PROPERTY_NEAR_DUPLICATES_MAX_DISTANCE,
+            DEFAULT_NEAR_DUPLICATES_MAX_DISTANCE),
+        NearDuplicateIndex.Mode.valueOf(mode.toUpperCase()),
+        Integer.getInteger(PROPERTY_NEAR_DUPLICATES_CAPACITY,
+            DEFAULT_NEAR_DUPLICATES_CAPACITY));
+  }
+  
+  /////////////////////////////////////////////////////////////////////////////
+  // MAIN
+  /////////////////////////////////////////////////////////////////////////////
   
   
   /**
-   * Starts the service
+   * Starts the service.
+   * <p>
+   * The service is closed when the JVM shuts down (e.g., on
+   * <code>kill</code>), so that buffered records are written to the index and
+   * the checkpoints are stored.
+   * </p>
    * @param args directory [index-port]
    * @throws IOException On reading or indexing
    */
@@ -67,9 +526,20 @@ extends ArchiveWatcher {
     final Path directory = Paths.get(args[0]);
     final int port =
         args.length != 2 ? Index.DEFAULT_PORT : Integer.parseInt(args[1]);
-    try (final WarcIndexingService service =
-        new WarcIndexingService(directory, port)) {
+    // closed once by whichever comes first: the end of run or the hook
+    final WarcIndexingService service =
+        new WarcIndexingService(directory, port);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        service.close();
+      } catch (final IOException exception) {
+        LOG.log(Level.SEVERE, "Failed to close " + directory, exception);
+      }
+    }, "warc-indexer-shutdown"));
+    try {
       service.run();
+    } finally {
+      service.close();
     }
   }
 
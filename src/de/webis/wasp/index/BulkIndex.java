@@ -0,0 +1,668 @@
+package de.webis.wasp.index;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+
+/**
+ * A WASP index client that collects write operations and sends them to the
+ * index in <code>_bulk</code> requests.
+ * <p>
+ * Pending operations are sent once their number or (estimated) size reaches a
+ * threshold, or when the oldest of them waited for the flush interval. At most
+ * a fixed number of bulk requests are in flight at the same time: once this
+ * number is reached, adding further operations blocks until a request
+ * completes (back-pressure). Bulk requests are started in the order in which
+ * their operations were added, no matter which thread sends them. With more
+ * than one concurrent request, the order in which operations reach the index
+ * is no longer guaranteed, so that a request record may arrive before its
+ * response.
+ * </p><p>
+ * Since operations are only queued, the indexing methods can not detect
+ * whether a response to add a request to exists, except for the lookup of the
+ * partition of the response. Failed operations are instead logged and counted
+ * when the bulk request returns. Operations the index rejected because it was
+ * overloaded, and bulk requests that failed as a whole, are retried with
+ * exponential backoff first (blocking further requests meanwhile). Operations
+ * that still failed are reported by the next call of {@link #flush()}.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class BulkIndex
+extends Index {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // LOGGING
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG =
+      Logger.getLogger(BulkIndex.class.getName());
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum number of operations in one bulk request.
+   */
+  public static final int DEFAULT_MAX_ACTIONS = 1000;
+
+  /**
+   * Default maximum estimated size of one bulk request in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+
+  /**
+   * Default maximum time in milliseconds an operation waits before it is sent.
+   */
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Default maximum number of bulk requests in flight at the same time.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 1;
+
+  /**
+   * Estimated number of bytes an operation takes in addition to its strings.
+   */
+  protected static final int OPERATION_OVERHEAD_BYTES = 128;
+
+  /**
+   * Maximum number of times a failed bulk request or rejected operation is
+   * retried.
+   */
+  public static final int MAX_RETRIES = 6;
+
+  /**
+   * Time in milliseconds to wait before the first retry; doubled for each
+   * further retry.
+   */
+  public static final long RETRY_BACKOFF_MILLIS = 250;
+
+  /**
+   * Number of times an update is retried by the index on a version conflict
+   * with a concurrent update of the same response.
+   */
+  protected static final int RETRY_ON_CONFLICT = 3;
+
+  /**
+   * Type of the error of operations the index rejected because its queues
+   * were full.
+   */
+  protected static final String ERROR_TYPE_REJECTED =
+      "es_rejected_execution_exception";
+
+  /**
+   * HTTP status of operations and requests the index rejected because it was
+   * overloaded.
+   */
+  protected static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final int maxActions;
+
+  private final long maxBytes;
+
+  private final long flushIntervalMillis;
+
+  private final int maxConcurrentRequests;
+
+  private final Semaphore inFlight;
+
+  private final Object sendLock;
+
+  private final ExecutorService sender;
+
+  private final ScheduledExecutorService scheduler;
+
+  private List<BulkOperation> pending;
+
+  private long pendingBytes;
+
+  private long pendingSinceMillis;
+
+  private final AtomicLong numSentOperations;
+
+  private final AtomicLong numFailedOperations;
+
+  private final AtomicLong numFailedRequests;
+
+  private final AtomicLong numUnreportedFailures;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new bulk index client talking to the index at the default port
+   * and using the default thresholds.
+   * @see #DEFAULT_PORT
+   */
+  public BulkIndex() {
+    this(DEFAULT_PORT);
+  }
+
+  /**
+   * Creates a new bulk index client talking to the index at the specified port
+   * and using the default thresholds.
+   * @param port The port
+   */
+  public BulkIndex(final int port) {
+    this(port, DEFAULT_MAX_ACTIONS, DEFAULT_MAX_BYTES,
+        DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_CONCURRENT_REQUESTS);
+  }
+
+  /**
+   * Creates a new bulk index client talking to the index at the specified port.
+   * @param port The port
+   * @param maxActions The maximum number of operations in one bulk request
+   * @param maxBytes The maximum estimated size of one bulk request in bytes
+   * @param flushIntervalMillis The maximum time in milliseconds an operation
+   * waits before it is sent, or 0 to only send when a size threshold is reached
+   * or on {@link #flush()}
+   * @param maxConcurrentRequests The maximum number of bulk requests in flight
+   * at the same time
+   */
+  public BulkIndex(
+      final int port, final int maxActions, final long maxBytes,
+      final long flushIntervalMillis, final int maxConcurrentRequests) {
+    super(port);
+    if (maxActions <= 0) {
+      throw new IllegalArgumentException("max actions: " + maxActions);
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("max bytes: " + maxBytes);
+    }
+    if (flushIntervalMillis < 0) {
+      throw new IllegalArgumentException(
+          "flush interval: " + flushIntervalMillis);
+    }
+    if (maxConcurrentRequests <= 0) {
+      throw new IllegalArgumentException(
+          "max concurrent requests: " + maxConcurrentRequests);
+    }
+    this.maxActions = maxActions;
+    this.maxBytes = maxBytes;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    // fair, so that flushing is not starved by concurrent sending
+    this.inFlight = new Semaphore(maxConcurrentRequests, true);
+    this.sender = Executors.newFixedThreadPool(maxConcurrentRequests);
+    this.sendLock = new Object();
+    this.pending = new ArrayList<>();
+    this.pendingBytes = 0;
+    this.pendingSinceMillis = 0;
+    this.numSentOperations = new AtomicLong();
+    this.numFailedOperations = new AtomicLong();
+    this.numFailedRequests = new AtomicLong();
+    this.numUnreportedFailures = new AtomicLong();
+
+    if (flushIntervalMillis > 0) {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor();
+      this.scheduler.scheduleWithFixedDelay(this::flushIfDue,
+          flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      this.scheduler = null;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the maximum number of operations in one bulk request.
+   * @return The number
+   */
+  public int getMaxActions() {
+    return this.maxActions;
+  }
+
+  /**
+   * Gets the maximum estimated size of one bulk request in bytes.
+   * @return The size
+   */
+  public long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * Gets the maximum time in milliseconds an operation waits before it is
+   * sent.
+   * @return The time (0 for no time threshold)
+   */
+  public long getFlushIntervalMillis() {
+    return this.flushIntervalMillis;
+  }
+
+  /**
+   * Gets the maximum number of bulk requests in flight at the same time.
+   * @return The number
+   */
+  public int getMaxConcurrentRequests() {
+    return this.maxConcurrentRequests;
+  }
+
+  /**
+   * Gets the number of operations that have been sent to the index so far.
+   * @return The number
+   */
+  public long getNumSentOperations() {
+    return this.numSentOperations.get();
+  }
+
+  /**
+   * Gets the number of sent operations that the index reported as failed
+   * (after retries).
+   * @return The number
+   */
+  public long getNumFailedOperations() {
+    return this.numFailedOperations.get();
+  }
+
+  /**
+   * Gets the number of bulk requests that failed as a whole (after retries).
+   * @return The number
+   */
+  public long getNumFailedRequests() {
+    return this.numFailedRequests.get();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sends all pending operations and waits until all bulk requests in flight
+   * have completed.
+   * @throws IOException When interrupted while waiting, or if operations
+   * failed since the last flush (also those sent before it)
+   */
+  @Override
+  public void flush() throws IOException {
+    this.sendPending(() -> true);
+    try {
+      this.inFlight.acquire(this.getMaxConcurrentRequests());
+      this.inFlight.release(this.getMaxConcurrentRequests());
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while flushing", exception);
+    }
+    final long numFailures = this.numUnreportedFailures.getAndSet(0);
+    if (numFailures > 0) {
+      throw new IOException(
+          numFailures + " operations failed since the last flush");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.scheduler != null) { this.scheduler.shutdown(); }
+    try {
+      this.flush();
+    } finally {
+      this.sender.shutdown();
+      LOG.info("Sent " + this.getNumSentOperations() + " operations of which "
+          + this.getNumFailedOperations() + " failed, "
+          + this.getNumFailedRequests() + " bulk requests failed");
+      super.close();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  protected void index(final String id, final ResponseRecord response)
+  throws IOException {
+    final String indexName = this.getIndexName(response);
+    final BulkOperation operation = BulkOperation.of(bulk -> bulk
+        .index(index -> index
+            .index(indexName)
+            .id(id)
+            .document(response)));
+    this.add(operation, BulkIndex.estimateBytes(id, response));
+    this.rememberCapture(id, indexName, response);
+  }
+
+  @Override
+  protected void addRequest(
+      final String responseId, final RequestRecord request)
+  throws IOException {
+    final String indexName = this.resolveIndexName(responseId);
+    if (indexName == null) {
+      throw new IOException("No response with ID " + responseId);
+    }
+    final BulkOperation operation = BulkOperation.of(bulk -> bulk
+        .update(update -> update
+            .index(indexName)
+            .id(responseId)
+            .retryOnConflict(RETRY_ON_CONFLICT)
+            .action(action -> action
+                .script(Index.getAddRequestScript(request)))));
+    this.add(operation, BulkIndex.estimateBytes(responseId, request));
+  }
+
+  /**
+   * Queues a request record for the response with the specified ID if that
+   * response has been indexed, and drops it otherwise.
+   * @param concurrentId The ID of the concurrent response
+   * @param uri The URI of the request
+   * @param instant The time of the request
+   * @return Whether the request has been queued (not if no such response
+   * exists)
+   * @throws IOException On searching or writing to the index
+   */
+  @Override
+  public boolean indexRequest(
+      final String concurrentId, final String uri,
+      final Instant instant)
+  throws IOException {
+    final String responseId = this.resolveId(concurrentId);
+    if (this.resolveIndexName(responseId) == null) {
+      LOG.fine("No response found for ID = " + concurrentId + " for request");
+      return false;
+    }
+    this.addRequest(responseId, new RequestRecord(uri, instant));
+    LOG.fine("Queued request -> " + concurrentId + " at " + instant);
+    return true;
+  }
+
+  /**
+   * Adds an operation to the pending ones, sending them if a size threshold is
+   * reached.
+   * @param operation The operation
+   * @param bytes The estimated size of the operation in bytes
+   * @throws IOException When interrupted while waiting for a bulk request to
+   * complete
+   */
+  protected void add(final BulkOperation operation, final long bytes)
+  throws IOException {
+    final boolean full;
+    synchronized (this) {
+      if (this.pending.isEmpty()) {
+        this.pendingSinceMillis = System.currentTimeMillis();
+      }
+      this.pending.add(operation);
+      this.pendingBytes += bytes;
+      full = this.isFull();
+    }
+    if (full) { this.sendPending(this::isFull); }
+  }
+
+  /**
+   * Sends the pending operations if a condition holds for them.
+   * <p>
+   * Taking the operations and starting their bulk request happen under one
+   * lock, so that a batch taken later (e.g., with an update of a response)
+   * can not be sent before one taken earlier (e.g., with the response).
+   * </p>
+   * @param condition Checked while holding the lock of this object
+   * @throws IOException When interrupted while waiting for a bulk request to
+   * complete
+   */
+  protected void sendPending(final BooleanSupplier condition)
+  throws IOException {
+    synchronized (this.sendLock) {
+      final List<BulkOperation> operations;
+      synchronized (this) {
+        if (!condition.getAsBoolean()) { return; }
+        operations = this.takePending();
+      }
+      this.send(operations);
+    }
+  }
+
+  /**
+   * Removes all pending operations.
+   * @return The operations (may be empty)
+   */
+  protected synchronized List<BulkOperation> takePending() {
+    final List<BulkOperation> operations = this.pending;
+    this.pending = new ArrayList<>();
+    this.pendingBytes = 0;
+    return operations;
+  }
+
+  /**
+   * Sends the pending operations if the oldest one waited for the flush
+   * interval.
+   */
+  protected void flushIfDue() {
+    try {
+      this.sendPending(this::isDue);
+    } catch (final IOException exception) {
+      LOG.log(Level.WARNING, "Failed to send pending operations", exception);
+    }
+  }
+
+  /**
+   * Checks whether the pending operations reached a size threshold.
+   * @return Whether they did
+   */
+  protected synchronized boolean isFull() {
+    return this.pending.size() >= this.getMaxActions()
+        || this.pendingBytes >= this.getMaxBytes();
+  }
+
+  /**
+   * Checks whether the oldest pending operation waited for the flush interval.
+   * @return Whether it did (not if there are no pending operations)
+   */
+  protected synchronized boolean isDue() {
+    return !this.pending.isEmpty() && System.currentTimeMillis()
+        - this.pendingSinceMillis >= this.getFlushIntervalMillis();
+  }
+
+  /**
+   * Sends operations in a bulk request, blocking while the maximum number of
+   * requests are in flight.
+   * <p>
+   * Callers must hold the send lock (see {@link #sendPending(BooleanSupplier)})
+   * so that requests are started in the order their operations were taken.
+   * </p>
+   * @param operations The operations (may be <code>null</code> or empty)
+   * @throws IOException When interrupted while waiting for a bulk request to
+   * complete
+   */
+  protected void send(final List<BulkOperation> operations)
+  throws IOException {
+    if (operations == null || operations.isEmpty()) { return; }
+    try {
+      this.inFlight.acquire();
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the index",
+          exception);
+    }
+    try {
+      this.sender.execute(() -> {
+        try {
+          this.sendNow(operations);
+        } finally {
+          this.inFlight.release();
+        }
+      });
+    } catch (final RuntimeException exception) {
+      this.inFlight.release();
+      throw exception;
+    }
+  }
+
+  /**
+   * Sends operations in a bulk request, retrying rejected operations and
+   * failed requests, and counts and reports operations that still failed.
+   * @param operations The operations
+   */
+  protected void sendNow(final List<BulkOperation> operations) {
+    this.numSentOperations.addAndGet(operations.size());
+    List<BulkOperation> remaining = operations;
+    long backoffMillis = RETRY_BACKOFF_MILLIS;
+    for (int retry = 0; !remaining.isEmpty(); ++retry) {
+      if (retry > 0) {
+        LOG.fine("Retry " + retry + " for " + remaining.size()
+            + " operations in " + backoffMillis + " ms");
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (final InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          this.numFailedRequests.incrementAndGet();
+          this.onFailedOperations(remaining.size());
+          LOG.log(Level.SEVERE, "Interrupted while retrying to send "
+              + remaining.size() + " operations", exception);
+          return;
+        }
+        backoffMillis *= 2;
+      }
+      remaining = this.sendNow(remaining, retry < MAX_RETRIES);
+    }
+  }
+
+  /**
+   * Sends operations in a bulk request once and counts and reports the
+   * operations that failed and are not to be retried.
+   * @param operations The operations
+   * @param retry Whether to return the operations that may succeed if retried
+   * instead of counting them as failed
+   * @return The operations to retry (may be empty)
+   */
+  protected List<BulkOperation> sendNow(
+      final List<BulkOperation> operations, final boolean retry) {
+    final BulkRequest request = BulkRequest.of(bulk -> bulk
+        .operations(operations));
+    try {
+      final BulkResponse response = this.getClient().bulk(request);
+      LOG.fine("Sent " + operations.size() + " operations in "
+          + response.took() + " ms");
+      final List<BulkOperation> retries = new ArrayList<>();
+      if (response.errors()) {
+        final List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < items.size(); ++i) {
+          final BulkResponseItem item = items.get(i);
+          if (item.error() != null) {
+            if (retry && BulkIndex.isRetryable(item)) {
+              retries.add(operations.get(i));
+            } else {
+              this.numFailedOperations.incrementAndGet();
+              this.onFailedOperations(1);
+              this.onFailedOperation(item);
+            }
+          }
+        }
+      }
+      return retries;
+    } catch (final IOException | RuntimeException exception) {
+      if (retry && BulkIndex.isRetryable(exception)) {
+        LOG.log(Level.WARNING, "Failed to send " + operations.size()
+            + " operations, retrying", exception);
+        return operations;
+      }
+      this.numFailedRequests.incrementAndGet();
+      this.onFailedOperations(operations.size());
+      LOG.log(Level.SEVERE, "Failed to send " + operations.size()
+          + " operations", exception);
+      return List.of();
+    }
+  }
+
+  /**
+   * Called for each operation that the index reported as failed.
+   * @param item The response item of the operation
+   */
+  protected void onFailedOperation(final BulkResponseItem item) {
+    final ErrorCause error = item.error();
+    LOG.warning("Failed to " + item.operationType().jsonValue() + " "
+        + item.id() + ": " + error.type() + ": " + error.reason());
+  }
+
+  /**
+   * Remembers that operations failed, to be reported by the next flush.
+   * @param numOperations The number of operations
+   */
+  protected void onFailedOperations(final int numOperations) {
+    this.numUnreportedFailures.addAndGet(numOperations);
+  }
+
+  /**
+   * Checks whether an operation failed because the index was overloaded, so
+   * that it may succeed if retried.
+   * @param item The response item of the operation
+   * @return Whether it did
+   */
+  protected static boolean isRetryable(final BulkResponseItem item) {
+    return item.status() == STATUS_TOO_MANY_REQUESTS
+        || ERROR_TYPE_REJECTED.equals(item.error().type());
+  }
+
+  /**
+   * Checks whether a bulk request failed because the index was not reachable
+   * or overloaded, so that it may succeed if retried.
+   * @param exception The exception of the request
+   * @return Whether it did
+   */
+  protected static boolean isRetryable(final Exception exception) {
+    if (exception instanceof ElasticsearchException) {
+      final int status = ((ElasticsearchException) exception).status();
+      return status == STATUS_TOO_MANY_REQUESTS || status >= 500;
+    }
+    return exception instanceof IOException;
+  }
+
+  /**
+   * Estimates the size of an index operation in a bulk request.
+   * @param id The ID of the response
+   * @param response The response record
+   * @return The estimated size in bytes
+   */
+  protected static long estimateBytes(
+      final String id, final ResponseRecord response) {
+    long bytes = OPERATION_OVERHEAD_BYTES + id.length()
+      + response.getUri().length();
+    if (response.getTitle() != null) { bytes += response.getTitle().length(); }
+    if (response.getContent() != null) {
+      bytes += response.getContent().length();
+    }
+    if (response.getFullContent() != null) {
+      bytes += response.getFullContent().length();
+    }
+    for (final RequestRecord request : response.getRequests()) {
+      bytes += BulkIndex.estimateBytes(id, request);
+    }
+    return bytes;
+  }
+
+  /**
+   * Estimates the size of an update operation in a bulk request.
+   * @param id The ID of the response
+   * @param request The request record
+   * @return The estimated size in bytes
+   */
+  protected static long estimateBytes(
+      final String id, final RequestRecord request) {
+    return OPERATION_OVERHEAD_BYTES + id.length() + request.getUri().length();
+  }
+
+}
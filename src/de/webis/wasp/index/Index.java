@@ -1,13 +1,28 @@
 package de.webis.wasp.index;
 
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.http.HttpHost;
 import org.elasticsearch.client.RestClient;
@@ -24,6 +39,10 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.Script;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.Time;
 import co.elastic.clients.elasticsearch._types.query_dsl.ChildScoreMode;
 import co.elastic.clients.elasticsearch.core.GetResponse;
 import co.elastic.clients.elasticsearch.core.IndexRequest;
@@ -32,7 +51,10 @@ import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.UpdateRequest;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.search.HitsMetadata;
-import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.IndicesStatsResponse;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import co.elastic.clients.elasticsearch.tasks.TaskStatus;
 import co.elastic.clients.json.JsonData;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
@@ -45,7 +67,7 @@ import co.elastic.clients.transport.rest_client.RestClientTransport;
  *
  */
 public class Index
-implements AutoCloseable {
+implements AutoCloseable, Flushable {
 
   /////////////////////////////////////////////////////////////////////////////
   // LOGGING
@@ -64,15 +86,70 @@ implements AutoCloseable {
   public static final int DEFAULT_PORT = 9200;
 
   /**
-   * Name of the index to use.
+   * Name of the index to use, which is the alias of all its partitions (or
+   * the index itself if it was initialized before the index was partitioned).
    */
   public static final String INDEX_NAME = "archive";
 
+  /**
+   * Pattern for the names of the partitions of the index, each of which
+   * contains the responses first captured or requested in one month,
+   * optionally followed by the suffix of the migration that created it.
+   * @see #migrate(ResponseRecord.ContentOffsets)
+   */
+  protected static final Pattern PARTITION_NAME_PATTERN =
+      Pattern.compile("^" + INDEX_NAME + "-(\\d{4}-\\d{2})(-.+)?$");
+
+  /**
+   * Maximum time in milliseconds for which the names of the partitions of the
+   * index are not requested again for selecting the ones to search, so that
+   * partitions created by another client are found.
+   */
+  public static final long INDEX_NAMES_MAX_AGE_MILLIS = 60000;
+
+  /**
+   * Maximum time in milliseconds by which a request that is added to an
+   * indexed response can precede the month of the response's partition.
+   * <p>
+   * Requests are mostly recorded shortly before their response, but can be
+   * joined with it only after the response was indexed, so partitions are
+   * searched up to this time after the latest time of a query.
+   * </p>
+   * @see #getIndexNames(Query)
+   */
+  public static final long MAX_REQUEST_SKEW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * Default number of recently indexed responses for which the ID is kept in
+   * memory for resolving revisits.
+   */
+  public static final int DEFAULT_MAX_RECENT_CAPTURES = 65536;
+
   /**
    * Default number of results to retrieve at most from the index at once.
    */
   public static final int DEFAULT_MAX_RESULTS = 100;
 
+  /**
+   * Maximum offset plus size of a page of hits that can be retrieved without
+   * searching after a previous page (the Elasticsearch default of
+   * <code>index.max_result_window</code>).
+   */
+  public static final int MAX_RESULT_WINDOW = 10000;
+
+  /**
+   * Formatter for the suffix of the name of a new index to migrate to.
+   * @see #migrate(ResponseRecord.ContentOffsets)
+   */
+  protected static final DateTimeFormatter MIGRATION_SUFFIX_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT);
+
+  /**
+   * Interval in milliseconds in which to check whether a task of the index
+   * has completed.
+   */
+  protected static final long TASK_CHECK_INTERVAL_MILLIS = 10000;
+
   /**
    * Object mapper for JSON (de-)serialization.
    */
@@ -94,6 +171,24 @@ implements AutoCloseable {
   private final ElasticsearchClient client;
 
   private final RestClient lowLevelClient;
+
+  private final Map<String, String> recentCaptures;
+
+  private final Map<String, String> recentContents;
+
+  private final Map<String, String> recentIndexNames;
+
+  private final NavigableMap<YearMonth, String> partitions;
+
+  private final List<String> unpartitionedIndexNames;
+
+  private long indexNamesLoadedMillis;
+
+  private boolean deduplicating;
+
+  private NearDuplicateIndex nearDuplicateIndex;
+
+  private boolean matchingRequestsInIndex;
   
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTION
@@ -117,6 +212,39 @@ implements AutoCloseable {
     final ElasticsearchTransport transport =
         new RestClientTransport(this.lowLevelClient, MAPPER);
     this.client = new ElasticsearchClient(transport);
+    this.recentCaptures = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = -4470418323527187375L;
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<String, String> eldest) {
+            return this.size() > 2 * DEFAULT_MAX_RECENT_CAPTURES;
+          }
+        });
+    this.recentContents = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 6323870218745632870L;
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<String, String> eldest) {
+            return this.size() > DEFAULT_MAX_RECENT_CAPTURES;
+          }
+        });
+    this.recentIndexNames = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = -2514933471279105376L;
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<String, String> eldest) {
+            return this.size() > 2 * DEFAULT_MAX_RECENT_CAPTURES;
+          }
+        });
+    this.partitions = new TreeMap<>();
+    this.unpartitionedIndexNames = new ArrayList<>();
+    this.indexNamesLoadedMillis = 0;
+    this.deduplicating = false;
+    this.nearDuplicateIndex = null;
+    this.matchingRequestsInIndex = true;
   }
 
   /**
@@ -126,16 +254,96 @@ implements AutoCloseable {
    * WASP.
    * </p>
    * @throws IOException On initializing the index
+   * @see ResponseRecord#DEFAULT_CONTENT_OFFSETS
    */
   public void initialize()
   throws IOException {
-    final CreateIndexRequest createIndexRequest = CreateIndexRequest.of(
-        indexBuilder -> indexBuilder
-          .index(INDEX_NAME)
-          .mappings(mappings -> mappings
-              .properties(ResponseRecord.TYPE_PROPERTIES)));
-    LOG.info("Created index: " + createIndexRequest);
-    this.getClient().indices().create(createIndexRequest);
+    this.initialize(ResponseRecord.DEFAULT_CONTENT_OFFSETS);
+  }
+
+  /**
+   * Initializes the index.
+   * <p>
+   * This method must be called one time, but not again even after a restart of
+   * WASP.
+   * </p><p>
+   * The index is partitioned by the month in which responses were first
+   * captured or requested. This method stores the template for the
+   * partitions and creates the partition of the current month, so that
+   * {@link #INDEX_NAME} exists as their alias. Further partitions are created
+   * when needed.
+   * </p>
+   * @param contentOffsets How to store the offsets of the terms in the
+   * content for highlighting
+   * @throws IOException On initializing the index
+   */
+  public void initialize(final ResponseRecord.ContentOffsets contentOffsets)
+  throws IOException {
+    this.putIndexTemplate(contentOffsets);
+    this.createPartition(Index.toMonth(Instant.now()));
+  }
+
+  /**
+   * Migrates the index to a new mapping and partitions it by month.
+   * <p>
+   * Stores the template with the mapping for new partitions, copies all
+   * responses into new partitions by the month in which they were first
+   * captured or requested, and then atomically deletes the old indices and
+   * makes {@link #INDEX_NAME} the alias of the new partitions, so that
+   * searches see either the old or the new indices. The names of the new
+   * partitions end with the time of the migration. Responses indexed during
+   * the migration may not be copied, so stop the indexing before. The cluster
+   * needs space for both the old and new indices during the migration.
+   * </p>
+   * @param contentOffsets How to store the offsets of the terms in the
+   * content for highlighting
+   * @return The names of the new partitions
+   * @throws IOException On migrating the index
+   */
+  public List<String> migrate(
+      final ResponseRecord.ContentOffsets contentOffsets)
+  throws IOException {
+    final ElasticsearchIndicesClient indices = this.getClient().indices();
+    final List<String> sourceIndices = new ArrayList<>(indices.get(
+        request -> request.index(INDEX_NAME)).result().keySet());
+    final String suffix = "-" + MIGRATION_SUFFIX_FORMATTER
+        .format(Instant.now().atOffset(ZoneOffset.UTC));
+    this.putIndexTemplate(contentOffsets);
+    LOG.info("Stored template with content offsets " + contentOffsets
+        + ", copying from " + sourceIndices);
+
+    // responses without capture key and requests go to the partition of the
+    // current month
+    final String defaultPartition =
+        INDEX_NAME + "-" + Index.toMonth(Instant.now()) + suffix;
+    final String task = this.getClient().reindex(request -> request
+        .source(source -> source.index(sourceIndices))
+        .dest(destination -> destination.index(defaultPartition))
+        .script(Index.getPartitionScript(suffix))
+        .waitForCompletion(false)).task();
+    final TaskStatus status = this.waitForTask(task);
+    if (!status.failures().isEmpty()) {
+      throw new IOException("Failed to copy responses to partitions: "
+          + status.failures());
+    }
+    final List<String> targetIndices = new ArrayList<>(indices.get(
+        request -> request.index(INDEX_NAME + "-*" + suffix))
+        .result().keySet());
+    Collections.sort(targetIndices);
+    indices.refresh(request -> request.index(targetIndices));
+    LOG.info("Copied " + status.created() + " responses to " + targetIndices);
+
+    indices.updateAliases(request -> request
+        .actions(action -> action.removeIndex(remove -> remove
+            .indices(sourceIndices)))
+        .actions(action -> action.add(add -> add
+            .indices(targetIndices)
+            .alias(INDEX_NAME))));
+    synchronized (this.partitions) {
+      this.indexNamesLoadedMillis = 0;
+    }
+    LOG.info("Replaced " + sourceIndices + " by " + targetIndices);
+    return targetIndices;
   }
   
   /////////////////////////////////////////////////////////////////////////////
@@ -158,6 +366,77 @@ implements AutoCloseable {
   protected ElasticsearchClient getClient() {
     return this.client;
   }
+
+  /**
+   * Gets whether responses with the same URI, title and content as an indexed
+   * response are added as requests to that response instead of being indexed
+   * as new responses.
+   * @return Whether responses are deduplicated
+   */
+  public boolean isDeduplicating() {
+    return this.deduplicating;
+  }
+
+  /**
+   * Gets the index of fingerprints of indexed responses used to find
+   * near-duplicates of new responses.
+   * @return The index or <code>null</code> if near-duplicates are not detected
+   */
+  public NearDuplicateIndex getNearDuplicateIndex() {
+    return this.nearDuplicateIndex;
+  }
+
+  /**
+   * Gets whether searches let the index return the request of each response
+   * that matches the query (as inner hit), so that only the title and URI of
+   * responses are transferred, instead of matching the requests of the
+   * responses in this client.
+   * @return Whether the index matches the requests
+   * @see Query#build(boolean)
+   */
+  public boolean isMatchingRequestsInIndex() {
+    return this.matchingRequestsInIndex;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets whether responses with the same URI, title and content as an indexed
+   * response are added as requests to that response instead of being indexed
+   * as new responses.
+   * @param deduplicating Whether to deduplicate responses
+   * @see ResponseRecord#toContentHash(String, String)
+   */
+  public void setDeduplicating(final boolean deduplicating) {
+    this.deduplicating = deduplicating;
+  }
+
+  /**
+   * Sets whether searches let the index return the request of each response
+   * that matches the query (as inner hit), so that only the title and URI of
+   * responses are transferred, instead of matching the requests of the
+   * responses in this client.
+   * @param matchingRequestsInIndex Whether the index matches the requests
+   * @see Query#build(boolean)
+   */
+  public void setMatchingRequestsInIndex(
+      final boolean matchingRequestsInIndex) {
+    this.matchingRequestsInIndex = matchingRequestsInIndex;
+  }
+
+  /**
+   * Sets the index of fingerprints of indexed responses used to find
+   * near-duplicates of new responses.
+   * @param nearDuplicateIndex The index or <code>null</code> for not
+   * detecting near-duplicates
+   * @see #indexResponse(String, ResponseRecord)
+   */
+  public void setNearDuplicateIndex(
+      final NearDuplicateIndex nearDuplicateIndex) {
+    this.nearDuplicateIndex = nearDuplicateIndex;
+  }
   
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
@@ -168,29 +447,95 @@ implements AutoCloseable {
     this.getLowLevelClient().close();
   }
 
+  /**
+   * Ensures that all records passed to this index so far are written.
+   * <p>
+   * This index writes each record immediately, so this method does nothing.
+   * Subclasses that buffer writes have to override it.
+   * </p>
+   * @throws IOException On writing to the index
+   */
+  @Override
+  public void flush() throws IOException {
+    // nothing buffered
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // INDEXING
 
   /**
-   * Indexes a response record.
+   * Indexes a response record together with its requests.
+   * <p>
+   * If deduplicating and an indexed response for the same URI has the same
+   * content hash, the requests are added to that response instead.
+   * </p><p>
+   * If a near-duplicate index is set and an indexed response for the same URI
+   * has a similar fingerprint, the response is either merged into that
+   * response or indexed with a pointer to it, depending on the mode of the
+   * near-duplicate index. Otherwise, the fingerprint is added to the
+   * near-duplicate index.
+   * </p><p>
+   * Responses are only merged into responses of the same or an earlier
+   * partition, so that searches can skip later partitions. Otherwise, they
+   * are indexed as new responses (with a pointer to a near-duplicate).
+   * </p>
    * @param id The ID of the response
-   * @param uri The target URI of the response
-   * @param content The extracted content from the response
-   * @param title The title of the response
-   * @return Whether the response has been indexed (always)
+   * @param response The response record, with the capture key for revisits
+   * to find it, and with the fingerprint of the content for checking for
+   * near-duplicates
+   * @return Whether the response has been indexed as a new response (not if
+   * it has been merged into an indexed response)
    * @throws IOException On writing to the index
+   * @see #isDeduplicating()
+   * @see #getNearDuplicateIndex()
+   * @see ResponseRecord#builder(String)
    */
-  public boolean indexResponse(
-      final String id, final String uri,
-      final String content, final String title)
+  public boolean indexResponse(final String id, ResponseRecord response)
   throws IOException {
-    final IndexRequest<ResponseRecord> indexRequest = IndexRequest.of(
-        builder -> builder
-          .index(INDEX_NAME)
-          .id(Objects.requireNonNull(id))
-          .document(ResponseRecord.forPage(uri, title, content)));
-    this.getClient().index(indexRequest);
-    LOG.fine("Index response " + id);
+    Objects.requireNonNull(id);
+    final String uri = response.getUri();
+    final List<RequestRecord> requests = response.getRequests();
+    if (this.isDeduplicating() && response.getContentHash() != null) {
+      final String duplicateOf =
+          this.resolveContent(uri, response.getContentHash());
+      if (duplicateOf != null && this.isMergeable(response, duplicateOf)) {
+        for (final RequestRecord request : requests) {
+          this.addRequest(duplicateOf, request);
+        }
+        this.rememberDuplicate(id, response, duplicateOf);
+        LOG.fine("Index response " + id + " as duplicate of " + duplicateOf
+            + " with " + requests.size() + " requests");
+        return false;
+      }
+    }
+
+    final NearDuplicateIndex nearDuplicates = this.getNearDuplicateIndex();
+    final Long simHash = response.getSimHash();
+    final String nearDuplicateOf = nearDuplicates == null || simHash == null
+        ? null : nearDuplicates.find(uri, simHash);
+    if (nearDuplicateOf != null) {
+      if (nearDuplicates.getMode() == NearDuplicateIndex.Mode.MERGE
+          && this.isMergeable(response, nearDuplicateOf)) {
+        for (final RequestRecord request : requests) {
+          this.addRequest(nearDuplicateOf, request);
+        }
+        this.rememberDuplicate(id, response, nearDuplicateOf);
+        LOG.fine("Index response " + id + " as near-duplicate of "
+            + nearDuplicateOf + " with " + requests.size() + " requests");
+        return false;
+      }
+      response = response.toBuilder().duplicateOf(nearDuplicateOf).build();
+      LOG.fine("Link response " + id + " to near-duplicate "
+          + nearDuplicateOf);
+    }
+
+    this.index(id, response);
+    if (nearDuplicates != null && simHash != null && nearDuplicateOf == null) {
+      // linked responses are not added so that later ones link to the first
+      nearDuplicates.add(uri, simHash, id);
+    }
+    LOG.fine("Index response " + id + " with " + requests.size()
+        + " requests");
     return true;
   }
 
@@ -208,26 +553,30 @@ implements AutoCloseable {
       final String id, final String uri,
       final Instant originalTime, final Instant instant)
   throws IOException {
-    final SearchRequest search = new SearchRequest.Builder()
-        .query(query -> query
-            .bool(main -> main
-                .must(time -> time.nested(nested -> nested
-                    .path(ResponseRecord.FIELD_REQUESTS)
-                    .scoreMode(ChildScoreMode.Max)
-                    .query(inner -> inner.match(range ->
-                      range.field(ResponseRecord.FIELD_REQUESTS + "."
-                          + RequestRecord.FIELD_DATE)
-                              .query(originalTime.toString())
-                    ))
-                ))
-            )
-        ).build();
-    final HitsMetadata<ResponseRecord> hits =
-      this.getClient().search(search, ResponseRecord.class).hits();
-    if (hits.hits().size() > 0) {
-      final String responseId = hits.hits().get(0).id();
+    return this.indexRevisit(id, null, uri, originalTime, instant);
+  }
+
+  /**
+   * Indexes a revisit record.
+   * @param id The ID of the revisit
+   * @param originalId The ID of the response record of the first visit, or
+   * <code>null</code> if unknown
+   * @param uri The target URI of the revisit
+   * @param originalTime The time of the first visit 
+   * @param instant The time of the revisit
+   * @return Whether the revisit has been indexed (not if no such response
+   * exists)
+   * @throws IOException On reading or writing to the index
+   */
+  public boolean indexRevisit(
+      final String id, final String originalId, final String uri,
+      final Instant originalTime, final Instant instant)
+  throws IOException {
+    final String responseId =
+        this.resolveCapture(originalId, uri, originalTime);
+    if (responseId != null) {
       LOG.fine("Index revisit " + uri + " -> " + responseId);
-      this.indexRequest(responseId, uri, instant);
+      this.addRequest(responseId, new RequestRecord(uri, instant));
       return true;
     } else {
       LOG.warning("Index revisit " + uri + " FAILED");
@@ -247,28 +596,14 @@ implements AutoCloseable {
   public boolean indexRequest(
       final String concurrentId, final String uri, final Instant instant)
   throws IOException {
-    final GetResponse<ResponseRecord> response =
-        this.resolveResponse(concurrentId);
-    if (response == null) {
+    // only the partition is needed, not the response itself
+    final String responseId = this.resolveId(concurrentId);
+    if (this.resolveIndexName(responseId) == null) {
       LOG.fine("No response found for ID = " + concurrentId + " for request");
       return false;
     }
 
-    final String field = ResponseRecord.FIELD_REQUESTS;
-    final Map<String, JsonData> params = Map.of(field, JsonData.of(
-        new RequestRecord(uri, instant), MAPPER));
-    final String scriptSource = 
-        "ctx._source." + field + ".add(params." + field + ");";
-
-    final UpdateRequest<ResponseRecord, ObjectNode> updateRequest =
-        UpdateRequest.of(builder -> builder
-            .index(INDEX_NAME)
-            .id(response.id())
-            .script(script -> script.inline(inline -> inline
-                .lang("painless")
-                .source(scriptSource)
-                .params(params))));
-    this.getClient().update(updateRequest, ResponseRecord.class);
+    this.addRequest(responseId, new RequestRecord(uri, instant));
     LOG.fine("Index request -> " + concurrentId + " at " + instant);
     return true;
   }
@@ -311,8 +646,161 @@ implements AutoCloseable {
   public List<Result> search(
       final Query query, final int maxResults, final int offset)
   throws IOException {
-    final SearchResponse<ResponseRecord> search = this.getClient().search(
-        query.build(maxResults).from(offset).build(), ResponseRecord.class);
+    return this.search(query, maxResults, offset, null, 0).getResults();
+  }
+
+  /**
+   * Searches the index for one page of results.
+   * @param query The query to match responses and requests by
+   * @param pageSize The maximum number of hits on the page
+   * @param offset The offset of the first hit of the page among all hits
+   * (the offset plus the page size must not exceed
+   * {@link #MAX_RESULT_WINDOW})
+   * @param pointInTimeId The ID of the point in time of the index to search,
+   * or <code>null</code> to search the current index
+   * @param keepAliveMillis The time in milliseconds for which to keep the
+   * point in time open after this search (ignored if none)
+   * @return The page
+   * @throws IOException On searching the index
+   * @see #openPointInTime(long)
+   * @see #searchAfter(Query, ResultPage, long)
+   */
+  public ResultPage search(
+      final Query query, final int pageSize, final int offset,
+      final String pointInTimeId, final long keepAliveMillis)
+  throws IOException {
+    final SearchRequest.Builder request =
+        query.build(pageSize, this.isMatchingRequestsInIndex()).from(offset);
+    return this.search(query, request,
+        pageSize, offset, pointInTimeId, keepAliveMillis);
+  }
+
+  /**
+   * Searches the same point in time of the index for the page of results
+   * that follows a page.
+   * <p>
+   * Unlike searching with an offset, this works for pages at any depth.
+   * </p>
+   * @param query The query to match responses and requests by
+   * @param previousPage The previous page, which must have been retrieved
+   * from a point in time of the index and must not be empty
+   * @param keepAliveMillis The time in milliseconds for which to keep the
+   * point in time open after this search
+   * @return The page
+   * @throws IOException On searching the index
+   * @throws IllegalArgumentException If the previous page has no sort values
+   * to search after
+   */
+  public ResultPage searchAfter(
+      final Query query, final ResultPage previousPage,
+      final long keepAliveMillis)
+  throws IOException {
+    final List<String> searchAfter = previousPage.getSearchAfter();
+    if (searchAfter == null) {
+      throw new IllegalArgumentException("no values to search after");
+    }
+    final int pageSize = previousPage.getPageSize();
+    final SearchRequest.Builder request =
+        query.build(pageSize, this.isMatchingRequestsInIndex())
+          .searchAfter(searchAfter);
+    return this.search(query, request,
+        pageSize, previousPage.getOffset() + pageSize,
+        previousPage.getPointInTimeId(), keepAliveMillis);
+  }
+
+  /**
+   * Opens a point in time of the index, which is a view of the index that is
+   * not changed by later writes, for paginating through results.
+   * @param keepAliveMillis The time in milliseconds for which to keep the
+   * point in time open
+   * @return The ID of the point in time
+   * @throws IOException On opening the point in time
+   * @see #closePointInTime(String)
+   */
+  public String openPointInTime(final long keepAliveMillis)
+  throws IOException {
+    return this.openPointInTime(List.of(INDEX_NAME), keepAliveMillis);
+  }
+
+  /**
+   * Opens a point in time of the partitions of the index that can contain
+   * results for a query, which is a view of them that is not changed by
+   * later writes, for paginating through results.
+   * @param query The query
+   * @param keepAliveMillis The time in milliseconds for which to keep the
+   * point in time open
+   * @return The ID of the point in time
+   * @throws IOException On opening the point in time
+   * @see #closePointInTime(String)
+   */
+  public String openPointInTime(final Query query, final long keepAliveMillis)
+  throws IOException {
+    return this.openPointInTime(this.getIndexNames(query), keepAliveMillis);
+  }
+
+  /**
+   * Closes a point in time of the index.
+   * @param pointInTimeId The ID of the point in time
+   * @throws IOException On closing the point in time
+   * @see #openPointInTime(long)
+   */
+  public void closePointInTime(final String pointInTimeId)
+  throws IOException {
+    this.getClient().closePointInTime(request -> request.id(pointInTimeId));
+  }
+
+  /**
+   * Gets the number of documents the index has written (newly indexed or
+   * updated), which changes whenever the indexed responses change.
+   * <p>
+   * The index counts the writes since its shards were started, so the number
+   * can also decrease on a restart of the index.
+   * </p>
+   * @return The number
+   * @throws IOException On requesting the index statistics
+   */
+  public long getNumWrites()
+  throws IOException {
+    final IndicesStatsResponse stats = this.getClient().indices().stats(
+        request -> request.index(INDEX_NAME).metric("indexing"));
+    return stats.all().total().indexing().indexTotal();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Searches the index for one page of results.
+   * @param query The query to match responses and requests by
+   * @param request The search request built from the query
+   * @param pageSize The maximum number of hits on the page
+   * @param offset The offset of the first hit of the page among all hits
+   * @param pointInTimeId The ID of the point in time of the index to search,
+   * or <code>null</code> to search the current index
+   * @param keepAliveMillis The time in milliseconds for which to keep the
+   * point in time open after this search (ignored if none)
+   * @return The page
+   * @throws IOException On searching the index
+   */
+  protected ResultPage search(
+      final Query query, final SearchRequest.Builder request,
+      final int pageSize, final int offset,
+      final String pointInTimeId, final long keepAliveMillis)
+  throws IOException {
+    if (pointInTimeId == null) {
+      request.index(this.getIndexNames(query));
+    } else {
+      // sorting by score and (implicitly) shard and document for search_after
+      request
+        .pit(pit -> pit
+            .id(pointInTimeId)
+            .keepAlive(Index.toTime(keepAliveMillis)))
+        .sort(sort -> sort.score(score -> score.order(SortOrder.Desc)));
+    }
+    request.trackTotalHits(track -> track.enabled(true));
+    final SearchResponse<ResponseRecord> search =
+        this.getClient().search(request.build(), ResponseRecord.class);
     final HitsMetadata<ResponseRecord> hits = search.hits();
 
     final List<Result> results = new ArrayList<>();
@@ -320,12 +808,271 @@ implements AutoCloseable {
       final Result result = Result.fromHit(hit, query.getFrom(), query.getTo());
       if (!result.hasEmptySnippet()) { results.add(result); }
     }
-    return results;
+    final List<String> searchAfter = pointInTimeId == null
+        || hits.hits().isEmpty()
+        ? null : hits.hits().get(hits.hits().size() - 1).sort();
+    final String nextPointInTimeId =
+        search.pitId() == null ? pointInTimeId : search.pitId();
+    return new ResultPage(results, hits.total().value(), offset, pageSize,
+        nextPointInTimeId, searchAfter);
   }
 
-  /////////////////////////////////////////////////////////////////////////////
-  // HELPERS
-  /////////////////////////////////////////////////////////////////////////////
+  /**
+   * Waits until a task of the index has completed.
+   * @param task The ID of the task
+   * @return The status of the completed task
+   * @throws IOException If the task failed or on requesting its status
+   */
+  protected TaskStatus waitForTask(final String task)
+  throws IOException {
+    while (true) {
+      final GetTasksResponse response =
+          this.getClient().tasks().get(request -> request.taskId(task));
+      if (response.error() != null) {
+        throw new IOException(
+            "Task " + task + " failed: " + response.error().reason());
+      }
+      final TaskStatus status = response.completed()
+          ? response.response() : response.task().status();
+      if (response.completed()) { return status; }
+
+      if (status != null) {
+        LOG.info("Task " + task + ": " + (status.created() + status.updated())
+            + " of " + status.total() + " documents");
+      }
+      try {
+        Thread.sleep(TASK_CHECK_INTERVAL_MILLIS);
+      } catch (final InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while waiting for task " + task);
+      }
+    }
+  }
+
+  private String openPointInTime(
+      final List<String> indexNames, final long keepAliveMillis)
+  throws IOException {
+    return this.getClient().openPointInTime(request -> request
+        .index(indexNames)
+        .keepAlive(Index.toTime(keepAliveMillis))).id();
+  }
+
+  private static Time toTime(final long millis) {
+    return Time.of(time -> time.time(millis + "ms"));
+  }
+
+  /**
+   * Writes a response record to the index.
+   * @param id The ID of the response
+   * @param response The response record
+   * @throws IOException On writing to the index
+   */
+  protected void index(final String id, final ResponseRecord response)
+  throws IOException {
+    final String indexName = this.getIndexName(response);
+    final IndexRequest<ResponseRecord> indexRequest = IndexRequest.of(
+        builder -> builder
+          .index(indexName)
+          .id(id)
+          .document(response));
+    this.getClient().index(indexRequest);
+    this.rememberCapture(id, indexName, response);
+  }
+
+  /**
+   * Remembers the ID of an indexed response for resolving revisits.
+   * @param id The ID of the response
+   * @param indexName The name of the index (partition) the response was
+   * written to
+   * @param response The response record
+   * @see #resolveCapture(String, String, Instant)
+   * @see #resolveIndexName(String)
+   */
+  protected void rememberCapture(
+      final String id, final String indexName,
+      final ResponseRecord response) {
+    this.recentCaptures.put(id, id);
+    this.recentIndexNames.put(id, indexName);
+    if (response.getCapture() != null) {
+      this.recentCaptures.put(response.getCapture(), id);
+    }
+    if (response.getContentHash() != null) {
+      this.recentContents.put(Index.toContentKey(
+          response.getUri(), response.getContentHash()), id);
+    }
+  }
+
+  /**
+   * Remembers that a response was not indexed as it duplicates another, so
+   * that requests and revisits for it are added to the other response.
+   * @param id The ID of the duplicate response
+   * @param response The duplicate response record
+   * @param duplicateOf The ID of the indexed response
+   * @see #resolveId(String)
+   */
+  protected void rememberDuplicate(
+      final String id, final ResponseRecord response,
+      final String duplicateOf) {
+    this.recentCaptures.put(id, duplicateOf);
+    if (response.getCapture() != null) {
+      this.recentCaptures.put(response.getCapture(), duplicateOf);
+    }
+  }
+
+  /**
+   * Gets the ID of the indexed response for the ID of a response, which
+   * differs if the latter was a recent duplicate.
+   * @param id The ID of the response
+   * @return The ID of the indexed response
+   * @see #isDeduplicating()
+   */
+  protected String resolveId(final String id) {
+    return this.recentCaptures.getOrDefault(id, id);
+  }
+
+  /**
+   * Gets the ID of an indexed response for a URI with specific content.
+   * <p>
+   * Looks up recently indexed responses first, and then matches the URI and
+   * content hash exactly in the index.
+   * </p>
+   * @param uri The target URI of the response
+   * @param contentHash The hash of the response's title and content
+   * @return The ID or <code>null</code> if no such response was indexed
+   * @throws IOException On searching the index
+   * @see ResponseRecord#toContentHash(String, String)
+   */
+  protected String resolveContent(final String uri, final String contentHash)
+  throws IOException {
+    final String contentKey = Index.toContentKey(uri, contentHash);
+    final String cachedId = this.recentContents.get(contentKey);
+    if (cachedId != null) { return cachedId; }
+
+    final SearchRequest search = SearchRequest.of(builder -> builder
+        .index(INDEX_NAME)
+        .size(1)
+        .source(source -> source.fetch(false))
+        .query(query -> query.bool(bool -> bool
+            .filter(byUri -> byUri.term(term -> term
+                .field(ResponseRecord.FIELD_URI)
+                .value(uri)))
+            .filter(byHash -> byHash.term(term -> term
+                .field(ResponseRecord.FIELD_CONTENT_HASH)
+                .value(contentHash))))));
+    final List<Hit<ResponseRecord>> hits =
+        this.getClient().search(search, ResponseRecord.class).hits().hits();
+    if (hits.isEmpty()) { return null; }
+    final String responseId = hits.get(0).id();
+    this.recentContents.put(contentKey, responseId);
+    this.recentIndexNames.put(responseId, hits.get(0).index());
+    return responseId;
+  }
+
+  private static String toContentKey(
+      final String uri, final String contentHash) {
+    return uri + " " + contentHash;
+  }
+
+  /**
+   * Gets the ID of the indexed response that was captured for a URI at a
+   * specific time.
+   * <p>
+   * Looks up recently indexed responses first, and then matches the response
+   * ID, the capture key, or (for responses indexed without capture key) the
+   * URI and request time exactly in the index.
+   * </p>
+   * @param id The ID of the response, or <code>null</code> if unknown
+   * @param uri The target URI of the response
+   * @param time The time the response was captured
+   * @return The ID or <code>null</code> if no such response was indexed
+   * @throws IOException On searching the index
+   */
+  protected String resolveCapture(
+      final String id, final String uri, final Instant time)
+  throws IOException {
+    final String captureKey = ResponseRecord.toCaptureKey(uri, time);
+    if (id != null) {
+      final String cachedId = this.recentCaptures.get(id);
+      if (cachedId != null) { return cachedId; }
+    }
+    final String cachedId = this.recentCaptures.get(captureKey);
+    if (cachedId != null) { return cachedId; }
+
+    final SearchRequest search = SearchRequest.of(builder -> builder
+        .index(INDEX_NAME)
+        .size(1)
+        .source(source -> source.fetch(false))
+        .query(query -> query.bool(bool -> {
+          if (id != null) {
+            bool.should(byId -> byId.ids(ids -> ids.values(id)));
+          }
+          return bool
+            .should(byKey -> byKey.term(term -> term
+                .field(ResponseRecord.FIELD_CAPTURE)
+                .value(captureKey)))
+            .should(legacy -> legacy.bool(legacyBool -> legacyBool
+                .filter(byUri -> byUri.term(term -> term
+                    .field(ResponseRecord.FIELD_URI)
+                    .value(uri)))
+                .filter(byTime -> byTime.nested(nested -> nested
+                    .path(ResponseRecord.FIELD_REQUESTS)
+                    .scoreMode(ChildScoreMode.None)
+                    .query(inner -> inner.term(term -> term
+                        .field(ResponseRecord.FIELD_REQUESTS + "."
+                            + RequestRecord.FIELD_DATE)
+                        .value(time.truncatedTo(ChronoUnit.SECONDS)
+                            .toString())))))))
+            .minimumShouldMatch("1");
+        })));
+    final List<Hit<ResponseRecord>> hits =
+        this.getClient().search(search, ResponseRecord.class).hits().hits();
+    if (hits.isEmpty()) { return null; }
+    final String responseId = hits.get(0).id();
+    this.recentCaptures.put(captureKey, responseId);
+    this.recentIndexNames.put(responseId, hits.get(0).index());
+    return responseId;
+  }
+
+  /**
+   * Appends a request record to the requests of an indexed response.
+   * @param responseId The ID of the response
+   * @param request The request record
+   * @throws IOException On writing to the index or if no such response
+   * exists
+   */
+  protected void addRequest(
+      final String responseId, final RequestRecord request)
+  throws IOException {
+    final String indexName = this.resolveIndexName(responseId);
+    if (indexName == null) {
+      throw new IOException("No response with ID " + responseId);
+    }
+    final UpdateRequest<ResponseRecord, ObjectNode> updateRequest =
+        UpdateRequest.of(builder -> builder
+            .index(indexName)
+            .id(responseId)
+            .script(Index.getAddRequestScript(request)));
+    this.getClient().update(updateRequest, ResponseRecord.class);
+  }
+
+  /**
+   * Gets the script that appends a request record to the requests of a
+   * response.
+   * @param request The request record
+   * @return The script
+   */
+  protected static Script getAddRequestScript(final RequestRecord request) {
+    final String field = ResponseRecord.FIELD_REQUESTS;
+    final Map<String, JsonData> params =
+        Map.of(field, JsonData.of(request, MAPPER));
+    final String scriptSource = 
+        "ctx._source." + field + ".add(params." + field + ");";
+    return Script.of(script -> script.inline(inline -> inline
+        .lang("painless")
+        .source(scriptSource)
+        .params(params)));
+  }
 
   /**
    * Gets the response with the specified ID.
@@ -335,8 +1082,10 @@ implements AutoCloseable {
    */
   protected GetResponse<ResponseRecord> resolveResponse(final String id)
   throws IOException {
+    final String indexName = this.resolveIndexName(id);
+    if (indexName == null) { return null; }
     final GetResponse<ResponseRecord> getResponse = this.getClient().get(
-        get -> get.index(INDEX_NAME).id(id),
+        get -> get.index(indexName).id(id),
         ResponseRecord.class);
     if (getResponse.found()) {
       return getResponse;
@@ -344,7 +1093,289 @@ implements AutoCloseable {
       return null;
     }
   }
-  
+
+
+  /**
+   * Gets the name of the index (partition) that contains the response with
+   * the specified ID.
+   * <p>
+   * Looks up recently indexed or resolved responses first, and then searches
+   * the index for the ID.
+   * </p>
+   * @param id The response ID
+   * @return The name or <code>null</code> if no such response was indexed
+   * @throws IOException On searching the index
+   */
+  protected String resolveIndexName(final String id)
+  throws IOException {
+    final String cachedIndexName = this.recentIndexNames.get(id);
+    if (cachedIndexName != null) { return cachedIndexName; }
+
+    final SearchRequest search = SearchRequest.of(builder -> builder
+        .index(INDEX_NAME)
+        .size(1)
+        .source(source -> source.fetch(false))
+        .query(query -> query.ids(ids -> ids.values(id))));
+    final List<Hit<ResponseRecord>> hits =
+        this.getClient().search(search, ResponseRecord.class).hits().hits();
+    if (hits.isEmpty()) { return null; }
+    final String indexName = hits.get(0).index();
+    this.recentIndexNames.put(id, indexName);
+    return indexName;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // PARTITIONING
+
+  /**
+   * Gets the name of the index (partition) to write a new response to.
+   * <p>
+   * This is the partition for the month of the response's capture or first
+   * request, whichever is earlier (or the current month if it has neither),
+   * which is created if it does not exist yet. If the index was initialized
+   * before the index was partitioned, this is always {@link #INDEX_NAME}.
+   * </p>
+   * @param response The response record
+   * @return The name
+   * @throws IOException On requesting or creating the partitions
+   */
+  protected String getIndexName(final ResponseRecord response)
+  throws IOException {
+    final Instant firstTime = Index.getFirstTime(response);
+    final YearMonth month =
+        Index.toMonth(firstTime == null ? Instant.now() : firstTime);
+
+    synchronized (this.partitions) {
+      if (this.indexNamesLoadedMillis == 0) { this.loadIndexNames(); }
+      if (this.unpartitionedIndexNames.contains(INDEX_NAME)) {
+        return INDEX_NAME;
+      }
+      String partition = this.partitions.get(month);
+      if (partition == null) {
+        // another client may have created it
+        this.loadIndexNames();
+        partition = this.partitions.get(month);
+      }
+      if (partition == null) {
+        partition = this.createPartition(month);
+        this.partitions.put(month, partition);
+      }
+      return partition;
+    }
+  }
+
+  /**
+   * Gets the names of the indices (partitions) to search for a query.
+   * <p>
+   * Requests are only added to a response in the same or a later partition
+   * than the response's capture or first request, so partitions of months
+   * after the latest time of the query can not contain matching responses
+   * and are skipped (allowing for requests joined late). Indices that are
+   * not partitions are always searched.
+   * </p>
+   * @param query The query
+   * @return The names
+   * @throws IOException On requesting the partitions
+   */
+  protected List<String> getIndexNames(final Query query)
+  throws IOException {
+    final Instant to = query.getTo();
+    if (to == null) { return List.of(INDEX_NAME); }
+
+    synchronized (this.partitions) {
+      if (System.currentTimeMillis() - this.indexNamesLoadedMillis
+          > INDEX_NAMES_MAX_AGE_MILLIS) {
+        this.loadIndexNames();
+      }
+      final Collection<String> searched = this.partitions.headMap(
+          Index.toMonth(to.plusMillis(MAX_REQUEST_SKEW_MILLIS)), true)
+          .values();
+      if (searched.size() == this.partitions.size()
+          || searched.size() + this.unpartitionedIndexNames.size() == 0) {
+        // nothing to skip, or nothing to search (then the filter is cheap)
+        return List.of(INDEX_NAME);
+      }
+      final List<String> indexNames =
+          new ArrayList<>(this.unpartitionedIndexNames);
+      indexNames.addAll(searched);
+      return indexNames;
+    }
+  }
+
+  /**
+   * Requests the names of the indices behind {@link #INDEX_NAME} and sorts
+   * them into partitions and other indices.
+   * <p>
+   * Must be called while synchronized on the partitions.
+   * </p>
+   * @throws IOException On requesting the names
+   */
+  protected void loadIndexNames()
+  throws IOException {
+    final Set<String> indexNames = this.requestIndexNames();
+    this.partitions.clear();
+    this.unpartitionedIndexNames.clear();
+    for (final String indexName : indexNames) {
+      final Matcher matcher = PARTITION_NAME_PATTERN.matcher(indexName);
+      if (matcher.matches()) {
+        this.partitions.put(YearMonth.parse(matcher.group(1)), indexName);
+      } else {
+        this.unpartitionedIndexNames.add(indexName);
+      }
+    }
+    this.indexNamesLoadedMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Requests the names of the indices behind {@link #INDEX_NAME}.
+   * @return The names (empty if the index does not exist)
+   * @throws IOException On requesting the names
+   */
+  protected Set<String> requestIndexNames()
+  throws IOException {
+    try {
+      return this.getClient().indices().get(
+          request -> request.index(INDEX_NAME)).result().keySet();
+    } catch (final ElasticsearchException exception) {
+      if (exception.status() != 404) { throw exception; }
+      return Set.of();
+    }
+  }
+
+  /**
+   * Checks whether a response can be merged into an indexed response, which
+   * is the case if the latter's partition is not for a later month than the
+   * response's capture or first request.
+   * @param response The response record to merge
+   * @param targetId The ID of the indexed response
+   * @return Whether the response can be merged
+   * @throws IOException On requesting the partition of the indexed response
+   * @see #getIndexNames(Query)
+   */
+  protected boolean isMergeable(
+      final ResponseRecord response, final String targetId)
+  throws IOException {
+    final Instant firstTime = Index.getFirstTime(response);
+    final String indexName = this.resolveIndexName(targetId);
+    if (firstTime == null || indexName == null) { return true; }
+    final Matcher matcher = PARTITION_NAME_PATTERN.matcher(indexName);
+    // indices that are not partitions are always searched
+    if (!matcher.matches()) { return true; }
+    if (YearMonth.parse(matcher.group(1)).isAfter(Index.toMonth(firstTime))) {
+      LOG.fine("Not merging response " + response.getCapture()
+          + " into " + targetId + " of later partition " + indexName);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Creates the partition of the index for a month.
+   * <p>
+   * The partition gets its mapping from the index template, which is stored
+   * with the default mapping if it does not exist (for indices migrated
+   * before the index was partitioned).
+   * </p>
+   * @param month The month
+   * @return The name of the partition
+   * @throws IOException On creating the partition
+   * @see ResponseRecord#DEFAULT_CONTENT_OFFSETS
+   */
+  protected String createPartition(final YearMonth month)
+  throws IOException {
+    final ElasticsearchIndicesClient indices = this.getClient().indices();
+    if (!indices.existsIndexTemplate(
+        request -> request.name(INDEX_NAME)).value()) {
+      this.putIndexTemplate(ResponseRecord.DEFAULT_CONTENT_OFFSETS);
+    }
+
+    final String partition = INDEX_NAME + "-" + month;
+    try {
+      indices.create(request -> request
+          .index(partition)
+          .aliases(INDEX_NAME, alias -> alias));
+      LOG.info("Created partition " + partition);
+    } catch (final ElasticsearchException exception) {
+      // another client may have created it in the meantime
+      if (!"resource_already_exists_exception".equals(
+          exception.error().type())) {
+        throw exception;
+      }
+    }
+    return partition;
+  }
+
+  /**
+   * Stores the template for the partitions of the index.
+   * @param contentOffsets How to store the offsets of the terms in the
+   * content for highlighting
+   * @throws IOException On storing the template
+   */
+  protected void putIndexTemplate(
+      final ResponseRecord.ContentOffsets contentOffsets)
+  throws IOException {
+    this.getClient().indices().putIndexTemplate(request -> request
+        .name(INDEX_NAME)
+        .indexPatterns(INDEX_NAME + "-*")
+        .template(template -> template
+            .mappings(mappings -> mappings
+                .properties(ResponseRecord.getTypeProperties(
+                    contentOffsets)))));
+  }
+
+  /**
+   * Gets the script that moves a response to the partition of the month of
+   * its capture or first request while copying it to new partitions.
+   * @param suffix The suffix of the names of the new partitions
+   * @return The script
+   * @see #migrate(ResponseRecord.ContentOffsets)
+   */
+  protected static Script getPartitionScript(final String suffix) {
+    final String field = ResponseRecord.FIELD_REQUESTS;
+    final String date = RequestRecord.FIELD_DATE;
+    // dates are ISO-8601 strings, which sort like the times and start with
+    // the month
+    final String capture = ResponseRecord.FIELD_CAPTURE;
+    final String scriptSource = "String first = null; "
+        + "if (ctx._source." + capture + " != null) { "
+        + "String key = ctx._source." + capture + "; "
+        + "first = key.substring(key.lastIndexOf(' ') + 1); } "
+        + "if (ctx._source." + field + " != null) { "
+        + "for (def request : ctx._source." + field + ") { "
+        + "if (first == null || request." + date + ".compareTo(first) < 0) { "
+        + "first = request." + date + "; } } } "
+        + "if (first != null) { "
+        + "ctx._index = params.prefix + first.substring(0, 7) + params.suffix; "
+        + "}";
+    final Map<String, JsonData> params = Map.of(
+        "prefix", JsonData.of(INDEX_NAME + "-"),
+        "suffix", JsonData.of(suffix));
+    return Script.of(script -> script.inline(inline -> inline
+        .lang("painless")
+        .source(scriptSource)
+        .params(params)));
+  }
+
+  /**
+   * Gets the earliest time of the capture or a request of a response.
+   * @param response The response record
+   * @return The time or <code>null</code> if the response has neither
+   * capture key nor requests
+   */
+  protected static Instant getFirstTime(final ResponseRecord response) {
+    Instant firstTime = response.getCapture() == null
+        ? null : ResponseRecord.toCaptureTime(response.getCapture());
+    for (final RequestRecord request : response.getRequests()) {
+      if (firstTime == null || request.getDate().isBefore(firstTime)) {
+        firstTime = request.getDate();
+      }
+    }
+    return firstTime;
+  }
+
+  private static YearMonth toMonth(final Instant time) {
+    return YearMonth.from(time.atOffset(ZoneOffset.UTC));
+  }
 
   /////////////////////////////////////////////////////////////////////////////
   // JSON BINDINGS
@@ -414,11 +1445,32 @@ implements AutoCloseable {
   // MAIN
   /////////////////////////////////////////////////////////////////////////////
   
+  /**
+   * Initializes the index or migrates it to a new mapping.
+   * @param args [port [initialize|migrate [none|postings|term_vectors]]]
+   * @throws IOException On initializing or migrating the index
+   * @see #initialize(ResponseRecord.ContentOffsets)
+   * @see #migrate(ResponseRecord.ContentOffsets)
+   */
   public static void main(final String[] args) throws IOException {
     final int port =
         args.length == 0 ? DEFAULT_PORT : Integer.parseInt(args[0]);
+    final String command = args.length > 1 ? args[1] : "initialize";
+    final ResponseRecord.ContentOffsets contentOffsets = args.length > 2
+        ? ResponseRecord.ContentOffsets.valueOf(
+            args[2].toUpperCase(Locale.ROOT))
+        : ResponseRecord.DEFAULT_CONTENT_OFFSETS;
     try (final Index index = new Index(port)) {
-      index.initialize();
+      switch (command) {
+      case "initialize":
+        index.initialize(contentOffsets);
+        break;
+      case "migrate":
+        index.migrate(contentOffsets);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown command: " + command);
+      }
     }
   }
 
@@ -0,0 +1,331 @@
+package de.webis.wasp.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * In-memory index of the {@link SimHash} fingerprints of indexed responses
+ * for finding near-duplicate responses for the same URI.
+ * <p>
+ * A fingerprint is split into one more band than the maximum distance, so
+ * that (by the pigeonhole principle) a fingerprint within that distance
+ * matches at least one band exactly. For each band, a hash table maps the
+ * URI and the band's bits to a chain of entries. All data is kept in
+ * primitive arrays: per entry, the fingerprint, the URI hash, one chain link
+ * per band, and the bytes of the response ID, so that tens of millions of
+ * entries fit into a few gigabytes of heap without creating objects per
+ * entry.
+ * </p><p>
+ * Entries are only added, never removed. The index is not persisted, so
+ * after a restart only responses indexed since then are found.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class NearDuplicateIndex {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum number of differing bits between fingerprints of
+   * near-duplicates.
+   */
+  public static final int DEFAULT_MAX_DISTANCE = 3;
+
+  /**
+   * Default number of entries for which space is allocated initially.
+   */
+  public static final int DEFAULT_INITIAL_CAPACITY = 1 << 16;
+
+  private static final int AVERAGE_ID_LENGTH = 48;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final int maxDistance;
+
+  private final Mode mode;
+
+  private final int[] bandShifts;
+
+  private final long[] bandMasks;
+
+  private int size;
+
+  private long[] fingerprints;
+
+  private long[] uriHashes;
+
+  private int[] idEnds;
+
+  private byte[] idBytes;
+
+  private int[][] heads;
+
+  private int[][] links;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new empty index with the default initial capacity.
+   * @param maxDistance The maximum number of differing bits between
+   * fingerprints of near-duplicates
+   * @param mode How near-duplicates are indexed
+   */
+  public NearDuplicateIndex(final int maxDistance, final Mode mode) {
+    this(maxDistance, mode, DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates a new empty index.
+   * @param maxDistance The maximum number of differing bits between
+   * fingerprints of near-duplicates
+   * @param mode How near-duplicates are indexed
+   * @param initialCapacity The number of entries for which space is allocated
+   * initially
+   */
+  public NearDuplicateIndex(
+      final int maxDistance, final Mode mode, final int initialCapacity) {
+    if (maxDistance < 0 || maxDistance >= SimHash.NUM_BITS / 4) {
+      throw new IllegalArgumentException(
+          "Maximum distance must be in [0, " + (SimHash.NUM_BITS / 4) + "): "
+          + maxDistance);
+    }
+    this.maxDistance = maxDistance;
+    this.mode = Objects.requireNonNull(mode);
+    final int numBands = maxDistance + 1;
+    this.bandShifts = new int[numBands];
+    this.bandMasks = new long[numBands];
+    int shift = 0;
+    for (int b = 0; b < numBands; ++b) {
+      final int bits = (SimHash.NUM_BITS - shift) / (numBands - b);
+      this.bandShifts[b] = shift;
+      this.bandMasks[b] = (1L << bits) - 1;
+      shift += bits;
+    }
+
+    final int capacity = Math.max(16, initialCapacity);
+    this.size = 0;
+    this.fingerprints = new long[capacity];
+    this.uriHashes = new long[capacity];
+    this.idEnds = new int[capacity];
+    this.idBytes = new byte[(int) Math.min(
+        (long) capacity * AVERAGE_ID_LENGTH, Integer.MAX_VALUE - 8)];
+    this.links = new int[numBands][capacity];
+    this.heads = new int[numBands][Integer.highestOneBit(capacity - 1) << 1];
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the maximum number of differing bits between fingerprints of
+   * near-duplicates.
+   * @return The distance
+   */
+  public int getMaxDistance() {
+    return this.maxDistance;
+  }
+
+  /**
+   * Gets how near-duplicates are indexed.
+   * @return The mode
+   */
+  public Mode getMode() {
+    return this.mode;
+  }
+
+  /**
+   * Gets the number of entries in this index.
+   * @return The number
+   */
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * Gets the number of bytes allocated for the entries and tables.
+   * @return The number of bytes
+   */
+  public synchronized long getAllocatedBytes() {
+    long bytes = (long) this.fingerprints.length * Long.BYTES
+        + (long) this.uriHashes.length * Long.BYTES
+        + (long) this.idEnds.length * Integer.BYTES
+        + this.idBytes.length;
+    for (int b = 0; b < this.heads.length; ++b) {
+      bytes += (long) this.heads[b].length * Integer.BYTES
+          + (long) this.links[b].length * Integer.BYTES;
+    }
+    return bytes;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Finds the response for the same URI whose fingerprint is closest to a
+   * fingerprint and within the maximum distance.
+   * @param uri The target URI of the response
+   * @param fingerprint The fingerprint
+   * @return The ID of the response or <code>null</code> if there is none
+   */
+  public synchronized String find(final String uri, final long fingerprint) {
+    final long uriHash = NearDuplicateIndex.hash(uri);
+    int best = -1;
+    int bestDistance = this.getMaxDistance() + 1;
+    for (int b = 0; b < this.heads.length && bestDistance > 0; ++b) {
+      final long bandBits = this.getBandBits(b, fingerprint);
+      int entry = this.heads[b][this.getBucket(b, uriHash, bandBits)];
+      while (entry != 0) {
+        final int e = entry - 1;
+        if (this.uriHashes[e] == uriHash
+            && this.getBandBits(b, this.fingerprints[e]) == bandBits) {
+          final int distance =
+              SimHash.distance(this.fingerprints[e], fingerprint);
+          if (distance < bestDistance
+              || (distance == bestDistance && e < best)) {
+            best = e;
+            bestDistance = distance;
+          }
+        }
+        entry = this.links[b][e];
+      }
+    }
+    return best < 0 ? null : this.getId(best);
+  }
+
+  /**
+   * Adds the fingerprint of a response.
+   * @param uri The target URI of the response
+   * @param fingerprint The fingerprint
+   * @param id The ID of the response
+   */
+  public synchronized void add(
+      final String uri, final long fingerprint, final String id) {
+    final byte[] id8 = id.getBytes(StandardCharsets.UTF_8);
+    if (this.size == this.fingerprints.length) {
+      this.grow();
+    }
+    final int idStart = this.size == 0 ? 0 : this.idEnds[this.size - 1];
+    if (idStart + id8.length > this.idBytes.length) {
+      this.idBytes = Arrays.copyOf(this.idBytes, NearDuplicateIndex
+          .getGrownLength(this.idBytes.length, idStart + id8.length));
+    }
+    System.arraycopy(id8, 0, this.idBytes, idStart, id8.length);
+
+    final int e = this.size;
+    this.fingerprints[e] = fingerprint;
+    this.uriHashes[e] = NearDuplicateIndex.hash(uri);
+    this.idEnds[e] = idStart + id8.length;
+    ++this.size;
+    if (this.size > this.heads[0].length) { // keep chains short
+      this.rehash(this.heads[0].length * 2);
+    } else {
+      this.link(e);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private long getBandBits(final int band, final long fingerprint) {
+    return (fingerprint >>> this.bandShifts[band]) & this.bandMasks[band];
+  }
+
+  private int getBucket(
+      final int band, final long uriHash, final long bandBits) {
+    final long hash = SimHash.mix(
+        uriHash ^ (bandBits + 0x9e3779b97f4a7c15L * (band + 1)));
+    return (int) hash & (this.heads[band].length - 1);
+  }
+
+  private String getId(final int entry) {
+    final int start = entry == 0 ? 0 : this.idEnds[entry - 1];
+    return new String(this.idBytes, start, this.idEnds[entry] - start,
+        StandardCharsets.UTF_8);
+  }
+
+  private void link(final int entry) {
+    final long fingerprint = this.fingerprints[entry];
+    final long uriHash = this.uriHashes[entry];
+    for (int b = 0; b < this.heads.length; ++b) {
+      final int bucket =
+          this.getBucket(b, uriHash, this.getBandBits(b, fingerprint));
+      this.links[b][entry] = this.heads[b][bucket];
+      this.heads[b][bucket] = entry + 1;
+    }
+  }
+
+  private void grow() {
+    final int capacity =
+        NearDuplicateIndex.getGrownLength(this.fingerprints.length, 0);
+    this.fingerprints = Arrays.copyOf(this.fingerprints, capacity);
+    this.uriHashes = Arrays.copyOf(this.uriHashes, capacity);
+    this.idEnds = Arrays.copyOf(this.idEnds, capacity);
+    for (int b = 0; b < this.links.length; ++b) {
+      this.links[b] = Arrays.copyOf(this.links[b], capacity);
+    }
+  }
+
+  private void rehash(final int tableSize) {
+    for (int b = 0; b < this.heads.length; ++b) {
+      this.heads[b] = new int[tableSize];
+    }
+    for (int e = 0; e < this.size; ++e) {
+      this.link(e);
+    }
+  }
+
+  private static int getGrownLength(final int length, final int minLength) {
+    final long grown = Math.max((long) length * 3 / 2, minLength);
+    return (int) Math.min(grown, Integer.MAX_VALUE - 8);
+  }
+
+  private static long hash(final String text) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < text.length(); ++i) {
+      hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+    }
+    return SimHash.mix(hash);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * How responses that are near-duplicates of an indexed response are
+   * indexed.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  public static enum Mode {
+
+    /**
+     * Add the requests of the response to the indexed response.
+     */
+    MERGE,
+
+    /**
+     * Index the response with a pointer to the indexed response.
+     * @see ResponseRecord#getDuplicateOf()
+     */
+    LINK;
+
+  }
+
+}
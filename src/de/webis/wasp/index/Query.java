@@ -1,13 +1,18 @@
 package de.webis.wasp.index;
 
 import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
+import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.query_dsl.ChildScoreMode;
 import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.search.Highlight;
 import co.elastic.clients.elasticsearch.core.search.HighlightField;
+import co.elastic.clients.elasticsearch.core.search.InnerHits;
 
 /**
  * A query to the index with optional time constraints
@@ -32,13 +37,75 @@ public class Query {
   protected static final String FIELD_DATE_COMPLETE =
       ResponseRecord.FIELD_REQUESTS + "." + RequestRecord.FIELD_DATE;
 
+  /**
+   * Pattern for sequences of white space in query terms.
+   */
+  protected static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+  /**
+   * Fields of the responses that are retrieved for displaying results, so
+   * that their content is not transferred.
+   */
+  protected static final List<String> SOURCE_FIELDS = List.of(
+      ResponseRecord.FIELD_URI, ResponseRecord.FIELD_TITLE,
+      ResponseRecord.FIELD_REQUESTS);
+
+  /**
+   * Fields of the responses that are retrieved for displaying results when
+   * the matching request is returned as inner hit.
+   */
+  protected static final List<String> SOURCE_FIELDS_WITHOUT_REQUESTS =
+      List.of(ResponseRecord.FIELD_URI, ResponseRecord.FIELD_TITLE);
+
+  /**
+   * Name of the inner hit that contains the latest request of a response
+   * that matches the time constraints.
+   */
+  public static final String INNER_HITS_NAME = "matched_request";
+
+  /**
+   * Inner hit for the latest request of a response that matches the time
+   * constraints.
+   */
+  protected static final InnerHits INNER_HITS =
+      InnerHits.of(innerHits -> innerHits
+          .name(INNER_HITS_NAME)
+          .size(1)
+          .sort(sort -> sort.field(field -> field
+              .field(FIELD_DATE_COMPLETE)
+              .order(SortOrder.Desc))));
+
+  /**
+   * Maximum number of characters of a snippet fragment.
+   */
+  public static final int HIGHLIGHT_FRAGMENT_SIZE = 150;
+
+  /**
+   * Maximum number of fragments of a snippet.
+   */
+  public static final int HIGHLIGHT_NUM_FRAGMENTS = 3;
+
+  /**
+   * Number of characters of the content that are analyzed for a snippet, so
+   * that the highlighting cost per hit is bounded for long contents.
+   */
+  public static final int HIGHLIGHT_MAX_ANALYZED_OFFSET = 100000;
+
   /**
    * Snippet generator.
+   * <p>
+   * For hits that match only by their title, the snippet is the start of the
+   * content (up to one fragment), so that every hit with content has one.
+   * </p>
    */
   protected static final Highlight HIGHLIGHT =
       Highlight.of(highlight -> highlight
           .fields(ResponseRecord.FIELD_CONTENT, HighlightField.of(field -> field
-              .type("unified"))));
+              .type("unified")
+              .fragmentSize(HIGHLIGHT_FRAGMENT_SIZE)
+              .numberOfFragments(HIGHLIGHT_NUM_FRAGMENTS)
+              .noMatchSize(HIGHLIGHT_FRAGMENT_SIZE)
+              .maxAnalyzedOffset(HIGHLIGHT_MAX_ANALYZED_OFFSET))));
   
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
@@ -100,6 +167,22 @@ public class Query {
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
   /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets an equivalent query in a normal form, so that queries that differ
+   * only in case and white space of their terms are equal.
+   * @return The normalized query
+   */
+  public Query normalize() {
+    final String normalizedTerms = WHITE_SPACE.matcher(this.getTerms())
+        .replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    return new Query(normalizedTerms, this.getFrom(), this.getTo());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.getTerms(), this.getFrom(), this.getTo());
+  }
   
   @Override
   public boolean equals(final Object obj) {
@@ -128,39 +211,76 @@ public class Query {
   }
 
   /**
-   * Creates a search request from this query.
+   * Creates a search request from this query that matches the requests on
+   * the client side.
    * @return A search request builder that is configured accordingly
+   * @see #build(boolean)
    */
   public SearchRequest.Builder build() {
+    return this.build(false);
+  }
+
+  /**
+   * Creates a search request from this query.
+   * <p>
+   * The query terms must match the title or content of a response, and only
+   * these text matches are scored. The time constraints are a filter, which
+   * Elasticsearch does not score and can cache across queries. Responses
+   * without content (like revisits) are filtered out, as no snippet can be
+   * shown for them.
+   * </p>
+   * @param matchingRequest Whether to let the index return the latest
+   * request of each response that matches the time constraints (as
+   * {@link #INNER_HITS_NAME} inner hit) instead of all its requests
+   * @return A search request builder that is configured accordingly
+   * @see Result#fromHit(co.elastic.clients.elasticsearch.core.search.Hit,
+   * Instant, Instant)
+   */
+  public SearchRequest.Builder build(final boolean matchingRequest) {
     final Instant from = this.getFrom();
     final Instant to = this.getTo();
     final String terms = this.getTerms();
+    final boolean filteringTime =
+        matchingRequest || from != null || to != null;
 
     return new SearchRequest.Builder()
         .query(query -> query
-            .bool(main -> main
-                .must(time -> time.nested(nested -> nested
+            .bool(main -> {
+              main.must(text -> text.bool(bool -> bool
+                  .should(should -> should
+                      .match(match -> match
+                          .field(ResponseRecord.FIELD_CONTENT)
+                          .query(terms)
+                          .operator(Operator.And)))
+                  .should(should -> should
+                      .match(match -> match
+                          .field(ResponseRecord.FIELD_TITLE)
+                          .query(terms)
+                          .operator(Operator.And)
+                          .boost(TITLE_BOOST)))
+                  .minimumShouldMatch("1")));
+              main.filter(content -> content.exists(exists -> exists
+                  .field(ResponseRecord.FIELD_CONTENT)));
+              if (filteringTime) {
+                main.filter(time -> time.nested(nested -> {
+                  nested
                     .path(ResponseRecord.FIELD_REQUESTS)
-                    .scoreMode(ChildScoreMode.Max)
+                    .scoreMode(ChildScoreMode.None)
                     .query(inner -> inner.range(range -> {
                       range.field(FIELD_DATE_COMPLETE);
                       if (from != null) { range.from(from.toString()); }
                       if (to != null) { range.to(to.toString()); }
                       return range;
-                    }))))
-                .should(term -> term.bool(bool -> bool
-                    .should(should -> should
-                        .match(match -> match
-                            .field(ResponseRecord.FIELD_CONTENT)
-                            .query(terms)
-                            .operator(Operator.And)))
-                    .should(should -> should
-                        .match(match -> match
-                            .field(ResponseRecord.FIELD_TITLE)
-                            .query(terms)
-                            .operator(Operator.And)
-                            .boost(TITLE_BOOST))))
-                    )))
+                    }));
+                  if (matchingRequest) { nested.innerHits(INNER_HITS); }
+                  return nested;
+                }));
+              }
+              return main;
+            }))
+        .source(source -> source.filter(filter -> filter
+            .includes(matchingRequest
+                ? SOURCE_FIELDS_WITHOUT_REQUESTS : SOURCE_FIELDS)))
         .highlight(HIGHLIGHT);
   }
 
@@ -173,6 +293,19 @@ public class Query {
     return this.build().size(pageSize);
   }
 
+  /**
+   * Creates a search request from this query.
+   * @param pageSize The result page size
+   * @param matchingRequest Whether to let the index return the matching
+   * request of each response
+   * @return A search request builder that is configured accordingly
+   * @see #build(boolean)
+   */
+  public SearchRequest.Builder build(
+      final int pageSize, final boolean matchingRequest) {
+    return this.build(matchingRequest).size(pageSize);
+  }
+
   /**
    * Creates a search request from this query.
    * @param pageSize The result page size
@@ -0,0 +1,502 @@
+package de.webis.wasp.index;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * Buffer that joins request records with their concurrent response records
+ * before the latter are written to the index.
+ * <p>
+ * Archives written by pywb contain the request and response records of a
+ * capture next to each other. This buffer holds back responses until their
+ * request arrives (and requests until their response arrives), so that the
+ * response is indexed already carrying its requests. Only requests for
+ * responses that are no longer buffered have to be added by an update of the
+ * indexed response. Moreover, the buffer remembers the IDs of recently indexed
+ * responses so that such updates do not have to check whether the response
+ * exists first.
+ * </p><p>
+ * Responses are held back until their request arrived, until more than the
+ * maximum number of responses are pending, until they are pending for longer
+ * than the maximum age (checked whenever a record is added), or until
+ * {@link #flush()} is called.
+ * </p><p>
+ * The buffer is thread-safe. The lock of the buffer is only held while
+ * records are added to or taken from it, whereas the records taken are
+ * written to the index after the lock is released. Requests for a response
+ * that is being written meanwhile are added to it once it has been written.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class RequestJoinBuffer {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // LOGGING
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG =
+      Logger.getLogger(RequestJoinBuffer.class.getName());
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum number of responses and of requests that wait for their
+   * counterpart.
+   */
+  public static final int DEFAULT_MAX_PENDING = 256;
+
+  /**
+   * Default maximum time in milliseconds a record waits for its counterpart.
+   */
+  public static final long DEFAULT_MAX_PENDING_MILLIS = 10000;
+
+  /**
+   * Default number of IDs of indexed responses to remember.
+   */
+  public static final int DEFAULT_MAX_RECENT = 65536;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final Index index;
+
+  private final int maxPending;
+
+  private final long maxPendingMillis;
+
+  private final LinkedHashMap<String, PendingResponse> pendingResponses;
+
+  private final LinkedHashMap<String, PendingRequests> pendingRequests;
+
+  private final LinkedHashMap<String, Boolean> recentResponses;
+
+  private final Map<String, List<RequestRecord>> writing;
+
+  private int numWriting;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new buffer with default sizes for writing to the specified
+   * index.
+   * @param index The index
+   */
+  public RequestJoinBuffer(final Index index) {
+    this(index, DEFAULT_MAX_PENDING, DEFAULT_MAX_PENDING_MILLIS,
+        DEFAULT_MAX_RECENT);
+  }
+
+  /**
+   * Creates a new buffer for writing to the specified index.
+   * @param index The index
+   * @param maxPending The maximum number of responses and of requests that
+   * wait for their counterpart
+   * @param maxPendingMillis The maximum time in milliseconds a record waits for
+   * its counterpart
+   * @param maxRecent The number of IDs of indexed responses to remember
+   */
+  public RequestJoinBuffer(
+      final Index index, final int maxPending, final long maxPendingMillis,
+      final int maxRecent) {
+    this.index = Objects.requireNonNull(index);
+    this.maxPending = maxPending;
+    this.maxPendingMillis = maxPendingMillis;
+    this.pendingResponses = new LinkedHashMap<>();
+    this.pendingRequests = new LinkedHashMap<>();
+    this.writing = new HashMap<>();
+    this.numWriting = 0;
+    this.recentResponses = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 8147651862254373504L;
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, Boolean> eldest) {
+        return this.size() > maxRecent;
+      }
+    };
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the index to write to.
+   * @return The index
+   */
+  public Index getIndex() {
+    return this.index;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Adds a response, indexing it once its requests are known.
+   * @param id The ID of the response
+   * @param response The response record without requests
+   * @throws IOException On writing to the index
+   * @see Index#indexResponse(String, ResponseRecord)
+   */
+  public void addResponse(final String id, final ResponseRecord response)
+  throws IOException {
+    final PendingResponse pending = new PendingResponse(id, response);
+    final Writes writes = new Writes();
+    synchronized (this) {
+      final PendingRequests requests = this.pendingRequests.remove(id);
+      if (requests != null) {
+        pending.requests.addAll(requests.requests);
+        this.takeForWriting(pending, writes);
+      } else {
+        this.pendingResponses.put(id, pending);
+      }
+      this.evict(writes);
+    }
+    this.write(writes);
+  }
+
+  /**
+   * Marks a record as seen that requests may refer to but that will not be
+   * indexed as a response (e.g., a non-HTML response or a revisit), so that
+   * requests for it are dropped.
+   * @param id The ID of the record
+   */
+  public synchronized void skipResponse(final String id) {
+    this.pendingRequests.remove(id);
+    this.recentResponses.put(id, false);
+  }
+
+  /**
+   * Adds a request, either joining it with its buffered response, by an update
+   * of its already indexed response, or by buffering it until its response
+   * arrives.
+   * @param concurrentId The ID of the concurrent response
+   * @param request The request record
+   * @throws IOException On writing to the index
+   */
+  public void addRequest(
+      final String concurrentId, final RequestRecord request)
+  throws IOException {
+    final Writes writes = new Writes();
+    synchronized (this) {
+      final PendingResponse response =
+          this.pendingResponses.remove(concurrentId);
+      final List<RequestRecord> lateRequests = this.writing.get(concurrentId);
+      if (response != null) {
+        response.requests.add(request);
+        this.takeForWriting(response, writes);
+      } else if (lateRequests != null) {
+        // added once the response is written
+        lateRequests.add(request);
+      } else {
+        final Boolean indexed = this.recentResponses.get(concurrentId);
+        if (indexed != null) {
+          if (indexed) {
+            LOG.fine("Request for indexed response " + concurrentId);
+            writes.updates.add(new PendingRequests(concurrentId, request));
+            ++this.numWriting;
+          }
+        } else {
+          this.pendingRequests.computeIfAbsent(
+              concurrentId, id -> new PendingRequests(id))
+            .requests.add(request);
+        }
+      }
+      this.evict(writes);
+    }
+    this.write(writes);
+  }
+
+  /**
+   * Writes all pending responses and requests to the index, and waits until
+   * the records other threads took from the buffer are written.
+   * <p>
+   * Requests whose response has not been seen are passed to
+   * {@link Index#indexRequest(String, String, Instant)}.
+   * </p>
+   * @throws IOException On writing to the index or when interrupted
+   */
+  public void flush() throws IOException {
+    final Writes writes = new Writes();
+    synchronized (this) {
+      while (!this.pendingResponses.isEmpty()) {
+        this.takeEldestResponse(writes);
+      }
+      while (!this.pendingRequests.isEmpty()) {
+        this.takeEldestRequests(writes);
+      }
+    }
+    this.write(writes);
+    try {
+      synchronized (this) {
+        while (this.numWriting > 0) { this.wait(); }
+      }
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while flushing", exception);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Takes pending records that exceed the size or age limits for writing.
+   * @param writes The writes to add the records to
+   */
+  protected void evict(final Writes writes) {
+    final long minSince = System.currentTimeMillis() - this.maxPendingMillis;
+    while (!this.pendingResponses.isEmpty()
+        && (this.pendingResponses.size() > this.maxPending
+            || this.pendingResponses.values().iterator().next().since
+              < minSince)) {
+      this.takeEldestResponse(writes);
+    }
+    while (!this.pendingRequests.isEmpty()
+        && (this.pendingRequests.size() > this.maxPending
+            || this.pendingRequests.values().iterator().next().since
+              < minSince)) {
+      this.takeEldestRequests(writes);
+    }
+  }
+
+  /**
+   * Takes the response that is pending the longest for writing.
+   * @param writes The writes to add the response to
+   */
+  protected void takeEldestResponse(final Writes writes) {
+    final Iterator<PendingResponse> iterator =
+        this.pendingResponses.values().iterator();
+    final PendingResponse response = iterator.next();
+    iterator.remove();
+    LOG.fine("No request for response " + response.id);
+    this.takeForWriting(response, writes);
+  }
+
+  /**
+   * Takes the requests that are pending the longest for writing them by
+   * updating their response in the index (if it exists).
+   * @param writes The writes to add the requests to
+   */
+  protected void takeEldestRequests(final Writes writes) {
+    final Iterator<PendingRequests> iterator =
+        this.pendingRequests.values().iterator();
+    writes.orphans.add(iterator.next());
+    iterator.remove();
+    ++this.numWriting;
+  }
+
+  /**
+   * Takes a response for writing, so that requests that arrive meanwhile are
+   * added after it has been written.
+   * @param response The response
+   * @param writes The writes to add the response to
+   */
+  protected void takeForWriting(
+      final PendingResponse response, final Writes writes) {
+    this.writing.put(response.id, new ArrayList<>(0));
+    writes.responses.add(response);
+    ++this.numWriting;
+  }
+
+  /**
+   * Performs writes taken from the buffer, without holding its lock.
+   * <p>
+   * All writes are attempted even if some fail, so that each write taken from
+   * the buffer is counted as done.
+   * </p>
+   * @param writes The writes
+   * @throws IOException On writing to the index (the first exception)
+   */
+  protected void write(final Writes writes) throws IOException {
+    Exception exception = null;
+    for (final PendingResponse response : writes.responses) {
+      try {
+        this.write(response);
+      } catch (final IOException | RuntimeException e) {
+        if (exception == null) { exception = e; }
+      }
+    }
+    for (final PendingRequests requests : writes.updates) {
+      try {
+        this.write(requests, true);
+      } catch (final IOException | RuntimeException e) {
+        if (exception == null) { exception = e; }
+      }
+    }
+    for (final PendingRequests requests : writes.orphans) {
+      try {
+        this.write(requests, false);
+      } catch (final IOException | RuntimeException e) {
+        if (exception == null) { exception = e; }
+      }
+    }
+    if (exception instanceof IOException) {
+      throw (IOException) exception;
+    } else if (exception != null) {
+      throw (RuntimeException) exception;
+    }
+  }
+
+  /**
+   * Writes a response, remembers its ID, and then adds the requests that
+   * arrived while it was written.
+   * @param response The response
+   * @throws IOException On writing to the index
+   */
+  protected void write(final PendingResponse response) throws IOException {
+    boolean written = false;
+    try {
+      this.getIndex().indexResponse(response.id,
+          response.response.toBuilder().requests(response.requests).build());
+      written = true;
+    } finally {
+      final List<RequestRecord> lateRequests;
+      synchronized (this) {
+        lateRequests = this.writing.remove(response.id);
+        this.recentResponses.put(response.id, written);
+        if (written && !lateRequests.isEmpty()) {
+          // stays counted until the late requests are written
+          ++this.numWriting;
+        }
+        this.doneWriting();
+      }
+      if (written && !lateRequests.isEmpty()) {
+        this.write(new PendingRequests(response.id, lateRequests), true);
+      }
+    }
+  }
+
+  /**
+   * Writes requests by updating their response in the index.
+   * @param requests The requests
+   * @param indexed Whether the response is known to be indexed (otherwise, the
+   * requests are dropped if it does not exist)
+   * @throws IOException On writing to the index
+   */
+  protected void write(final PendingRequests requests, final boolean indexed)
+  throws IOException {
+    try {
+      final Index index = this.getIndex();
+      for (final RequestRecord request : requests.requests) {
+        if (indexed) {
+          index.addRequest(index.resolveId(requests.id), request);
+        } else {
+          index.indexRequest(
+              requests.id, request.getUri(), request.getDate());
+        }
+      }
+    } finally {
+      synchronized (this) { this.doneWriting(); }
+    }
+  }
+
+  /**
+   * Counts one write taken from the buffer as done. Must be called while
+   * holding the lock of this buffer.
+   */
+  protected void doneWriting() {
+    --this.numWriting;
+    if (this.numWriting == 0) { this.notifyAll(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A response waiting for its requests.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static final class PendingResponse {
+
+    protected final String id;
+
+    protected final ResponseRecord response;
+
+    protected final List<RequestRecord> requests;
+
+    protected final long since;
+
+    protected PendingResponse(final String id, final ResponseRecord response) {
+      this.id = Objects.requireNonNull(id);
+      this.response = Objects.requireNonNull(response);
+      this.requests = new ArrayList<>(1);
+      this.since = System.currentTimeMillis();
+    }
+
+  }
+
+  /**
+   * Requests waiting for their response.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static final class PendingRequests {
+
+    protected final String id;
+
+    protected final List<RequestRecord> requests;
+
+    protected final long since;
+
+    protected PendingRequests(final String id) {
+      this(id, new ArrayList<>(1));
+    }
+
+    protected PendingRequests(final String id, final RequestRecord request) {
+      this(id);
+      this.requests.add(request);
+    }
+
+    protected PendingRequests(
+        final String id, final List<RequestRecord> requests) {
+      this.id = Objects.requireNonNull(id);
+      this.requests = requests;
+      this.since = System.currentTimeMillis();
+    }
+
+  }
+
+  /**
+   * Records taken from the buffer to be written once its lock is released.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static final class Writes {
+
+    /**
+     * Responses to index together with their requests.
+     */
+    protected final List<PendingResponse> responses = new ArrayList<>(1);
+
+    /**
+     * Requests to add to indexed responses.
+     */
+    protected final List<PendingRequests> updates = new ArrayList<>(0);
+
+    /**
+     * Requests whose response has not been seen.
+     */
+    protected final List<PendingRequests> orphans = new ArrayList<>(0);
+
+  }
+
+}
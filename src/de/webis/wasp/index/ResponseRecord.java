@@ -1,5 +1,7 @@
 package de.webis.wasp.index;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -8,11 +10,16 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import co.elastic.clients.elasticsearch._types.mapping.IndexOptions;
 import co.elastic.clients.elasticsearch._types.mapping.KeywordProperty;
+import co.elastic.clients.elasticsearch._types.mapping.LongNumberProperty;
 import co.elastic.clients.elasticsearch._types.mapping.NestedProperty;
 import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TermVectorOption;
 import co.elastic.clients.elasticsearch._types.mapping.TextProperty;
 
 /**
@@ -45,21 +52,57 @@ public class ResponseRecord {
    */
   public static final String FIELD_CONTENT = "content";
   
+  /**
+   * Name of the record's full content field, which is only set if the
+   * content field contains only the main text.
+   */
+  public static final String FIELD_FULL_CONTENT = "full_content";
+  
+  /**
+   * Name of the record's content hash field.
+   * @see #toContentHash(String, String)
+   */
+  public static final String FIELD_CONTENT_HASH = "content_hash";
+  
+  /**
+   * Name of the record's SimHash fingerprint field.
+   * @see SimHash#fingerprint(CharSequence)
+   */
+  public static final String FIELD_SIMHASH = "simhash";
+  
+  /**
+   * Name of the field for the ID of the response the record is a
+   * near-duplicate of.
+   */
+  public static final String FIELD_DUPLICATE_OF = "duplicate_of";
+  
   /**
    * Name of the record's requests field.
    */
   public static final String FIELD_REQUESTS = "requests";
+  
+  /**
+   * Name of the record's capture key field.
+   * @see #toCaptureKey(String, Instant)
+   */
+  public static final String FIELD_CAPTURE = "capture";
+
+  /**
+   * Default storage of offsets for the content in new indices.
+   */
+  public static final ContentOffsets DEFAULT_CONTENT_OFFSETS =
+      ContentOffsets.POSTINGS;
 
   /**
    * Properties for an Elasticsearch mapping of this class.
+   * @see #DEFAULT_CONTENT_OFFSETS
    */
-  public static Map<String, Property> TYPE_PROPERTIES = Map.of(
-      FIELD_URI, KeywordProperty.of(property -> property)._toProperty(),
-      FIELD_TITLE, TextProperty.of(property -> property)._toProperty(),
-      FIELD_CONTENT, TextProperty.of(property -> property)._toProperty(),
-      FIELD_REQUESTS, NestedProperty.of(property -> property
-            .properties(RequestRecord.TYPE_PROPERTIES)
-          )._toProperty());
+  public static Map<String, Property> TYPE_PROPERTIES =
+      ResponseRecord.getTypeProperties(DEFAULT_CONTENT_OFFSETS);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
 
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
@@ -71,30 +114,67 @@ public class ResponseRecord {
 
   private final String content;
 
+  private final String fullContent;
+
   private final List<RequestRecord> requests;
 
+  private final String capture;
+
+  private final String contentHash;
+
+  private final Long simHash;
+
+  private final String duplicateOf;
+
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTION
   /////////////////////////////////////////////////////////////////////////////
 
   /**
    * Creates a new record for some request.
+   * <p>
+   * Use {@link #builder(String)} to create records in code.
+   * </p>
    * @param uri The target URI of the response page or revisit
    * @param title The title of the response page (or <code>null</code> if a
    * revisit)
    * @param content The extracted content of the response page (or
    * <code>null</code> if a revisit)
-   * @param requests The requests that led to this response (empty if a revisit) 
+   * @param fullContent The full extracted content of the response page if
+   * <code>content</code> is only the main text (or <code>null</code>)
+   * @param requests The requests that led to this response (empty if a
+   * revisit)
+   * @param capture The capture key of the response (or <code>null</code> if
+   * unknown)
+   * @param contentHash The hash of the title and content of the response (or
+   * <code>null</code> if unknown)
+   * @param simHash The SimHash fingerprint of the content of the response (or
+   * <code>null</code> if unknown)
+   * @param duplicateOf The ID of the response this response is a
+   * near-duplicate of (or <code>null</code> if none)
+   * @see #toCaptureKey(String, Instant)
+   * @see #toContentHash(String, String)
+   * @see SimHash#fingerprint(CharSequence)
    */
   @JsonCreator
   public ResponseRecord(
       @JsonProperty(FIELD_URI) final String uri,
       @JsonProperty(FIELD_TITLE) final String title,
       @JsonProperty(FIELD_CONTENT) final String content,
-      @JsonProperty(FIELD_REQUESTS) final List<RequestRecord> requests) {
+      @JsonProperty(FIELD_FULL_CONTENT) final String fullContent,
+      @JsonProperty(FIELD_REQUESTS) final List<RequestRecord> requests,
+      @JsonProperty(FIELD_CAPTURE) final String capture,
+      @JsonProperty(FIELD_CONTENT_HASH) final String contentHash,
+      @JsonProperty(FIELD_SIMHASH) final Long simHash,
+      @JsonProperty(FIELD_DUPLICATE_OF) final String duplicateOf) {
     this.uri = Objects.requireNonNull(uri);
+    this.capture = capture;
+    this.contentHash = contentHash;
+    this.simHash = simHash;
+    this.duplicateOf = duplicateOf;
     this.title = title;
     this.content = content;
+    this.fullContent = fullContent;
     if (requests == null) {
       this.requests = List.of();
     } else {
@@ -103,17 +183,121 @@ public class ResponseRecord {
   }
 
   /**
-   * Creates a new record for a response page without assigned requests.
-   * @param uri The target URI of the response page
-   * @param title The title of the page
-   * @param content The extracted content of the page
-   * @return The request
+   * Creates a builder for a record for some request.
+   * @param uri The target URI of the response page or revisit
+   * @return The builder
+   */
+  public static Builder builder(final String uri) {
+    return new Builder(uri);
+  }
+
+  /**
+   * Creates a builder for a record that is initialized to this record.
+   * @return The builder
+   */
+  public Builder toBuilder() {
+    return new Builder(this.getUri())
+        .title(this.getTitle())
+        .content(this.getContent())
+        .fullContent(this.getFullContent())
+        .requests(this.getRequests())
+        .capture(this.getCapture())
+        .contentHash(this.getContentHash())
+        .simHash(this.getSimHash())
+        .duplicateOf(this.getDuplicateOf());
+  }
+
+  /**
+   * Gets the key by which a captured response can be found from revisits of
+   * it.
+   * @param uri The target URI of the response
+   * @param time The time the response was captured (only full seconds are
+   * considered)
+   * @return The key
+   */
+  public static String toCaptureKey(final String uri, final Instant time) {
+    return Objects.requireNonNull(uri) + " "
+        + Objects.requireNonNull(time).truncatedTo(ChronoUnit.SECONDS);
+  }
+
+  /**
+   * Gets the time a response was captured from its capture key.
+   * @param capture The capture key
+   * @return The time (only full seconds)
+   * @throws java.time.format.DateTimeParseException If the key is malformed
+   * @see #toCaptureKey(String, Instant)
+   */
+  public static Instant toCaptureTime(final String capture) {
+    return Instant.parse(capture.substring(capture.lastIndexOf(' ') + 1));
+  }
+
+  /**
+   * Gets the hash by which responses for the same URI with the same title and
+   * content can be found.
+   * <p>
+   * This is a 64-bit FNV-1a hash of the characters, which is fast to compute
+   * and, as only responses for the same URI are compared, has a negligible
+   * risk of collisions.
+   * </p>
+   * @param title The title of the response
+   * @param content The extracted content of the response
+   * @return The hash as hexadecimal string
+   */
+  public static String toContentHash(final String title, final String content) {
+    long hash = FNV_OFFSET_BASIS;
+    hash = ResponseRecord.hash(hash, Objects.requireNonNull(title));
+    hash = (hash ^ '\u0000') * FNV_PRIME; // separator
+    hash = ResponseRecord.hash(hash, Objects.requireNonNull(content));
+    return Long.toHexString(hash);
+  }
+
+  private static long hash(long hash, final String text) {
+    final int length = text.length();
+    for (int i = 0; i < length; ++i) {
+      final char c = text.charAt(i);
+      hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+      hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Gets the properties for an Elasticsearch mapping of this class.
+   * @param contentOffsets How to store the offsets of the terms in the
+   * content for highlighting
+   * @return The properties
    */
-  public static ResponseRecord forPage(
-      final String uri, final String title, final String content) {
-    return new ResponseRecord(
-        Objects.requireNonNull(uri),
-        Objects.requireNonNull(title), Objects.requireNonNull(content), null);
+  public static Map<String, Property> getTypeProperties(
+      final ContentOffsets contentOffsets) {
+    return Map.of(
+      FIELD_URI, KeywordProperty.of(property -> property)._toProperty(),
+      FIELD_TITLE, TextProperty.of(property -> property)._toProperty(),
+      FIELD_CONTENT, TextProperty.of(property -> {
+            switch (contentOffsets) {
+            case POSTINGS:
+              return property.indexOptions(IndexOptions.Offsets);
+            case TERM_VECTORS:
+              return property.termVector(
+                  TermVectorOption.WithPositionsOffsets);
+            default:
+              return property;
+            }
+          })._toProperty(),
+      // only for matching, not highlighting or scoring
+      FIELD_FULL_CONTENT, TextProperty.of(property -> property
+            .indexOptions(IndexOptions.Docs)
+            .norms(false)
+          )._toProperty(),
+      FIELD_CAPTURE, KeywordProperty.of(property -> property)._toProperty(),
+      FIELD_CONTENT_HASH, KeywordProperty.of(property -> property)
+          ._toProperty(),
+      FIELD_SIMHASH, LongNumberProperty.of(property -> property)
+          ._toProperty(),
+      FIELD_DUPLICATE_OF, KeywordProperty.of(property -> property)
+          ._toProperty(),
+      FIELD_REQUESTS, NestedProperty.of(property -> property
+            .properties(RequestRecord.TYPE_PROPERTIES)
+          )._toProperty());
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -140,13 +324,29 @@ public class ResponseRecord {
 
   /**
    * Gets the content of the response.
+   * <p>
+   * An empty content is not written to the index, so that responses without
+   * content do not match an <code>exists</code> query on it.
+   * </p>
    * @return The content or <code>null</code> if a revisit
    */
   @JsonGetter(FIELD_CONTENT)
+  @JsonInclude(Include.NON_EMPTY)
   public String getContent() {
     return this.content;
   }
 
+  /**
+   * Gets the full content of the response if the content is only its main
+   * text.
+   * @return The full content or <code>null</code> if not stored
+   */
+  @JsonGetter(FIELD_FULL_CONTENT)
+  @JsonInclude(Include.NON_NULL)
+  public String getFullContent() {
+    return this.fullContent;
+  }
+
   /**
    * Gets the requests that led to this response.
    * @return The list of requests (empty if a revisit)
@@ -156,4 +356,233 @@ public class ResponseRecord {
     return this.requests;
   }
 
+  /**
+   * Gets the capture key of the response.
+   * @return The key or <code>null</code> if unknown
+   * @see #toCaptureKey(String, Instant)
+   */
+  @JsonGetter(FIELD_CAPTURE)
+  public String getCapture() {
+    return this.capture;
+  }
+
+  /**
+   * Gets the hash of the title and content of the response.
+   * @return The hash or <code>null</code> if unknown
+   * @see #toContentHash(String, String)
+   */
+  @JsonGetter(FIELD_CONTENT_HASH)
+  @JsonInclude(Include.NON_NULL)
+  public String getContentHash() {
+    return this.contentHash;
+  }
+
+  /**
+   * Gets the SimHash fingerprint of the content of the response.
+   * @return The fingerprint or <code>null</code> if unknown
+   * @see SimHash#fingerprint(CharSequence)
+   */
+  @JsonGetter(FIELD_SIMHASH)
+  @JsonInclude(Include.NON_NULL)
+  public Long getSimHash() {
+    return this.simHash;
+  }
+
+  /**
+   * Gets the ID of the response this response is a near-duplicate of.
+   * @return The ID or <code>null</code> if none
+   * @see NearDuplicateIndex.Mode#LINK
+   */
+  @JsonGetter(FIELD_DUPLICATE_OF)
+  @JsonInclude(Include.NON_NULL)
+  public String getDuplicateOf() {
+    return this.duplicateOf;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Builder for response records.
+   * <p>
+   * Unless set explicitly, the content hash is computed from the title and
+   * content when both are set.
+   * </p>
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   * @see ResponseRecord#builder(String)
+   *
+   */
+  public static final class Builder {
+
+    private final String uri;
+
+    private String title;
+
+    private String content;
+
+    private String fullContent;
+
+    private List<RequestRecord> requests;
+
+    private String capture;
+
+    private String contentHash;
+
+    private Long simHash;
+
+    private String duplicateOf;
+
+    private Builder(final String uri) {
+      this.uri = Objects.requireNonNull(uri);
+    }
+
+    /**
+     * Sets the title of the response page.
+     * @param title The title (or <code>null</code> if a revisit)
+     * @return This builder
+     */
+    public Builder title(final String title) {
+      this.title = title;
+      return this;
+    }
+
+    /**
+     * Sets the extracted content of the response page.
+     * @param content The content, or only its main text if the full content
+     * is set (or <code>null</code> if a revisit)
+     * @return This builder
+     */
+    public Builder content(final String content) {
+      this.content = content;
+      return this;
+    }
+
+    /**
+     * Sets the full extracted content of the response page if the content is
+     * only its main text.
+     * @param fullContent The full content (or <code>null</code> for not
+     * storing it)
+     * @return This builder
+     */
+    public Builder fullContent(final String fullContent) {
+      this.fullContent = fullContent;
+      return this;
+    }
+
+    /**
+     * Sets the requests that led to the response.
+     * @param requests The requests (or <code>null</code> for none)
+     * @return This builder
+     */
+    public Builder requests(final List<RequestRecord> requests) {
+      this.requests = requests;
+      return this;
+    }
+
+    /**
+     * Sets the capture key of the response from the time it was captured.
+     * @param time The time
+     * @return This builder
+     * @see ResponseRecord#toCaptureKey(String, Instant)
+     */
+    public Builder time(final Instant time) {
+      return this.capture(ResponseRecord.toCaptureKey(this.uri, time));
+    }
+
+    /**
+     * Sets the capture key of the response.
+     * @param capture The key (or <code>null</code> if unknown)
+     * @return This builder
+     * @see ResponseRecord#toCaptureKey(String, Instant)
+     */
+    public Builder capture(final String capture) {
+      this.capture = capture;
+      return this;
+    }
+
+    /**
+     * Sets the hash of the title and content of the response.
+     * @param contentHash The hash (or <code>null</code> for computing it)
+     * @return This builder
+     * @see ResponseRecord#toContentHash(String, String)
+     */
+    public Builder contentHash(final String contentHash) {
+      this.contentHash = contentHash;
+      return this;
+    }
+
+    /**
+     * Sets the SimHash fingerprint of the content of the response.
+     * @param simHash The fingerprint (or <code>null</code> for not storing
+     * it)
+     * @return This builder
+     * @see SimHash#fingerprint(CharSequence)
+     */
+    public Builder simHash(final Long simHash) {
+      this.simHash = simHash;
+      return this;
+    }
+
+    /**
+     * Sets the ID of the response the response is a near-duplicate of.
+     * @param duplicateOf The ID (or <code>null</code> if none)
+     * @return This builder
+     * @see NearDuplicateIndex.Mode#LINK
+     */
+    public Builder duplicateOf(final String duplicateOf) {
+      this.duplicateOf = duplicateOf;
+      return this;
+    }
+
+    /**
+     * Creates the record.
+     * @return The record
+     */
+    public ResponseRecord build() {
+      String contentHash = this.contentHash;
+      if (contentHash == null && this.title != null && this.content != null) {
+        contentHash = ResponseRecord.toContentHash(this.title, this.content);
+      }
+      return new ResponseRecord(this.uri, this.title, this.content,
+          this.fullContent, this.requests, this.capture, contentHash,
+          this.simHash, this.duplicateOf);
+    }
+
+  }
+
+  /**
+   * How the offsets of the terms in the content are stored in the index.
+   * <p>
+   * With stored offsets, the unified highlighter does not need to analyze the
+   * content again for each hit, which for long contents dominates the query
+   * latency, at the cost of a larger index.
+   * </p>
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   *
+   */
+  public static enum ContentOffsets {
+
+    /**
+     * Store no offsets, so that the content is analyzed for highlighting.
+     */
+    NONE,
+
+    /**
+     * Store the offsets in the postings (<code>index_options:
+     * offsets</code>).
+     */
+    POSTINGS,
+
+    /**
+     * Store the offsets in term vectors (<code>term_vector:
+     * with_positions_offsets</code>), which takes more space than storing
+     * them in the postings.
+     */
+    TERM_VECTORS;
+
+  }
+
 }
@@ -12,6 +12,8 @@ import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.InnerHitsResult;
+import co.elastic.clients.json.JsonData;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 
@@ -49,6 +51,12 @@ public class Result {
    * Name of the results's matched request field.
    */
   public static final String FIELD_MATCHED_REQUEST = "matchedRequest";
+
+  /**
+   * Maximum number of characters of the title of a display result.
+   * @see #toDisplayResult()
+   */
+  public static final int MAX_DISPLAY_TITLE_LENGTH = 512;
   
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
@@ -88,6 +96,11 @@ public class Result {
 
   /**
    * Creates a new result from a search hit.
+   * <p>
+   * If the hit contains the {@link Query#INNER_HITS_NAME} inner hit, its
+   * request is the matched request. Otherwise, the matched request is the
+   * latest of the response's requests that matches the constraints.
+   * </p>
    * @param hit The hit
    * @param from The earliest time for a request, or <code>null</code> for no
    * constraint in this direction
@@ -101,12 +114,35 @@ public class Result {
     final double score = hit.score();
     
     final ResponseRecord response = hit.source();
-    final RequestRecord request = Result.matchRequest(response, from, to);
+    RequestRecord request = Result.getMatchedRequest(hit);
+    if (request == null) {
+      request = Result.matchRequest(response, from, to);
+    }
     final String snippet = Result.getSnippet(hit);
     
     return new Result(score, snippet, response, request);
   }
 
+  /**
+   * Gets the request in the {@link Query#INNER_HITS_NAME} inner hit of a
+   * search hit.
+   * @param hit The hit
+   * @return The request or <code>null</code> if the hit has no such inner hit
+   * @throws IllegalArgumentException If the inner hit is empty
+   */
+  protected static RequestRecord getMatchedRequest(
+      final Hit<ResponseRecord> hit) {
+    final InnerHitsResult innerHits =
+        hit.innerHits().get(Query.INNER_HITS_NAME);
+    if (innerHits == null) { return null; }
+    final List<Hit<JsonData>> requestHits = innerHits.hits().hits();
+    if (requestHits.isEmpty()) {
+      throw new IllegalArgumentException(
+          "it contained no request in time interval");
+    }
+    return requestHits.get(0).source().to(RequestRecord.class, Index.MAPPER);
+  }
+
   /**
    * Get the response's request the matches the time constraints.
    * @param response The response
@@ -190,6 +226,28 @@ public class Result {
   // FUNCTIONALITY
   /////////////////////////////////////////////////////////////////////////////
   
+  /**
+   * Gets a copy of this result that contains only what is needed for
+   * displaying it: the title (shortened to at most
+   * {@link #MAX_DISPLAY_TITLE_LENGTH} characters) and URI of the response and
+   * the matched request, but neither the content nor the other requests.
+   * @return The result
+   */
+  public Result toDisplayResult() {
+    final ResponseRecord response = this.getResponse();
+    final RequestRecord request = this.getMatchedRequest();
+    String title = response.getTitle();
+    if (title != null && title.length() > MAX_DISPLAY_TITLE_LENGTH) {
+      title = title.substring(0, MAX_DISPLAY_TITLE_LENGTH - 3) + "...";
+    }
+    return new Result(this.getScore(), this.getSnippet(),
+        ResponseRecord.builder(response.getUri())
+          .title(title)
+          .requests(List.of(request))
+          .build(),
+        request);
+  }
+
   /**
    * Checks whether the result snippet is empty.
    * @return Whether it is
@@ -0,0 +1,167 @@
+package de.webis.wasp.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A page of results for a query, with what is needed to retrieve the next
+ * page.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ResultPage {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final List<Result> results;
+
+  private final long numTotalHits;
+
+  private final int offset;
+
+  private final int pageSize;
+
+  private final String pointInTimeId;
+
+  private final List<String> searchAfter;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new page.
+   * @param results The results on the page
+   * @param numTotalHits The number of responses that match the query
+   * @param offset The offset of the first hit of the page among all hits
+   * @param pageSize The maximum number of hits on the page
+   * @param pointInTimeId The ID of the point in time of the index that was
+   * searched (or <code>null</code> if the current index was searched)
+   * @param searchAfter The sort values of the last hit of the page (or
+   * <code>null</code> if the page is empty or no point in time was searched)
+   */
+  public ResultPage(
+      final List<Result> results, final long numTotalHits,
+      final int offset, final int pageSize,
+      final String pointInTimeId, final List<String> searchAfter) {
+    this.results = List.copyOf(results);
+    this.numTotalHits = numTotalHits;
+    this.offset = offset;
+    this.pageSize = pageSize;
+    this.pointInTimeId = pointInTimeId;
+    this.searchAfter =
+        searchAfter == null ? null : List.copyOf(searchAfter);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the results on this page.
+   * <p>
+   * The query excludes responses without content, for which no snippet can
+   * be shown. Hits without snippet are still not included, so in rare cases
+   * there can be less results than the page size even if more hits follow.
+   * </p>
+   * @return The results
+   */
+  public List<Result> getResults() {
+    return this.results;
+  }
+
+  /**
+   * Gets the number of responses that match the query.
+   * @return The number
+   */
+  public long getNumTotalHits() {
+    return this.numTotalHits;
+  }
+
+  /**
+   * Gets the offset of the first hit of this page among all hits.
+   * @return The offset
+   */
+  public int getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * Gets the maximum number of hits on this page.
+   * @return The page size
+   */
+  public int getPageSize() {
+    return this.pageSize;
+  }
+
+  /**
+   * Gets the number of pages of this size for all hits.
+   * @return The number (at least 1)
+   */
+  public int getNumPages() {
+    final long numPages =
+        (this.getNumTotalHits() - 1) / this.getPageSize() + 1;
+    return (int) Math.max(1, Math.min(numPages, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Gets the ID of the point in time of the index that was searched.
+   * @return The ID or <code>null</code> if the current index was searched
+   */
+  public String getPointInTimeId() {
+    return this.pointInTimeId;
+  }
+
+  /**
+   * Gets the sort values of the last hit of this page, after which the next
+   * page starts.
+   * @return The values or <code>null</code> if the page is empty or no point
+   * in time was searched
+   * @see Index#searchAfter(Query, ResultPage, long)
+   */
+  public List<String> getSearchAfter() {
+    return this.searchAfter;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets a copy of this page that contains only what is needed for
+   * displaying its results.
+   * @return The page
+   * @see Result#toDisplayResult()
+   */
+  public ResultPage toDisplayPage() {
+    final List<Result> displayResults = new ArrayList<>();
+    for (final Result result : this.getResults()) {
+      displayResults.add(result.toDisplayResult());
+    }
+    return new ResultPage(displayResults, this.getNumTotalHits(),
+        this.getOffset(), this.getPageSize(),
+        this.getPointInTimeId(), this.getSearchAfter());
+  }
+
+  /**
+   * Gets an empty page that follows this one.
+   * @return The page
+   */
+  public ResultPage toEmptyNextPage() {
+    return new ResultPage(List.of(), this.getNumTotalHits(),
+        this.getOffset() + this.getPageSize(), this.getPageSize(),
+        this.getPointInTimeId(), null);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PAGE %d+%d OF %d: %s",
+        this.getOffset(), this.getPageSize(), this.getNumTotalHits(),
+        Objects.toString(this.getResults()));
+  }
+
+}
@@ -0,0 +1,110 @@
+package de.webis.wasp.index;
+
+/**
+ * 64-bit SimHash fingerprints of texts (Charikar, STOC 2002), for which the
+ * number of differing bits (the Hamming distance) is small for similar
+ * texts.
+ * <p>
+ * The features of a text are its pairs of consecutive words (lower-cased
+ * sequences of letters and digits), so that both the vocabulary and the
+ * word order contribute to the fingerprint.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class SimHash {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Number of bits of a fingerprint.
+   */
+  public static final int NUM_BITS = Long.SIZE;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  // Utility class
+  private SimHash() { }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Computes the fingerprint of a text.
+   * @param text The text
+   * @return The fingerprint
+   */
+  public static long fingerprint(final CharSequence text) {
+    final int[] weights = new int[NUM_BITS];
+    final int length = text.length();
+    long previousWord = 0;
+    long word = FNV_OFFSET_BASIS;
+    boolean inWord = false;
+    boolean hasFeature = false;
+    for (int i = 0; i <= length; ++i) {
+      final char c = i < length ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+        inWord = true;
+      } else if (inWord) {
+        SimHash.add(weights, SimHash.mix(previousWord * 31 + word));
+        hasFeature = true;
+        previousWord = word;
+        word = FNV_OFFSET_BASIS;
+        inWord = false;
+      }
+    }
+    if (!hasFeature) { return 0; }
+
+    long fingerprint = 0;
+    for (int b = 0; b < NUM_BITS; ++b) {
+      if (weights[b] > 0) { fingerprint |= 1L << b; }
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Gets the number of bits in which two fingerprints differ.
+   * @param first The first fingerprint
+   * @param second The second fingerprint
+   * @return The distance
+   */
+  public static int distance(final long first, final long second) {
+    return Long.bitCount(first ^ second);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static void add(final int[] weights, final long feature) {
+    for (int b = 0; b < NUM_BITS; ++b) {
+      weights[b] += (int) ((feature >>> b) & 1L) * 2 - 1;
+    }
+  }
+
+  /**
+   * Spreads the bits of a hash (the finalizer of MurmurHash3).
+   * @param hash The hash
+   * @return The mixed hash
+   */
+  static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+}
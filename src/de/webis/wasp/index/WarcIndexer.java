@@ -1,7 +1,10 @@
 package de.webis.wasp.index;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import java.time.Instant;
 
@@ -9,12 +12,18 @@ import de.webis.wasp.warcs.GenericHtmlWarcRecordConsumer;
 
 /**
  * Consumer to index WARC records.
+ * <p>
+ * Records that could not be written to the index are logged (by
+ * {@link GenericHtmlWarcRecordConsumer}) and reported by the next call of
+ * {@link #flush()}, so that checkpoints are not stored past them.
+ * </p>
  *
  * @author johannes.kiesel@uni-weimar.de
  *
  */
 public class WarcIndexer
-extends GenericHtmlWarcRecordConsumer {
+extends GenericHtmlWarcRecordConsumer
+implements Flushable {
 
   /////////////////////////////////////////////////////////////////////////////
   // LOGGING
@@ -29,6 +38,10 @@ extends GenericHtmlWarcRecordConsumer {
   
   private final Index index;
   
+  private final RequestJoinBuffer joinBuffer;
+
+  private final AtomicLong numUnreportedFailures;
+  
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTORS
   /////////////////////////////////////////////////////////////////////////////
@@ -38,7 +51,21 @@ extends GenericHtmlWarcRecordConsumer {
    * @param index The index
    */
   public WarcIndexer(final Index index) {
+    this(index, DEFAULT_DOCUMENT_EXTRACTOR);
+  }
+
+  /**
+   * Creates a new consumer that indexes to the specified index.
+   * @param index The index
+   * @param documentExtractor The extractor for HTML responses
+   */
+  public WarcIndexer(
+      final Index index,
+      final Function<CharSequence, Document> documentExtractor) {
+    super(documentExtractor);
     this.index = Objects.requireNonNull(index);
+    this.joinBuffer = new RequestJoinBuffer(index);
+    this.numUnreportedFailures = new AtomicLong();
   }
   
   /////////////////////////////////////////////////////////////////////////////
@@ -48,6 +75,14 @@ extends GenericHtmlWarcRecordConsumer {
   public Index getIndex() {
     return this.index;
   }
+
+  /**
+   * Gets the buffer that joins requests with their responses.
+   * @return The buffer
+   */
+  protected RequestJoinBuffer getJoinBuffer() {
+    return this.joinBuffer;
+  }
   
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
@@ -65,16 +100,39 @@ extends GenericHtmlWarcRecordConsumer {
     LOG.fine("accept html response " + id
         + " title = '" + title + "' content exists = " + !content.isEmpty());
     if (!title.isEmpty() || !content.isEmpty()) {
-      this.getIndex().indexResponse(id, uri, content, title);
+      // fingerprinting here keeps it outside of the buffer's lock
+      final Long simHash =
+          this.getIndex().getNearDuplicateIndex() == null || content.isEmpty()
+          ? null : SimHash.fingerprint(content);
+      final ResponseRecord response = ResponseRecord.builder(uri)
+          .title(title)
+          .content(content)
+          .fullContent(document.getFullContent())
+          .time(time)
+          .simHash(simHash)
+          .build();
+      this.write(() -> this.getJoinBuffer().addResponse(id, response));
+    } else {
+      this.getJoinBuffer().skipResponse(id);
     }
   }
 
+  @Override
+  protected void acceptNonHtmlResponse(
+      final String id, final String uri, final Instant time)
+  throws IOException {
+    this.getJoinBuffer().skipResponse(id);
+  }
+
   @Override
   protected void acceptRevisit(
-      final String id, final String uri, final Instant originalTime,
-      final Instant time)
+      final String id, final String originalId, final String uri,
+      final Instant originalTime, final Instant time)
   throws IOException {
-    this.getIndex().indexRevisit(id, uri, originalTime, time);
+    // the revisit's request is the same capture as the revisit itself
+    this.getJoinBuffer().skipResponse(id);
+    this.write(() -> this.getIndex().indexRevisit(
+        id, originalId, uri, originalTime, time));
   }
 
   @Override
@@ -83,7 +141,63 @@ extends GenericHtmlWarcRecordConsumer {
       final String targetUri,
       final Instant time)
   throws IOException {
-    this.getIndex().indexRequest(concurrentRecordId, targetUri, time);
+    this.write(() -> this.getJoinBuffer().addRequest(
+        concurrentRecordId, new RequestRecord(targetUri, time)));
+  }
+
+  /**
+   * Writes all buffered records to the index.
+   * @throws IOException On writing to the index, or if records failed to be
+   * written since the last flush
+   */
+  @Override
+  public void flush() throws IOException {
+    final long numFailures = this.numUnreportedFailures.getAndSet(0);
+    this.getJoinBuffer().flush();
+    this.getIndex().flush();
+    if (numFailures > 0) {
+      throw new IOException("Failed to write " + numFailures
+          + " times to the index since the last flush");
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Runs a write to the index, counting it as failed if it throws an
+   * exception.
+   * @param write The write
+   * @throws IOException On writing to the index
+   */
+  protected void write(final Write write) throws IOException {
+    try {
+      write.run();
+    } catch (final IOException | RuntimeException exception) {
+      this.numUnreportedFailures.incrementAndGet();
+      throw exception;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A write to the index.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  @FunctionalInterface
+  protected static interface Write {
+
+    /**
+     * Runs the write.
+     * @throws IOException On writing to the index
+     */
+    void run() throws IOException;
+
   }
   
 }
@@ -0,0 +1,448 @@
+package de.webis.wasp.ui;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.webis.wasp.index.Index;
+import de.webis.wasp.index.Query;
+import de.webis.wasp.index.Result;
+import de.webis.wasp.index.ResultPage;
+
+/**
+ * Cache for the result pages of queries that is shared by all sessions.
+ * <p>
+ * Queries are cached in their normal form, so that queries that differ only
+ * in case and white space share their results. For each query, the cache
+ * keeps a point in time of the index and the pages retrieved from it, which
+ * contain only what is needed for displaying the results (see
+ * {@link Result#toDisplayResult()}). Pages are retrieved one at a time: the
+ * next page of a retrieved page by searching after its last hit, so that
+ * paginating is stable and works at any depth, and other pages by their
+ * offset. The least recently used queries are evicted when the cache is
+ * full.
+ * </p><p>
+ * As the index is written to by another process, the cache periodically asks
+ * the index for its number of writes and discards all queries once this
+ * number changed. Queries are moreover discarded after a maximum age, which
+ * also bounds how long results miss responses that were written but not yet
+ * searchable when the point in time was opened.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ResultCache {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // LOGGING
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG =
+      Logger.getLogger(ResultCache.class.getName());
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum number of queries for which results are cached.
+   * <p>
+   * Each cached query keeps a point in time open, and Elasticsearch limits
+   * their number (to 500 per node by default).
+   * </p>
+   */
+  public static final int DEFAULT_MAX_SIZE = 256;
+
+  /**
+   * Default maximum age of cached results in milliseconds.
+   */
+  public static final long DEFAULT_MAX_AGE_MILLIS = 300000;
+
+  /**
+   * Default minimum time in milliseconds between checks whether the index
+   * changed.
+   */
+  public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 5000;
+
+  /**
+   * Maximum number of result pages cached per query, which is also the
+   * maximum number of pages retrieved for one request.
+   */
+  public static final int MAX_PAGES_PER_QUERY = 64;
+
+  /**
+   * Time in milliseconds for which points in time are kept open longer than
+   * the maximum age of cached results.
+   */
+  protected static final long KEEP_ALIVE_MARGIN_MILLIS = 60000;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final Index index;
+
+  private final long maxAgeMillis;
+
+  private final long checkIntervalMillis;
+
+  private final Map<Query, CachedQuery> cachedQueries;
+
+  private final AtomicLong numHits;
+
+  private final AtomicLong numMisses;
+
+  private final AtomicLong numInvalidations;
+
+  private long numWrites;
+
+  private long lastCheckMillis;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new cache with default sizes for results from the specified
+   * index.
+   * @param index The index to retrieve results from
+   */
+  public ResultCache(final Index index) {
+    this(index, DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE_MILLIS,
+        DEFAULT_CHECK_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Creates a new cache for results from the specified index.
+   * @param index The index to retrieve results from
+   * @param maxSize The maximum number of queries for which results are cached
+   * @param maxAgeMillis The maximum age of cached results in milliseconds
+   * @param checkIntervalMillis The minimum time in milliseconds between checks
+   * whether the index changed
+   */
+  public ResultCache(
+      final Index index, final int maxSize, final long maxAgeMillis,
+      final long checkIntervalMillis) {
+    this.index = Objects.requireNonNull(index);
+    this.maxAgeMillis = maxAgeMillis;
+    this.checkIntervalMillis = checkIntervalMillis;
+    this.cachedQueries = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 2871063473940612751L;
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<Query, CachedQuery> eldest) {
+            if (this.size() > maxSize) {
+              ResultCache.this.close(eldest.getValue());
+              return true;
+            }
+            return false;
+          }
+        });
+    this.numHits = new AtomicLong();
+    this.numMisses = new AtomicLong();
+    this.numInvalidations = new AtomicLong();
+    this.numWrites = -1;
+    this.lastCheckMillis = 0;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the index to retrieve results from.
+   * @return The index
+   */
+  public Index getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Gets the number of queries for which results are currently cached.
+   * @return The number
+   */
+  public int size() {
+    return this.cachedQueries.size();
+  }
+
+  /**
+   * Gets the number of result pages answered from the cache.
+   * @return The number
+   */
+  public long getNumHits() {
+    return this.numHits.get();
+  }
+
+  /**
+   * Gets the number of result pages answered by searching the index.
+   * @return The number
+   */
+  public long getNumMisses() {
+    return this.numMisses.get();
+  }
+
+  /**
+   * Gets the number of times all results were discarded because the index
+   * changed.
+   * @return The number
+   */
+  public long getNumInvalidations() {
+    return this.numInvalidations.get();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets a page of results for a query, from the cache if possible.
+   * @param query The query
+   * @param pageNumber The number of the page, starting at 1
+   * @param pageSize The maximum number of hits per page
+   * @return The page
+   * @throws IOException On searching the index
+   * @throws IllegalArgumentException If the page is beyond
+   * {@link Index#MAX_RESULT_WINDOW} and more than
+   * {@link #MAX_PAGES_PER_QUERY} pages after the closest cached page, which
+   * is never the case up to {@link #getMaxReachablePageNumber(int)}
+   */
+  public ResultPage getResults(
+      final Query query, final int pageNumber, final int pageSize)
+  throws IOException {
+    this.checkForWrites();
+    final Query normalizedQuery = query.normalize();
+    final CachedQuery cached = this.getCachedQuery(normalizedQuery, pageSize);
+    synchronized (cached) {
+      final ResultPage page = cached.pages.get(pageNumber);
+      if (page != null) {
+        this.numHits.incrementAndGet();
+        return page;
+      }
+
+      final int firstPageNumber =
+          ResultCache.getFirstPageToRetrieve(cached, pageNumber);
+      if (pageNumber - firstPageNumber >= MAX_PAGES_PER_QUERY) {
+        throw new IllegalArgumentException("Too far to page " + pageNumber);
+      }
+      this.numMisses.incrementAndGet();
+      try {
+        return this.retrieve(
+            normalizedQuery, cached, firstPageNumber, pageNumber);
+      } catch (final IOException | RuntimeException exception) {
+        // e.g., the point in time expired: start over on the next request
+        this.cachedQueries.remove(normalizedQuery, cached);
+        this.close(cached);
+        throw exception;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of the last page that can be retrieved for any query,
+   * even if none of its pages are cached.
+   * @param pageSize The maximum number of hits per page
+   * @return The page number
+   */
+  public static int getMaxReachablePageNumber(final int pageSize) {
+    // the last page retrievable by offset, and the pages after it
+    final int lastByOffset = Math.max(1, Index.MAX_RESULT_WINDOW / pageSize);
+    return lastByOffset + MAX_PAGES_PER_QUERY - 1;
+  }
+
+  /**
+   * Discards all cached results.
+   */
+  public void invalidate() {
+    final List<CachedQuery> discarded;
+    synchronized (this.cachedQueries) {
+      discarded = new ArrayList<>(this.cachedQueries.values());
+      this.cachedQueries.clear();
+    }
+    for (final CachedQuery cached : discarded) {
+      this.close(cached);
+    }
+    this.numInvalidations.incrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d queries cached, %d hits, %d misses, "
+        + "%d invalidations", this.size(), this.getNumHits(),
+        this.getNumMisses(), this.getNumInvalidations());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Discards all cached results if the number of writes of the index changed
+   * since the last check, unless the last check was too recent.
+   * @throws IOException On requesting the number of writes from the index
+   */
+  protected synchronized void checkForWrites()
+  throws IOException {
+    final long now = System.currentTimeMillis();
+    if (now - this.lastCheckMillis < this.checkIntervalMillis) { return; }
+    this.lastCheckMillis = now;
+
+    final long numWrites = this.getIndex().getNumWrites();
+    if (numWrites != this.numWrites) {
+      if (this.numWrites >= 0) {
+        this.invalidate();
+        LOG.fine("Index changed, discarded results: " + this);
+      }
+      this.numWrites = numWrites;
+    }
+  }
+
+  /**
+   * Gets the cache entry for a query, creating it if it does not exist, is
+   * too old, or is for another page size.
+   * @param query The normalized query
+   * @param pageSize The maximum number of hits per page
+   * @return The entry
+   */
+  protected CachedQuery getCachedQuery(final Query query, final int pageSize) {
+    final long now = System.currentTimeMillis();
+    final CachedQuery discarded;
+    final CachedQuery cached;
+    synchronized (this.cachedQueries) {
+      final CachedQuery existing = this.cachedQueries.get(query);
+      if (existing != null && existing.pageSize == pageSize
+          && now - existing.createdMillis < this.maxAgeMillis) {
+        return existing;
+      }
+      discarded = existing;
+      cached = new CachedQuery(pageSize, now);
+      this.cachedQueries.put(query, cached);
+    }
+    if (discarded != null) { this.close(discarded); }
+    return cached;
+  }
+
+  /**
+   * Gets the number of the first page that has to be retrieved for
+   * retrieving a page.
+   * <p>
+   * Pages that can not be retrieved by their offset, as they are beyond
+   * {@link Index#MAX_RESULT_WINDOW}, are retrieved by searching after the
+   * closest cached page before them, retrieving all pages in between.
+   * </p>
+   * @param cached The cache entry for the query, which the calling thread
+   * has to hold the lock of
+   * @param pageNumber The number of the page, starting at 1
+   * @return The number of the first page to retrieve
+   */
+  protected static int getFirstPageToRetrieve(
+      final CachedQuery cached, final int pageNumber) {
+    int firstPageNumber = pageNumber;
+    while (firstPageNumber > 1
+        && !cached.pages.containsKey(firstPageNumber - 1)
+        && (long) firstPageNumber * cached.pageSize > Index.MAX_RESULT_WINDOW) {
+      --firstPageNumber;
+    }
+    return firstPageNumber;
+  }
+
+  /**
+   * Retrieves pages of results from the index and caches them.
+   * @param query The normalized query
+   * @param cached The cache entry for the query, which the calling thread
+   * has to hold the lock of
+   * @param firstPageNumber The number of the first page to retrieve
+   * @param pageNumber The number of the last page to retrieve
+   * @return The last page
+   * @throws IOException On searching the index
+   * @see #getFirstPageToRetrieve(CachedQuery, int)
+   */
+  protected ResultPage retrieve(
+      final Query query, final CachedQuery cached,
+      final int firstPageNumber, final int pageNumber)
+  throws IOException {
+    final Index index = this.getIndex();
+    final long keepAliveMillis = this.maxAgeMillis + KEEP_ALIVE_MARGIN_MILLIS;
+    final int pageSize = cached.pageSize;
+    if (cached.pointInTimeId == null) {
+      cached.pointInTimeId = index.openPointInTime(query, keepAliveMillis);
+    }
+
+    ResultPage page = null;
+    for (int p = firstPageNumber; p <= pageNumber; ++p) {
+      final ResultPage previous = p == 1 ? null : cached.pages.get(p - 1);
+      if (previous == null) {
+        page = index.search(query, pageSize, (p - 1) * pageSize,
+            cached.pointInTimeId, keepAliveMillis);
+      } else if (previous.getSearchAfter() == null) {
+        page = previous.toEmptyNextPage(); // no hits after
+      } else {
+        page = index.searchAfter(query, previous, keepAliveMillis);
+      }
+      page = page.toDisplayPage();
+      cached.pointInTimeId = page.getPointInTimeId();
+      cached.pages.put(p, page);
+    }
+    return page;
+  }
+
+  /**
+   * Closes the point in time of a discarded cache entry.
+   * @param cached The entry
+   */
+  protected void close(final CachedQuery cached) {
+    final String pointInTimeId = cached.pointInTimeId;
+    if (pointInTimeId == null) { return; }
+    try {
+      this.getIndex().closePointInTime(pointInTimeId);
+    } catch (final IOException | RuntimeException exception) {
+      // expires anyway
+      LOG.log(Level.FINE, "Could not close point in time", exception);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A point in time of the index for a query and the pages of results
+   * retrieved from it.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static final class CachedQuery {
+
+    protected final int pageSize;
+
+    protected final long createdMillis;
+
+    protected final Map<Integer, ResultPage> pages;
+
+    protected volatile String pointInTimeId;
+
+    protected CachedQuery(final int pageSize, final long createdMillis) {
+      this.pageSize = pageSize;
+      this.createdMillis = createdMillis;
+      this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = -1703624290713263924L;
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<Integer, ResultPage> eldest) {
+          return this.size() > MAX_PAGES_PER_QUERY;
+        }
+      };
+      this.pointInTimeId = null;
+    }
+
+  }
+
+}
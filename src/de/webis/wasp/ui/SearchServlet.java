@@ -3,7 +3,6 @@ package de.webis.wasp.ui;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.time.Instant;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.TimeZone;
 
@@ -14,6 +13,7 @@ import com.github.mustachejava.MustacheFactory;
 import de.webis.wasp.index.Index;
 import de.webis.wasp.index.Query;
 import de.webis.wasp.index.Result;
+import de.webis.wasp.index.ResultPage;
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
@@ -23,6 +23,12 @@ import jakarta.servlet.http.HttpSession;
 
 /**
  * Servlet for the search service.
+ * <p>
+ * Results are retrieved one page at a time through a {@link ResultCache}
+ * shared by all sessions, which keeps only display data (see
+ * {@link Result#toDisplayResult()}). A session holds only its current query
+ * (with at most {@link #MAX_TERMS_LENGTH} characters of terms).
+ * </p>
  *
  * @author johannes.kiesel@uni-weimar.de
  *
@@ -55,6 +61,22 @@ extends HttpServlet {
 
   public static final String DEFAULT_REPLAY_COLLECTION = "wasp";
 
+  public static final String INIT_PARAMETER_CACHE_SIZE = "cache.size";
+
+  public static final int DEFAULT_CACHE_SIZE = ResultCache.DEFAULT_MAX_SIZE;
+
+  public static final String INIT_PARAMETER_CACHE_MAX_AGE_SECONDS =
+      "cache.maxage";
+
+  public static final int DEFAULT_CACHE_MAX_AGE_SECONDS =
+      (int) (ResultCache.DEFAULT_MAX_AGE_MILLIS / 1000);
+
+  public static final String INIT_PARAMETER_CACHE_CHECK_INTERVAL_SECONDS =
+      "cache.check";
+
+  public static final int DEFAULT_CACHE_CHECK_INTERVAL_SECONDS =
+      (int) (ResultCache.DEFAULT_CHECK_INTERVAL_MILLIS / 1000);
+
   /////////////////////////////////////////////////////////////////////////////
   // REQUEST
   
@@ -70,12 +92,15 @@ extends HttpServlet {
   
   public static final String REQUEST_PARAMETER_PAGE_NUMBER = "page";
 
+  /**
+   * Maximum number of characters of query terms; longer terms are cut.
+   */
+  public static final int MAX_TERMS_LENGTH = 1024;
+
   /////////////////////////////////////////////////////////////////////////////
   // SESSION
 
   protected static final String SESSION_QUERY = "query";
-
-  protected static final String SESSION_RESULTS = "results";
   
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
@@ -84,6 +109,8 @@ extends HttpServlet {
   private final Mustache pageRenderer;
   
   private Index index;
+
+  private ResultCache resultCache;
   
   private int pageSize;
 
@@ -104,6 +131,7 @@ extends HttpServlet {
         SearchServlet.class.getResourceAsStream("search.mustache")),
         "search.mustache");
     this.index = null;
+    this.resultCache = null;
     this.pageSize = 0;
     this.replayServer = null;
     this.replayCollection = null;
@@ -114,6 +142,15 @@ extends HttpServlet {
     this.index = new Index(
         SearchServlet.getParameterValue(config,
             INIT_PARAMETER_INDEX_PORT, DEFAULT_INDEX_PORT));
+    this.resultCache = new ResultCache(this.index,
+        SearchServlet.getParameterValue(config,
+            INIT_PARAMETER_CACHE_SIZE, DEFAULT_CACHE_SIZE),
+        1000L * SearchServlet.getParameterValue(config,
+            INIT_PARAMETER_CACHE_MAX_AGE_SECONDS,
+            DEFAULT_CACHE_MAX_AGE_SECONDS),
+        1000L * SearchServlet.getParameterValue(config,
+            INIT_PARAMETER_CACHE_CHECK_INTERVAL_SECONDS,
+            DEFAULT_CACHE_CHECK_INTERVAL_SECONDS));
     this.pageSize = SearchServlet.getParameterValue(config,
         INIT_PARAMETER_PAGE_SIZE, DEFAULT_PAGE_SIZE);
     this.replayServer =  SearchServlet.getParameterValue(config,
@@ -142,6 +179,15 @@ extends HttpServlet {
     return this.index;
   }
 
+  /**
+   * Gets the cache for the results of queries, which also counts how many
+   * queries it answered.
+   * @return The cache
+   */
+  public ResultCache getResultCache() {
+    return this.resultCache;
+  }
+
   /**
    * Gets the page size to render.
    * @return The page size
@@ -201,43 +247,34 @@ extends HttpServlet {
           this.getReplayServer(), this.getReplayCollection(),
           request.getLocale(), timezone);
     } else {
-      final List<Result> results = this.getResults(request, query);
-      final int numResults = results.size();
-      final int numPages = (numResults - 1) / pageSize + 1;
-      final int pageNumber = SearchServlet.getPageNumber(request);
-      final int fromResult = Math.min((pageNumber - 1) * pageSize, numResults);
-      final int toResult = Math.min(pageNumber * pageSize, numResults);
-      final List<Result> paginatedResults =
-          results.subList(fromResult, toResult);
+      final ResultPage firstPage = this.getResults(query, 1);
+      // pages too far beyond the result window can not be retrieved
+      final int numPages = Math.min(firstPage.getNumPages(),
+          ResultCache.getMaxReachablePageNumber(pageSize));
+      final int pageNumber =
+          Math.min(SearchServlet.getPageNumber(request), numPages);
+      final ResultPage page =
+          pageNumber == 1 ? firstPage : this.getResults(query, pageNumber);
 
       return new UiPage(
           this.getReplayServer(), this.getReplayCollection(),
-          query, paginatedResults, pageNumber, numPages,
+          query, page.getResults(), pageNumber,
+          Math.min(page.getNumPages(), numPages),
           request.getLocale(), timezone);
     }
   }
 
   /**
-   * Gets the results for the specified query.
-   * @param request The request to the servlet
+   * Gets a page of results for the specified query.
    * @param query The query
-   * @return The results for the query
+   * @param pageNumber The number of the page, starting at 1
+   * @return The page
    * @throws IOException On searching the index
    */
-  protected List<Result> getResults(
-      final HttpServletRequest request, final Query query)
+  protected ResultPage getResults(final Query query, final int pageNumber)
   throws IOException {
-    final HttpSession session = request.getSession();
-    synchronized (session) {
-      @SuppressWarnings("unchecked")
-      List<Result> results =
-          (List<Result>) session.getAttribute(SESSION_RESULTS);
-      if (results == null) {
-        results = this.getIndex().search(query);
-        session.setAttribute(SESSION_RESULTS, results);
-      }
-      return results;
-    }
+    return this.getResultCache().getResults(
+        query, pageNumber, this.getPageSize());
   }
 
   /**
@@ -246,8 +283,11 @@ extends HttpServlet {
    * @return The query or <code>null</code> for none
    */
   protected static Query getQuery(final HttpServletRequest request) {
-    final String terms = request.getParameter(REQUEST_PARAMETER_TERMS);
+    String terms = request.getParameter(REQUEST_PARAMETER_TERMS);
     if (terms == null) { return null; }
+    if (terms.length() > MAX_TERMS_LENGTH) {
+      terms = terms.substring(0, MAX_TERMS_LENGTH);
+    }
 
     final TimeZone timezone = SearchServlet.getClientTimeZone(request);
     final Instant from = SearchServlet.parseInstant(
@@ -261,7 +301,6 @@ extends HttpServlet {
       final Query oldQuery = (Query) session.getAttribute(SESSION_QUERY);
       if (query == null || !query.equals(oldQuery)) {
         session.setAttribute(SESSION_QUERY, query);
-        session.removeAttribute(SESSION_RESULTS);
       }
       return query;
     }
@@ -278,7 +317,7 @@ extends HttpServlet {
     if (pageNumberString == null) {
       return 1;
     } else {
-      return Integer.parseInt(pageNumberString);
+      return Math.max(1, Integer.parseInt(pageNumberString));
     }
   }
 
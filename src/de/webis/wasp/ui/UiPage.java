@@ -36,6 +36,11 @@ public class UiPage {
   /////////////////////////////////////////////////////////////////////////////
   
   protected static final int MAX_URI_DISPLAY_LENGTH = 60;
+
+  /**
+   * Number of links to pages before and after the current page.
+   */
+  protected static final int PAGINATION_WINDOW = 5;
   
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
@@ -84,7 +89,9 @@ public class UiPage {
    * @param query The query for which the results were retrieved
    * @param paginatedResults The results for the specific page
    * @param pageNumber The number of the result page for the query
-   * @param numPages The number of available result pages for the query
+   * @param numPages The number of available result pages for the query,
+   * which is the page linked as the last one (see
+   * {@link ResultCache#getMaxReachablePageNumber(int)})
    * @param locale The locale of the user client
    * @param timeZone The time zone of the user client
    */
@@ -130,8 +137,10 @@ public class UiPage {
     pagination.add(new UiPaginationLink(
         1, "&laquo;", hrefBase + "1",
         false, pageNumber == 1));
-    // pages
-    for (int p = 1; p <= numPages; ++p) {
+    // pages around the current one
+    final int firstLinked = Math.max(1, pageNumber - PAGINATION_WINDOW);
+    final int lastLinked = Math.min(numPages, pageNumber + PAGINATION_WINDOW);
+    for (int p = firstLinked; p <= lastLinked; ++p) {
       pagination.add(new UiPaginationLink(
           p, String.valueOf(p), hrefBase + p,
           p == pageNumber, false));
@@ -387,10 +396,10 @@ public class UiPage {
     final Query query = new Query("foo bar", null, Instant.now());
     final List<Result> results = List.of(
         new Result(0.5, "my snippet",
-            new ResponseRecord("foo", "bar", null, null),
+            ResponseRecord.builder("foo").title("bar").build(),
             new RequestRecord("https://webis.de", Instant.now())),
         new Result(0.25, "my second snippet",
-            new ResponseRecord("foo2", "bar2", null, null),
+            ResponseRecord.builder("foo2").title("bar2").build(),
             new RequestRecord("https://webis.de", Instant.now())));
     final int pageNumber = 1;
     final int numPages = 3;
@@ -1,8 +1,11 @@
 package de.webis.wasp.warcs;
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
@@ -10,6 +13,19 @@ import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,10 +38,26 @@ import edu.cmu.lemurproject.WarcRecord;
  * <p>
  * If archives exist already in the directory, they are read in order of their
  * last modified dates (if set so in the constructor). In this case, it will
- * monitor the latest archive for changes, but not the others!
+ * monitor the latest archive for changes, but not the others! The latest
+ * archive is monitored right away, while the others are read in the background
+ * by a configurable number of threads (the consumer must then be thread-safe),
+ * logging the progress regularly.
  * </p><p>
  * Currently, this treats every file (or directory) within the target directory
  * as an archive and tries to read from it.
+ * </p><p>
+ * If an offset index directory is given, the location of each record is
+ * written to a sidecar file in that directory (see {@link WarcOffsetIndex}).
+ * This directory must not be within the watched directory.
+ * </p><p>
+ * If a checkpoint store is given, the position up to which each archive has
+ * been read is stored regularly after flushing the consumer (if it is
+ * {@link Flushable}), and reading resumes from there on the next start.
+ * Archives without checkpoint are then read entirely (if the store is not
+ * empty, i.e., they were created while the watcher was not running). Once
+ * flushing the consumer failed (i.e., records may not have been consumed),
+ * no more checkpoints are stored, so that the next start resumes before the
+ * failed records.
  * </p>
  *
  * @author johannes.kiesel@uni-weimar.de
@@ -42,6 +74,32 @@ implements AutoCloseable {
   private static final Logger LOG =
       Logger.getLogger(ArchiveWatcher.class.getName());
   
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default number of threads that read existing archives.
+   */
+  public static final int DEFAULT_BACKFILL_THREADS = 1;
+
+  /**
+   * Interval in milliseconds in which the progress of reading existing
+   * archives is logged.
+   */
+  public static final long BACKFILL_PROGRESS_INTERVAL_MILLIS = 10000;
+
+  /**
+   * Maximum interval in milliseconds in which the current file is polled for
+   * new content if no modification events are received.
+   */
+  public static final long POLL_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Default interval in milliseconds in which checkpoints are stored.
+   */
+  public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 10000;
+  
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
   /////////////////////////////////////////////////////////////////////////////
@@ -51,6 +109,28 @@ implements AutoCloseable {
   private final WatchService watchService;
   
   private final Consumer<WarcRecord> consumer;
+
+  private final Path offsetIndexDirectory;
+
+  private final BiPredicate<WarcRecord, ByteBuffer> contentFilter;
+
+  private final RecordLimits recordLimits;
+
+  private final ExecutorService backfillExecutor;
+
+  private final ScheduledExecutorService backfillProgressLogger;
+
+  private volatile boolean stopBackfill;
+
+  private final CheckpointStore checkpointStore;
+
+  private final ScheduledExecutorService checkpointScheduler;
+
+  private final Map<Path, WarcRecordReader> activeReaders;
+
+  private final Map<Path, CheckpointStore.Checkpoint> finishedCheckpoints;
+
+  private boolean consumerFailed;
   
   private WarcRecordReader reader;
   
@@ -59,7 +139,7 @@ implements AutoCloseable {
   /////////////////////////////////////////////////////////////////////////////
   
   /**
-   * Create a new watcher for given directory.
+   * Create a new watcher for given directory with default options.
    * @param directory The directory that contains the archive files
    * @param readExistingRecords Whether records that already exist in the
    * archives in the directory should be read
@@ -69,20 +149,102 @@ implements AutoCloseable {
   public ArchiveWatcher(
       final Path directory, final boolean readExistingRecords,
       final Consumer<WarcRecord> consumer)
+  throws IOException {
+    this(directory, readExistingRecords, consumer, new Options());
+  }
+  
+  /**
+   * Create a new watcher for given directory.
+   * @param directory The directory that contains the archive files
+   * @param readExistingRecords Whether records that already exist in the
+   * archives in the directory should be read
+   * @param consumer The consumer to which the records will be passed
+   * @param options The options for reading the archives (only read here)
+   * @throws IOException On reading records
+   */
+  public ArchiveWatcher(
+      final Path directory, final boolean readExistingRecords,
+      final Consumer<WarcRecord> consumer, final Options options)
   throws IOException {
     if (consumer == null) { throw new NullPointerException(); }
+    final Path offsetIndexDirectory = options.getOffsetIndexDirectory();
+    final CheckpointStore checkpointStore = options.getCheckpointStore();
+    final long checkpointIntervalMillis =
+        options.getCheckpointIntervalMillis();
     this.directory = directory;
     this.consumer = consumer;
+    this.offsetIndexDirectory = offsetIndexDirectory;
+    this.contentFilter = options.getContentFilter();
+    this.recordLimits = options.getRecordLimits();
+    this.stopBackfill = false;
+    this.checkpointStore = checkpointStore;
+    this.activeReaders = new ConcurrentHashMap<>();
+    this.finishedCheckpoints = new ConcurrentHashMap<>();
+    this.consumerFailed = false;
     this.reader = null;
+    if (offsetIndexDirectory != null) {
+      Files.createDirectories(offsetIndexDirectory);
+    }
 
-    this.initForDirectory(readExistingRecords);
-
+    // register first so that no archive created meanwhile is missed
     this.watchService = FileSystems.getDefault().newWatchService();
     this.getDirectory().register(this.getWatchService(),
-        StandardWatchEventKinds.ENTRY_CREATE);
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+
+    final Map<Path, CheckpointStore.Checkpoint> closedArchives =
+        this.initForDirectory(readExistingRecords);
+    if (closedArchives.isEmpty()) {
+      this.backfillExecutor = null;
+      this.backfillProgressLogger = null;
+    } else {
+      final AtomicInteger numThreads = new AtomicInteger();
+      this.backfillExecutor = Executors.newFixedThreadPool(
+          options.getNumBackfillThreads(), runnable -> {
+            final Thread thread = new Thread(runnable,
+                "warc-backfill-" + numThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          });
+      this.backfillProgressLogger =
+          Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "warc-backfill-log");
+            thread.setDaemon(true);
+            return thread;
+          });
+      this.backfill(closedArchives);
+    }
+
+    if (checkpointStore == null) {
+      this.checkpointScheduler = null;
+    } else {
+      this.checkpointScheduler =
+          Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "warc-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+          });
+      this.checkpointScheduler.scheduleWithFixedDelay(() -> {
+        try {
+          this.checkpoint();
+        } catch (final IOException exception) {
+          LOG.log(Level.SEVERE, "Failed to store checkpoints", exception);
+        }
+      }, checkpointIntervalMillis, checkpointIntervalMillis,
+      TimeUnit.MILLISECONDS);
+    }
   }
   
-  private void initForDirectory(final boolean readExistingRecords)
+  /**
+   * Starts reading from the latest archive in the directory.
+   * @param readExistingRecords Whether records that already exist in the
+   * archives in the directory should be read
+   * @return The other archives that have to be read, in order of their last
+   * modified dates, with the checkpoint to start from (or <code>null</code>)
+   * @throws IOException On opening the latest archive
+   */
+  private Map<Path, CheckpointStore.Checkpoint> initForDirectory(
+      final boolean readExistingRecords)
   throws IOException {
     final File[] children = this.getDirectory().toFile().listFiles();
     Arrays.sort(children, new Comparator<File>() {
@@ -91,26 +253,38 @@ implements AutoCloseable {
         return Long.compare(o1.lastModified(), o2.lastModified());
       }
     });
-
-    if (readExistingRecords) {
-      // Read what should be closed files
-      if (children.length >= 2) {
-        for (final File child
-            : Arrays.copyOfRange(children, 0, children.length - 1)) {
-          try (final WarcRecordReader reader = new WarcRecordReader(
-              this.getDirectory().resolve(child.getName()),
-              this.getConsumer())) {
-            reader.run();
-          }
-        }
-      }
-    }
+    
+    final CheckpointStore checkpointStore = this.getCheckpointStore();
+    final boolean resume =
+        checkpointStore != null && !checkpointStore.isEmpty();
     
     // Read what may be the open file
     if (children.length >= 1) {
-      this.openFile(this.getDirectory().resolve(
-          children[children.length - 1].getName()), readExistingRecords);
+      final Path archive = this.getDirectory().resolve(
+          children[children.length - 1].getName());
+      this.openFile(archive, readExistingRecords || resume,
+          checkpointStore == null ? null : checkpointStore.get(archive));
     }
+
+    // What should be closed files
+    final Map<Path, CheckpointStore.Checkpoint> closedArchives =
+        new LinkedHashMap<>();
+    if (children.length >= 2) {
+      for (final File child
+          : Arrays.copyOfRange(children, 0, children.length - 1)) {
+        final Path archive = this.getDirectory().resolve(child.getName());
+        final CheckpointStore.Checkpoint checkpoint =
+            checkpointStore == null ? null : checkpointStore.get(archive);
+        if (checkpoint != null || readExistingRecords || resume) {
+          closedArchives.put(archive, checkpoint);
+        } else if (checkpointStore != null) {
+          // skipped now, so skip also on the next start
+          this.finishedCheckpoints.put(
+              archive, CheckpointStore.Checkpoint.atEnd(archive));
+        }
+      }
+    }
+    return closedArchives;
   }
   
   /////////////////////////////////////////////////////////////////////////////
@@ -141,6 +315,39 @@ implements AutoCloseable {
     return this.consumer;
   }
 
+  /**
+   * Gets the directory to which the offset index files of the archives are
+   * written.
+   * @return The directory or <code>null</code> if they are not written
+   */
+  public Path getOffsetIndexDirectory() {
+    return this.offsetIndexDirectory;
+  }
+
+  /**
+   * Gets the filter that decides for which records the content is read.
+   * @return The filter or <code>null</code> for reading all content
+   */
+  public BiPredicate<WarcRecord, ByteBuffer> getContentFilter() {
+    return this.contentFilter;
+  }
+
+  /**
+   * Gets the limit on the content length of records.
+   * @return The limits or <code>null</code> for none
+   */
+  public RecordLimits getRecordLimits() {
+    return this.recordLimits;
+  }
+
+  /**
+   * Gets the store for checkpoints.
+   * @return The store or <code>null</code> if checkpoints are not used
+   */
+  public CheckpointStore getCheckpointStore() {
+    return this.checkpointStore;
+  }
+
   /**
    * Gets the current WARC record reader.
    * @return The reader
@@ -177,8 +384,11 @@ implements AutoCloseable {
             final Path inputFile = directory.resolve((Path) event.context());
             LOG.fine("New file created in " + directory + ": " + inputFile);
             this.openFile(inputFile, true);
+          } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+            this.notifyModified(directory.resolve((Path) event.context()));
           } else if (kind == StandardWatchEventKinds.OVERFLOW) {
             LOG.warning("Overflow detected when watching " + directory);
+            this.notifyModified(null);
           } else {
             LOG.warning("Unknown watch event kind '" + kind + "' when watching "
                 + directory);
@@ -199,9 +409,99 @@ implements AutoCloseable {
     }
   }
   
+  /**
+   * Waits until all existing archives have been read.
+   * @throws InterruptedException When interrupted while waiting
+   */
+  public void awaitBackfill() throws InterruptedException {
+    if (this.backfillExecutor != null) {
+      this.backfillExecutor.shutdown();
+      this.backfillExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+  }
+
+  /**
+   * Stores the checkpoints of all archives (if a checkpoint store is set).
+   * <p>
+   * First gets the checkpoints from the readers, then flushes the consumer (if
+   * it is {@link Flushable}) so that all records before the checkpoints have
+   * been consumed, and then saves the checkpoints. If flushing the consumer
+   * fails now or failed before, the checkpoints are not saved.
+   * </p>
+   * @throws IOException On flushing the consumer or saving the checkpoints
+   */
+  public void checkpoint() throws IOException {
+    final CheckpointStore checkpointStore = this.getCheckpointStore();
+    if (checkpointStore == null) { return; }
+    synchronized (checkpointStore) {
+      final Map<Path, CheckpointStore.Checkpoint> checkpoints =
+          new HashMap<>(this.finishedCheckpoints);
+      final Map<Path, WarcRecordReader> doneReaders = new HashMap<>();
+      for (final Map.Entry<Path, WarcRecordReader> entry
+          : this.activeReaders.entrySet()) {
+        final WarcRecordReader reader = entry.getValue();
+        final boolean done = reader.isDone(); // before getting the checkpoint
+        final CheckpointStore.Checkpoint checkpoint = reader.getCheckpoint();
+        if (checkpoint != null) { checkpoints.put(entry.getKey(), checkpoint); }
+        if (done) { doneReaders.put(entry.getKey(), reader); }
+      }
+
+      if (this.getConsumer() instanceof Flushable) {
+        try {
+          ((Flushable) this.getConsumer()).flush();
+        } catch (final IOException exception) {
+          if (!this.consumerFailed) {
+            this.consumerFailed = true;
+            LOG.severe("No longer storing checkpoints in " + checkpointStore
+                + " as records may have failed to be consumed");
+          }
+          throw exception;
+        }
+      }
+      if (this.consumerFailed) {
+        LOG.fine("Not storing checkpoints after failure");
+        return;
+      }
+
+      for (final Map.Entry<Path, CheckpointStore.Checkpoint> entry
+          : checkpoints.entrySet()) {
+        checkpointStore.put(entry.getKey(), entry.getValue());
+      }
+      checkpointStore.save();
+      LOG.fine("Stored checkpoints of " + checkpoints.size() + " archives");
+
+      for (final Map.Entry<Path, CheckpointStore.Checkpoint> entry
+          : checkpoints.entrySet()) {
+        this.finishedCheckpoints.remove(entry.getKey(), entry.getValue());
+      }
+      for (final Map.Entry<Path, WarcRecordReader> entry
+          : doneReaders.entrySet()) {
+        this.activeReaders.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Stops reading from the current file and existing archives. Existing
+   * archives that are currently read are read to their end first. Then stores
+   * the checkpoints (if a checkpoint store is set).
+   * @throws IOException On closing the file, storing checkpoints, or when
+   * interrupted
+   */
   @Override
   public void close() throws IOException {
     this.closeFile();
+    this.stopBackfill = true;
+    try {
+      this.awaitBackfill();
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing", exception);
+    }
+    if (this.checkpointScheduler != null) {
+      this.checkpointScheduler.shutdown();
+      this.checkpoint();
+    }
   }
 
   /**
@@ -228,14 +528,364 @@ implements AutoCloseable {
    */
   protected void openFile(
       final Path inputFile, final boolean consumeExistingRecords)
+  throws IOException {
+    this.openFile(inputFile, consumeExistingRecords, null);
+  }
+
+  /**
+   * Starts reading from a new file, keeping watch if records are appended.
+   * @param inputFile The file to read
+   * @param consumeExistingRecords Whether to also pass existing records (after
+   * the checkpoint) to the consumer
+   * @param checkpoint The checkpoint to start from, or <code>null</code> to
+   * start from the beginning of the file
+   * @throws IOException On opening the file
+   */
+  protected void openFile(
+      final Path inputFile, final boolean consumeExistingRecords,
+      final CheckpointStore.Checkpoint checkpoint)
   throws IOException {
     synchronized (this) {
       this.closeFile();
       final WarcRecordReader reader = new ContinuousWarcRecordReader(
-          inputFile, consumeExistingRecords, this.getConsumer(), 1000);
+          inputFile, consumeExistingRecords, this.getConsumer(),
+          POLL_INTERVAL_MILLIS, checkpoint);
+      this.configureReader(reader);
       this.setReader(reader);
+      this.activeReaders.put(inputFile, reader);
       reader.start();
     }
   }
 
+  /**
+   * Notifies the current reader that its file has been modified.
+   * @param file The modified file or <code>null</code> if unknown
+   */
+  protected void notifyModified(final Path file) {
+    synchronized (this) {
+      final WarcRecordReader reader = this.getReader();
+      if (reader instanceof ContinuousWarcRecordReader
+          && (file == null || file.equals(reader.getInputFile()))) {
+        ((ContinuousWarcRecordReader) reader).notifyModified();
+      }
+    }
+  }
+
+  /**
+   * Sets the offset index of a reader if offset index files are written, and
+   * its content filter and record limits.
+   * @param reader The reader
+   * @see #getOffsetIndexDirectory()
+   * @see #getContentFilter()
+   * @see #getRecordLimits()
+   */
+  protected void configureReader(final WarcRecordReader reader) {
+    final Path offsetIndexDirectory = this.getOffsetIndexDirectory();
+    if (offsetIndexDirectory != null) {
+      reader.setOffsetIndex(WarcOffsetIndex.forArchive(
+          reader.getInputFile(), offsetIndexDirectory));
+    }
+    reader.setContentFilter(this.getContentFilter());
+    reader.setRecordLimits(this.getRecordLimits());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads existing archives in the background.
+   * @param archives The archives, in the order to start reading them, with
+   * the checkpoint to start from (or <code>null</code>)
+   */
+  protected void backfill(
+      final Map<Path, CheckpointStore.Checkpoint> archives) {
+    long numBytes = 0;
+    for (final Path archive : archives.keySet()) {
+      numBytes += archive.toFile().length();
+    }
+    final BackfillProgress progress =
+        new BackfillProgress(archives.size(), numBytes);
+    LOG.info("Reading " + archives.size() + " existing archives ("
+        + numBytes + " bytes) in " + this.getDirectory());
+    final ScheduledFuture<?> progressLog =
+        this.backfillProgressLogger.scheduleAtFixedRate(
+            () -> LOG.info(progress.toString()),
+            BACKFILL_PROGRESS_INTERVAL_MILLIS,
+            BACKFILL_PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+    for (final Map.Entry<Path, CheckpointStore.Checkpoint> entry
+        : archives.entrySet()) {
+      this.backfillExecutor.execute(() -> {
+        if (!this.stopBackfill) {
+          this.backfill(entry.getKey(), entry.getValue(), progress);
+        }
+        if (progress.archiveDone() == archives.size()) {
+          progressLog.cancel(false);
+          this.backfillProgressLogger.shutdown();
+          LOG.info("Finished reading existing archives: " + progress);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads an existing archive.
+   * @param archive The archive
+   * @param checkpoint The checkpoint to start from, or <code>null</code> to
+   * start from the beginning of the archive
+   * @param progress The progress to update
+   */
+  protected void backfill(
+      final Path archive, final CheckpointStore.Checkpoint checkpoint,
+      final BackfillProgress progress) {
+    final Consumer<WarcRecord> consumer = this.getConsumer();
+    try (final WarcRecordReader reader = new WarcRecordReader(archive,
+        record -> {
+          progress.recordRead();
+          consumer.accept(record);
+        }, checkpoint)) {
+      this.configureReader(reader);
+      this.activeReaders.put(archive, reader);
+      reader.run();
+    } catch (final IOException exception) {
+      LOG.log(Level.SEVERE, "Error while reading from " + archive, exception);
+    }
+    progress.bytesRead(archive.toFile().length());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Options for reading the archives of a watcher, all of which are optional.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   * @see ArchiveWatcher#ArchiveWatcher(Path, boolean, Consumer, Options)
+   *
+   */
+  public static final class Options {
+
+    private Path offsetIndexDirectory;
+
+    private int numBackfillThreads;
+
+    private CheckpointStore checkpointStore;
+
+    private long checkpointIntervalMillis;
+
+    private BiPredicate<WarcRecord, ByteBuffer> contentFilter;
+
+    private RecordLimits recordLimits;
+
+    /**
+     * Creates new default options.
+     */
+    public Options() {
+      this.offsetIndexDirectory = null;
+      this.numBackfillThreads = DEFAULT_BACKFILL_THREADS;
+      this.checkpointStore = null;
+      this.checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+      this.contentFilter = null;
+      this.recordLimits = null;
+    }
+
+    /**
+     * Gets the directory to write the offset index files of the archives to.
+     * @return The directory or <code>null</code> for not writing them
+     */
+    public Path getOffsetIndexDirectory() {
+      return this.offsetIndexDirectory;
+    }
+
+    /**
+     * Gets the number of threads that read the existing archives.
+     * @return The number
+     */
+    public int getNumBackfillThreads() {
+      return this.numBackfillThreads;
+    }
+
+    /**
+     * Gets the store to resume reading from and to store checkpoints to.
+     * @return The store or <code>null</code> for not using checkpoints
+     */
+    public CheckpointStore getCheckpointStore() {
+      return this.checkpointStore;
+    }
+
+    /**
+     * Gets the interval in milliseconds in which checkpoints are stored.
+     * @return The interval
+     */
+    public long getCheckpointIntervalMillis() {
+      return this.checkpointIntervalMillis;
+    }
+
+    /**
+     * Gets the filter that decides for which records the content is read.
+     * @return The filter or <code>null</code> for reading all content
+     */
+    public BiPredicate<WarcRecord, ByteBuffer> getContentFilter() {
+      return this.contentFilter;
+    }
+
+    /**
+     * Gets the limit on the content length of records.
+     * @return The limits or <code>null</code> for none
+     */
+    public RecordLimits getRecordLimits() {
+      return this.recordLimits;
+    }
+
+    /**
+     * Sets the directory to write the offset index files of the archives to.
+     * @param offsetIndexDirectory The directory or <code>null</code> for not
+     * writing them
+     * @return These options
+     * @see WarcOffsetIndex
+     */
+    public Options offsetIndexDirectory(final Path offsetIndexDirectory) {
+      this.offsetIndexDirectory = offsetIndexDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads that read the existing archives if existing
+     * records are read.
+     * @param numBackfillThreads The number
+     * @return These options
+     * @throws IllegalArgumentException If the number is not positive
+     */
+    public Options numBackfillThreads(final int numBackfillThreads) {
+      if (numBackfillThreads <= 0) {
+        throw new IllegalArgumentException(
+            "number of backfill threads: " + numBackfillThreads);
+      }
+      this.numBackfillThreads = numBackfillThreads;
+      return this;
+    }
+
+    /**
+     * Sets the store to resume reading from and to store checkpoints to.
+     * @param checkpointStore The store or <code>null</code> for not using
+     * checkpoints
+     * @return These options
+     */
+    public Options checkpointStore(final CheckpointStore checkpointStore) {
+      this.checkpointStore = checkpointStore;
+      return this;
+    }
+
+    /**
+     * Sets the interval in milliseconds in which checkpoints are stored.
+     * @param checkpointIntervalMillis The interval
+     * @return These options
+     * @throws IllegalArgumentException If the interval is not positive
+     */
+    public Options checkpointIntervalMillis(
+        final long checkpointIntervalMillis) {
+      if (checkpointIntervalMillis <= 0) {
+        throw new IllegalArgumentException(
+            "checkpoint interval: " + checkpointIntervalMillis);
+      }
+      this.checkpointIntervalMillis = checkpointIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets the filter that decides for which records the content is read.
+     * @param contentFilter The filter or <code>null</code> for reading all
+     * content
+     * @return These options
+     * @see WarcFramingReader#setContentFilter(BiPredicate)
+     */
+    public Options contentFilter(
+        final BiPredicate<WarcRecord, ByteBuffer> contentFilter) {
+      this.contentFilter = contentFilter;
+      return this;
+    }
+
+    /**
+     * Sets the limit on the content length of records.
+     * @param recordLimits The limits or <code>null</code> for none
+     * @return These options
+     * @see WarcFramingReader#setRecordLimits(RecordLimits)
+     */
+    public Options recordLimits(final RecordLimits recordLimits) {
+      this.recordLimits = recordLimits;
+      return this;
+    }
+
+  }
+
+  /**
+   * Progress of reading existing archives.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static final class BackfillProgress {
+
+    private final int numArchives;
+
+    private final long numBytes;
+
+    private final long startNanos;
+
+    private final AtomicInteger numArchivesDone;
+
+    private final AtomicLong numBytesRead;
+
+    private final AtomicLong numRecordsRead;
+
+    protected BackfillProgress(final int numArchives, final long numBytes) {
+      this.numArchives = numArchives;
+      this.numBytes = numBytes;
+      this.startNanos = System.nanoTime();
+      this.numArchivesDone = new AtomicInteger();
+      this.numBytesRead = new AtomicLong();
+      this.numRecordsRead = new AtomicLong();
+    }
+
+    /**
+     * Counts one more archive as done.
+     * @return The number of archives done
+     */
+    protected int archiveDone() {
+      return this.numArchivesDone.incrementAndGet();
+    }
+
+    /**
+     * Counts bytes of archives as read.
+     * @param numBytes The number of bytes
+     */
+    protected void bytesRead(final long numBytes) {
+      this.numBytesRead.addAndGet(numBytes);
+    }
+
+    /**
+     * Counts one more record as read.
+     */
+    protected void recordRead() {
+      this.numRecordsRead.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+      final double seconds = Math.max(
+          (System.nanoTime() - this.startNanos) / 1e9, 0.001);
+      final int archives = this.numArchivesDone.get();
+      final long bytes = this.numBytesRead.get();
+      final long records = this.numRecordsRead.get();
+      return String.format(Locale.ROOT,
+          "%d/%d archives, %d/%d MB, %d records in %.0f s"
+          + " (%.2f archives/s, %.2f MB/s, %.0f records/s)",
+          archives, this.numArchives, bytes >> 20, this.numBytes >> 20,
+          records, seconds, archives / seconds,
+          bytes / (1024.0 * 1024.0) / seconds, records / seconds);
+    }
+
+  }
+
 }
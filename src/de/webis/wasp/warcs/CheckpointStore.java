@@ -0,0 +1,248 @@
+package de.webis.wasp.warcs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Stores up to where each archive has been read and its records have been
+ * consumed, so that reading can resume from there after a restart.
+ * <p>
+ * The checkpoints are kept in a properties file that maps the file name of
+ * each archive to its checkpoint. The file is replaced atomically on each
+ * {@link #save()}, so that a crash leaves either the old or the new version.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class CheckpointStore {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final Path file;
+
+  private final Map<String, Checkpoint> checkpoints;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new store, reading the checkpoints from the file if it exists.
+   * @param file The file to store the checkpoints in
+   * @throws IOException On reading the file
+   */
+  public CheckpointStore(final Path file) throws IOException {
+    this.file = Objects.requireNonNull(file);
+    this.checkpoints = new HashMap<>();
+    if (Files.exists(file)) {
+      final Properties properties = new Properties();
+      try (final Reader reader =
+          Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        properties.load(reader);
+      }
+      for (final String name : properties.stringPropertyNames()) {
+        this.checkpoints.put(
+            name, Checkpoint.parse(properties.getProperty(name)));
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the file the checkpoints are stored in.
+   * @return The file
+   */
+  public Path getFile() {
+    return this.file;
+  }
+
+  /**
+   * Gets the checkpoint of an archive.
+   * @param archive The archive file
+   * @return The checkpoint or <code>null</code> if none is stored
+   */
+  public synchronized Checkpoint get(final Path archive) {
+    return this.checkpoints.get(archive.getFileName().toString());
+  }
+
+  /**
+   * Checks whether no checkpoints are stored, i.e., whether no archive has
+   * been read before.
+   * @return Whether no checkpoints are stored
+   */
+  public synchronized boolean isEmpty() {
+    return this.checkpoints.isEmpty();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets the checkpoint of an archive, to be written on the next
+   * {@link #save()}.
+   * @param archive The archive file
+   * @param checkpoint The checkpoint
+   */
+  public synchronized void put(
+      final Path archive, final Checkpoint checkpoint) {
+    this.checkpoints.put(
+        archive.getFileName().toString(), Objects.requireNonNull(checkpoint));
+  }
+
+  /**
+   * Writes all checkpoints to a temporary file and then replaces the store's
+   * file with it.
+   * @throws IOException On writing
+   */
+  public synchronized void save() throws IOException {
+    final Properties properties = new Properties();
+    for (final Map.Entry<String, Checkpoint> entry
+        : this.checkpoints.entrySet()) {
+      properties.setProperty(entry.getKey(), entry.getValue().toString());
+    }
+
+    final Path temporaryFile =
+        this.getFile().resolveSibling(this.getFile().getFileName() + ".tmp");
+    try (final Writer writer =
+        Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+      properties.store(writer, null);
+    }
+    Files.move(temporaryFile, this.getFile(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public String toString() {
+    return this.getFile().toString();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Where to resume reading an archive.
+   * <p>
+   * Reading resumes at an offset of the archive file at which the input can be
+   * decoded from (for compressed archives the start of a GZip member), and
+   * skips all records that start before the end of the last consumed record.
+   * </p>
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  public static final class Checkpoint {
+
+    private final long offset;
+
+    private final long uncompressedOffset;
+
+    private final long recordEnd;
+
+    private final String recordId;
+
+    /**
+     * Creates a new checkpoint.
+     * @param offset The offset in the archive file to resume reading from
+     * @param uncompressedOffset The offset in the decompressed archive that
+     * corresponds to <code>offset</code>
+     * @param recordEnd The offset in the decompressed archive after the last
+     * consumed record
+     * @param recordId The ID of the last consumed record (may be
+     * <code>null</code>)
+     */
+    public Checkpoint(
+        final long offset, final long uncompressedOffset,
+        final long recordEnd, final String recordId) {
+      this.offset = offset;
+      this.uncompressedOffset = uncompressedOffset;
+      this.recordEnd = recordEnd;
+      this.recordId = recordId;
+    }
+
+    /**
+     * Creates a checkpoint for skipping an entire archive.
+     * @param archive The archive
+     * @return The checkpoint
+     * @throws IOException On getting the archive's size
+     */
+    public static Checkpoint atEnd(final Path archive) throws IOException {
+      return new Checkpoint(Files.size(archive), 0, 0, null);
+    }
+
+    /**
+     * Parses a checkpoint from its string representation.
+     * @param value The string representation
+     * @return The checkpoint
+     * @throws IllegalArgumentException If the value is malformed
+     * @see #toString()
+     */
+    public static Checkpoint parse(final String value) {
+      final String[] fields = value.split(" ", 4);
+      if (fields.length < 3) {
+        throw new IllegalArgumentException("Malformed checkpoint: " + value);
+      }
+      return new Checkpoint(
+          Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+          Long.parseLong(fields[2]), fields.length == 4 ? fields[3] : null);
+    }
+
+    /**
+     * Gets the offset in the archive file to resume reading from.
+     * @return The offset
+     */
+    public long getOffset() {
+      return this.offset;
+    }
+
+    /**
+     * Gets the offset in the decompressed archive that corresponds to
+     * {@link #getOffset()}.
+     * @return The offset
+     */
+    public long getUncompressedOffset() {
+      return this.uncompressedOffset;
+    }
+
+    /**
+     * Gets the offset in the decompressed archive after the last consumed
+     * record.
+     * @return The offset
+     */
+    public long getRecordEnd() {
+      return this.recordEnd;
+    }
+
+    /**
+     * Gets the ID of the last consumed record.
+     * @return The ID or <code>null</code> if unknown
+     */
+    public String getRecordId() {
+      return this.recordId;
+    }
+
+    @Override
+    public String toString() {
+      return this.getOffset() + " " + this.getUncompressedOffset() + " "
+          + this.getRecordEnd()
+          + (this.getRecordId() == null ? "" : " " + this.getRecordId());
+    }
+
+  }
+
+}
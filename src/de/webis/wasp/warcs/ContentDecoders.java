@@ -0,0 +1,101 @@
+package de.webis.wasp.warcs;
+
+import java.io.BufferedInputStream;
+import java.io.PushbackInputStream;
+
+import org.apache.http.client.entity.InputStreamFactory;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
+import org.brotli.dec.BrotliInputStream;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+/**
+ * Decoders for the content encodings of HTTP responses and for compressed
+ * archives.
+ * <p>
+ * The GZip and deflate decoders take their inflaters from
+ * {@link InflaterPool#SHARED}, so that decoding the content of many records
+ * does not allocate a new inflater for each.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ContentDecoders {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Size of the buffer for compressed bytes when decoding record content.
+   */
+  public static final int CONTENT_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Size of the buffer for compressed bytes when decoding archives.
+   */
+  public static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Decoder for the <code>gzip</code> content encoding.
+   */
+  public static final InputStreamFactory GZIP = input ->
+      new GzipMemberInputStream(
+          input, CONTENT_BUFFER_SIZE, InflaterPool.SHARED);
+
+  /**
+   * Decoder for the <code>deflate</code> content encoding, accepting both
+   * zlib and (as some servers send) raw deflate data.
+   */
+  public static final InputStreamFactory DEFLATE = input -> {
+    final PushbackInputStream pushback = new PushbackInputStream(input, 2);
+    final byte[] header = new byte[2];
+    int length = 0;
+    int read = 0;
+    while (length < header.length
+        && (read = pushback.read(header, length, header.length - length)) > 0) {
+      length += read;
+    }
+    pushback.unread(header, 0, length);
+    final boolean zlib = length == 2 && (header[0] & 0x0F) == 8
+        && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+    return new PooledInflaterInputStream(
+        pushback, CONTENT_BUFFER_SIZE, InflaterPool.SHARED, !zlib);
+  };
+
+  /**
+   * Decoder for the <code>br</code> (Brotli) content encoding.
+   */
+  public static final InputStreamFactory BROTLI = input ->
+      // the decoder loses bytes when single-byte and bulk reads are mixed
+      new BufferedInputStream(
+          new BrotliInputStream(input), CONTENT_BUFFER_SIZE);
+
+  /**
+   * Decoder for the <code>zstd</code> (Zstandard) content encoding and for
+   * <code>.zst</code> archives.
+   */
+  public static final InputStreamFactory ZSTD = ZstdInputStream::new;
+
+  /**
+   * The decoders by (lower-case) name of the content encoding.
+   */
+  public static final Lookup<InputStreamFactory> REGISTRY =
+      RegistryBuilder.<InputStreamFactory>create()
+        .register("gzip", GZIP)
+        .register("x-gzip", GZIP)
+        .register("deflate", DEFLATE)
+        .register("br", BROTLI)
+        .register("zstd", ZSTD)
+        .build();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////////////////////////////////////////////////
+
+  // Utility class
+  private ContentDecoders() { }
+
+}
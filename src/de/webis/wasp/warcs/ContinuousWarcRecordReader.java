@@ -18,6 +18,11 @@ import edu.cmu.lemurproject.WarcRecord;
  * This class should be used for archives that are still filled. When you use
  * {@link #close()}, this reader will still continue to read until it
  * encounters the end of the file the next time.
+ * </p><p>
+ * At the end of the file, the reader waits until {@link #notifyModified()} is
+ * called (e.g., by an {@link ArchiveWatcher} on a modification event for the
+ * file) or until the poll interval passed. The latter starts small and grows
+ * while no content appears, as a fallback for missed events.
  * </p>
  *
  * @author johannes.kiesel@uni-weimar.de
@@ -32,6 +37,17 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
   private static final Logger LOG =
       Logger.getLogger(ContinuousWarcRecordReader.class.getName());
 
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Interval in milliseconds in which the file is polled first after
+   * encountering its end. The interval is doubled up to the poll interval of
+   * the reader while no content appears.
+   */
+  public static final long MIN_POLL_INTERVAL_MILLIS = 10;
+
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
   /////////////////////////////////////////////////////////////////////////////
@@ -40,7 +56,13 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
   
   protected boolean consume;
   
-  protected boolean closed;
+  protected volatile boolean closed;
+
+  private final Object modificationMonitor;
+
+  private boolean modified;
+
+  private long currentPollIntervalMillis;
 
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTORS
@@ -53,7 +75,8 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
    * should also be consumed
    * @param consumer Consumer for the WARC records that are read
    * @param pollIntervalMillis On encountering the end of archive, poll the file
-   * in this interval to check when it has more content 
+   * in at most this interval to check when it has more content (unless
+   * notified of a modification)
    * @throws IOException When the file can not be opened
    */
   public ContinuousWarcRecordReader(
@@ -61,10 +84,37 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
       final Consumer<WarcRecord> consumer,
       final long pollIntervalMillis)
   throws IOException {
-    super(inputFile, consumer);
+    this(inputFile, consumeExistingRecords, consumer, pollIntervalMillis,
+        null);
+  }
+
+  /**
+   * Creates a new reader for an archive that is still being filled that starts
+   * at a checkpoint.
+   * @param inputFile The archive file
+   * @param consumeExistingRecords Whether records that are already in the file
+   * (after the checkpoint) should also be consumed
+   * @param consumer Consumer for the WARC records that are read
+   * @param pollIntervalMillis On encountering the end of archive, poll the file
+   * in at most this interval to check when it has more content (unless
+   * notified of a modification)
+   * @param start The checkpoint to start from, or <code>null</code> to start
+   * from the beginning of the archive
+   * @throws IOException When the file can not be opened
+   */
+  public ContinuousWarcRecordReader(
+      final Path inputFile, final boolean consumeExistingRecords,
+      final Consumer<WarcRecord> consumer,
+      final long pollIntervalMillis, final CheckpointStore.Checkpoint start)
+  throws IOException {
+    super(inputFile, consumer, start);
     this.pollIntervalMillis = pollIntervalMillis;
     this.consume = consumeExistingRecords;
     this.closed = false;
+    this.modificationMonitor = new Object();
+    this.modified = false;
+    this.currentPollIntervalMillis =
+        Math.min(MIN_POLL_INTERVAL_MILLIS, pollIntervalMillis);
   }
   
   @Override
@@ -74,6 +124,12 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
     LOG.fine("Open file: " + file);
     return new ContinuousFileInputStream(file);
   }
+
+  @Override
+  protected boolean mapFile() {
+    // the file grows, so it has to be streamed
+    return false;
+  }
   
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
@@ -83,6 +139,18 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
   public void close() throws IOException {
     LOG.fine("Closing " + this.getInputFile());
     this.closed = true;
+    this.notifyModified();
+  }
+
+  /**
+   * Signals that the file has been modified, so that a read waiting at the end
+   * of the file tries again right away.
+   */
+  public void notifyModified() {
+    synchronized (this.modificationMonitor) {
+      this.modified = true;
+      this.modificationMonitor.notifyAll();
+    }
   }
   
   @Override
@@ -96,9 +164,58 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
     super.close();
   }
   
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Waits until {@link #notifyModified()} is called or the current poll
+   * interval passed, and doubles the latter for the next call.
+   * @throws InterruptedException When interrupted while waiting
+   */
+  protected void awaitModification() throws InterruptedException {
+    synchronized (this.modificationMonitor) {
+      if (!this.modified) {
+        this.modificationMonitor.wait(this.currentPollIntervalMillis);
+      }
+      if (!this.modified) {
+        this.currentPollIntervalMillis = Math.min(
+            this.currentPollIntervalMillis * 2, this.pollIntervalMillis);
+      }
+      this.modified = false;
+    }
+  }
+
+  /**
+   * Resets the poll interval after content appeared.
+   */
+  protected void resetPollInterval() {
+    synchronized (this.modificationMonitor) {
+      this.currentPollIntervalMillis =
+          Math.min(MIN_POLL_INTERVAL_MILLIS, this.pollIntervalMillis);
+    }
+  }
+  
   /////////////////////////////////////////////////////////////////////////////
   // HELPER CLASSES
   /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A read operation on a file input stream.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  @FunctionalInterface
+  protected interface ReadOperation {
+
+    /**
+     * Performs the operation.
+     * @return The result of the operation
+     * @throws IOException On reading
+     */
+    int read() throws IOException;
+
+  }
   
   /**
    * Modification of {@link FileInputStream} that does waits at the end of the
@@ -116,78 +233,58 @@ public class ContinuousWarcRecordReader extends WarcRecordReader {
     
     @Override
     public int available() throws IOException {
-      int available = super.available();
-      try {
-        while (available == 0 && !ContinuousWarcRecordReader.this.closed) {
-          ContinuousWarcRecordReader.this.consume = true;
-          Thread.sleep(ContinuousWarcRecordReader.this.pollIntervalMillis);
-          available = super.available();
-        }
-      } catch (final InterruptedException exception) {
-        LOG.log(Level.WARNING, "Interrupted " + this, exception);
-      }
-      
-      if (ContinuousWarcRecordReader.this.closed) {
-        ContinuousWarcRecordReader.this.closeStream();
-      }
-      return available;
+      return this.awaitContent(() -> super.available(), 0);
     }
     
     @Override
     public int read() throws IOException {
-      int read = super.read();
-      try {
-        while (read == -1 && !ContinuousWarcRecordReader.this.closed) {
-          ContinuousWarcRecordReader.this.consume = true;
-          Thread.sleep(ContinuousWarcRecordReader.this.pollIntervalMillis);
-          read = super.read();
-        }
-      } catch (final InterruptedException exception) {
-        LOG.log(Level.WARNING, "Interrupted " + this, exception);
-      }
-
-      if (ContinuousWarcRecordReader.this.closed) {
-        ContinuousWarcRecordReader.this.closeStream();
-      }
-      return read;
+      return this.awaitContent(() -> super.read(), -1);
     }
 
     @Override
     public int read(byte b[]) throws IOException {
-      int read = super.read(b);
-      try {
-        while (read == -1 && !ContinuousWarcRecordReader.this.closed) {
-          ContinuousWarcRecordReader.this.consume = true;
-          Thread.sleep(ContinuousWarcRecordReader.this.pollIntervalMillis);
-          read = super.read(b);
-        }
-      } catch (final InterruptedException exception) {
-        LOG.log(Level.WARNING, "Interrupted " + this, exception);
-      }
-
-      if (ContinuousWarcRecordReader.this.closed) {
-        ContinuousWarcRecordReader.this.closeStream();
-      }
-      return read;
+      return this.awaitContent(() -> super.read(b), -1);
     }
 
     @Override
     public int read(byte b[], int off, int len) throws IOException {
-      int read = super.read(b, off, len);
+      return this.awaitContent(() -> super.read(b, off, len), -1);
+    }
+
+    /**
+     * Performs a read operation, repeating it while it signals the end of the
+     * file until the reader is closed.
+     * @param operation The read operation
+     * @param endOfFile The result of the operation that signals the end of the
+     * file
+     * @return The result of the operation
+     * @throws IOException On reading
+     */
+    protected int awaitContent(
+        final ReadOperation operation, final int endOfFile)
+    throws IOException {
+      final ContinuousWarcRecordReader reader =
+          ContinuousWarcRecordReader.this;
+      int result = operation.read();
+      if (result != endOfFile) { return result; }
+
       try {
-        while (read == -1 && !ContinuousWarcRecordReader.this.closed) {
-          ContinuousWarcRecordReader.this.consume = true;
-          Thread.sleep(ContinuousWarcRecordReader.this.pollIntervalMillis);
-          read = super.read(b, off, len);
+        while (result == endOfFile && !reader.closed) {
+          reader.consume = true;
+          reader.awaitModification();
+          result = operation.read();
         }
       } catch (final InterruptedException exception) {
         LOG.log(Level.WARNING, "Interrupted " + this, exception);
       }
+      if (result != endOfFile) {
+        reader.resetPollInterval();
+      }
 
-      if (ContinuousWarcRecordReader.this.closed) {
-        ContinuousWarcRecordReader.this.closeStream();
+      if (reader.closed) {
+        reader.closeStream();
       }
-      return read;
+      return result;
     }
     
   }
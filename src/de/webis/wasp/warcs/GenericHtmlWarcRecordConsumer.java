@@ -3,7 +3,9 @@ package de.webis.wasp.warcs;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * Generic class for consuming HTML WARC records.
@@ -21,14 +23,25 @@ extends GenericWarcRecordConsumer {
   /**
    * Default function for extracting HTML from response records.
    */
-  public static final Function<String, Document> DEFAULT_DOCUMENT_EXTRACTOR =
-      JerichoDocumentExtractor.INSTANCE;
+  public static final Function<CharSequence, Document>
+  DEFAULT_DOCUMENT_EXTRACTOR = JerichoDocumentExtractor.INSTANCE;
+
+  /**
+   * Default maximum number of characters of the text content of a document.
+   */
+  public static final int DEFAULT_MAX_TEXT_LENGTH = Integer.MAX_VALUE;
   
   /////////////////////////////////////////////////////////////////////////////
   // MEMBERS
   /////////////////////////////////////////////////////////////////////////////
 
-  private Function<String, Document> documentExtractor;
+  private Function<CharSequence, Document> documentExtractor;
+
+  private UnaryOperator<Document> mainContentExtractor;
+
+  private int maxTextLength;
+
+  private final AtomicLong numTextTruncated;
   
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTION
@@ -46,8 +59,11 @@ extends GenericWarcRecordConsumer {
    * @param documentExtractor The extractor
    */
   public GenericHtmlWarcRecordConsumer(
-      final Function<String, Document> documentExtractor) {
+      final Function<CharSequence, Document> documentExtractor) {
     this.setDocumentExtractor(documentExtractor);
+    this.mainContentExtractor = null;
+    this.maxTextLength = DEFAULT_MAX_TEXT_LENGTH;
+    this.numTextTruncated = new AtomicLong();
   }
   
   /////////////////////////////////////////////////////////////////////////////
@@ -58,9 +74,35 @@ extends GenericWarcRecordConsumer {
    * Gets the document extractor for HTML responses.
    * @return The extractor
    */
-  public Function<String, Document> getDocumentExtractor() {
+  public Function<CharSequence, Document> getDocumentExtractor() {
     return this.documentExtractor;
   }
+
+  /**
+   * Gets the extractor that reduces the content of documents to their main
+   * text.
+   * @return The extractor or <code>null</code> for keeping the entire content
+   */
+  public UnaryOperator<Document> getMainContentExtractor() {
+    return this.mainContentExtractor;
+  }
+
+  /**
+   * Gets the maximum number of characters of the text content of a document,
+   * after which it is truncated.
+   * @return The length
+   */
+  public int getMaxTextLength() {
+    return this.maxTextLength;
+  }
+
+  /**
+   * Gets the number of documents whose text content was truncated so far.
+   * @return The number
+   */
+  public long getNumTextTruncated() {
+    return this.numTextTruncated.get();
+  }
   
   /////////////////////////////////////////////////////////////////////////////
   // SETTERS
@@ -71,9 +113,34 @@ extends GenericWarcRecordConsumer {
    * @param documentExtractor The extractor
    */
   protected void setDocumentExtractor(
-      final Function<String, Document> documentExtractor) {
+      final Function<CharSequence, Document> documentExtractor) {
     this.documentExtractor = Objects.requireNonNull(documentExtractor);
   }
+
+  /**
+   * Sets the extractor that reduces the content of documents to their main
+   * text.
+   * @param mainContentExtractor The extractor or <code>null</code> for keeping
+   * the entire content
+   * @see MainContentExtractor
+   */
+  public void setMainContentExtractor(
+      final UnaryOperator<Document> mainContentExtractor) {
+    this.mainContentExtractor = mainContentExtractor;
+  }
+
+  /**
+   * Sets the maximum number of characters of the text content of a document,
+   * after which it is truncated.
+   * @param maxTextLength The length
+   */
+  public void setMaxTextLength(final int maxTextLength) {
+    if (maxTextLength <= 0) {
+      throw new IllegalArgumentException(
+          "Maximum text length must be positive: " + maxTextLength);
+    }
+    this.maxTextLength = maxTextLength;
+  }
   
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
@@ -81,10 +148,16 @@ extends GenericWarcRecordConsumer {
 
   @Override
   protected void acceptHtmlResponse(
-      final String id, final String uri, final String html, final Instant time)
+      final String id, final String uri, final CharSequence html,
+      final Instant time)
   throws IOException {
-    final Document document = this.getDocumentExtractor().apply(html);
-    this.acceptHtmlResponse(id, uri, document, time);
+    Document document = this.getDocumentExtractor().apply(html);
+    final UnaryOperator<Document> mainContentExtractor =
+        this.getMainContentExtractor();
+    if (mainContentExtractor != null) {
+      document = mainContentExtractor.apply(document);
+    }
+    this.acceptHtmlResponse(id, uri, this.truncate(document), time);
   }
 
   protected abstract void acceptHtmlResponse(
@@ -92,6 +165,35 @@ extends GenericWarcRecordConsumer {
       final Instant time)
   throws IOException;
 
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Truncates the text content of a document to the maximum length.
+   * @param document The document
+   * @return The document or a truncated copy of it
+   */
+  protected Document truncate(final Document document) {
+    final String content = this.truncate(document.getContent());
+    final String fullContent = this.truncate(document.getFullContent());
+    if (content == document.getContent()
+        && fullContent == document.getFullContent()) {
+      return document;
+    }
+    this.numTextTruncated.incrementAndGet();
+    return new Document(document.getTitle(), content, fullContent);
+  }
+
+  private String truncate(final String text) {
+    if (text == null || text.length() <= this.getMaxTextLength()) {
+      return text;
+    }
+    int end = this.getMaxTextLength();
+    if (Character.isHighSurrogate(text.charAt(end - 1))) { --end; }
+    return text.substring(0, end);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // DOCUMENT
   /////////////////////////////////////////////////////////////////////////////
@@ -108,14 +210,29 @@ extends GenericWarcRecordConsumer {
 
     private final String content;
 
+    private final String fullContent;
+
     /**
      * Creates a new document.
      * @param title The document's title (or <code>null</code>)
      * @param content The document's content (or <code>null</code>)
      */
     public Document(final String title, final String content) {
+      this(title, content, null);
+    }
+
+    /**
+     * Creates a new document whose content is only a part of its text.
+     * @param title The document's title (or <code>null</code>)
+     * @param content The document's content (or <code>null</code>)
+     * @param fullContent The document's full text content, if the content is
+     * only the main text (or <code>null</code>)
+     */
+    public Document(
+        final String title, final String content, final String fullContent) {
       this.title = title;
       this.content = content;
+      this.fullContent = fullContent;
     }
 
     /**
@@ -133,6 +250,15 @@ extends GenericWarcRecordConsumer {
     public String getContent() {
       return this.content;
     }
+
+    /**
+     * Gets the full text content of the document if its content is only the
+     * main text.
+     * @return The full content (may be <code>null</code>)
+     */
+    public String getFullContent() {
+      return this.fullContent;
+    }
     
   }
 
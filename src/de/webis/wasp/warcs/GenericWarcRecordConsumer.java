@@ -1,13 +1,12 @@
 package de.webis.wasp.warcs;
 
 import java.io.IOException;
+import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.time.Instant;
 
-import org.apache.http.HttpResponse;
-
 import edu.cmu.lemurproject.WarcRecord;
 
 /**
@@ -26,6 +25,36 @@ implements Consumer<WarcRecord> {
   private static final Logger LOG =
       Logger.getLogger(GenericWarcRecordConsumer.class.getName());
   
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private HtmlDecoder htmlDecoder = HtmlDecoder.DEFAULT;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the decoder for the HTML of response records.
+   * @return The decoder
+   */
+  public HtmlDecoder getHtmlDecoder() {
+    return this.htmlDecoder;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets the decoder for the HTML of response records.
+   * @param htmlDecoder The decoder
+   */
+  public void setHtmlDecoder(final HtmlDecoder htmlDecoder) {
+    this.htmlDecoder = Objects.requireNonNull(htmlDecoder);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
   /////////////////////////////////////////////////////////////////////////////
@@ -61,18 +90,37 @@ implements Consumer<WarcRecord> {
 
   protected void acceptResponse(final WarcRecord record, final Instant time)
   throws IOException {
-    final String id = Warcs.getId(record);
-    final String uri = Warcs.getTargetUri(record);
-    final String html = this.getHtml(record);
+    final WarcHttpResponse response = this.parseResponse(record);
+    if (response != null) {
+      this.acceptResponse(response, time);
+    } else {
+      this.acceptNonHtmlResponse(
+          Warcs.getId(record), Warcs.getTargetUri(record), time);
+    }
+  }
+
+  protected void acceptResponse(
+      final WarcHttpResponse response, final Instant time)
+  throws IOException {
+    final CharSequence html = this.getHtml(response);
     if (html != null) {
-      LOG.fine("accept html response " + id + " -> " + uri);
-      this.acceptHtmlResponse(id, uri, html, time);
+      LOG.fine("accept html response " + response.getId()
+          + " -> " + response.getTargetUri());
+      this.acceptHtmlResponse(response, html, time);
     } else {
-      LOG.fine("accept non-html response " + id + " -> " + uri);
-      this.acceptNonHtmlResponse(id, uri, time);
+      LOG.fine("accept non-html response " + response.getId()
+          + " -> " + response.getTargetUri());
+      this.acceptNonHtmlResponse(response, time);
     }
   }
 
+  protected void acceptNonHtmlResponse(
+      final WarcHttpResponse response, final Instant time)
+  throws IOException {
+    this.acceptNonHtmlResponse(
+        response.getId(), response.getTargetUri(), time);
+  }
+
   protected void acceptNonHtmlResponse(
       final String id, final String uri, final Instant time)
   throws IOException {
@@ -80,7 +128,16 @@ implements Consumer<WarcRecord> {
   }
 
   protected void acceptHtmlResponse(
-      final String id, final String uri, final String html, final Instant time)
+      final WarcHttpResponse response, final CharSequence html,
+      final Instant time)
+  throws IOException {
+    this.acceptHtmlResponse(
+        response.getId(), response.getTargetUri(), html, time);
+  }
+
+  protected void acceptHtmlResponse(
+      final String id, final String uri, final CharSequence html,
+      final Instant time)
   throws IOException {
     // do nothing by default
   }
@@ -92,11 +149,19 @@ implements Consumer<WarcRecord> {
   throws IOException {
     this.acceptRevisit(
         Warcs.getId(record),
+        Warcs.getReferedToRecordId(record),
         Warcs.getReferedToTargetUri(record),
         Warcs.getReferedToDate(record),
         time);
   }
 
+  protected void acceptRevisit(
+      final String id, final String originalId, final String uri,
+      final Instant originalTime, final Instant time)
+  throws IOException {
+    this.acceptRevisit(id, uri, originalTime, time);
+  }
+
   protected void acceptRevisit(
       final String id, final String uri, final Instant originalTime,
       final Instant time)
@@ -128,16 +193,13 @@ implements Consumer<WarcRecord> {
   /////////////////////////////////////////////////////////////////////////////
   
   /**
-   * Gets the HTML from a response WARC record.
+   * Parses the HTTP response of a response WARC record.
    * @param record The record
-   * @return The HTML if it exists, or <code>null</code>
+   * @return The response if it could be parsed, or <code>null</code>
    */
-  protected String getHtml(final WarcRecord record) {
+  protected WarcHttpResponse parseResponse(final WarcRecord record) {
     try {
-      final HttpResponse response = Warcs.toResponse(record);
-      if (Warcs.isHtml(response)) {
-        return Warcs.getHtml(record);
-      }
+      return WarcHttpResponse.parse(record);
     } catch (final Throwable exception) {
       LOG.log(Level.FINER,
           "Could not parse record " + Warcs.getId(record),
@@ -145,5 +207,21 @@ implements Consumer<WarcRecord> {
     }
     return null;
   }
+
+  /**
+   * Gets the HTML from a response.
+   * @param response The response
+   * @return The HTML if it exists, or <code>null</code>
+   */
+  protected CharSequence getHtml(final WarcHttpResponse response) {
+    try {
+      return Warcs.getHtml(response, this.getHtmlDecoder());
+    } catch (final Throwable exception) {
+      LOG.log(Level.FINER,
+          "Could not decode record " + response.getId(),
+          exception);
+    }
+    return null;
+  }
   
 }
@@ -0,0 +1,519 @@
+package de.webis.wasp.warcs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream that decompresses GZip data that consists of several members
+ * (as in archives that compress each record separately) and reports the
+ * offset and length of each member.
+ * <p>
+ * Like {@link java.util.zip.GZIPInputStream}, this stream decompresses all
+ * members one after the other. Whenever a member has been read completely, it
+ * is passed to the member listener (if set), which can thus map positions in
+ * the decompressed data to byte ranges in the compressed file.
+ * </p><p>
+ * The stream reads from the underlying stream only when it needs more bytes,
+ * so that it works with streams that block at their end until more content is
+ * appended.
+ * </p><p>
+ * The inflater is taken from an {@link InflaterPool} and returned to it when
+ * the stream is closed.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class GzipMemberInputStream
+extends InputStream {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default size of the buffer for compressed bytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAGIC_1 = 0x1f;
+
+  private static final int MAGIC_2 = 0x8b;
+
+  private static final int METHOD_DEFLATE = 8;
+
+  private static final int FLAG_HEADER_CRC = 2;
+
+  private static final int FLAG_EXTRA = 4;
+
+  private static final int FLAG_NAME = 8;
+
+  private static final int FLAG_COMMENT = 16;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final InputStream input;
+
+  private final byte[] buffer;
+
+  private int bufferPosition;
+
+  private int bufferLimit;
+
+  private long bufferOffset;
+
+  private final InflaterPool inflaterPool;
+
+  private final Inflater inflater;
+
+  private boolean closed;
+
+  private final CRC32 checksum;
+
+  private Consumer<Member> memberListener;
+
+  private boolean inMember;
+
+  private boolean endOfInput;
+
+  private long numMembers;
+
+  private long memberOffset;
+
+  private long memberUncompressedOffset;
+
+  private long uncompressedPosition;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new stream with the default buffer size.
+   * @param input The stream of compressed bytes
+   */
+  public GzipMemberInputStream(final InputStream input) {
+    this(input, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new stream.
+   * @param input The stream of compressed bytes
+   * @param bufferSize The size of the buffer for compressed bytes
+   */
+  public GzipMemberInputStream(final InputStream input, final int bufferSize) {
+    this(input, bufferSize, InflaterPool.SHARED);
+  }
+
+  /**
+   * Creates a new stream.
+   * @param input The stream of compressed bytes
+   * @param bufferSize The size of the buffer for compressed bytes
+   * @param inflaterPool The pool to take the inflater from
+   */
+  public GzipMemberInputStream(
+      final InputStream input, final int bufferSize,
+      final InflaterPool inflaterPool) {
+    this.input = Objects.requireNonNull(input);
+    this.buffer = new byte[bufferSize];
+    this.bufferPosition = 0;
+    this.bufferLimit = 0;
+    this.bufferOffset = 0;
+    this.inflaterPool = inflaterPool;
+    this.inflater = inflaterPool.obtain(true);
+    this.closed = false;
+    this.checksum = new CRC32();
+    this.memberListener = null;
+    this.inMember = false;
+    this.endOfInput = false;
+    this.numMembers = 0;
+    this.memberOffset = 0;
+    this.memberUncompressedOffset = 0;
+    this.uncompressedPosition = 0;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the number of bytes consumed from the compressed stream so far.
+   * @return The number of bytes
+   */
+  public long getPosition() {
+    return this.bufferOffset + this.bufferPosition
+        - (this.inMember ? this.inflater.getRemaining() : 0);
+  }
+
+  /**
+   * Gets the number of decompressed bytes returned so far.
+   * @return The number of bytes
+   */
+  public long getUncompressedPosition() {
+    return this.uncompressedPosition;
+  }
+
+  /**
+   * Gets the offset in the compressed stream of the member that is read
+   * currently or was read last.
+   * @return The offset
+   */
+  public long getMemberOffset() {
+    return this.memberOffset;
+  }
+
+  /**
+   * Gets the offset in the decompressed stream of the data of the member that
+   * is read currently or was read last.
+   * @return The offset
+   */
+  public long getMemberUncompressedOffset() {
+    return this.memberUncompressedOffset;
+  }
+
+  /**
+   * Gets the number of members that have been read completely.
+   * @return The number
+   */
+  public long getNumMembers() {
+    return this.numMembers;
+  }
+
+  /**
+   * Gets the listener that is passed each member after it has been read
+   * completely.
+   * @return The listener or <code>null</code> for none
+   */
+  public Consumer<Member> getMemberListener() {
+    return this.memberListener;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETTER
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets the offsets at which the input starts, for inputs that do not start
+   * at the beginning of the compressed file. Must be called before reading.
+   * @param offset The offset of the first byte of the input in the compressed
+   * file, which must be the start of a member
+   * @param uncompressedOffset The offset of that member's data in the
+   * decompressed file
+   */
+  public void setStartOffset(final long offset, final long uncompressedOffset) {
+    this.bufferOffset = offset;
+    this.memberOffset = offset;
+    this.memberUncompressedOffset = uncompressedOffset;
+    this.uncompressedPosition = uncompressedOffset;
+  }
+
+  /**
+   * Sets the listener that is passed each member after it has been read
+   * completely.
+   * @param memberListener The listener or <code>null</code> for none
+   */
+  public void setMemberListener(final Consumer<Member> memberListener) {
+    this.memberListener = memberListener;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public int read() throws IOException {
+    final byte[] single = new byte[1];
+    final int read = this.read(single, 0, 1);
+    return read < 0 ? -1 : (single[0] & 0xFF);
+  }
+
+  @Override
+  public int read(final byte[] bytes, final int offset, final int length)
+  throws IOException {
+    Objects.checkFromIndexSize(offset, length, bytes.length);
+    if (length == 0) { return 0; }
+    while (true) {
+      if (!this.inMember && (this.endOfInput || !this.readHeader())) {
+        return -1;
+      }
+
+      final int read;
+      try {
+        read = this.inflater.inflate(bytes, offset, length);
+      } catch (final DataFormatException exception) {
+        throw new ZipException(exception.getMessage());
+      }
+      if (read > 0) {
+        this.checksum.update(bytes, offset, read);
+        this.uncompressedPosition += read;
+        return read;
+      }
+
+      if (this.inflater.finished()) {
+        this.bufferPosition = this.bufferLimit - this.inflater.getRemaining();
+        this.readTrailer();
+      } else if (this.inflater.needsDictionary()) {
+        throw new ZipException("GZip member requires a dictionary");
+      } else if (this.inflater.needsInput()) {
+        if (!this.fill()) {
+          throw new EOFException("Unexpected end of GZip member at "
+              + this.getPosition());
+        }
+        this.passBufferToInflater();
+      }
+    }
+  }
+
+  @Override
+  public int available() throws IOException {
+    return this.inMember && !this.inflater.finished() ? 1 : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.closed) { return; }
+    this.closed = true;
+    this.inflaterPool.release(this.inflater, true);
+    this.input.close();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads the header of the next member.
+   * @return Whether a member starts, or <code>false</code> if the end of the
+   * input has been reached
+   * @throws IOException On reading or if the data is not in GZip format
+   */
+  protected boolean readHeader() throws IOException {
+    final long memberOffset = this.bufferOffset + this.bufferPosition;
+    final int magic1 = this.readByte();
+    if (magic1 < 0) {
+      this.endOfInput = true;
+      return false;
+    }
+    if (magic1 != MAGIC_1 || this.readByteStrict() != MAGIC_2) {
+      if (this.numMembers > 0) {
+        // ignore trailing garbage like java.util.zip.GZIPInputStream does
+        this.endOfInput = true;
+        return false;
+      }
+      throw new ZipException("Not in GZip format");
+    }
+    if (this.readByteStrict() != METHOD_DEFLATE) {
+      throw new ZipException("Unsupported compression method");
+    }
+    final int flags = this.readByteStrict();
+    this.skipBytes(6); // modification time, extra flags, operating system
+    if ((flags & FLAG_EXTRA) != 0) {
+      this.skipBytes(this.readByteStrict() | (this.readByteStrict() << 8));
+    }
+    if ((flags & FLAG_NAME) != 0) {
+      while (this.readByteStrict() != 0) { }
+    }
+    if ((flags & FLAG_COMMENT) != 0) {
+      while (this.readByteStrict() != 0) { }
+    }
+    if ((flags & FLAG_HEADER_CRC) != 0) {
+      this.skipBytes(2);
+    }
+
+    this.inflater.reset();
+    this.checksum.reset();
+    this.memberOffset = memberOffset;
+    this.memberUncompressedOffset = this.uncompressedPosition;
+    this.inMember = true;
+    this.passBufferToInflater();
+    return true;
+  }
+
+  /**
+   * Reads the trailer of the current member, checks it, and passes the member
+   * to the listener.
+   * @throws IOException On reading or if the checks fail
+   */
+  protected void readTrailer() throws IOException {
+    this.inMember = false;
+    final long checksum = this.readIntLittleEndian();
+    final long size = this.readIntLittleEndian();
+    final long uncompressedLength =
+        this.uncompressedPosition - this.memberUncompressedOffset;
+    if (checksum != this.checksum.getValue()
+        || size != (uncompressedLength & 0xFFFFFFFFL)) {
+      throw new ZipException("Corrupt GZip trailer at " + this.getPosition());
+    }
+    ++this.numMembers;
+
+    final Consumer<Member> memberListener = this.getMemberListener();
+    if (memberListener != null) {
+      memberListener.accept(new Member(
+          this.memberOffset, this.getPosition() - this.memberOffset,
+          this.memberUncompressedOffset, uncompressedLength));
+    }
+  }
+
+  /**
+   * Passes the unread part of the buffer to the inflater.
+   */
+  protected void passBufferToInflater() {
+    this.inflater.setInput(this.buffer, this.bufferPosition,
+        this.bufferLimit - this.bufferPosition);
+    this.bufferPosition = this.bufferLimit;
+  }
+
+  /**
+   * Reads the next byte of the compressed stream outside of the compressed
+   * data.
+   * @return The byte or -1 if the end of the input has been reached
+   * @throws IOException On reading
+   */
+  protected int readByte() throws IOException {
+    if (this.bufferPosition >= this.bufferLimit && !this.fill()) {
+      return -1;
+    }
+    return this.buffer[this.bufferPosition++] & 0xFF;
+  }
+
+  /**
+   * Reads the next byte of the compressed stream outside of the compressed
+   * data, failing at the end of the input.
+   * @return The byte
+   * @throws IOException On reading or at the end of the input
+   */
+  protected int readByteStrict() throws IOException {
+    final int read = this.readByte();
+    if (read < 0) {
+      throw new EOFException("Unexpected end of GZip member at "
+          + this.getPosition());
+    }
+    return read;
+  }
+
+  private void skipBytes(final int n) throws IOException {
+    for (int i = 0; i < n; ++i) { this.readByteStrict(); }
+  }
+
+  private long readIntLittleEndian() throws IOException {
+    long value = 0;
+    for (int i = 0; i < 4; ++i) {
+      value |= ((long) this.readByteStrict()) << (8 * i);
+    }
+    return value;
+  }
+
+  /**
+   * Replaces the buffer content with the next bytes of the compressed stream.
+   * Must only be called when all bytes of the buffer have been consumed.
+   * @return Whether bytes were read
+   * @throws IOException On reading
+   */
+  protected boolean fill() throws IOException {
+    this.bufferOffset += this.bufferLimit;
+    this.bufferPosition = 0;
+    this.bufferLimit = 0;
+    int read = 0;
+    while (read == 0) {
+      read = this.input.read(this.buffer, 0, this.buffer.length);
+    }
+    if (read < 0) { return false; }
+    this.bufferLimit = read;
+    return true;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A GZip member that has been read completely.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  public static final class Member {
+
+    private final long offset;
+
+    private final long length;
+
+    private final long uncompressedOffset;
+
+    private final long uncompressedLength;
+
+    /**
+     * Creates a new member.
+     * @param offset The offset of the member in the compressed stream
+     * @param length The length of the member in the compressed stream
+     * @param uncompressedOffset The offset of the member's data in the
+     * decompressed stream
+     * @param uncompressedLength The length of the member's data
+     */
+    public Member(
+        final long offset, final long length,
+        final long uncompressedOffset, final long uncompressedLength) {
+      this.offset = offset;
+      this.length = length;
+      this.uncompressedOffset = uncompressedOffset;
+      this.uncompressedLength = uncompressedLength;
+    }
+
+    /**
+     * Gets the offset of the member in the compressed stream.
+     * @return The offset in bytes
+     */
+    public long getOffset() {
+      return this.offset;
+    }
+
+    /**
+     * Gets the length of the member in the compressed stream, including header
+     * and trailer.
+     * @return The length in bytes
+     */
+    public long getLength() {
+      return this.length;
+    }
+
+    /**
+     * Gets the offset of the member's data in the decompressed stream.
+     * @return The offset in bytes
+     */
+    public long getUncompressedOffset() {
+      return this.uncompressedOffset;
+    }
+
+    /**
+     * Gets the length of the member's data.
+     * @return The length in bytes
+     */
+    public long getUncompressedLength() {
+      return this.uncompressedLength;
+    }
+
+    /**
+     * Gets the offset in the decompressed stream right after the member's
+     * data.
+     * @return The offset in bytes
+     */
+    public long getUncompressedEnd() {
+      return this.uncompressedOffset + this.uncompressedLength;
+    }
+
+    @Override
+    public String toString() {
+      return "member at " + this.getOffset() + "+" + this.getLength();
+    }
+
+  }
+
+}
@@ -0,0 +1,283 @@
+package de.webis.wasp.warcs;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+
+/**
+ * Decodes the HTML of an HTTP entity.
+ * <p>
+ * The charset is taken from (in this order) a byte order mark, the
+ * <code>charset</code> parameter of the Content-Type header, and a
+ * <code>&lt;meta&gt;</code> element within the first {@link #SNIFF_LENGTH}
+ * bytes, and defaults to {@link #DEFAULT_CHARSET}. The content is then decoded
+ * while it is read, stopping after the maximum length, so that neither the
+ * entire body nor an intermediate string of it is kept in memory.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class HtmlDecoder {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // LOGGING
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG =
+      Logger.getLogger(HtmlDecoder.class.getName());
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum number of characters to decode.
+   */
+  public static final int DEFAULT_MAX_LENGTH = 4 * 1024 * 1024;
+
+  /**
+   * Charset used when none is specified, as done by web browsers.
+   */
+  public static final Charset DEFAULT_CHARSET = Charset.forName("windows-1252");
+
+  /**
+   * Number of bytes at the start of the content that are searched for a
+   * <code>&lt;meta&gt;</code> element specifying the charset.
+   */
+  public static final int SNIFF_LENGTH = 4096;
+
+  /**
+   * Decoder that uses the default maximum length.
+   */
+  public static final HtmlDecoder DEFAULT = new HtmlDecoder(DEFAULT_MAX_LENGTH);
+
+  protected static final Pattern META_CHARSET_PATTERN = Pattern.compile(
+      "<meta\\s[^>]*?charset\\s*=\\s*[\"']?\\s*([-\\w.:]+)",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final int BUFFER_SIZE = 8192;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final int maxLength;
+
+  private final AtomicLong numTruncated;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new decoder.
+   * @param maxLength The maximum number of characters to decode, after which
+   * the remaining content is ignored
+   */
+  public HtmlDecoder(final int maxLength) {
+    if (maxLength <= 0) {
+      throw new IllegalArgumentException(
+          "Maximum length must be positive: " + maxLength);
+    }
+    this.maxLength = maxLength;
+    this.numTruncated = new AtomicLong();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the maximum number of characters to decode.
+   * @return The length
+   */
+  public int getMaxLength() {
+    return this.maxLength;
+  }
+
+  /**
+   * Gets the number of contents that were truncated so far.
+   * @return The number
+   */
+  public long getNumTruncated() {
+    return this.numTruncated.get();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Decodes the content of an entity.
+   * @param entity The entity
+   * @return The decoded content, truncated to the maximum length
+   * @throws IOException On reading the content
+   */
+  public CharSequence decode(final HttpEntity entity) throws IOException {
+    try (final InputStream input =
+        new BufferedInputStream(entity.getContent(), SNIFF_LENGTH)) {
+      input.mark(SNIFF_LENGTH);
+      final byte[] prefix = new byte[SNIFF_LENGTH];
+      final int prefixLength = HtmlDecoder.readFully(input, prefix);
+      input.reset();
+
+      final Charset charset = HtmlDecoder.detectCharset(
+          prefix, prefixLength, entity.getContentType());
+      input.skip(HtmlDecoder.getByteOrderMarkLength(
+          prefix, prefixLength, charset));
+
+      final StringBuilder html =
+          new StringBuilder(this.getInitialCapacity(entity));
+      final Reader reader = new InputStreamReader(input, charset);
+      final char[] buffer = new char[BUFFER_SIZE];
+      int read = 0;
+      while (html.length() < this.getMaxLength() && (read = reader.read(
+          buffer, 0,
+          Math.min(BUFFER_SIZE, this.getMaxLength() - html.length()))) >= 0) {
+        html.append(buffer, 0, read);
+      }
+      if (read >= 0) {
+        this.numTruncated.incrementAndGet();
+        LOG.fine("Truncated HTML to " + html.length() + " characters");
+      }
+      return html;
+    }
+  }
+
+  /**
+   * Detects the charset of HTML content.
+   * @param prefix The first bytes of the content
+   * @param prefixLength The number of bytes in <code>prefix</code>
+   * @param contentType The Content-Type header of the response (may be
+   * <code>null</code>)
+   * @return The charset
+   */
+  public static Charset detectCharset(
+      final byte[] prefix, final int prefixLength, final Header contentType) {
+    Charset charset = HtmlDecoder.getByteOrderMarkCharset(prefix, prefixLength);
+    if (charset == null) {
+      charset = HtmlDecoder.getHeaderCharset(contentType);
+    }
+    if (charset == null) {
+      charset = HtmlDecoder.getMetaCharset(prefix, prefixLength);
+    }
+    if (charset == null) {
+      charset = DEFAULT_CHARSET;
+    }
+    return charset;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the capacity to allocate for decoding an entity, so that small pages
+   * do not allocate for the maximum length.
+   * @param entity The entity
+   * @return The capacity
+   */
+  protected int getInitialCapacity(final HttpEntity entity) {
+    final long length = entity.getContentLength();
+    if (length < 0) {
+      return Math.min(BUFFER_SIZE, this.getMaxLength());
+    }
+    return (int) Math.min(length, this.getMaxLength());
+  }
+
+  private static Charset getByteOrderMarkCharset(
+      final byte[] prefix, final int prefixLength) {
+    if (prefixLength >= 3 && (prefix[0] & 0xFF) == 0xEF
+        && (prefix[1] & 0xFF) == 0xBB && (prefix[2] & 0xFF) == 0xBF) {
+      return StandardCharsets.UTF_8;
+    } else if (prefixLength >= 2 && (prefix[0] & 0xFF) == 0xFE
+        && (prefix[1] & 0xFF) == 0xFF) {
+      return StandardCharsets.UTF_16BE;
+    } else if (prefixLength >= 2 && (prefix[0] & 0xFF) == 0xFF
+        && (prefix[1] & 0xFF) == 0xFE) {
+      return StandardCharsets.UTF_16LE;
+    } else {
+      return null;
+    }
+  }
+
+  private static int getByteOrderMarkLength(
+      final byte[] prefix, final int prefixLength, final Charset charset) {
+    if (HtmlDecoder.getByteOrderMarkCharset(prefix, prefixLength) == null) {
+      return 0;
+    }
+    return charset.equals(StandardCharsets.UTF_8) ? 3 : 2;
+  }
+
+  private static Charset getHeaderCharset(final Header contentType) {
+    if (contentType == null) { return null; }
+    for (final HeaderElement element : contentType.getElements()) {
+      final NameValuePair parameter = element.getParameterByName("charset");
+      if (parameter != null) {
+        return HtmlDecoder.toCharset(parameter.getValue());
+      }
+    }
+    return null;
+  }
+
+  private static Charset getMetaCharset(
+      final byte[] prefix, final int prefixLength) {
+    final Matcher matcher = META_CHARSET_PATTERN.matcher(
+        new String(prefix, 0, prefixLength, StandardCharsets.ISO_8859_1));
+    while (matcher.find()) {
+      final Charset charset = HtmlDecoder.toCharset(matcher.group(1));
+      if (charset != null) {
+        // the meta element could only be read as the charset is ASCII-based
+        if (charset.name().startsWith("UTF-16")) {
+          return StandardCharsets.UTF_8;
+        }
+        return charset;
+      }
+    }
+    return null;
+  }
+
+  private static Charset toCharset(final String name) {
+    if (name == null) { return null; }
+    final String trimmed = name.trim().toLowerCase(Locale.ROOT);
+    try {
+      if (trimmed.equals("iso-8859-1") || trimmed.equals("us-ascii")) {
+        return DEFAULT_CHARSET; // superset, as done by web browsers
+      }
+      return Charset.forName(trimmed);
+    } catch (final IllegalCharsetNameException
+        | UnsupportedCharsetException exception) {
+      LOG.fine("Ignoring unknown charset " + name);
+      return null;
+    }
+  }
+
+  private static int readFully(final InputStream input, final byte[] buffer)
+  throws IOException {
+    int length = 0;
+    int read = 0;
+    while (length < buffer.length
+        && (read = input.read(buffer, length, buffer.length - length)) >= 0) {
+      length += read;
+    }
+    return length;
+  }
+
+}
@@ -0,0 +1,106 @@
+package de.webis.wasp.warcs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiPredicate;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Content filter for a {@link WarcFramingReader} that rejects the content of
+ * response records that are not HTML.
+ * <p>
+ * The payload type is taken from the Content-Type header of the HTTP response
+ * and checked by {@link Warcs#isHtmlContentType(String)}, as done when the
+ * response is indexed (see {@link WarcHttpResponse#isHtml()}). The sniffed
+ * <code>WARC-Identified-Payload-Type</code> is ignored, as content that is
+ * not HTML by its header is not indexed anyway. Records of other types and
+ * responses whose HTTP header block does not fit into the peeked bytes are
+ * always accepted.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class HtmlPayloadFilter
+implements BiPredicate<WarcRecord, ByteBuffer> {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The single instance of the filter.
+   */
+  public static final HtmlPayloadFilter INSTANCE = new HtmlPayloadFilter();
+
+  private static final byte[] CONTENT_TYPE =
+      "content-type:".getBytes(StandardCharsets.US_ASCII);
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  protected HtmlPayloadFilter() { }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean test(final WarcRecord record, final ByteBuffer contentStart) {
+    if (!Warcs.HEADER_TYPE_RESPONSE.equals(record.getHeaderRecordType())) {
+      return true;
+    }
+
+    final int limit = contentStart.limit();
+    int lineStart = contentStart.position();
+    String contentType = null;
+    for (int i = lineStart; i < limit; ++i) {
+      if (contentStart.get(i) == '\n') {
+        int lineEnd = i;
+        if (lineEnd > lineStart && contentStart.get(lineEnd - 1) == '\r') {
+          --lineEnd;
+        }
+        if (lineEnd == lineStart) {
+          // end of header block: the last content type counts
+          return Warcs.isHtmlContentType(contentType);
+        }
+        if (HtmlPayloadFilter.startsWithContentType(
+            contentStart, lineStart, lineEnd)) {
+          contentType = new String(
+              HtmlPayloadFilter.toArray(contentStart,
+                  lineStart + CONTENT_TYPE.length, lineEnd),
+              StandardCharsets.ISO_8859_1);
+        }
+        lineStart = i + 1;
+      }
+    }
+    return true; // header block not complete
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static boolean startsWithContentType(
+      final ByteBuffer buffer, final int start, final int end) {
+    if (end - start < CONTENT_TYPE.length) { return false; }
+    for (int i = 0; i < CONTENT_TYPE.length; ++i) {
+      final int b = buffer.get(start + i);
+      if (b != CONTENT_TYPE[i]
+          && !(b >= 'A' && b <= 'Z' && b + ('a' - 'A') == CONTENT_TYPE[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] toArray(
+      final ByteBuffer buffer, final int start, final int end) {
+    final byte[] bytes = new byte[end - start];
+    buffer.get(start, bytes);
+    return bytes;
+  }
+
+}
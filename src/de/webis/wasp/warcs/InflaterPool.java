@@ -0,0 +1,93 @@
+package de.webis.wasp.warcs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater} objects, so that decompressing many small streams
+ * (like the content of each record) does not allocate and free the native
+ * memory of an inflater each time.
+ * <p>
+ * Inflaters that are released while the pool is full are ended.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class InflaterPool {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum number of pooled inflaters per type.
+   */
+  public static final int DEFAULT_MAX_POOLED =
+      2 * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Pool shared by all streams that do not use their own.
+   */
+  public static final InflaterPool SHARED =
+      new InflaterPool(DEFAULT_MAX_POOLED);
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final BlockingQueue<Inflater> zlibInflaters;
+
+  private final BlockingQueue<Inflater> rawInflaters;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new pool.
+   * @param maxPooled The maximum number of pooled inflaters per type
+   */
+  public InflaterPool(final int maxPooled) {
+    this.zlibInflaters = new ArrayBlockingQueue<>(maxPooled);
+    this.rawInflaters = new ArrayBlockingQueue<>(maxPooled);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets an inflater from the pool, or creates one if the pool is empty.
+   * @param nowrap Whether the inflater is for raw deflate data without zlib
+   * header and checksum (as in GZip)
+   * @return The inflater
+   * @see Inflater#Inflater(boolean)
+   */
+  public Inflater obtain(final boolean nowrap) {
+    final Inflater inflater = this.getInflaters(nowrap).poll();
+    return inflater == null ? new Inflater(nowrap) : inflater;
+  }
+
+  /**
+   * Returns an inflater to the pool. It must not be used afterwards.
+   * @param inflater The inflater
+   * @param nowrap The value used in {@link #obtain(boolean)} for the inflater
+   */
+  public void release(final Inflater inflater, final boolean nowrap) {
+    inflater.reset();
+    if (!this.getInflaters(nowrap).offer(inflater)) {
+      inflater.end();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private BlockingQueue<Inflater> getInflaters(final boolean nowrap) {
+    return nowrap ? this.rawInflaters : this.zlibInflaters;
+  }
+
+}
@@ -17,7 +17,7 @@ import net.htmlparser.jericho.Source;
  *
  */
 public class JerichoDocumentExtractor
-implements Function<String, Document> {
+implements Function<CharSequence, Document> {
 
   /**
    * The single instance of the extractor.
@@ -28,7 +28,7 @@ implements Function<String, Document> {
   protected JerichoDocumentExtractor() { }
 
   @Override
-  public Document apply(final String html) {
+  public Document apply(final CharSequence html) {
     final Source source = new Source(Objects.requireNonNull(html));
     
     final Renderer renderer = new Renderer(source);
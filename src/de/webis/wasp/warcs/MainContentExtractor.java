@@ -0,0 +1,165 @@
+package de.webis.wasp.warcs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import de.webis.wasp.warcs.GenericHtmlWarcRecordConsumer.Document;
+
+/**
+ * Reduces the content of a document to its main text.
+ * <p>
+ * The content is split into blocks at line breaks, as the document extractors
+ * put each block-level element on its own line. Each block is then classified
+ * as main text or boilerplate by the number of words in it and its
+ * neighbors, following the shallow text features of Kohlschuetter et al.
+ * (Boilerplate Detection using Shallow Text Features, WSDM 2010): runs of
+ * short blocks like navigation menus, footers and link lists are dropped,
+ * while short blocks between longer ones (e.g., headings within an article)
+ * are kept.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class MainContentExtractor
+implements UnaryOperator<Document> {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Extractor that keeps only the main text.
+   */
+  public static final MainContentExtractor MAIN_ONLY =
+      new MainContentExtractor(false);
+
+  /**
+   * Extractor that keeps the full content as well.
+   * @see Document#getFullContent()
+   */
+  public static final MainContentExtractor KEEP_FULL =
+      new MainContentExtractor(true);
+
+  /**
+   * Blocks with more words than this are always main text.
+   */
+  protected static final int LONG_BLOCK_WORDS = 16;
+
+  /**
+   * Blocks with at most {@link #LONG_BLOCK_WORDS} words are main text if the
+   * next block has more words than this.
+   */
+  protected static final int LONG_NEXT_BLOCK_WORDS = 15;
+
+  /**
+   * Blocks with at most {@link #LONG_BLOCK_WORDS} words and a short next block
+   * are main text if the previous block has more words than this.
+   */
+  protected static final int LONG_PREVIOUS_BLOCK_WORDS = 4;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final boolean keepFullContent;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new extractor.
+   * @param keepFullContent Whether to keep the full content in the document
+   * as well
+   */
+  public MainContentExtractor(final boolean keepFullContent) {
+    this.keepFullContent = keepFullContent;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets whether the full content is kept in the document as well.
+   * @return Whether it is
+   */
+  public boolean getKeepFullContent() {
+    return this.keepFullContent;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public Document apply(final Document document) {
+    final String content = document.getContent();
+    if (content == null || content.isEmpty()) { return document; }
+
+    final String mainContent = this.extract(content);
+    return new Document(document.getTitle(), mainContent,
+        this.getKeepFullContent() ? content : null);
+  }
+
+  /**
+   * Extracts the main text from the content of a document.
+   * @param content The content, with one block per line
+   * @return The main text, with one block per line
+   */
+  public String extract(final String content) {
+    final List<String> blocks = new ArrayList<>();
+    final List<Integer> numWords = new ArrayList<>();
+    for (final String line : content.split("\n")) {
+      final int lineWords = MainContentExtractor.countWords(line);
+      if (lineWords > 0) { // empty lines do not separate neighbors
+        blocks.add(line.trim());
+        numWords.add(lineWords);
+      }
+    }
+
+    final int numBlocks = blocks.size();
+    final StringBuilder mainContent = new StringBuilder(content.length());
+    for (int b = 0; b < numBlocks; ++b) {
+      final int previous = b == 0 ? 0 : numWords.get(b - 1);
+      final int next = b == numBlocks - 1 ? 0 : numWords.get(b + 1);
+      if (this.isMainContent(previous, numWords.get(b), next)) {
+        if (mainContent.length() > 0) { mainContent.append('\n'); }
+        mainContent.append(blocks.get(b));
+      }
+    }
+    return mainContent.toString();
+  }
+
+  /**
+   * Checks whether a block is main text.
+   * @param previousWords The number of words in the previous block
+   * @param words The number of words in the block
+   * @param nextWords The number of words in the next block
+   * @return Whether it is
+   */
+  protected boolean isMainContent(
+      final int previousWords, final int words, final int nextWords) {
+    if (words > LONG_BLOCK_WORDS) { return true; }
+    if (nextWords > LONG_NEXT_BLOCK_WORDS) { return true; }
+    return previousWords > LONG_PREVIOUS_BLOCK_WORDS;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static int countWords(final String block) {
+    int numWords = 0;
+    boolean inWord = false;
+    for (int i = 0; i < block.length(); ++i) {
+      final boolean isWordChar = Character.isLetterOrDigit(block.charAt(i));
+      if (isWordChar && !inWord) { ++numWords; }
+      inWord = isWordChar;
+    }
+    return numWords;
+  }
+
+}
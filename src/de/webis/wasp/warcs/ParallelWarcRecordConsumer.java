@@ -0,0 +1,310 @@
+package de.webis.wasp.warcs;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Consumer that passes WARC records on to another consumer using several
+ * threads.
+ * <p>
+ * Records are distributed over a fixed number of lanes, each with its own
+ * bounded queue and worker thread. When the queue of a lane is full, passing a
+ * record to this consumer blocks until the lane's worker takes the next record
+ * (back-pressure to the reader). Records are assigned to lanes by the ID of
+ * the response they belong to (their own ID for responses, the concurrent
+ * record's ID for requests), so that a request and its response are passed on
+ * in the order they were read. The consumer passed to must be thread-safe.
+ * </p><p>
+ * Records for which the consumer throws an exception are logged and reported
+ * by the next call of {@link #flush()}.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ParallelWarcRecordConsumer
+implements Consumer<WarcRecord>, Flushable, AutoCloseable {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // LOGGING
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG =
+      Logger.getLogger(ParallelWarcRecordConsumer.class.getName());
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default number of records that can wait in the queue of each lane.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 64;
+
+  /**
+   * Record put into each queue to stop the lanes.
+   */
+  protected static final WarcRecord END_OF_RECORDS = new WarcRecord();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final Consumer<WarcRecord> consumer;
+
+  private final List<Lane> lanes;
+
+  private final AtomicLong numUnreportedFailures;
+
+  private boolean closed;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new parallel consumer with one lane per available processor.
+   * @param consumer The consumer to pass the records to
+   */
+  public ParallelWarcRecordConsumer(final Consumer<WarcRecord> consumer) {
+    this(consumer, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new parallel consumer with the default queue size.
+   * @param consumer The consumer to pass the records to
+   * @param numLanes The number of lanes (threads)
+   */
+  public ParallelWarcRecordConsumer(
+      final Consumer<WarcRecord> consumer, final int numLanes) {
+    this(consumer, numLanes, DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * Creates a new parallel consumer.
+   * @param consumer The consumer to pass the records to
+   * @param numLanes The number of lanes (threads)
+   * @param queueSize The number of records that can wait in the queue of each
+   * lane
+   */
+  public ParallelWarcRecordConsumer(
+      final Consumer<WarcRecord> consumer,
+      final int numLanes, final int queueSize) {
+    if (numLanes <= 0) {
+      throw new IllegalArgumentException("number of lanes: " + numLanes);
+    }
+    this.consumer = Objects.requireNonNull(consumer);
+    this.numUnreportedFailures = new AtomicLong();
+    this.closed = false;
+    final List<Lane> lanes = new ArrayList<>(numLanes);
+    for (int l = 0; l < numLanes; ++l) {
+      final Lane lane = new Lane(l, queueSize);
+      lanes.add(lane);
+      lane.start();
+    }
+    this.lanes = List.copyOf(lanes);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the consumer to which WARC records are passed to.
+   * @return The consumer
+   */
+  public Consumer<WarcRecord> getConsumer() {
+    return this.consumer;
+  }
+
+  /**
+   * Gets the number of lanes (threads).
+   * @return The number
+   */
+  public int getNumLanes() {
+    return this.lanes.size();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public void accept(final WarcRecord record) {
+    final Lane lane = this.getLane(record);
+    synchronized (this) {
+      if (this.closed) { throw new IllegalStateException("closed"); }
+      ++lane.numPassed;
+    }
+    try {
+      lane.queue.put(record);
+    } catch (final InterruptedException exception) {
+      this.done(lane);
+      Thread.currentThread().interrupt();
+      LOG.log(Level.WARNING, "Interrupted while passing record "
+          + Warcs.getId(record), exception);
+    }
+  }
+
+  /**
+   * Waits until all records passed so far have been consumed, and then
+   * flushes the consumer if it is {@link Flushable}.
+   * <p>
+   * Records passed while waiting are not waited for, so that flushing
+   * finishes even while records are passed continuously.
+   * </p>
+   * @throws IOException On flushing the consumer, when interrupted, or if the
+   * consumer failed for records since the last flush
+   */
+  @Override
+  public void flush() throws IOException {
+    try {
+      synchronized (this) {
+        final long[] numPassed = new long[this.lanes.size()];
+        for (int l = 0; l < numPassed.length; ++l) {
+          numPassed[l] = this.lanes.get(l).numPassed;
+        }
+        for (int l = 0; l < numPassed.length; ++l) {
+          // each lane consumes its records in order
+          while (this.lanes.get(l).numConsumed < numPassed[l]) {
+            this.wait();
+          }
+        }
+      }
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while flushing", exception);
+    }
+    if (this.getConsumer() instanceof Flushable) {
+      ((Flushable) this.getConsumer()).flush();
+    }
+    final long numFailures = this.numUnreportedFailures.getAndSet(0);
+    if (numFailures > 0) {
+      throw new IOException(
+          "Failed to consume " + numFailures + " records since the last flush");
+    }
+  }
+
+  /**
+   * Consumes all records passed so far and stops the lanes.
+   * @throws IOException On flushing the consumer, when interrupted, or if the
+   * consumer failed for records since the last flush
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (this.closed) { return; }
+      this.closed = true;
+    }
+    try {
+      this.flush();
+    } finally {
+      try {
+        for (final Lane lane : this.lanes) {
+          lane.queue.put(END_OF_RECORDS);
+        }
+        for (final Lane lane : this.lanes) {
+          lane.join();
+        }
+      } catch (final InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while closing", exception);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.getNumLanes() + " lanes -> " + this.getConsumer();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the lane for a record.
+   * @param record The record
+   * @return The lane
+   */
+  protected Lane getLane(final WarcRecord record) {
+    String key = null;
+    if (Warcs.HEADER_TYPE_REQUEST.equals(Warcs.getType(record))) {
+      key = Warcs.getConcurrentRecordId(record);
+    }
+    if (key == null) { key = Warcs.getId(record); }
+    final int hash = key == null ? 0 : key.hashCode();
+    return this.lanes.get(Math.floorMod(hash, this.lanes.size()));
+  }
+
+  /**
+   * Marks one passed record of a lane as consumed.
+   * @param lane The lane
+   */
+  protected synchronized void done(final Lane lane) {
+    ++lane.numConsumed;
+    if (lane.numConsumed == lane.numPassed) { this.notifyAll(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Thread that passes the records of its queue to the consumer.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected class Lane extends Thread {
+
+    protected final BlockingQueue<WarcRecord> queue;
+
+    // guarded by the enclosing consumer
+    protected long numPassed;
+
+    protected long numConsumed;
+
+    protected Lane(final int number, final int queueSize) {
+      super("warc-consumer-" + number);
+      this.queue = new ArrayBlockingQueue<>(queueSize);
+      this.numPassed = 0;
+      this.numConsumed = 0;
+      this.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        WarcRecord record = this.queue.take();
+        while (record != END_OF_RECORDS) {
+          try {
+            ParallelWarcRecordConsumer.this.getConsumer().accept(record);
+          } catch (final RuntimeException exception) {
+            ParallelWarcRecordConsumer.this.numUnreportedFailures
+              .incrementAndGet();
+            LOG.log(Level.WARNING, "Failed to consume record "
+                + Warcs.getId(record), exception);
+          } finally {
+            ParallelWarcRecordConsumer.this.done(this);
+          }
+          record = this.queue.take();
+        }
+      } catch (final InterruptedException exception) {
+        LOG.log(Level.WARNING, "Interrupted " + this.getName(), exception);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,64 @@
+package de.webis.wasp.warcs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Input stream that decompresses deflate data using an inflater from an
+ * {@link InflaterPool}, to which it is returned when the stream is closed.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class PooledInflaterInputStream
+extends InflaterInputStream {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final InflaterPool inflaterPool;
+
+  private final boolean nowrap;
+
+  private boolean released;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new stream.
+   * @param input The stream of compressed bytes
+   * @param bufferSize The size of the buffer for compressed bytes
+   * @param inflaterPool The pool to take the inflater from
+   * @param nowrap Whether the data is raw deflate data rather than in zlib
+   * format
+   */
+  public PooledInflaterInputStream(
+      final InputStream input, final int bufferSize,
+      final InflaterPool inflaterPool, final boolean nowrap) {
+    super(input, inflaterPool.obtain(nowrap), bufferSize);
+    this.inflaterPool = inflaterPool;
+    this.nowrap = nowrap;
+    this.released = false;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (!this.released) {
+        this.released = true;
+        this.inflaterPool.release(this.inf, this.nowrap);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+package de.webis.wasp.warcs;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit on the content length of WARC records read by a
+ * {@link WarcFramingReader}, and counters of the records that exceeded it.
+ * <p>
+ * Oversized records are either truncated to the limit or skipped, in which
+ * case only the content up to the first empty line (for response records the
+ * HTTP header block) is kept. Either way, the rest of the content is skipped
+ * without being copied, and the record gets a <code>WARC-Truncated</code>
+ * header. One object can be shared by several readers.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class RecordLimits {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default maximum content length of a record in bytes.
+   */
+  public static final int DEFAULT_MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+  /**
+   * Value of the <code>WARC-Truncated</code> header for records that were
+   * truncated or skipped for their length.
+   */
+  public static final String TRUNCATED_LENGTH = "length";
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final int maxRecordLength;
+
+  private final Mode mode;
+
+  private final AtomicLong numTruncated;
+
+  private final AtomicLong numSkipped;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates new limits.
+   * @param maxRecordLength The maximum content length of a record in bytes
+   * @param mode How to handle records that exceed the maximum length
+   */
+  public RecordLimits(final int maxRecordLength, final Mode mode) {
+    if (maxRecordLength < 0) {
+      throw new IllegalArgumentException(
+          "Maximum record length must not be negative: " + maxRecordLength);
+    }
+    this.maxRecordLength = maxRecordLength;
+    this.mode = Objects.requireNonNull(mode);
+    this.numTruncated = new AtomicLong();
+    this.numSkipped = new AtomicLong();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the maximum content length of a record.
+   * @return The length in bytes
+   */
+  public int getMaxRecordLength() {
+    return this.maxRecordLength;
+  }
+
+  /**
+   * Gets how records that exceed the maximum length are handled.
+   * @return The mode
+   */
+  public Mode getMode() {
+    return this.mode;
+  }
+
+  /**
+   * Gets the number of records that were truncated so far.
+   * @return The number
+   */
+  public long getNumTruncated() {
+    return this.numTruncated.get();
+  }
+
+  /**
+   * Gets the number of records whose content was skipped so far.
+   * @return The number
+   */
+  public long getNumSkipped() {
+    return this.numSkipped.get();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Checks whether a record exceeds the maximum length.
+   * @param contentLength The content length of the record in bytes
+   * @return Whether it does
+   */
+  public boolean isExceeded(final long contentLength) {
+    return contentLength > this.getMaxRecordLength();
+  }
+
+  /**
+   * Counts a record that was truncated or skipped according to the mode.
+   */
+  protected void countExceeded() {
+    if (this.getMode() == Mode.TRUNCATE) {
+      this.numTruncated.incrementAndGet();
+    } else {
+      this.numSkipped.incrementAndGet();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "max " + this.getMaxRecordLength() + " bytes ("
+        + this.getMode().name().toLowerCase() + "): "
+        + this.getNumTruncated() + " truncated, "
+        + this.getNumSkipped() + " skipped";
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * How records that exceed the maximum length are handled.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  public static enum Mode {
+
+    /**
+     * Keep the content up to the maximum length.
+     */
+    TRUNCATE,
+
+    /**
+     * Keep only the content up to the first empty line.
+     */
+    SKIP;
+
+  }
+
+}
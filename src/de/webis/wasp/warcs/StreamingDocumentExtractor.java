@@ -0,0 +1,579 @@
+package de.webis.wasp.warcs;
+
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import de.webis.wasp.warcs.GenericHtmlWarcRecordConsumer.Document;
+import net.htmlparser.jericho.CharacterEntityReference;
+
+/**
+ * A document extractor that makes a single pass over the HTML without building
+ * a document tree.
+ * <p>
+ * Tags are recognized in place and only classified by their name: block-level
+ * elements separate lines, the alternate text of images is included, and the
+ * content of scripts, styles, navigation and similar boilerplate elements is
+ * dropped. Character references are decoded and white space is collapsed.
+ * The text is collected in buffers that are reused by each thread, so that
+ * only the title and content strings of the document are allocated per page.
+ * </p><p>
+ * Compared to {@link JerichoDocumentExtractor}, the extractor does not render
+ * lists, tables and links specially, and drops navigation elements.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class StreamingDocumentExtractor
+implements Function<CharSequence, Document> {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The single instance of the extractor.
+   */
+  public static final StreamingDocumentExtractor INSTANCE =
+      new StreamingDocumentExtractor();
+
+  private static final int MAX_NAME_LENGTH = 16;
+
+  private static final int MAX_ENTITY_NAME_LENGTH = 32;
+
+  private static final int INITIAL_BUFFER_CAPACITY = 64 * 1024;
+
+  private static final Map<CharBuffer, Kind> KINDS = new HashMap<>();
+
+  static {
+    for (final String name : new String[] {
+        "address", "article", "aside", "blockquote", "body", "caption",
+        "center", "dd", "details", "dialog", "div", "dl", "dt", "fieldset",
+        "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5",
+        "h6", "header", "hr", "html", "legend", "li", "main", "ol", "option",
+        "p", "pre", "section", "summary", "table", "tbody", "tfoot", "thead",
+        "tr", "ul"}) {
+      KINDS.put(CharBuffer.wrap(name), Kind.BLOCK);
+    }
+    KINDS.put(CharBuffer.wrap("br"), Kind.BREAK);
+    KINDS.put(CharBuffer.wrap("td"), Kind.CELL);
+    KINDS.put(CharBuffer.wrap("th"), Kind.CELL);
+    KINDS.put(CharBuffer.wrap("img"), Kind.IMAGE);
+    KINDS.put(CharBuffer.wrap("title"), Kind.TITLE);
+    for (final String name : new String[] {
+        "noscript", "script", "style", "textarea", "xmp"}) {
+      KINDS.put(CharBuffer.wrap(name), Kind.RAW);
+    }
+    for (final String name : new String[] {
+        "button", "datalist", "iframe", "math", "nav", "object", "select",
+        "svg", "template"}) {
+      KINDS.put(CharBuffer.wrap(name), Kind.SKIPPED);
+    }
+  }
+
+  private static final ThreadLocal<State> STATE =
+      ThreadLocal.withInitial(State::new);
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  protected StreamingDocumentExtractor() { }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public Document apply(final CharSequence html) {
+    Objects.requireNonNull(html);
+    final State state = STATE.get();
+    state.reset();
+
+    final int length = html.length();
+    int position = 0;
+    while (position < length) {
+      final char c = html.charAt(position);
+      if (c == '<') {
+        position = this.readMarkup(html, position, state);
+      } else if (c == '&') {
+        position = StreamingDocumentExtractor.readCharacterReference(
+            html, position, length,
+            state.skipDepth == 0 ? state.content : null);
+      } else {
+        if (state.skipDepth == 0) { state.content.append(c); }
+        ++position;
+      }
+    }
+
+    StreamingDocumentExtractor.collapseWhiteSpace(state.content, true);
+    final String content = state.content.toString();
+    final String title = state.hasTitle ? state.title.toString() : null;
+    state.shrink();
+    return new Document(title, content);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads a tag, comment, or other markup.
+   * @param html The HTML
+   * @param start The position of the <code>&lt;</code>
+   * @param state The extraction state
+   * @return The position after the markup
+   */
+  protected int readMarkup(
+      final CharSequence html, final int start, final State state) {
+    final int length = html.length();
+    if (start + 1 >= length) {
+      if (state.skipDepth == 0) { state.content.append('<'); }
+      return length;
+    }
+
+    final char next = html.charAt(start + 1);
+    if (next == '!' || next == '?') {
+      if (StreamingDocumentExtractor.startsWith(html, start, "<!--")) {
+        final int end = StreamingDocumentExtractor.indexOf(
+            html, start + 4, "-->");
+        return end < 0 ? length : end + 3;
+      }
+      final int end = StreamingDocumentExtractor.indexOf(html, start, ">");
+      return end < 0 ? length : end + 1;
+    }
+
+    final boolean isEndTag = next == '/';
+    int position = isEndTag ? start + 2 : start + 1;
+    if (position >= length || !Character.isLetter(html.charAt(position))) {
+      // not a tag
+      if (state.skipDepth == 0) { state.content.append('<'); }
+      return start + 1;
+    }
+
+    // name
+    int nameLength = 0;
+    while (position < length) {
+      final char c = html.charAt(position);
+      if (Character.isWhitespace(c) || c == '>' || c == '/') { break; }
+      if (nameLength < MAX_NAME_LENGTH) {
+        state.name[nameLength] = Character.toLowerCase(c);
+      }
+      ++nameLength;
+      ++position;
+    }
+    final Kind kind = nameLength > MAX_NAME_LENGTH
+        ? Kind.INLINE
+        : KINDS.getOrDefault(
+            state.nameView.limit(nameLength).position(0), Kind.INLINE);
+
+    // attributes
+    final int tagEnd = this.readAttributes(
+        html, position, kind == Kind.IMAGE && !isEndTag ? state : null);
+    final boolean selfClosing = tagEnd > start + 1
+        && html.charAt(tagEnd - 1) == '/';
+    final int end = Math.min(length, tagEnd + 1);
+
+    switch (kind) {
+    case BLOCK:
+    case BREAK:
+      if (state.skipDepth == 0) { state.content.append('\n'); }
+      return end;
+    case CELL:
+      if (state.skipDepth == 0) { state.content.append(' '); }
+      return end;
+    case RAW:
+      if (isEndTag || selfClosing) { return end; }
+      return StreamingDocumentExtractor.skipRawText(
+          html, end, state.name, nameLength, null);
+    case TITLE:
+      if (isEndTag || selfClosing) { return end; }
+      if (state.hasTitle || state.skipDepth > 0) {
+        return StreamingDocumentExtractor.skipRawText(
+            html, end, state.name, nameLength, null);
+      }
+      state.hasTitle = true;
+      final int titleEnd = StreamingDocumentExtractor.skipRawText(
+          html, end, state.name, nameLength, state.title);
+      StreamingDocumentExtractor.collapseWhiteSpace(state.title, false);
+      return titleEnd;
+    case SKIPPED:
+      if (isEndTag) {
+        if (state.skipDepth > 0) { --state.skipDepth; }
+      } else if (!selfClosing) {
+        ++state.skipDepth;
+      }
+      return end;
+    default:
+      return end;
+    }
+  }
+
+  /**
+   * Reads the attributes of a tag up to its end.
+   * @param html The HTML
+   * @param start The position after the tag name
+   * @param state The extraction state to append the alternate text to, or
+   * <code>null</code> for not appending it
+   * @return The position of the <code>&gt;</code> that ends the tag, or the
+   * length of the HTML if the tag does not end
+   */
+  protected int readAttributes(
+      final CharSequence html, final int start, final State state) {
+    final int length = html.length();
+    int position = start;
+    while (position < length) {
+      char c = html.charAt(position);
+      if (c == '>') { return position; }
+      if (Character.isWhitespace(c) || c == '/') { ++position; continue; }
+
+      // name
+      final int nameStart = position;
+      while (position < length) {
+        c = html.charAt(position);
+        if (Character.isWhitespace(c) || c == '=' || c == '>' || c == '/') {
+          break;
+        }
+        ++position;
+      }
+      final boolean isAlt = state != null && state.skipDepth == 0
+          && position - nameStart == 3
+          && StreamingDocumentExtractor.startsWithIgnoreCase(
+              html, nameStart, "alt");
+
+      // value
+      while (position < length
+          && Character.isWhitespace(html.charAt(position))) {
+        ++position;
+      }
+      if (position >= length || html.charAt(position) != '=') { continue; }
+      ++position;
+      while (position < length
+          && Character.isWhitespace(html.charAt(position))) {
+        ++position;
+      }
+      if (position >= length) { break; }
+      final char quote = html.charAt(position);
+      final int valueStart;
+      int valueEnd;
+      if (quote == '"' || quote == '\'') {
+        valueStart = position + 1;
+        valueEnd = valueStart;
+        while (valueEnd < length && html.charAt(valueEnd) != quote) {
+          ++valueEnd;
+        }
+        position = Math.min(length, valueEnd + 1);
+      } else {
+        valueStart = position;
+        valueEnd = valueStart;
+        while (valueEnd < length
+            && !Character.isWhitespace(html.charAt(valueEnd))
+            && html.charAt(valueEnd) != '>') {
+          ++valueEnd;
+        }
+        position = valueEnd;
+      }
+      if (isAlt && valueEnd > valueStart) {
+        final StringBuilder content = state.content;
+        content.append(' ');
+        StreamingDocumentExtractor.appendDecoded(
+            html, valueStart, valueEnd, content);
+        content.append(' ');
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Skips text up to and including the end tag of a raw text element.
+   * @param html The HTML
+   * @param start The position after the start tag
+   * @param name The lower-case name of the element
+   * @param nameLength The length of the name
+   * @param text The builder to append the decoded text to, or
+   * <code>null</code> for not appending it
+   * @return The position after the end tag
+   */
+  protected static int skipRawText(
+      final CharSequence html, final int start,
+      final char[] name, final int nameLength, final StringBuilder text) {
+    final int length = html.length();
+    int position = start;
+    while (position < length) {
+      if (html.charAt(position) == '<'
+          && position + 2 + nameLength <= length
+          && html.charAt(position + 1) == '/'
+          && StreamingDocumentExtractor.matchesName(
+              html, position + 2, name, nameLength)) {
+        if (text != null) {
+          StreamingDocumentExtractor.appendDecoded(
+              html, start, position, text);
+        }
+        final int end = StreamingDocumentExtractor.indexOf(
+            html, position + 2 + nameLength, ">");
+        return end < 0 ? length : end + 1;
+      }
+      ++position;
+    }
+    if (text != null) {
+      StreamingDocumentExtractor.appendDecoded(html, start, length, text);
+    }
+    return length;
+  }
+
+  /**
+   * Appends text with decoded character references.
+   * @param html The HTML
+   * @param start The start position of the text
+   * @param end The end position of the text
+   * @param text The builder to append to
+   */
+  protected static void appendDecoded(
+      final CharSequence html, final int start, final int end,
+      final StringBuilder text) {
+    int position = start;
+    while (position < end) {
+      final char c = html.charAt(position);
+      if (c == '&') {
+        position = StreamingDocumentExtractor.readCharacterReference(
+            html, position, end, text);
+      } else {
+        text.append(c);
+        ++position;
+      }
+    }
+  }
+
+  /**
+   * Reads a character reference, or a single ampersand if there is none.
+   * @param html The HTML
+   * @param start The position of the <code>&amp;</code>
+   * @param length The position up to which the reference may extend
+   * @param text The builder to append the character to, or <code>null</code>
+   * for not appending it
+   * @return The position after the reference
+   */
+  protected static int readCharacterReference(
+      final CharSequence html, final int start, final int length,
+      final StringBuilder text) {
+    int position = start + 1;
+    int codePoint = CharacterEntityReference.INVALID_CODE_POINT;
+    if (position < length && html.charAt(position) == '#') {
+      ++position;
+      final boolean hex = position < length
+          && (html.charAt(position) == 'x' || html.charAt(position) == 'X');
+      if (hex) { ++position; }
+      final int digitsStart = position;
+      int value = 0;
+      while (position < length && position - digitsStart < 8) {
+        final int digit = Character.digit(html.charAt(position), hex ? 16 : 10);
+        if (digit < 0) { break; }
+        value = value * (hex ? 16 : 10) + digit;
+        ++position;
+      }
+      if (position > digitsStart) {
+        codePoint = Character.isValidCodePoint(value) && value != 0
+            ? value : 0xFFFD;
+      }
+    } else {
+      final int nameStart = position;
+      while (position < length && position - nameStart < MAX_ENTITY_NAME_LENGTH
+          && Character.isLetterOrDigit(html.charAt(position))) {
+        ++position;
+      }
+      codePoint = StreamingDocumentExtractor.getCodePoint(
+          html, nameStart, position);
+    }
+
+    if (codePoint == CharacterEntityReference.INVALID_CODE_POINT) {
+      if (text != null) { text.append('&'); }
+      return start + 1;
+    }
+    if (position < length && html.charAt(position) == ';') { ++position; }
+    if (text != null) { text.appendCodePoint(codePoint); }
+    return position;
+  }
+
+  private static int getCodePoint(
+      final CharSequence html, final int start, final int end) {
+    switch (end - start) {
+    case 0:
+      return CharacterEntityReference.INVALID_CODE_POINT;
+    case 2:
+      if (StreamingDocumentExtractor.startsWith(html, start, "lt")) {
+        return '<';
+      } else if (StreamingDocumentExtractor.startsWith(html, start, "gt")) {
+        return '>';
+      }
+      break;
+    case 3:
+      if (StreamingDocumentExtractor.startsWith(html, start, "amp")) {
+        return '&';
+      }
+      break;
+    case 4:
+      if (StreamingDocumentExtractor.startsWith(html, start, "nbsp")) {
+        return ' ';
+      } else if (StreamingDocumentExtractor.startsWith(html, start, "quot")) {
+        return '"';
+      } else if (StreamingDocumentExtractor.startsWith(html, start, "apos")) {
+        return '\'';
+      }
+      break;
+    default:
+      break;
+    }
+    return CharacterEntityReference.getCodePointFromName(
+        html.subSequence(start, end).toString());
+  }
+
+  /**
+   * Collapses each sequence of white space to a single space or (if it
+   * contains one and they are kept) a line break, and removes white space at
+   * start and end.
+   * @param text The text to collapse in place
+   * @param keepLineBreaks Whether to keep line breaks
+   */
+  protected static void collapseWhiteSpace(
+      final StringBuilder text, final boolean keepLineBreaks) {
+    final int length = text.length();
+    int written = 0;
+    boolean space = false;
+    boolean lineBreak = false;
+    for (int i = 0; i < length; ++i) {
+      final char c = text.charAt(i);
+      if (c == '\n') {
+        lineBreak = keepLineBreaks;
+        space = true;
+      } else if (Character.isWhitespace(c) || c == '\u00A0') {
+        space = true;
+      } else {
+        if (written > 0 && (lineBreak || space)) {
+          text.setCharAt(written++, lineBreak ? '\n' : ' ');
+        }
+        text.setCharAt(written++, c);
+        space = false;
+        lineBreak = false;
+      }
+    }
+    text.setLength(written);
+  }
+
+  private static boolean matchesName(
+      final CharSequence html, final int start,
+      final char[] name, final int nameLength) {
+    for (int i = 0; i < nameLength; ++i) {
+      if (Character.toLowerCase(html.charAt(start + i)) != name[i]) {
+        return false;
+      }
+    }
+    if (start + nameLength == html.length()) { return true; }
+    final char c = html.charAt(start + nameLength);
+    return c == '>' || c == '/' || Character.isWhitespace(c);
+  }
+
+  private static boolean startsWith(
+      final CharSequence html, final int start, final String prefix) {
+    if (start + prefix.length() > html.length()) { return false; }
+    for (int i = 0; i < prefix.length(); ++i) {
+      if (html.charAt(start + i) != prefix.charAt(i)) { return false; }
+    }
+    return true;
+  }
+
+  private static boolean startsWithIgnoreCase(
+      final CharSequence html, final int start, final String prefix) {
+    if (start + prefix.length() > html.length()) { return false; }
+    for (int i = 0; i < prefix.length(); ++i) {
+      if (Character.toLowerCase(html.charAt(start + i)) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(
+      final CharSequence html, final int start, final String infix) {
+    final int last = html.length() - infix.length();
+    for (int i = start; i <= last; ++i) {
+      if (StreamingDocumentExtractor.startsWith(html, i, infix)) { return i; }
+    }
+    return -1;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * How an element is treated.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static enum Kind {
+    /** Element whose text is part of the surrounding line. */
+    INLINE,
+    /** Element that starts and ends a line. */
+    BLOCK,
+    /** Line break. */
+    BREAK,
+    /** Table cell, separated by a space. */
+    CELL,
+    /** Image, whose alternate text is included. */
+    IMAGE,
+    /** Title of the document. */
+    TITLE,
+    /** Element whose text is not markup and dropped. */
+    RAW,
+    /** Element whose content, including nested elements, is dropped. */
+    SKIPPED;
+  }
+
+  /**
+   * Buffers and state of an extraction, reused by each thread.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  protected static final class State {
+
+    private final StringBuilder content;
+
+    private final StringBuilder title;
+
+    private final char[] name;
+
+    private final CharBuffer nameView;
+
+    private boolean hasTitle;
+
+    private int skipDepth;
+
+    private State() {
+      this.content = new StringBuilder(INITIAL_BUFFER_CAPACITY);
+      this.title = new StringBuilder();
+      this.name = new char[MAX_NAME_LENGTH];
+      this.nameView = CharBuffer.wrap(this.name);
+    }
+
+    private void reset() {
+      this.content.setLength(0);
+      this.title.setLength(0);
+      this.hasTitle = false;
+      this.skipDepth = 0;
+    }
+
+    private void shrink() {
+      // do not keep the buffer of an exceptionally large page
+      if (this.content.capacity() > 16 * INITIAL_BUFFER_CAPACITY) {
+        this.content.setLength(0);
+        this.content.trimToSize();
+        this.content.ensureCapacity(INITIAL_BUFFER_CAPACITY);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,669 @@
+package de.webis.wasp.warcs;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Reads WARC records from a stream or a (memory-mapped) byte buffer.
+ * <p>
+ * Header lines are located and parsed directly in the read buffer, which is
+ * reused between records. When reading from a buffer that holds the entire
+ * archive (e.g., a memory-mapped uncompressed file), the content of each
+ * record is a slice of that buffer and is not copied. When reading from a
+ * stream, the content is read into a new array per record, as records may be
+ * consumed after the next one has been read.
+ * </p><p>
+ * The reader calls only {@link InputStream#read(byte[], int, int)} on the
+ * stream, and only when it needs more bytes, so that it works with streams
+ * that block at their end until more content is appended.
+ * </p><p>
+ * If a content filter is set, it is shown the headers and the first
+ * {@link #PEEK_LENGTH} bytes of the content of each record. For records it
+ * rejects, only the content up to the first empty line (for response records
+ * the HTTP header block) is kept, and the rest is skipped without being
+ * copied. Records that exceed the {@link RecordLimits} (if set) or
+ * {@link #MAX_CONTENT_LENGTH} are truncated or skipped the same way.
+ * </p><p>
+ * Lines longer than {@link #MAX_LINE_LENGTH} are discarded while searching
+ * for the start of a record. Such lines in the header block, and missing,
+ * negative, or unparseable content lengths, are framing errors, as the end of
+ * the record can not be determined.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class WarcFramingReader
+implements AutoCloseable {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Default initial size of the read buffer in bytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Start of the first line of each WARC record.
+   */
+  protected static final byte[] WARC_VERSION =
+      WarcRecord.WARC_VERSION.getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Maximum number of content bytes shown to the content filter.
+   */
+  public static final int PEEK_LENGTH = 4096;
+
+  /**
+   * Maximum length of a header line in bytes.
+   */
+  public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  /**
+   * Maximum length of the content of a record that can be read into memory;
+   * longer records are skipped.
+   */
+  public static final long MAX_CONTENT_LENGTH = Integer.MAX_VALUE - 8;
+
+  /**
+   * Value returned by {@link #readLine()} for a line that was longer than
+   * {@link #MAX_LINE_LENGTH} and has been discarded.
+   */
+  protected static final int LINE_TOO_LONG = -2;
+
+  protected static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+  protected static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final InputStream input;
+
+  private ByteBuffer buffer;
+
+  private byte[] scratch;
+
+  private int lineEndingLength;
+
+  private long bufferOffset;
+
+  private long recordOffset;
+
+  private boolean endOfInput;
+
+  private BiPredicate<WarcRecord, ByteBuffer> contentFilter;
+
+  private RecordLimits recordLimits;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new reader for a stream.
+   * @param input The stream to read from
+   */
+  public WarcFramingReader(final InputStream input) {
+    this(input, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new reader for a stream.
+   * @param input The stream to read from
+   * @param bufferSize The initial size of the read buffer in bytes
+   */
+  public WarcFramingReader(final InputStream input, final int bufferSize) {
+    this.input = Objects.requireNonNull(input);
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    this.buffer.flip();
+    this.scratch = new byte[256];
+    this.bufferOffset = 0;
+    this.recordOffset = -1;
+    this.endOfInput = false;
+  }
+
+  /**
+   * Creates a new reader for a buffer that contains entire records.
+   * @param buffer The buffer to read from, from its position to its limit;
+   * it must not be changed while records read from it are in use
+   */
+  public WarcFramingReader(final ByteBuffer buffer) {
+    this.input = null;
+    this.buffer = buffer.slice();
+    this.scratch = new byte[256];
+    this.bufferOffset = 0;
+    this.recordOffset = -1;
+    this.endOfInput = true;
+  }
+
+  /**
+   * Opens a reader for a file, applying GZip or Zstandard decompression if the
+   * file ends on <code>.gz</code> or <code>.zst</code>, and memory-mapping it
+   * otherwise.
+   * @param file The file
+   * @return The reader
+   * @throws IOException On opening the file
+   */
+  public static WarcFramingReader open(final Path file) throws IOException {
+    if (Warcs.isGzipArchive(file)) {
+      return new WarcFramingReader(new GzipMemberInputStream(
+          new FileInputStream(file.toFile()),
+          ContentDecoders.ARCHIVE_BUFFER_SIZE));
+    } else if (Warcs.isZstdArchive(file)) {
+      return new WarcFramingReader(ContentDecoders.ZSTD.create(
+          new BufferedInputStream(new FileInputStream(file.toFile()),
+              ContentDecoders.ARCHIVE_BUFFER_SIZE)));
+    } else {
+      return WarcFramingReader.open(file, 0);
+    }
+  }
+
+  /**
+   * Opens a reader for an uncompressed file from an offset on, memory-mapping
+   * the file from there if possible.
+   * @param file The file
+   * @param offset The offset to start reading from
+   * @return The reader
+   * @throws IOException On opening the file
+   */
+  public static WarcFramingReader open(final Path file, final long offset)
+  throws IOException {
+    final WarcFramingReader reader;
+    try (final FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ)) {
+      final long length = Math.max(0, channel.size() - offset);
+      if (length <= Integer.MAX_VALUE) {
+        // mapping remains valid after the channel is closed
+        reader = new WarcFramingReader(
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+      } else {
+        final FileInputStream input = new FileInputStream(file.toFile());
+        input.getChannel().position(offset);
+        reader = new WarcFramingReader(input);
+      }
+    }
+    reader.setStartOffset(offset);
+    return reader;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the offset of the next byte to be parsed, counted from the start of
+   * the input.
+   * @return The offset
+   */
+  public long getOffset() {
+    return this.bufferOffset + this.buffer.position();
+  }
+
+  /**
+   * Gets the offset of the first line of the record read last, counted from
+   * the start of the input.
+   * @return The offset or -1 if no record has been read yet
+   */
+  public long getRecordOffset() {
+    return this.recordOffset;
+  }
+
+  /**
+   * Gets the filter that decides for which records the content is read.
+   * @return The filter or <code>null</code> for none
+   */
+  public BiPredicate<WarcRecord, ByteBuffer> getContentFilter() {
+    return this.contentFilter;
+  }
+
+  /**
+   * Gets the limit on the content length of records.
+   * @return The limits or <code>null</code> for none
+   */
+  public RecordLimits getRecordLimits() {
+    return this.recordLimits;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETTER
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets the offset at which the input starts, for inputs that do not start at
+   * the beginning of the archive. Must be called before reading.
+   * @param offset The offset
+   */
+  public void setStartOffset(final long offset) {
+    this.bufferOffset = offset;
+  }
+
+  /**
+   * Sets the filter that decides for which records the content is read.
+   * <p>
+   * The filter is called with the record (with headers, but without content)
+   * and a read-only buffer of the start of the content, and returns whether
+   * to read the entire content.
+   * </p>
+   * @param contentFilter The filter or <code>null</code> for none
+   */
+  public void setContentFilter(
+      final BiPredicate<WarcRecord, ByteBuffer> contentFilter) {
+    this.contentFilter = contentFilter;
+  }
+
+  /**
+   * Sets the limit on the content length of records. Records that exceed it
+   * are not passed to the content filter.
+   * @param recordLimits The limits or <code>null</code> for none
+   */
+  public void setRecordLimits(final RecordLimits recordLimits) {
+    this.recordLimits = recordLimits;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads the next record.
+   * @return The record or <code>null</code> if the end of the input has been
+   * reached
+   * @throws IOException On reading the record
+   */
+  public WarcRecord read() throws IOException {
+    // find the first line of the record
+    int lineLength = this.readLine();
+    while (lineLength != -1 && !this.isVersionLine(lineLength)) {
+      lineLength = this.readLine();
+    }
+    if (lineLength < 0) { return null; }
+    final long recordOffset =
+        this.bufferOffset + this.getLineStart(lineLength);
+
+    // read until we see the content length and then an empty line
+    // (to handle malformed ClueWeb09 headers that have blank lines)
+    final WarcRecord record = new WarcRecord();
+    long contentLength = -1;
+    lineLength = this.readLine();
+    while (lineLength > 0 || (lineLength == 0 && contentLength < 0)) {
+      if (this.isVersionLine(lineLength)) {
+        throw new IOException("No " + HEADER_CONTENT_LENGTH
+            + " in record at offset " + recordOffset);
+      }
+      if (lineLength > 0) {
+        final long parsed =
+            this.parseHeaderLine(record, lineLength, recordOffset);
+        if (parsed >= 0) { contentLength = parsed; }
+      }
+      lineLength = this.readLine();
+    }
+    if (lineLength == LINE_TOO_LONG) {
+      throw new IOException("Header line of more than " + MAX_LINE_LENGTH
+          + " bytes in record at offset " + recordOffset);
+    }
+    if (lineLength < 0) { return null; }
+
+    final ByteBuffer content;
+    final RecordLimits limits = this.getRecordLimits();
+    if (limits != null && limits.isExceeded(contentLength)) {
+      record.addHeaderMetadata(
+          Warcs.HEADER_TRUNCATED, RecordLimits.TRUNCATED_LENGTH);
+      limits.countExceeded();
+      content = limits.getMode() == RecordLimits.Mode.TRUNCATE
+          ? this.truncateContent(contentLength, limits.getMaxRecordLength())
+          : this.skipContent(contentLength);
+    } else if (contentLength > MAX_CONTENT_LENGTH) {
+      record.addHeaderMetadata(
+          Warcs.HEADER_TRUNCATED, RecordLimits.TRUNCATED_LENGTH);
+      content = this.skipContent(contentLength);
+    } else if (this.isContentAccepted(record, contentLength)) {
+      content = this.readContent((int) contentLength);
+    } else {
+      content = this.skipContent(contentLength);
+    }
+    if (content == null) { return null; }
+    record.setContent(content);
+    this.recordOffset = recordOffset;
+    return record;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.input != null) { this.input.close(); }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads the next line into the buffer.
+   * <p>
+   * After this method returns, the line starts at the position of the buffer
+   * minus the returned length minus the length of the line ending.
+   * Call {@link #getLineStart(int)} to get the start.
+   * </p><p>
+   * Lines longer than {@link #MAX_LINE_LENGTH} are discarded while they are
+   * scanned, so that the buffer does not grow on binary content.
+   * </p>
+   * @return The length of the line without line ending, -1 if the end of
+   * the input has been reached, or {@link #LINE_TOO_LONG}
+   * @throws IOException On reading from the stream
+   */
+  protected int readLine() throws IOException {
+    int scanned = 0;
+    boolean tooLong = false;
+    while (true) {
+      final ByteBuffer buffer = this.buffer;
+      final int start = buffer.position();
+      final int limit = buffer.limit();
+      for (int i = start + scanned; i < limit; ++i) {
+        if (buffer.get(i) == '\n') {
+          buffer.position(i + 1);
+          if (tooLong || i - start > MAX_LINE_LENGTH) {
+            return LINE_TOO_LONG;
+          }
+          int length = i - start;
+          if (length > 0 && buffer.get(i - 1) == '\r') { --length; }
+          this.lineEndingLength = i - start - length + 1;
+          return length;
+        }
+      }
+      scanned = limit - start;
+      if (scanned > MAX_LINE_LENGTH) {
+        buffer.position(limit);
+        scanned = 0;
+        tooLong = true;
+      }
+      if (!this.fill()) {
+        if (tooLong) { return LINE_TOO_LONG; }
+        if (scanned == 0) { return -1; }
+        buffer.position(limit);
+        this.lineEndingLength = 0;
+        return scanned;
+      }
+    }
+  }
+
+  /**
+   * Gets the start of the line just read in the buffer.
+   * @param lineLength The length of the line as returned by
+   * {@link #readLine()}
+   * @return The start position
+   */
+  protected int getLineStart(final int lineLength) {
+    return this.buffer.position() - this.lineEndingLength - lineLength;
+  }
+
+  /**
+   * Checks whether the line just read starts a WARC record.
+   * @param lineLength The length of the line
+   * @return Whether it does
+   */
+  protected boolean isVersionLine(final int lineLength) {
+    if (lineLength < WARC_VERSION.length) { return false; }
+    final int start = this.getLineStart(lineLength);
+    for (int i = 0; i < WARC_VERSION.length; ++i) {
+      if (this.buffer.get(start + i) != WARC_VERSION[i]) { return false; }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the header line just read and adds it to the record.
+   * @param record The record
+   * @param lineLength The length of the line
+   * @param recordOffset The offset of the record for error messages
+   * @return The content length if the line specified it, or -1
+   * @throws IOException If the line specifies an invalid content length
+   */
+  protected long parseHeaderLine(
+      final WarcRecord record, final int lineLength, final long recordOffset)
+  throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    final int start = this.getLineStart(lineLength);
+    final int end = start + lineLength;
+    int colon = start;
+    while (colon < end && buffer.get(colon) != ':') { ++colon; }
+    if (colon == end) {
+      record.addHeaderMetadata(this.decode(start, end).trim(), "");
+      return -1;
+    }
+
+    final String key = this.decode(start, colon).trim();
+    final String value = this.decode(colon + 1, end).trim();
+    switch (key) {
+    case Warcs.HEADER_TYPE:
+      record.setWarcRecordType(value);
+      break;
+    case Warcs.HEADER_DATE:
+      record.setWarcDate(value);
+      break;
+    case Warcs.HEADER_ID:
+      record.setWarcUUID(value);
+      break;
+    case HEADER_CONTENT_TYPE:
+      record.setWarcContentType(value);
+      break;
+    case HEADER_CONTENT_LENGTH:
+      try {
+        final long contentLength = Long.parseLong(value);
+        if (contentLength >= 0) { return contentLength; }
+      } catch (final NumberFormatException exception) {
+        // handled below
+      }
+      throw new IOException("Invalid " + HEADER_CONTENT_LENGTH + " '"
+          + value + "' in record at offset " + recordOffset);
+    default:
+      record.addHeaderMetadata(key, value);
+      break;
+    }
+    return -1;
+  }
+
+  /**
+   * Decodes part of the buffer as UTF-8.
+   * @param start The start position in the buffer
+   * @param end The end position in the buffer
+   * @return The decoded string
+   */
+  protected String decode(final int start, final int end) {
+    final int length = end - start;
+    final ByteBuffer buffer = this.buffer;
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + start, length,
+          StandardCharsets.UTF_8);
+    } else {
+      if (this.scratch.length < length) { this.scratch = new byte[length]; }
+      buffer.get(start, this.scratch, 0, length);
+      return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Reads the content of a record that starts at the current position.
+   * @param contentLength The length of the content in bytes, at most
+   * {@link #MAX_CONTENT_LENGTH}
+   * @return The content or <code>null</code> if the end of the input was
+   * reached before
+   * @throws IOException On reading from the stream
+   */
+  protected ByteBuffer readContent(final int contentLength)
+  throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    final int start = buffer.position();
+    if (this.input == null) {
+      if (buffer.remaining() < contentLength) { return null; }
+      buffer.position(start + contentLength);
+      return buffer.slice(start, contentLength);
+    }
+
+    final byte[] content = new byte[contentLength];
+    final int buffered = Math.min(buffer.remaining(), contentLength);
+    buffer.get(content, 0, buffered);
+    int read = buffered;
+    while (read < contentLength) {
+      final int numRead =
+          this.input.read(content, read, contentLength - read);
+      if (numRead < 0) {
+        this.endOfInput = true;
+        return null;
+      }
+      read += numRead;
+    }
+    this.bufferOffset += contentLength - buffered;
+    return ByteBuffer.wrap(content);
+  }
+
+  /**
+   * Checks whether the content filter accepts the content of a record that
+   * starts at the current position.
+   * @param record The record with its headers
+   * @param contentLength The length of the content in bytes
+   * @return Whether the content is accepted or there is no filter
+   * @throws IOException On reading from the stream
+   */
+  protected boolean isContentAccepted(
+      final WarcRecord record, final long contentLength)
+  throws IOException {
+    final BiPredicate<WarcRecord, ByteBuffer> filter =
+        this.getContentFilter();
+    if (filter == null) { return true; }
+
+    final int peekLength = (int) Math.min(PEEK_LENGTH, contentLength);
+    while (this.buffer.remaining() < peekLength && this.fill()) { }
+    final ByteBuffer buffer = this.buffer;
+    return filter.test(record, buffer.slice(buffer.position(),
+        Math.min(peekLength, buffer.remaining())).asReadOnlyBuffer());
+  }
+
+  /**
+   * Skips the content of a record that starts at the current position, except
+   * for the bytes up to the first empty line.
+   * @param contentLength The length of the content in bytes
+   * @return The kept content or <code>null</code> if the end of the input was
+   * reached before
+   * @throws IOException On reading from the stream
+   */
+  protected ByteBuffer skipContent(final long contentLength)
+  throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    final int start = buffer.position();
+    final int buffered = (int) Math.min(buffer.remaining(), contentLength);
+    final int keptLength = WarcHttpResponse.getHeaderLength(
+        buffer.slice(start, Math.min(buffered, PEEK_LENGTH)));
+    final ByteBuffer kept;
+    if (this.input == null) {
+      kept = buffer.slice(start, keptLength);
+    } else {
+      final byte[] copy = new byte[keptLength];
+      buffer.get(start, copy);
+      kept = ByteBuffer.wrap(copy);
+    }
+    return this.discard(contentLength) ? kept : null;
+  }
+
+  /**
+   * Reads the first bytes of the content of a record that starts at the
+   * current position, and skips the rest.
+   * @param contentLength The length of the content in bytes
+   * @param keptLength The number of bytes to keep
+   * @return The kept content or <code>null</code> if the end of the input was
+   * reached before
+   * @throws IOException On reading from the stream
+   */
+  protected ByteBuffer truncateContent(
+      final long contentLength, final int keptLength)
+  throws IOException {
+    final ByteBuffer kept = this.readContent(keptLength);
+    if (kept == null) { return null; }
+    return this.discard(contentLength - keptLength) ? kept : null;
+  }
+
+  /**
+   * Skips bytes from the current position on without copying them.
+   * @param length The number of bytes to skip
+   * @return Whether the bytes were skipped, or <code>false</code> if the end
+   * of the input was reached before
+   * @throws IOException On reading from the stream
+   */
+  protected boolean discard(final long length) throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    final int buffered = (int) Math.min(buffer.remaining(), length);
+    buffer.position(buffer.position() + buffered);
+    if (buffered == length) { return true; }
+    if (this.input == null) { return false; }
+
+    // discard the rest through the (now empty) buffer
+    this.bufferOffset += buffer.position();
+    buffer.clear();
+    try {
+      long skipped = buffered;
+      while (skipped < length) {
+        final int numRead = this.input.read(buffer.array(),
+            buffer.arrayOffset(),
+            (int) Math.min(buffer.capacity(), length - skipped));
+        if (numRead < 0) {
+          this.endOfInput = true;
+          return false;
+        }
+        skipped += numRead;
+        this.bufferOffset += numRead;
+      }
+      return true;
+    } finally {
+      buffer.limit(0);
+    }
+  }
+
+  /**
+   * Reads more bytes from the stream into the buffer, keeping the bytes from
+   * its position on and growing it if necessary.
+   * @return Whether more bytes were read
+   * @throws IOException On reading from the stream
+   */
+  protected boolean fill() throws IOException {
+    if (this.endOfInput) { return false; }
+    ByteBuffer buffer = this.buffer;
+    this.bufferOffset += buffer.position();
+    if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+      final ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+      grown.put(buffer);
+      buffer = grown;
+      this.buffer = grown;
+    } else {
+      buffer.compact();
+    }
+    try {
+      int read = 0;
+      while (read == 0) {
+        read = this.input.read(buffer.array(),
+            buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      }
+      if (read < 0) {
+        this.endOfInput = true;
+        return false;
+      }
+      buffer.position(buffer.position() + read);
+      return true;
+    } finally {
+      buffer.flip();
+    }
+  }
+
+}
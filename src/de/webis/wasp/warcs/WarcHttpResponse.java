@@ -0,0 +1,365 @@
+package de.webis.wasp.warcs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.InputStreamFactory;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.MessageConstraints;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.DefaultHttpResponseFactory;
+import org.apache.http.impl.io.DefaultHttpResponseParser;
+import org.apache.http.impl.io.HttpTransportMetricsImpl;
+import org.apache.http.impl.io.SessionInputBufferImpl;
+import org.apache.http.protocol.HTTP;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * The HTTP response of a WARC response record, with the status line and
+ * headers parsed once.
+ * <p>
+ * The content type, charset and content encoding are taken from the headers
+ * on parsing. The body is not read on parsing, but each call to
+ * {@link #getEntity()} creates a new entity that decodes it from the record's
+ * content. If the record was truncated (see {@link RecordLimits}), the body
+ * ends silently where the record's content ends.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class WarcHttpResponse {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final int SESSION_BUFFER_SIZE = 2048;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final WarcRecord record;
+
+  private final HttpResponse response;
+
+  private final int bodyOffset;
+
+  private final int bodyLength;
+
+  private final String mimeType;
+
+  private final String charset;
+
+  private final String contentEncoding;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new response.
+   * @param record The record the response is from
+   * @param response The response with status line and headers, but without
+   * entity
+   * @param bodyOffset The offset of the body in the record's content
+   * @param bodyLength The length of the body in the record's content
+   */
+  protected WarcHttpResponse(
+      final WarcRecord record, final HttpResponse response,
+      final int bodyOffset, final int bodyLength) {
+    this.record = Objects.requireNonNull(record);
+    this.response = Objects.requireNonNull(response);
+    this.bodyOffset = bodyOffset;
+    this.bodyLength = bodyLength;
+
+    final Header contentType = response.getLastHeader(HTTP.CONTENT_TYPE);
+    final HeaderElement[] elements = contentType == null
+        ? new HeaderElement[0] : contentType.getElements();
+    if (elements.length == 0) {
+      this.mimeType = null;
+      this.charset = null;
+    } else {
+      this.mimeType = elements[0].getName().toLowerCase(Locale.ROOT);
+      final NameValuePair charset = elements[0].getParameterByName("charset");
+      this.charset = charset == null ? null : charset.getValue();
+    }
+
+    final Header contentEncoding =
+        response.getFirstHeader(HTTP.CONTENT_ENCODING);
+    this.contentEncoding =
+        contentEncoding == null ? null : contentEncoding.getValue();
+  }
+
+  /**
+   * Parses the status line and headers of the HTTP response in a WARC record.
+   * @param record The record
+   * @return The response or <code>null</code> if the record is not a response
+   * record
+   * @throws IOException On reading the response
+   * @throws HttpException On parsing the response
+   */
+  public static WarcHttpResponse parse(final WarcRecord record)
+  throws IOException, HttpException {
+    if (!Warcs.HEADER_TYPE_RESPONSE.equals(record.getHeaderRecordType())) {
+      return null;
+    }
+    final ByteBuffer content = WarcHttpResponse.getContent(record);
+    final int headerLength = WarcHttpResponse.getHeaderLength(content);
+
+    // based on http://stackoverflow.com/a/26586178
+    final SessionInputBufferImpl sessionInputBuffer =
+        new SessionInputBufferImpl(
+            new HttpTransportMetricsImpl(), SESSION_BUFFER_SIZE);
+    sessionInputBuffer.bind(new Warcs.ByteBufferInputStream(
+        content.duplicate().limit(headerLength)));
+    final DefaultHttpResponseParser parser =
+        new DefaultHttpResponseParser(
+            sessionInputBuffer, null, new DefaultHttpResponseFactory(),
+            MessageConstraints.DEFAULT);
+    final HttpResponse response = parser.parse();
+    return new WarcHttpResponse(
+        record, response, headerLength, content.limit() - headerLength);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the WARC record of this response.
+   * @return The record
+   */
+  public WarcRecord getRecord() {
+    return this.record;
+  }
+
+  /**
+   * Gets the ID of the WARC record of this response.
+   * @return The ID
+   */
+  public String getId() {
+    return Warcs.getId(this.getRecord());
+  }
+
+  /**
+   * Gets the URI this response is for.
+   * @return The URI
+   */
+  public String getTargetUri() {
+    return Warcs.getTargetUri(this.getRecord());
+  }
+
+  /**
+   * Gets the response with its status line and headers, but without entity.
+   * @return The response
+   */
+  public HttpResponse getResponse() {
+    return this.response;
+  }
+
+  /**
+   * Gets the status code of the response.
+   * @return The code
+   */
+  public int getStatusCode() {
+    return this.getResponse().getStatusLine().getStatusCode();
+  }
+
+  /**
+   * Gets the offset of the body in the record's content.
+   * @return The offset
+   */
+  public int getBodyOffset() {
+    return this.bodyOffset;
+  }
+
+  /**
+   * Gets the length of the (possibly chunked and compressed) body in the
+   * record's content.
+   * @return The length
+   */
+  public int getBodyLength() {
+    return this.bodyLength;
+  }
+
+  /**
+   * Gets the lower-cased MIME type of the Content-Type header.
+   * @return The type or <code>null</code> if the response has none
+   */
+  public String getMimeType() {
+    return this.mimeType;
+  }
+
+  /**
+   * Gets the charset parameter of the Content-Type header.
+   * @return The charset or <code>null</code> if the response has none
+   */
+  public String getCharset() {
+    return this.charset;
+  }
+
+  /**
+   * Gets the value of the Content-Encoding header.
+   * @return The encoding or <code>null</code> if the response has none
+   */
+  public String getContentEncoding() {
+    return this.contentEncoding;
+  }
+
+  /**
+   * Checks whether this is an HTML response.
+   * @return Whether the MIME type is HTML
+   */
+  public boolean isHtml() {
+    return Warcs.isHtmlContentType(this.getMimeType());
+  }
+
+  /**
+   * Checks whether the content of the WARC record was truncated, in which case
+   * the body is incomplete.
+   * @return Whether the record has a <code>WARC-Truncated</code> header
+   */
+  public boolean isTruncated() {
+    return Warcs.getHeader(this.getRecord(), Warcs.HEADER_TRUNCATED) != null;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new entity for reading the decoded body.
+   * @return The entity
+   * @throws HttpException If the content encoding is not supported
+   * @throws IOException On reading the body
+   * @see ContentDecoders#REGISTRY
+   */
+  public HttpEntity getEntity() throws HttpException, IOException {
+    return this.getEntity(ContentDecoders.REGISTRY);
+  }
+
+  /**
+   * Creates a new entity for reading the body decoded with specific decoders.
+   * @param decoders The decoders for each content encoding
+   * @return The entity
+   * @throws HttpException If the content encoding is not supported
+   * @throws IOException On reading the body
+   */
+  public HttpEntity getEntity(final Lookup<InputStreamFactory> decoders)
+  throws HttpException, IOException {
+    final SessionInputBufferImpl sessionInputBuffer =
+        new SessionInputBufferImpl(
+            new HttpTransportMetricsImpl(), SESSION_BUFFER_SIZE);
+    final ByteBuffer body = WarcHttpResponse.getContent(this.getRecord());
+    body.position(this.getBodyOffset());
+    sessionInputBuffer.bind(new Warcs.ByteBufferInputStream(body));
+    final HttpEntity entity = Warcs.decodeEntity(
+        Warcs.getEntity(this.getResponse(), sessionInputBuffer), decoders);
+    return this.isTruncated() ? new TruncatedEntity(entity) : entity;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static ByteBuffer getContent(final WarcRecord record) {
+    final ByteBuffer content = record.getContentBuffer();
+    return content == null ? ByteBuffer.allocate(0) : content.slice();
+  }
+
+  /**
+   * Gets the length of the status line and header block, including the empty
+   * line that ends it.
+   * @param content The record's content
+   * @return The length, which is the length of the content if the header
+   * block does not end
+   */
+  static int getHeaderLength(final ByteBuffer content) {
+    final int limit = content.limit();
+    for (int i = 0; i < limit; ++i) {
+      if (content.get(i) == '\n') {
+        if (i + 1 < limit && content.get(i + 1) == '\n') {
+          return i + 2;
+        } else if (i + 2 < limit && content.get(i + 1) == '\r'
+            && content.get(i + 2) == '\n') {
+          return i + 3;
+        }
+      }
+    }
+    return limit;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Entity of a truncated body, which ends at the first error on reading or
+   * closing it (e.g., a premature end of the content or of a compressed
+   * stream) instead of throwing an exception.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  private static final class TruncatedEntity extends HttpEntityWrapper {
+
+    public TruncatedEntity(final HttpEntity entity) {
+      super(entity);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      return new FilterInputStream(super.getContent()) {
+
+        private boolean ended = false;
+
+        @Override
+        public int read() throws IOException {
+          if (this.ended) { return -1; }
+          try {
+            return super.read();
+          } catch (final IOException exception) {
+            this.ended = true;
+            return -1;
+          }
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length)
+        throws IOException {
+          if (this.ended) { return -1; }
+          try {
+            return super.read(buffer, offset, length);
+          } catch (final IOException exception) {
+            this.ended = true;
+            return -1;
+          }
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } catch (final IOException exception) {
+            // closing may read to the end of the body, which is missing
+          }
+        }
+
+      };
+    }
+
+  }
+
+}
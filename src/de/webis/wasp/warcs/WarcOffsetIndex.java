@@ -0,0 +1,535 @@
+package de.webis.wasp.warcs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Writes and reads a sidecar file that stores where the records of an archive
+ * are, so that single records can be read without reading the entire archive.
+ * <p>
+ * Similar to a CDX file, each line of the sidecar file describes one record by
+ * its ID, offset, length, date, and target URI, separated by spaces. For
+ * GZip-compressed archives, offset and length are those of the GZip member
+ * that starts with the record, so that the record is read by decompressing
+ * only that member. Entries are therefore only written for records that start
+ * a member, which are all records in archives that compress each record
+ * separately (as is common). For uncompressed archives, offset and length are
+ * those of the record itself.
+ * </p><p>
+ * The writer learns about members by being set as member listener of the
+ * {@link GzipMemberInputStream} that the archive is read through, and about
+ * records through {@link #addRecord(WarcRecord, long, long)}. The file is
+ * rewritten from the start by each new writer once it gets the first record,
+ * unless the writer resumes from a checkpoint (see
+ * {@link #resumeAt(CheckpointStore.Checkpoint)}): then the entries of the
+ * records before the checkpoint are kept and new entries are appended.
+ * </p>
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class WarcOffsetIndex
+implements Consumer<GzipMemberInputStream.Member>, Flushable, AutoCloseable {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Suffix appended to the archive's file name to get the name of its sidecar
+   * file.
+   */
+  public static final String FILE_SUFFIX = ".offsets";
+
+  /**
+   * Maximum number of records that wait for the end of their GZip member.
+   */
+  protected static final int MAX_PENDING = 16;
+
+  private static final String MISSING = "-";
+
+  private static final int LINE_SEPARATOR_LENGTH =
+      System.lineSeparator().getBytes(StandardCharsets.UTF_8).length;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final Path archive;
+
+  private final Path indexFile;
+
+  private final boolean compressed;
+
+  private final Deque<GzipMemberInputStream.Member> members;
+
+  private final Deque<Entry> pending;
+
+  private BufferedWriter writer;
+
+  private long keepBeforeOffset;
+
+  private boolean closed;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTRUCTION
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Creates a new writer for the sidecar file of an archive.
+   * @param archive The archive file
+   * @param indexFile The sidecar file
+   */
+  public WarcOffsetIndex(final Path archive, final Path indexFile) {
+    this.archive = Objects.requireNonNull(archive);
+    this.indexFile = Objects.requireNonNull(indexFile);
+    this.compressed = WarcOffsetIndex.isCompressed(archive);
+    this.members = new ArrayDeque<>();
+    this.pending = new ArrayDeque<>();
+    this.writer = null;
+    this.keepBeforeOffset = -1;
+    this.closed = false;
+  }
+
+  /**
+   * Creates a new writer for the sidecar file of an archive in a directory.
+   * @param archive The archive file
+   * @param indexDirectory The directory that contains the sidecar files
+   * @return The writer
+   * @see #getIndexFile(Path, Path)
+   */
+  public static WarcOffsetIndex forArchive(
+      final Path archive, final Path indexDirectory) {
+    return new WarcOffsetIndex(
+        archive, WarcOffsetIndex.getIndexFile(archive, indexDirectory));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // GETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the archive file.
+   * @return The file
+   */
+  public Path getArchive() {
+    return this.archive;
+  }
+
+  /**
+   * Gets the sidecar file.
+   * @return The file
+   */
+  public Path getIndexFile() {
+    return this.indexFile;
+  }
+
+  /**
+   * Gets the sidecar file of an archive in a directory.
+   * @param archive The archive file
+   * @param indexDirectory The directory that contains the sidecar files
+   * @return The sidecar file
+   */
+  public static Path getIndexFile(
+      final Path archive, final Path indexDirectory) {
+    return indexDirectory.resolve(archive.getFileName() + FILE_SUFFIX);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // SETTERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets that the archive is read from a checkpoint, so that the entries of
+   * the records before it are kept. Must be called before the first record is
+   * added.
+   * <p>
+   * Entries of records the reader adds again, and malformed entries (e.g., of
+   * an interrupted write), are removed from the end of the sidecar file once
+   * the first record is added.
+   * </p>
+   * @param checkpoint The checkpoint
+   */
+  public synchronized void resumeAt(
+      final CheckpointStore.Checkpoint checkpoint) {
+    if (this.compressed) {
+      // the member at the checkpoint contains the last consumed record
+      this.keepBeforeOffset = checkpoint.getOffset() + 1;
+    } else {
+      this.keepBeforeOffset = checkpoint.getOffset();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // FUNCTIONALITY
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Adds a record that has just been read from the archive.
+   * @param record The record
+   * @param start The offset of the record in the (decompressed) archive
+   * @param end The offset right after the record's content in the
+   * (decompressed) archive
+   * @throws IOException On writing the sidecar file
+   */
+  public synchronized void addRecord(
+      final WarcRecord record, final long start, final long end)
+  throws IOException {
+    if (this.closed) { return; }
+    if (this.writer == null) { this.writer = this.openWriter(); }
+    final Entry entry = new Entry(Warcs.getId(record), start, end - start,
+        Warcs.getHeader(record, Warcs.HEADER_DATE),
+        Warcs.getTargetUri(record));
+    if (!this.compressed) {
+      this.write(entry);
+      return;
+    }
+
+    // members that end before the record can not contain later records
+    while (!this.members.isEmpty()
+        && this.members.getFirst().getUncompressedEnd() <= start) {
+      this.members.removeFirst();
+    }
+    if (this.members.isEmpty()) {
+      this.pending.addLast(entry);
+      if (this.pending.size() > MAX_PENDING) { this.pending.removeFirst(); }
+    } else {
+      this.resolve(entry, this.members.getFirst());
+    }
+  }
+
+  /**
+   * Adds a GZip member that has just been read completely from the archive.
+   * @param member The member
+   */
+  @Override
+  public synchronized void accept(final GzipMemberInputStream.Member member) {
+    this.members.addLast(member);
+    final Iterator<Entry> iterator = this.pending.iterator();
+    while (iterator.hasNext()) {
+      final Entry entry = iterator.next();
+      if (entry.getOffset() < member.getUncompressedEnd()) {
+        iterator.remove();
+        try {
+          this.resolve(entry, member);
+        } catch (final IOException exception) {
+          throw new UncheckedIOException(exception);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    if (this.writer != null) { this.writer.flush(); }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.closed = true;
+    this.pending.clear();
+    this.members.clear();
+    if (this.writer != null) {
+      this.writer.close();
+      this.writer = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.getArchive() + " -> " + this.getIndexFile();
+  }
+
+  /**
+   * Finds the entry for a record in a sidecar file.
+   * @param indexFile The sidecar file
+   * @param id The ID of the record
+   * @return The entry or <code>null</code> if the file contains none for the
+   * record
+   * @throws IOException On reading the sidecar file
+   */
+  public static Entry find(final Path indexFile, final String id)
+  throws IOException {
+    try (final BufferedReader reader =
+        Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      while (line != null) {
+        if (line.startsWith(id) && line.length() > id.length()
+            && line.charAt(id.length()) == ' ') {
+          return Entry.parse(line);
+        }
+        line = reader.readLine();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads a record by its ID from an archive.
+   * @param archive The archive file
+   * @param indexFile The sidecar file of the archive
+   * @param id The ID of the record
+   * @return The record or <code>null</code> if the sidecar file contains no
+   * entry for the record
+   * @throws IOException On reading the sidecar file or archive
+   */
+  public static WarcRecord read(
+      final Path archive, final Path indexFile, final String id)
+  throws IOException {
+    final Entry entry = WarcOffsetIndex.find(indexFile, id);
+    if (entry == null) { return null; }
+    return WarcOffsetIndex.read(archive, entry);
+  }
+
+  /**
+   * Reads a record from an archive, reading only the bytes given by the entry.
+   * @param archive The archive file
+   * @param entry The entry of the record
+   * @return The record
+   * @throws IOException On reading the archive
+   */
+  public static WarcRecord read(final Path archive, final Entry entry)
+  throws IOException {
+    final ByteBuffer bytes = ByteBuffer.allocate(
+        Math.toIntExact(entry.getLength()));
+    try (final FileChannel channel =
+        FileChannel.open(archive, StandardOpenOption.READ)) {
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, entry.getOffset() + bytes.position()) < 0) {
+          throw new EOFException("Archive " + archive + " ends before "
+              + entry.getId());
+        }
+      }
+    }
+    bytes.flip();
+
+    final WarcFramingReader reader = WarcOffsetIndex.isCompressed(archive)
+        ? new WarcFramingReader(new GZIPInputStream(
+            new ByteArrayInputStream(bytes.array())))
+        : new WarcFramingReader(bytes);
+    try (reader) {
+      return reader.read();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Opens the writer for the sidecar file, truncating it to the entries to
+   * keep.
+   * @return The writer
+   * @throws IOException On opening the sidecar file
+   */
+  protected BufferedWriter openWriter() throws IOException {
+    if (this.keepBeforeOffset < 0) {
+      // truncates entries of an earlier read
+      return Files.newBufferedWriter(
+          this.getIndexFile(), StandardCharsets.UTF_8);
+    }
+    if (Files.exists(this.getIndexFile())) {
+      WarcOffsetIndex.truncate(this.getIndexFile(), this.keepBeforeOffset);
+    }
+    return Files.newBufferedWriter(this.getIndexFile(), StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Truncates a sidecar file before the first entry that is malformed or
+   * located at or after an offset, relying on entries being written in the
+   * order of their offsets.
+   * @param indexFile The sidecar file
+   * @param offset The offset
+   * @throws IOException On reading or writing the sidecar file
+   */
+  protected static void truncate(final Path indexFile, final long offset)
+  throws IOException {
+    final long size = Files.size(indexFile);
+    long length = 0;
+    try (final BufferedReader reader =
+        Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      while (line != null) {
+        final long end = length
+            + line.getBytes(StandardCharsets.UTF_8).length
+            + LINE_SEPARATOR_LENGTH;
+        if (end > size) { break; } // line not completely written
+        try {
+          if (Entry.parse(line).getOffset() >= offset) { break; }
+        } catch (final IllegalArgumentException exception) {
+          break;
+        }
+        length = end;
+        line = reader.readLine();
+      }
+    }
+    if (length < size) {
+      try (final FileChannel channel =
+          FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+        channel.truncate(length);
+      }
+    }
+  }
+
+  /**
+   * Writes the entry for a record if it starts the member and ends within it.
+   * @param entry The entry with offset and length in the decompressed archive
+   * @param member The member that contains the record's start
+   * @throws IOException On writing the sidecar file
+   */
+  protected void resolve(
+      final Entry entry, final GzipMemberInputStream.Member member)
+  throws IOException {
+    if (entry.getOffset() == member.getUncompressedOffset()
+        && entry.getOffset() + entry.getLength()
+          <= member.getUncompressedEnd()) {
+      this.write(new Entry(entry.getId(),
+          member.getOffset(), member.getLength(),
+          entry.getDate(), entry.getUri()));
+    }
+  }
+
+  /**
+   * Writes an entry to the sidecar file.
+   * @param entry The entry
+   * @throws IOException On writing the sidecar file
+   */
+  protected void write(final Entry entry) throws IOException {
+    if (this.closed || entry.getId() == null) { return; }
+    this.writer.write(entry.toString());
+    this.writer.newLine();
+  }
+
+  private static boolean isCompressed(final Path archive) {
+    // no entries are written for Zstandard archives, as frames are not tracked
+    return Warcs.isCompressedArchive(archive);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * The location of a record in an archive.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  public static final class Entry {
+
+    private final String id;
+
+    private final long offset;
+
+    private final long length;
+
+    private final String date;
+
+    private final String uri;
+
+    /**
+     * Creates a new entry.
+     * @param id The ID of the record
+     * @param offset The offset of the record (or its GZip member) in the
+     * archive
+     * @param length The length of the record (or its GZip member) in the
+     * archive
+     * @param date The date of the record (may be <code>null</code>)
+     * @param uri The target URI of the record (may be <code>null</code>)
+     */
+    public Entry(
+        final String id, final long offset, final long length,
+        final String date, final String uri) {
+      this.id = id;
+      this.offset = offset;
+      this.length = length;
+      this.date = date;
+      this.uri = uri;
+    }
+
+    /**
+     * Parses an entry from a line of a sidecar file.
+     * @param line The line
+     * @return The entry
+     * @throws IllegalArgumentException If the line is malformed
+     */
+    public static Entry parse(final String line) {
+      final String[] fields = line.split(" ", 5);
+      if (fields.length != 5) {
+        throw new IllegalArgumentException("Malformed entry: " + line);
+      }
+      return new Entry(fields[0],
+          Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+          MISSING.equals(fields[3]) ? null : fields[3],
+          MISSING.equals(fields[4]) ? null : fields[4]);
+    }
+
+    /**
+     * Gets the ID of the record.
+     * @return The ID
+     */
+    public String getId() {
+      return this.id;
+    }
+
+    /**
+     * Gets the offset of the record (or its GZip member) in the archive.
+     * @return The offset in bytes
+     */
+    public long getOffset() {
+      return this.offset;
+    }
+
+    /**
+     * Gets the length of the record (or its GZip member) in the archive.
+     * @return The length in bytes
+     */
+    public long getLength() {
+      return this.length;
+    }
+
+    /**
+     * Gets the date of the record as given in its header.
+     * @return The date or <code>null</code> if not set
+     */
+    public String getDate() {
+      return this.date;
+    }
+
+    /**
+     * Gets the target URI of the record.
+     * @return The URI or <code>null</code> if not set
+     */
+    public String getUri() {
+      return this.uri;
+    }
+
+    @Override
+    public String toString() {
+      return this.getId() + " " + this.getOffset() + " " + this.getLength()
+        + " " + (this.getDate() == null ? MISSING : this.getDate())
+        + " " + (this.getUri() == null ? MISSING : this.getUri());
+    }
+
+  }
+
+}
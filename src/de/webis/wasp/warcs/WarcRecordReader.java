@@ -1,15 +1,17 @@
 package de.webis.wasp.warcs;
 
-import java.io.DataInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 
 import edu.cmu.lemurproject.WarcRecord;
 
@@ -20,6 +22,10 @@ import edu.cmu.lemurproject.WarcRecord;
  * </p><p>
  * If the archive is still being filled, use {@link ContinuousWarcRecordReader}
  * instead.
+ * </p><p>
+ * The reader can start from a {@link CheckpointStore.Checkpoint}, and provides
+ * the checkpoint for resuming after the last record it passed to the consumer
+ * through {@link #getCheckpoint()}.
  * </p>
  *
  * @author johannes.kiesel@uni-weimar.de
@@ -44,7 +50,19 @@ implements AutoCloseable {
   
   private final Path inputFile;
   
-  private final DataInputStream input;
+  private final WarcFramingReader input;
+
+  private GzipMemberInputStream members;
+
+  private WarcOffsetIndex offsetIndex;
+
+  private final CheckpointStore.Checkpoint start;
+
+  private final Deque<GzipMemberInputStream.Member> finishedMembers;
+
+  private volatile CheckpointStore.Checkpoint checkpoint;
+
+  private volatile boolean done;
   
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTION
@@ -58,27 +76,87 @@ implements AutoCloseable {
    */
   public WarcRecordReader(
       final Path inputFile, final Consumer<WarcRecord> consumer)
+  throws IOException {
+    this(inputFile, consumer, null);
+  }
+
+  /**
+   * Creates a new reader for an archive that starts at a checkpoint.
+   * @param inputFile The archive file
+   * @param consumer Consumer for the WARC records that are read
+   * @param start The checkpoint to start from, or <code>null</code> to start
+   * from the beginning of the archive
+   * @throws IOException When the file can not be opened
+   */
+  public WarcRecordReader(
+      final Path inputFile, final Consumer<WarcRecord> consumer,
+      final CheckpointStore.Checkpoint start)
   throws IOException {
     if (consumer == null) { throw new NullPointerException(); }
     this.consumer = consumer;
     this.inputFile = inputFile;
-    this.input = this.openDataInputStream();
+    this.members = null;
+    this.offsetIndex = null;
+    this.start = start;
+    this.finishedMembers = new ArrayDeque<>();
+    this.checkpoint = start;
+    this.done = false;
+    if (start != null) {
+      LOG.fine("Resume " + inputFile + " at " + start);
+    }
+    this.input = this.openFramingReader();
   }
 
   /**
-   * Opens a data input stream to the reader's file, applying GZip decompression
-   * if the file ends on <code>.gz</code>.
-   * @return The input stream
+   * Opens a framing reader for the reader's file, applying GZip decompression
+   * (member by member) if the file ends on <code>.gz</code>, Zstandard
+   * decompression if it ends on <code>.zst</code>, and memory-mapping it if
+   * {@link #mapFile()} allows to.
+   * @return The framing reader
    * @throws IOException On opening the file
    */
-  protected DataInputStream openDataInputStream()
+  protected WarcFramingReader openFramingReader()
   throws IOException {
-    final InputStream inputStream = this.openFileInputStream();
-    if (this.getInputFile().toString().toLowerCase().endsWith(".gz")) {
-      return new DataInputStream(new GZIPInputStream(inputStream));
+    final long offset = this.start == null ? 0 : this.start.getOffset();
+    final long uncompressedOffset =
+        this.start == null ? 0 : this.start.getUncompressedOffset();
+    if (this.mapFile()) {
+      LOG.fine("Map file: " + this.getInputFile());
+      return WarcFramingReader.open(this.getInputFile(), offset);
+    }
+    final FileInputStream inputStream = this.openFileInputStream();
+    inputStream.getChannel().position(offset);
+    final WarcFramingReader reader;
+    if (Warcs.isGzipArchive(this.getInputFile())) {
+      this.members = new GzipMemberInputStream(inputStream);
+      this.members.setStartOffset(offset, uncompressedOffset);
+      this.members.setMemberListener(this::memberRead);
+      reader = new WarcFramingReader(this.members);
+    } else if (Warcs.isZstdArchive(this.getInputFile())) {
+      // frames are not tracked, so checkpoints resume from the start
+      // unless they are at the end
+      if (offset > 0) {
+        inputStream.close();
+        return new WarcFramingReader(ByteBuffer.allocate(0));
+      }
+      reader = new WarcFramingReader(ContentDecoders.ZSTD.create(
+          new BufferedInputStream(
+              inputStream, ContentDecoders.ARCHIVE_BUFFER_SIZE)));
     } else {
-      return new DataInputStream(inputStream);
+      reader = new WarcFramingReader(inputStream);
     }
+    reader.setStartOffset(uncompressedOffset);
+    return reader;
+  }
+
+  /**
+   * Checks whether the file should be opened using
+   * {@link WarcFramingReader#open(Path)}, which memory-maps uncompressed
+   * files.
+   * @return Whether to do so (if the file is not compressed)
+   */
+  protected boolean mapFile() {
+    return !Warcs.isCompressedArchive(this.getInputFile());
   }
 
   /**
@@ -114,31 +192,110 @@ implements AutoCloseable {
   }
 
   /**
-   * Gets the input stream.
-   * @return The stream
+   * Gets the index to which the location of each record is written.
+   * @return The index or <code>null</code> for none
+   */
+  public WarcOffsetIndex getOffsetIndex() {
+    return this.offsetIndex;
+  }
+
+  /**
+   * Gets the checkpoint for resuming after the last record that this reader
+   * passed to the consumer (or skipped).
+   * @return The checkpoint or <code>null</code> if no record has been read and
+   * the reader did not start from a checkpoint
+   */
+  public CheckpointStore.Checkpoint getCheckpoint() {
+    return this.checkpoint;
+  }
+
+  /**
+   * Checks whether this reader has finished reading.
+   * @return Whether it has
+   */
+  public boolean isDone() {
+    return this.done;
+  }
+
+  /**
+   * Gets the reader of the input file.
+   * @return The reader
    */
-  protected DataInputStream getInput() {
+  protected WarcFramingReader getInput() {
     return this.input;
   }
   
+  /////////////////////////////////////////////////////////////////////////////
+  // SETTER
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sets the index to which the location of each record is written. Must be
+   * called before reading starts. The index is closed with this reader. If
+   * this reader starts from a checkpoint, the index keeps the entries of the
+   * records before it.
+   * @param offsetIndex The index or <code>null</code> for none
+   */
+  public void setOffsetIndex(final WarcOffsetIndex offsetIndex) {
+    if (offsetIndex != null && this.start != null) {
+      offsetIndex.resumeAt(this.start);
+    }
+    this.offsetIndex = offsetIndex;
+  }
+
+  /**
+   * Sets the filter that decides for which records the content is read. Must
+   * be called before reading starts.
+   * @param contentFilter The filter or <code>null</code> for reading all
+   * content
+   * @see WarcFramingReader#setContentFilter(BiPredicate)
+   */
+  public void setContentFilter(
+      final BiPredicate<WarcRecord, ByteBuffer> contentFilter) {
+    this.getInput().setContentFilter(contentFilter);
+  }
+
+  /**
+   * Sets the limit on the content length of records. Must be called before
+   * reading starts.
+   * @param recordLimits The limits or <code>null</code> for none
+   * @see WarcFramingReader#setRecordLimits(RecordLimits)
+   */
+  public void setRecordLimits(final RecordLimits recordLimits) {
+    this.getInput().setRecordLimits(recordLimits);
+  }
+  
   /////////////////////////////////////////////////////////////////////////////
   // FUNCTIONALITY
   /////////////////////////////////////////////////////////////////////////////
   
   @Override
   public void run() {
-    final DataInputStream input = this.getInput();
+    final WarcFramingReader input = this.getInput();
+    final long skipUntil =
+        this.start == null ? 0 : this.start.getRecordEnd();
     try {
-      WarcRecord record = WarcRecord.readNextWarcRecord(input);
+      WarcRecord record = input.read();
       while (record != null) {
-        this.consume(record);
-        record = WarcRecord.readNextWarcRecord(input); 
+        final long recordOffset = input.getRecordOffset();
+        if (recordOffset >= skipUntil) {
+          if (this.getOffsetIndex() != null) {
+            this.getOffsetIndex().addRecord(
+                record, recordOffset, input.getOffset());
+          }
+          this.consume(record);
+          this.checkpoint =
+              this.createCheckpoint(record, recordOffset, input.getOffset());
+        }
+        record = input.read();
       }
       LOG.fine("Finished " + this);
       this.close();
     } catch (final IOException exception) {
       LOG.log(Level.SEVERE,
           "Error while reading from " + this.getInputFile(), exception);
+    } finally {
+      this.done = true;
     }
   }
   
@@ -146,6 +303,9 @@ implements AutoCloseable {
   public void close() throws IOException {
     LOG.fine("Close file " + this.getInputFile());
     this.getInput().close();
+    if (this.getOffsetIndex() != null) {
+      this.getOffsetIndex().close();
+    }
   }
   
   @Override
@@ -166,4 +326,60 @@ implements AutoCloseable {
     this.getConsumer().accept(record);
   }
 
+  /**
+   * Remembers a GZip member that has been read completely, and passes it on to
+   * the offset index if set.
+   * @param member The member
+   */
+  protected void memberRead(final GzipMemberInputStream.Member member) {
+    this.finishedMembers.addLast(member);
+    if (this.getOffsetIndex() != null) {
+      this.getOffsetIndex().accept(member);
+    }
+  }
+
+  /**
+   * Creates the checkpoint for resuming after a record.
+   * @param record The record
+   * @param recordOffset The offset of the record in the (decompressed) archive
+   * @param recordEnd The offset after the record's content in the
+   * (decompressed) archive
+   * @return The checkpoint
+   */
+  protected CheckpointStore.Checkpoint createCheckpoint(
+      final WarcRecord record, final long recordOffset, final long recordEnd) {
+    final String id = Warcs.getId(record);
+    if (Warcs.isZstdArchive(this.getInputFile())) {
+      return new CheckpointStore.Checkpoint(0, 0, recordEnd, id);
+    } else if (this.members == null) {
+      return new CheckpointStore.Checkpoint(
+          recordEnd, recordEnd, recordEnd, id);
+    }
+
+    // resume at the start of the member that contains the record
+    while (!this.finishedMembers.isEmpty()
+        && this.finishedMembers.getFirst().getUncompressedEnd()
+          <= recordOffset) {
+      this.finishedMembers.removeFirst();
+    }
+    if (!this.finishedMembers.isEmpty()
+        && this.finishedMembers.getFirst().getUncompressedOffset()
+          <= recordOffset) {
+      final GzipMemberInputStream.Member member =
+          this.finishedMembers.getFirst();
+      return new CheckpointStore.Checkpoint(member.getOffset(),
+          member.getUncompressedOffset(), recordEnd, id);
+    } else if (this.members.getMemberUncompressedOffset() <= recordOffset) {
+      return new CheckpointStore.Checkpoint(this.members.getMemberOffset(),
+          this.members.getMemberUncompressedOffset(), recordEnd, id);
+    } else {
+      // member unknown: resume where the previous checkpoint resumes
+      final CheckpointStore.Checkpoint previous = this.checkpoint;
+      return new CheckpointStore.Checkpoint(
+          previous == null ? 0 : previous.getOffset(),
+          previous == null ? 0 : previous.getUncompressedOffset(),
+          recordEnd, id);
+    }
+  }
+
 }
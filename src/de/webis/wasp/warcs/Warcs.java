@@ -1,13 +1,13 @@
 package de.webis.wasp.warcs;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Locale;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
@@ -16,25 +16,17 @@ import org.apache.http.HttpException;
 import org.apache.http.HttpResponse;
 import org.apache.http.ParseException;
 import org.apache.http.client.entity.DecompressingEntity;
-import org.apache.http.client.entity.DeflateInputStream;
 import org.apache.http.client.entity.InputStreamFactory;
 import org.apache.http.config.Lookup;
-import org.apache.http.config.MessageConstraints;
-import org.apache.http.config.RegistryBuilder;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.ContentLengthStrategy;
-import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.entity.LaxContentLengthStrategy;
 import org.apache.http.impl.io.ChunkedInputStream;
 import org.apache.http.impl.io.ContentLengthInputStream;
-import org.apache.http.impl.io.DefaultHttpResponseParser;
 import org.apache.http.impl.io.EmptyInputStream;
-import org.apache.http.impl.io.HttpTransportMetricsImpl;
 import org.apache.http.impl.io.IdentityInputStream;
-import org.apache.http.impl.io.SessionInputBufferImpl;
 import org.apache.http.io.SessionInputBuffer;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 
 import edu.cmu.lemurproject.WarcRecord;
 
@@ -70,6 +62,8 @@ public class Warcs {
   
   public static final String HEADER_DATE = "WARC-Date";
   
+  public static final String HEADER_TRUNCATED = "WARC-Truncated";
+  
   public static final DateTimeFormatter HEADER_DATE_FORMAT =
       DateTimeFormatter.ISO_INSTANT;
   
@@ -79,24 +73,6 @@ public class Warcs {
 
   public static final String HTTP_HEADER_CONTENT_TYPE = "Content-Type";
   
-  /////////////////////////////////////////////////////////////////////////////
-  // STATIC HELPERS
-  /////////////////////////////////////////////////////////////////////////////
-
-  private final static InputStreamFactory GZIP = new InputStreamFactory() {
-    @Override
-    public InputStream create(final InputStream instream) throws IOException {
-      return new GZIPInputStream(instream);
-    }
-  };
-
-  private final static InputStreamFactory DEFLATE = new InputStreamFactory() {
-    @Override
-    public InputStream create(final InputStream instream) throws IOException {
-      return new DeflateInputStream(instream);
-    }
-  };
-  
   /////////////////////////////////////////////////////////////////////////////
   // CONSTRUCTORS
   /////////////////////////////////////////////////////////////////////////////
@@ -108,6 +84,36 @@ public class Warcs {
   // FUNCTIONALITY
   /////////////////////////////////////////////////////////////////////////////
 
+  /////////////////////////////////////////////////////////////////////////////
+  // Archive files
+
+  /**
+   * Checks whether an archive file is GZip-compressed (by its name).
+   * @param archive The archive file
+   * @return Whether its name ends on <code>.gz</code>
+   */
+  public static boolean isGzipArchive(final Path archive) {
+    return archive.toString().toLowerCase(Locale.ROOT).endsWith(".gz");
+  }
+
+  /**
+   * Checks whether an archive file is Zstandard-compressed (by its name).
+   * @param archive The archive file
+   * @return Whether its name ends on <code>.zst</code>
+   */
+  public static boolean isZstdArchive(final Path archive) {
+    return archive.toString().toLowerCase(Locale.ROOT).endsWith(".zst");
+  }
+
+  /**
+   * Checks whether an archive file is compressed (by its name).
+   * @param archive The archive file
+   * @return Whether it is GZip- or Zstandard-compressed
+   */
+  public static boolean isCompressedArchive(final Path archive) {
+    return Warcs.isGzipArchive(archive) || Warcs.isZstdArchive(archive);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // Access header fields
   
@@ -173,59 +179,98 @@ public class Warcs {
         response.getLastHeader(HTTP_HEADER_CONTENT_TYPE).getValue();
     if (contentType == null) { return false; } // no content type
 
-    if (!HTTP_HEADER_CONTENT_TYPE_HTML.matcher(contentType).matches()) {
+    if (!Warcs.isHtmlContentType(contentType)) {
       return false; // not HTML content type
     }
     
     return true;
   }
   
+  /**
+   * Checks if the value of a Content-Type header is HTML, ignoring case and
+   * surrounding white space.
+   */
+  public static boolean isHtmlContentType(final String contentType) {
+    if (contentType == null) { return false; }
+    return HTTP_HEADER_CONTENT_TYPE_HTML.matcher(
+        contentType.trim().toLowerCase(Locale.ROOT)).matches();
+  }
+  
   /**
    * Gets the HTML part of a record or <tt>null</tt> if there is none or an
    * invalid one.
+   * @see HtmlDecoder#DEFAULT
    */
-  public static String getHtml(final WarcRecord record)
+  public static CharSequence getHtml(final WarcRecord record)
   throws ParseException, IOException, HttpException {
-    final HttpResponse response = Warcs.toResponse(record);
-    if (!Warcs.isHtml(response)) { return null; } // no HTML record
+    final WarcHttpResponse response = WarcHttpResponse.parse(record);
+    if (response == null) { return null; } // no response record
+    return Warcs.getHtml(response, HtmlDecoder.DEFAULT);
+  }
+
+  /**
+   * Gets the HTML part of a response or <tt>null</tt> if there is none.
+   * @param response The response
+   * @param decoder The decoder for the response's content
+   * @return The HTML
+   * @throws HttpException If the content encoding is not supported
+   * @throws IOException On reading the content
+   */
+  public static CharSequence getHtml(
+      final WarcHttpResponse response, final HtmlDecoder decoder)
+  throws HttpException, IOException {
+    if (!response.isHtml()) { return null; } // no HTML record
+    return decoder.decode(response.getEntity());
+  }
 
-    final HttpEntity entity = response.getEntity();
-    final String defaultCharset = null;
-    return EntityUtils.toString(entity, defaultCharset);
+  /**
+   * Gets the HTML part of a response or <tt>null</tt> if there is none.
+   * @param response The response
+   * @param decoder The decoder for the response's content
+   * @return The HTML
+   * @throws IOException On reading the content
+   */
+  public static CharSequence getHtml(
+      final HttpResponse response, final HtmlDecoder decoder)
+  throws IOException {
+    if (!Warcs.isHtml(response)) { return null; } // no HTML record
+    return decoder.decode(response.getEntity());
   }
 
   /**
    * Gets an {@link HttpResponse} object from a WARC record of such a response.
    * @return The response or <tt>null</tt> when the record is not a response
    * record
+   * @see WarcHttpResponse
    */
   public static HttpResponse toResponse(final WarcRecord record)
   throws IOException, HttpException {
-    // based on http://stackoverflow.com/a/26586178
-    if (!record.getHeaderRecordType().equals("response")) { return null; }
-    
-    final SessionInputBufferImpl sessionInputBuffer =
-        new SessionInputBufferImpl(new HttpTransportMetricsImpl(), 2048);
-    final InputStream inputStream =
-        new ByteArrayInputStream(record.getByteContent());
-    sessionInputBuffer.bind(inputStream);
-    final MessageConstraints constraints = MessageConstraints.DEFAULT;
-    final DefaultHttpResponseParser parser =
-        new DefaultHttpResponseParser(
-            sessionInputBuffer, null, new DefaultHttpResponseFactory(),
-            constraints);
-    final HttpResponse response = parser.parse();
-    final HttpEntity entity = Warcs.getEntity(response, sessionInputBuffer);
-    response.setEntity(entity);
-    Warcs.encodeEntity(response);
+    final WarcHttpResponse parsed = WarcHttpResponse.parse(record);
+    if (parsed == null) { return null; }
+
+    final HttpResponse response = parsed.getResponse();
+    response.setEntity(parsed.getEntity());
+    if (response.getEntity() instanceof DecompressingEntity) {
+      response.removeHeaders("Content-Length");
+      response.removeHeaders("Content-Encoding");
+      response.removeHeaders("Content-MD5");
+    }
     return response;
   }
 
-  
-  private static void encodeEntity(final HttpResponse response)
-  throws HttpException, IOException {
+  /**
+   * Wraps an entity so that it is decoded according to its content encoding.
+   * @param entity The entity
+   * @param decoders The decoders for each content encoding
+   * @return The decoding entity, or the entity itself if it is not encoded
+   * @throws HttpException If the content encoding is not supported
+   * @see ContentDecoders#REGISTRY
+   */
+  static HttpEntity decodeEntity(
+      final HttpEntity entity, final Lookup<InputStreamFactory> decoders)
+  throws HttpException {
     // Adapted from org.apache.http.client.protocol.ResponseContentEncoding
-    final HttpEntity entity = response.getEntity();
+    HttpEntity decodedEntity = entity;
   
     // entity can be null in case of 304 Not Modified, 204 No Content or similar
     // check for zero length entity.
@@ -233,22 +278,15 @@ public class Warcs {
       final Header ceheader = entity.getContentEncoding();
       if (ceheader != null) {
         final HeaderElement[] codecs = ceheader.getElements();
-        final Lookup<InputStreamFactory> decoderRegistry =
-            RegistryBuilder.<InputStreamFactory>create()
-              .register("gzip", GZIP)
-              .register("x-gzip", GZIP)
-              .register("deflate", DEFLATE)
-              .build();
-        for (final HeaderElement codec : codecs) {
+        // codecs are listed in the order they were applied
+        for (int c = codecs.length - 1; c >= 0; --c) {
+          final HeaderElement codec = codecs[c];
           final String codecname = codec.getName().toLowerCase(Locale.ROOT);
           final InputStreamFactory decoderFactory =
-              decoderRegistry.lookup(codecname);
+              decoders.lookup(codecname);
           if (decoderFactory != null) {
-            response.setEntity(new DecompressingEntity(
-                response.getEntity(), decoderFactory));
-            response.removeHeaders("Content-Length");
-            response.removeHeaders("Content-Encoding");
-            response.removeHeaders("Content-MD5");
+            decodedEntity =
+                new DecompressingEntity(decodedEntity, decoderFactory);
           } else {
             if (!"identity".equals(codecname)) {
                 throw new HttpException(
@@ -258,6 +296,7 @@ public class Warcs {
         }
       }
     }
+    return decodedEntity;
   }
   
   private static InputStream createInputStream(
@@ -274,7 +313,7 @@ public class Warcs {
     }
   }
   
-  private static HttpEntity getEntity(
+  static HttpEntity getEntity(
       final HttpResponse response, final SessionInputBuffer input)
   throws HttpException {
     // Adapted from the org.apache.http.impl.BHttpConnectionBase
@@ -310,4 +349,52 @@ public class Warcs {
     return entity;
   }
 
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Input stream over the remaining bytes of a buffer, so that record content
+   * that is a slice of a (memory-mapped) archive is not copied.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   */
+  static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(final ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      if (!this.buffer.hasRemaining()) { return -1; }
+      return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+      if (length == 0) { return 0; }
+      if (!this.buffer.hasRemaining()) { return -1; }
+      final int read = Math.min(length, this.buffer.remaining());
+      this.buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @Override
+    public long skip(final long n) {
+      final int skipped =
+          (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+      this.buffer.position(this.buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return this.buffer.remaining();
+    }
+
+  }
+
 }
@@ -51,6 +51,7 @@ import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
@@ -387,6 +388,7 @@ public class WarcRecord {
 
   private WarcHeader warcHeader=new WarcHeader();
   private byte[] warcContent=null;
+  private ByteBuffer warcContentBuffer=null;
   private String warcFilePath="";
   
   public WarcRecord() {
@@ -396,16 +398,18 @@ public class WarcRecord {
   public WarcRecord(WarcRecord o) {
     this.warcHeader=new WarcHeader(o.warcHeader);
     this.warcContent=o.warcContent;
+    this.warcContentBuffer=o.warcContentBuffer;
   }
   
   public int getTotalRecordLength() {
     int headerLength=warcHeader.toString().length();
-    return (headerLength + warcContent.length);
+    return (headerLength + warcHeader.contentLength);
   }
   
   public void set(WarcRecord o) {
     this.warcHeader=new WarcHeader(o.warcHeader);
     this.warcContent=o.warcContent;
+    this.warcContentBuffer=o.warcContentBuffer;
   }
   
   public String getWarcFilePath() {
@@ -466,8 +470,19 @@ public class WarcRecord {
   
   public void setContent(byte[] content) {
     warcContent=content;
+    warcContentBuffer=null;
     warcHeader.contentLength=content.length;
   }
+
+  /**
+   * Sets the content to the remaining bytes of the buffer without copying
+   * them. The buffer must not be changed afterwards.
+   */
+  public void setContent(ByteBuffer content) {
+    warcContent=null;
+    warcContentBuffer=content.slice();
+    warcHeader.contentLength=warcContentBuffer.remaining();
+  }
   
   public void setContent(String content) {
     setContent(content.getBytes());
@@ -477,18 +492,41 @@ public class WarcRecord {
   }
   
   public byte[] getContent() {
+    if (warcContent==null && warcContentBuffer!=null) {
+      // materialize on first access
+      if (warcContentBuffer.hasArray()
+          && warcContentBuffer.arrayOffset()==0
+          && warcContentBuffer.array().length==warcContentBuffer.remaining()) {
+        warcContent=warcContentBuffer.array();
+      } else {
+        byte[] content=new byte[warcContentBuffer.remaining()];
+        warcContentBuffer.duplicate().get(content);
+        warcContent=content;
+      }
+    }
     return warcContent;
   }
   public byte[] getByteContent() {
-    return warcContent;
+    return getContent();
+  }
+
+  /**
+   * Gets the content as a read-only buffer without copying it.
+   */
+  public ByteBuffer getContentBuffer() {
+    if (warcContentBuffer!=null) {
+      return warcContentBuffer.asReadOnlyBuffer();
+    }
+    if (warcContent==null) { return null; }
+    return ByteBuffer.wrap(warcContent).asReadOnlyBuffer();
   }
  
   public String getContentUTF8() {
     String retString=null;
     try {
-      retString = new String(warcContent, "UTF-8");
+      retString = new String(getContent(), "UTF-8");
     } catch (UnsupportedEncodingException ex) {
-      retString=new String(warcContent);
+      retString=new String(getContent());
     }
     return retString;
   }
@@ -502,7 +540,7 @@ public class WarcRecord {
     StringBuffer retBuffer=new StringBuffer();
     retBuffer.append(warcHeader.toString());
     retBuffer.append(LINE_ENDING);
-    retBuffer.append(new String(warcContent));
+    retBuffer.append(new String(getContent()));
     return retBuffer.toString();
   }
 
@@ -512,13 +550,14 @@ public class WarcRecord {
 
   public void write(DataOutput out) throws IOException {
     warcHeader.write(out);
-    out.write(warcContent);
+    out.write(getContent());
   }
   
   public void readFields(DataInput in) throws IOException {
     warcHeader.readFields(in);
     int contentLengthBytes=warcHeader.contentLength;
     warcContent=new byte[contentLengthBytes];
+    warcContentBuffer=null;
     in.readFully(warcContent);
   }
   
@@ -0,0 +1,161 @@
+package de.webis.wasp.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+
+/**
+ * Tests for {@link BulkIndex}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class BulkIndexTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Instant TIME = Instant.parse("2022-01-01T00:00:00Z");
+
+  private static final String URI = "http://example.org/";
+
+  private static final BulkOperation INDEX = BulkOperation.of(bulk -> bulk
+      .index(index -> index
+          .index(Index.INDEX_NAME)
+          .id("a")
+          .document(ResponseRecord.builder(URI).time(TIME).build())));
+
+  private static final BulkOperation UPDATE = BulkOperation.of(bulk -> bulk
+      .update(update -> update
+          .index(Index.INDEX_NAME)
+          .id("a")
+          .action(action -> action.script(Index.getAddRequestScript(
+              new RequestRecord(URI, TIME))))));
+
+  /**
+   * Time in milliseconds the sending of the index operation is delayed to give
+   * the update operation the chance to overtake it.
+   */
+  private static final long OVERTAKE_MILLIS = 500;
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final RecordingBulkIndex index = new RecordingBulkIndex();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @AfterEach
+  public void close() throws IOException {
+    this.index.close();
+  }
+
+  @Test
+  public void testSendInOrderOfAdding() throws IOException {
+    this.index.add(INDEX, 1);
+    this.index.add(UPDATE, 1);
+    this.index.add(UPDATE, 1);
+    this.index.flush();
+    assertEquals(List.of("index a", "update a", "update a"),
+        this.index.sent);
+  }
+
+  @Test
+  public void testUpdateTakenAfterIndexIsSentAfterIt() throws Exception {
+    final CompletableFuture<Void> indexing = CompletableFuture.runAsync(() -> {
+      try {
+        this.index.add(INDEX, 1);
+      } catch (final IOException exception) {
+        throw new RuntimeException(exception);
+      }
+    });
+    assertTrue(this.index.taken.await(10, TimeUnit.SECONDS));
+
+    // taken while the index operation has not been sent yet
+    final CompletableFuture<Void> updating = CompletableFuture.runAsync(() -> {
+      try {
+        this.index.add(UPDATE, 1);
+      } catch (final IOException exception) {
+        throw new RuntimeException(exception);
+      }
+    });
+    indexing.get(10, TimeUnit.SECONDS);
+    updating.get(10, TimeUnit.SECONDS);
+    this.index.flush();
+    assertEquals(List.of("index a", "update a"), this.index.sent);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Bulk index that sends each operation on its own and records them instead
+   * of sending them, and that delays sending the first index operation until
+   * an update operation is about to be sent or some time passed.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   *
+   */
+  private static class RecordingBulkIndex extends BulkIndex {
+
+    private final List<String> sent =
+        Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch taken = new CountDownLatch(1);
+
+    private final CountDownLatch overtaking = new CountDownLatch(1);
+
+    public RecordingBulkIndex() {
+      super(0, 1, DEFAULT_MAX_BYTES, 0, 1);
+    }
+
+    @Override
+    protected void send(final List<BulkOperation> operations)
+    throws IOException {
+      if (operations == null || operations.isEmpty()) {
+        // nothing to send
+      } else if (operations.get(0).isIndex() && this.taken.getCount() > 0) {
+        this.taken.countDown();
+        try {
+          this.overtaking.await(OVERTAKE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException exception) {
+          throw new IOException(exception);
+        }
+      } else if (operations.get(0).isUpdate()) {
+        this.overtaking.countDown();
+      }
+      super.send(operations);
+    }
+
+    @Override
+    protected List<BulkOperation> sendNow(
+        final List<BulkOperation> operations, final boolean retry) {
+      for (final BulkOperation operation : operations) {
+        this.sent.add(operation.isIndex()
+            ? "index " + operation.index().id()
+            : "update " + operation.update().id());
+      }
+      return List.of();
+    }
+
+  }
+
+}
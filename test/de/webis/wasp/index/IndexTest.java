@@ -0,0 +1,224 @@
+package de.webis.wasp.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import co.elastic.clients.elasticsearch.core.GetResponse;
+
+/**
+ * Tests for the partitioning and request handling of {@link Index}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class IndexTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final String URI = "http://example.org/";
+
+  private static final Instant JANUARY = Instant.parse("2022-01-15T00:00:00Z");
+
+  private static final Instant MARCH = Instant.parse("2022-03-15T00:00:00Z");
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final PartitionedIndex index = new PartitionedIndex();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @AfterEach
+  public void close() throws IOException {
+    this.index.close();
+  }
+
+  @Test
+  public void testGetIndexNameByCaptureTime() throws IOException {
+    assertEquals("archive-2022-03", this.index.getIndexName(
+        page(MARCH).build()));
+    assertEquals(List.of(YearMonth.of(2022, 3)), this.index.created);
+  }
+
+  @Test
+  public void testGetIndexNameByEarliestTime() throws IOException {
+    final Instant requested = Instant.parse("2022-02-28T23:59:59Z");
+    final Instant captured = Instant.parse("2022-03-01T00:00:01Z");
+    assertEquals("archive-2022-02", this.index.getIndexName(
+        page(captured).requests(List.of(request(requested))).build()));
+    assertEquals("archive-2022-02", this.index.getIndexName(
+        page(requested).requests(List.of(request(captured))).build()));
+  }
+
+  @Test
+  public void testGetIndexNameOfExistingPartition() throws IOException {
+    this.index.indexNames.add("archive-2022-03-20240101000000");
+    assertEquals("archive-2022-03-20240101000000", this.index.getIndexName(
+        page(MARCH).build()));
+    assertEquals(List.of(), this.index.created);
+  }
+
+  @Test
+  public void testGetIndexNameUnpartitioned() throws IOException {
+    this.index.indexNames.add(Index.INDEX_NAME);
+    assertEquals(Index.INDEX_NAME, this.index.getIndexName(
+        page(MARCH).build()));
+    assertEquals(List.of(), this.index.created);
+  }
+
+  @Test
+  public void testGetIndexNames() throws IOException {
+    this.index.indexNames.addAll(List.of(
+        "archive-2022-01", "archive-2022-02", "archive-2022-03", "legacy"));
+    assertEquals(List.of(Index.INDEX_NAME),
+        this.index.getIndexNames(new Query("q", null, null)));
+    assertEquals(List.of(Index.INDEX_NAME),
+        this.index.getIndexNames(new Query("q", JANUARY, MARCH)));
+    assertEquals(List.of("legacy", "archive-2022-01"),
+        this.index.getIndexNames(new Query("q", null, JANUARY)));
+    // requests joined late may precede the partition of their response
+    assertEquals(List.of("legacy", "archive-2022-01", "archive-2022-02"),
+        this.index.getIndexNames(new Query("q", null,
+            Instant.parse("2022-01-31T12:00:00Z"))));
+  }
+
+  @Test
+  public void testGetIndexNamesWithoutPartitionsToSearch() throws IOException {
+    this.index.indexNames.add("archive-2022-03");
+    assertEquals(List.of(Index.INDEX_NAME),
+        this.index.getIndexNames(new Query("q", null, JANUARY)));
+  }
+
+  @Test
+  public void testMergeIntoEarlierPartition() throws IOException {
+    this.index.setDeduplicating(true);
+    assertTrue(this.index.indexResponse("a", page(JANUARY)
+        .requests(List.of(request(JANUARY))).build()));
+    assertFalse(this.index.indexResponse("b", page(MARCH)
+        .requests(List.of(request(MARCH))).build()));
+    assertEquals(Map.of("a", "archive-2022-01"), this.index.indexed);
+    assertEquals(List.of("a"), this.index.updated);
+  }
+
+  @Test
+  public void testNoMergeIntoLaterPartition() throws IOException {
+    this.index.setDeduplicating(true);
+    assertTrue(this.index.indexResponse("a", page(MARCH)
+        .requests(List.of(request(MARCH))).build()));
+    assertTrue(this.index.indexResponse("b", page(JANUARY)
+        .requests(List.of(request(JANUARY))).build()));
+    assertEquals(Map.of("a", "archive-2022-03", "b", "archive-2022-01"),
+        this.index.indexed);
+    assertEquals(List.of(), this.index.updated);
+  }
+
+  @Test
+  public void testIndexRequestWithoutFetchingResponse() throws IOException {
+    assertTrue(this.index.indexResponse("a", page(JANUARY).build()));
+    assertTrue(this.index.indexRequest("a", URI, MARCH));
+    assertFalse(this.index.indexRequest("b", URI, MARCH));
+    assertEquals(List.of("a"), this.index.updated);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static ResponseRecord.Builder page(final Instant time) {
+    return ResponseRecord.builder(URI).title("t").content("c").time(time);
+  }
+
+  private static RequestRecord request(final Instant time) {
+    return new RequestRecord(URI, time);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Index that keeps the names of its indices and its responses in memory
+   * instead of sending requests.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   *
+   */
+  private static class PartitionedIndex extends Index {
+
+    private final Set<String> indexNames = new HashSet<>();
+
+    private final List<YearMonth> created = new ArrayList<>();
+
+    private final Map<String, String> indexed = new HashMap<>();
+
+    private final List<String> updated = new ArrayList<>();
+
+    public PartitionedIndex() {
+      super(0);
+    }
+
+    @Override
+    protected Set<String> requestIndexNames() {
+      return Set.copyOf(this.indexNames);
+    }
+
+    @Override
+    protected String createPartition(final YearMonth month) {
+      this.created.add(month);
+      this.indexNames.add(INDEX_NAME + "-" + month);
+      return INDEX_NAME + "-" + month;
+    }
+
+    @Override
+    protected void index(final String id, final ResponseRecord response)
+    throws IOException {
+      final String indexName = this.getIndexName(response);
+      this.indexed.put(id, indexName);
+      this.rememberCapture(id, indexName, response);
+    }
+
+    @Override
+    protected String resolveContent(
+        final String uri, final String contentHash) {
+      // all tests index the same content
+      return this.indexed.keySet().stream().findFirst().orElse(null);
+    }
+
+    @Override
+    protected String resolveIndexName(final String id) {
+      return this.indexed.get(id);
+    }
+
+    @Override
+    protected GetResponse<ResponseRecord> resolveResponse(final String id) {
+      throw new AssertionError("Fetched response " + id);
+    }
+
+    @Override
+    protected void addRequest(
+        final String responseId, final RequestRecord request) {
+      this.updated.add(responseId);
+    }
+
+  }
+
+}
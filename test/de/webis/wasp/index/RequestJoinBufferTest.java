@@ -0,0 +1,201 @@
+package de.webis.wasp.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link RequestJoinBuffer}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class RequestJoinBufferTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final Instant TIME = Instant.parse("2022-01-01T00:00:00Z");
+
+  private static final String URI = "http://example.org/";
+
+  private static final RequestRecord REQUEST = new RequestRecord(URI, TIME);
+
+  private static final ResponseRecord RESPONSE = ResponseRecord.builder(URI)
+      .title("t")
+      .content("c")
+      .time(TIME)
+      .build();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // MEMBERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final RecordingIndex index = new RecordingIndex();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @AfterEach
+  public void close() throws IOException {
+    this.index.close();
+  }
+
+  @Test
+  public void testJoinRequestWithResponse() throws IOException {
+    final RequestJoinBuffer buffer = new RequestJoinBuffer(this.index);
+    buffer.addResponse("a", RESPONSE);
+    assertEquals(List.of(), this.index.writes);
+    buffer.addRequest("a", REQUEST);
+    assertEquals(List.of("response a with 1 requests"), this.index.writes);
+
+    buffer.addRequest("a", REQUEST);
+    assertEquals(List.of("response a with 1 requests", "update a"),
+        this.index.writes);
+  }
+
+  @Test
+  public void testJoinResponseWithRequest() throws IOException {
+    final RequestJoinBuffer buffer = new RequestJoinBuffer(this.index);
+    buffer.addRequest("a", REQUEST);
+    buffer.addResponse("a", RESPONSE);
+    assertEquals(List.of("response a with 1 requests"), this.index.writes);
+  }
+
+  @Test
+  public void testFlush() throws IOException {
+    final RequestJoinBuffer buffer = new RequestJoinBuffer(this.index);
+    buffer.addResponse("a", RESPONSE);
+    buffer.addRequest("b", REQUEST);
+    buffer.flush();
+    assertEquals(List.of("response a with 0 requests", "request b"),
+        this.index.writes);
+  }
+
+  @Test
+  public void testDropRequestsForSkippedRecords() throws IOException {
+    final RequestJoinBuffer buffer = new RequestJoinBuffer(this.index);
+    buffer.addRequest("before", REQUEST);
+    buffer.skipResponse("before");
+    buffer.skipResponse("after");
+    buffer.addRequest("after", REQUEST);
+    buffer.flush();
+    assertEquals(List.of(), this.index.writes);
+  }
+
+  @Test
+  public void testEvictEldest() throws IOException {
+    final RequestJoinBuffer buffer =
+        new RequestJoinBuffer(this.index, 1, 60000, 16);
+    buffer.addResponse("a", RESPONSE);
+    buffer.addResponse("b", RESPONSE);
+    assertEquals(List.of("response a with 0 requests"), this.index.writes);
+  }
+
+  @Test
+  public void testWriteWithoutLock() throws Exception {
+    final RequestJoinBuffer buffer = new RequestJoinBuffer(this.index);
+    this.index.blocking = new CountDownLatch(1);
+    buffer.addRequest("a", REQUEST);
+    final CompletableFuture<Void> writing = CompletableFuture.runAsync(() -> {
+      try {
+        buffer.addResponse("a", RESPONSE);
+      } catch (final IOException exception) {
+        throw new RuntimeException(exception);
+      }
+    });
+    assertTrue(this.index.blocked.await(10, TimeUnit.SECONDS));
+
+    // not blocked by the write in progress
+    buffer.addResponse("b", RESPONSE);
+    buffer.skipResponse("c");
+    // added once the response has been written
+    buffer.addRequest("a", REQUEST);
+    final CompletableFuture<Void> flushing = CompletableFuture.runAsync(() -> {
+      try {
+        buffer.flush();
+      } catch (final IOException exception) {
+        throw new RuntimeException(exception);
+      }
+    });
+    Thread.sleep(100);
+    assertEquals(List.of("response b with 0 requests"), this.index.writes);
+
+    this.index.blocking.countDown();
+    writing.get(10, TimeUnit.SECONDS);
+    flushing.get(10, TimeUnit.SECONDS);
+    assertEquals(List.of("response b with 0 requests",
+        "response a with 1 requests", "update a"), this.index.writes);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Index that records writes instead of sending them, and that can block
+   * writing the response with ID <code>a</code>.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   *
+   */
+  private static class RecordingIndex extends Index {
+
+    private final List<String> writes =
+        Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+
+    private volatile CountDownLatch blocking = null;
+
+    public RecordingIndex() {
+      super(0);
+    }
+
+    @Override
+    public boolean indexResponse(
+        final String id, final ResponseRecord response)
+    throws IOException {
+      if (this.blocking != null && id.equals("a")) {
+        this.blocked.countDown();
+        try {
+          this.blocking.await();
+        } catch (final InterruptedException exception) {
+          throw new IOException(exception);
+        }
+      }
+      this.writes.add(
+          "response " + id + " with " + response.getRequests().size()
+          + " requests");
+      return true;
+    }
+
+    @Override
+    protected void addRequest(
+        final String responseId, final RequestRecord request) {
+      this.writes.add("update " + responseId);
+    }
+
+    @Override
+    public boolean indexRequest(
+        final String concurrentId, final String uri, final Instant instant) {
+      this.writes.add("request " + concurrentId);
+      return true;
+    }
+
+  }
+
+}
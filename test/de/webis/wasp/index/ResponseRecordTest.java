@@ -0,0 +1,82 @@
+package de.webis.wasp.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ResponseRecord}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ResponseRecordTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final String URI = "http://example.org/a b";
+
+  private static final Instant TIME = Instant.parse("2022-01-01T12:34:56Z");
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testBuildPage() {
+    final ResponseRecord response = ResponseRecord.builder(URI)
+        .title("t")
+        .content("c")
+        .time(TIME.plusMillis(789))
+        .simHash(42L)
+        .build();
+    assertEquals(URI, response.getUri());
+    assertEquals(URI + " " + TIME, response.getCapture());
+    assertEquals(TIME, ResponseRecord.toCaptureTime(response.getCapture()));
+    assertEquals(ResponseRecord.toContentHash("t", "c"),
+        response.getContentHash());
+    assertEquals(42L, response.getSimHash());
+    assertEquals(List.of(), response.getRequests());
+    assertNull(response.getFullContent());
+    assertNull(response.getDuplicateOf());
+  }
+
+  @Test
+  public void testBuildWithoutContent() {
+    final ResponseRecord response =
+        ResponseRecord.builder(URI).title("t").build();
+    assertNull(response.getContent());
+    assertNull(response.getContentHash());
+    assertNull(response.getCapture());
+  }
+
+  @Test
+  public void testToBuilder() {
+    final RequestRecord request = new RequestRecord(URI, TIME);
+    final ResponseRecord response = ResponseRecord.builder(URI)
+        .title("t")
+        .content("c")
+        .fullContent("f c")
+        .time(TIME)
+        .contentHash("hash")
+        .build();
+    final ResponseRecord copy = response.toBuilder()
+        .requests(List.of(request))
+        .duplicateOf("b")
+        .build();
+    assertEquals("t", copy.getTitle());
+    assertEquals("c", copy.getContent());
+    assertEquals("f c", copy.getFullContent());
+    assertEquals(response.getCapture(), copy.getCapture());
+    assertEquals("hash", copy.getContentHash());
+    assertEquals(List.of(request), copy.getRequests());
+    assertEquals("b", copy.getDuplicateOf());
+  }
+
+}
@@ -0,0 +1,49 @@
+package de.webis.wasp.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import de.webis.wasp.index.Index;
+
+/**
+ * Tests for {@link ResultCache}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ResultCacheTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testMaxReachablePageNumber() {
+    assertEquals(1063, ResultCache.getMaxReachablePageNumber(10));
+    for (final int pageSize : new int[] {
+        1, 7, 10, 1000, Index.MAX_RESULT_WINDOW + 1 }) {
+      final int pageNumber = ResultCache.getMaxReachablePageNumber(pageSize);
+      assertTrue(getDistance(pageSize, pageNumber)
+          < ResultCache.MAX_PAGES_PER_QUERY, "page size " + pageSize);
+      assertEquals(ResultCache.MAX_PAGES_PER_QUERY,
+          getDistance(pageSize, pageNumber + 1), "page size " + pageSize);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Gets the number of pages to retrieve after the first one for retrieving a
+   * page if none are cached.
+   */
+  private static int getDistance(final int pageSize, final int pageNumber) {
+    final ResultCache.CachedQuery cached =
+        new ResultCache.CachedQuery(pageSize, 0);
+    return pageNumber - ResultCache.getFirstPageToRetrieve(cached, pageNumber);
+  }
+
+}
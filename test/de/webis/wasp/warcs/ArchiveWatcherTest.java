@@ -0,0 +1,128 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Tests for {@link ArchiveWatcher}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ArchiveWatcherTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final String RECORD = "WARC/1.0\r\n"
+      + "WARC-Type: response\r\n"
+      + "WARC-Record-ID: <urn:a>\r\n"
+      + "WARC-Date: 2022-01-01T00:00:00Z\r\n"
+      + "Content-Length: 5\r\n"
+      + "\r\n"
+      + "hello\r\n\r\n";
+
+  private static final long NEVER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testCheckpoint(@TempDir final Path directory)
+  throws IOException, InterruptedException {
+    final Path archives = Files.createDirectory(directory.resolve("archives"));
+    final Path archive = archives.resolve("a.warc");
+    Files.write(archive, RECORD.getBytes(StandardCharsets.UTF_8));
+    final Path file = directory.resolve("checkpoints.properties");
+    final FlushableConsumer consumer = new FlushableConsumer();
+
+    try (final ArchiveWatcher watcher = new ArchiveWatcher(archives, true,
+        consumer, new ArchiveWatcher.Options()
+          .checkpointStore(new CheckpointStore(file))
+          .checkpointIntervalMillis(NEVER_MILLIS))) {
+      assertTrue(consumer.consumed.await(10, TimeUnit.SECONDS));
+      watcher.checkpoint();
+    }
+    final CheckpointStore.Checkpoint checkpoint =
+        new CheckpointStore(file).get(archive);
+    assertNotNull(checkpoint);
+    assertEquals(RECORD.indexOf("hello") + 5, checkpoint.getRecordEnd());
+    assertEquals("<urn:a>", checkpoint.getRecordId());
+  }
+
+  @Test
+  public void testNoCheckpointAfterFailedFlush(@TempDir final Path directory)
+  throws IOException, InterruptedException {
+    final Path archives = Files.createDirectory(directory.resolve("archives"));
+    Files.write(archives.resolve("a.warc"),
+        RECORD.getBytes(StandardCharsets.UTF_8));
+    final Path file = directory.resolve("checkpoints.properties");
+    final FlushableConsumer consumer = new FlushableConsumer();
+
+    try (final ArchiveWatcher watcher = new ArchiveWatcher(archives, true,
+        consumer, new ArchiveWatcher.Options()
+          .checkpointStore(new CheckpointStore(file))
+          .checkpointIntervalMillis(NEVER_MILLIS))) {
+      assertTrue(consumer.consumed.await(10, TimeUnit.SECONDS));
+      consumer.failing = true;
+      assertThrows(IOException.class, watcher::checkpoint);
+      assertFalse(Files.exists(file));
+
+      // records before the failure may be lost, so do not store later ones
+      consumer.failing = false;
+      watcher.checkpoint();
+      assertFalse(Files.exists(file));
+    }
+    assertFalse(Files.exists(file));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Consumer that counts down a latch for each record and fails on flush if
+   * set so.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   *
+   */
+  private static class FlushableConsumer
+  implements Consumer<WarcRecord>, Flushable {
+
+    private final CountDownLatch consumed = new CountDownLatch(1);
+
+    private volatile boolean failing = false;
+
+    @Override
+    public void accept(final WarcRecord record) {
+      this.consumed.countDown();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (this.failing) { throw new IOException("failed"); }
+    }
+
+  }
+
+}
@@ -0,0 +1,103 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link CheckpointStore}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class CheckpointStoreTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testCheckpointToStringAndParse() {
+    final CheckpointStore.Checkpoint checkpoint =
+        new CheckpointStore.Checkpoint(12, 345, 6789, "<urn:uuid:a b>");
+    assertEquals("12 345 6789 <urn:uuid:a b>", checkpoint.toString());
+    assertCheckpoint(
+        CheckpointStore.Checkpoint.parse(checkpoint.toString()),
+        12, 345, 6789, "<urn:uuid:a b>");
+  }
+
+  @Test
+  public void testCheckpointWithoutRecordId() {
+    final CheckpointStore.Checkpoint checkpoint =
+        new CheckpointStore.Checkpoint(5000000000L, 0, 0, null);
+    assertEquals("5000000000 0 0", checkpoint.toString());
+    assertCheckpoint(CheckpointStore.Checkpoint.parse(checkpoint.toString()),
+        5000000000L, 0, 0, null);
+  }
+
+  @Test
+  public void testParseMalformedCheckpoint() {
+    assertThrows(IllegalArgumentException.class,
+        () -> CheckpointStore.Checkpoint.parse("12 345"));
+    assertThrows(IllegalArgumentException.class,
+        () -> CheckpointStore.Checkpoint.parse("12 x 6789"));
+  }
+
+  @Test
+  public void testCheckpointAtEnd(@TempDir final Path directory)
+  throws IOException {
+    final Path archive = directory.resolve("a.warc");
+    Files.write(archive, new byte[123]);
+    assertCheckpoint(
+        CheckpointStore.Checkpoint.atEnd(archive), 123, 0, 0, null);
+  }
+
+  @Test
+  public void testSaveAndLoad(@TempDir final Path directory)
+  throws IOException {
+    final Path file = directory.resolve("checkpoints.properties");
+    final CheckpointStore store = new CheckpointStore(file);
+    assertTrue(store.isEmpty());
+    store.put(directory.resolve("a.warc.gz"),
+        new CheckpointStore.Checkpoint(1, 2, 3, "<urn:a>"));
+    store.put(Path.of("elsewhere", "b.warc"),
+        new CheckpointStore.Checkpoint(4, 5, 6, null));
+    assertFalse(Files.exists(file));
+    store.save();
+
+    final CheckpointStore loaded = new CheckpointStore(file);
+    assertFalse(loaded.isEmpty());
+    // archives are identified by their file name
+    assertCheckpoint(
+        loaded.get(Path.of("a.warc.gz")), 1, 2, 3, "<urn:a>");
+    assertCheckpoint(
+        loaded.get(directory.resolve("b.warc")), 4, 5, 6, null);
+    assertNull(loaded.get(Path.of("c.warc")));
+    assertFalse(Files.exists(
+        directory.resolve("checkpoints.properties.tmp")));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static void assertCheckpoint(
+      final CheckpointStore.Checkpoint checkpoint, final long offset,
+      final long uncompressedOffset, final long recordEnd,
+      final String recordId) {
+    assertEquals(offset, checkpoint.getOffset());
+    assertEquals(uncompressedOffset, checkpoint.getUncompressedOffset());
+    assertEquals(recordEnd, checkpoint.getRecordEnd());
+    assertEquals(recordId, checkpoint.getRecordId());
+  }
+
+}
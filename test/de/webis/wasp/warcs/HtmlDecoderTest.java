@@ -0,0 +1,163 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link HtmlDecoder}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class HtmlDecoderTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final String TEXT = "<p>Gr\u00fc\u00dfe</p>";
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testHeaderCharset() {
+    final byte[] html = TEXT.getBytes(StandardCharsets.UTF_8);
+    assertEquals(StandardCharsets.UTF_8, detect(html,
+        new BasicHeader("Content-Type", "text/html; charset=\"UTF-8\"")));
+  }
+
+  @Test
+  public void testHeaderCharsetOverridesMetaCharset() {
+    final byte[] html = ("<meta charset=utf-8>" + TEXT)
+        .getBytes(StandardCharsets.UTF_8);
+    assertEquals(Charset.forName("koi8-r"), detect(html,
+        new BasicHeader("Content-Type", "text/html; charset=koi8-r")));
+  }
+
+  @Test
+  public void testMetaCharset() {
+    assertEquals(StandardCharsets.UTF_8,
+        detect("<meta charset=\"utf-8\">" + TEXT, null));
+    assertEquals(Charset.forName("shift_jis"), detect(
+        "<META http-equiv=\"Content-Type\" "
+        + "content=\"text/html; charset=Shift_JIS\">",
+        new BasicHeader("Content-Type", "text/html")));
+  }
+
+  @Test
+  public void testMetaCharsetUtf16IsUtf8() {
+    assertEquals(StandardCharsets.UTF_8,
+        detect("<meta charset='utf-16'>" + TEXT, null));
+  }
+
+  @Test
+  public void testDecodeIgnoresMetaCharsetAfterSniffLength()
+  throws IOException {
+    final byte[] html = (" ".repeat(HtmlDecoder.SNIFF_LENGTH)
+        + "<meta charset=utf-8>" + TEXT).getBytes(StandardCharsets.UTF_8);
+    assertEquals(new String(html, HtmlDecoder.DEFAULT_CHARSET),
+        decode(HtmlDecoder.DEFAULT, html, null));
+  }
+
+  @Test
+  public void testByteOrderMarkOverridesHeader() {
+    final Header header =
+        new BasicHeader("Content-Type", "text/html; charset=iso-8859-1");
+    assertEquals(StandardCharsets.UTF_8, detect(
+        concat(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+            TEXT.getBytes(StandardCharsets.UTF_8)), header));
+    assertEquals(StandardCharsets.UTF_16LE, detect(
+        concat(new byte[] {(byte) 0xFF, (byte) 0xFE},
+            TEXT.getBytes(StandardCharsets.UTF_16LE)), header));
+    assertEquals(StandardCharsets.UTF_16BE, detect(
+        concat(new byte[] {(byte) 0xFE, (byte) 0xFF},
+            TEXT.getBytes(StandardCharsets.UTF_16BE)), header));
+  }
+
+  @Test
+  public void testLatin1IsWindows1252() {
+    assertEquals(HtmlDecoder.DEFAULT_CHARSET, detect(TEXT,
+        new BasicHeader("Content-Type", "text/html; charset=ISO-8859-1")));
+  }
+
+  @Test
+  public void testUnknownCharsetFallsBack() {
+    assertEquals(StandardCharsets.UTF_8, detect(
+        "<meta charset=utf-8>" + TEXT,
+        new BasicHeader("Content-Type", "text/html; charset=no-such-set")));
+    assertEquals(HtmlDecoder.DEFAULT_CHARSET,
+        detect("<meta charset=no-such-set>" + TEXT, null));
+  }
+
+  @Test
+  public void testDefaultCharset() {
+    assertEquals(HtmlDecoder.DEFAULT_CHARSET, detect(TEXT, null));
+    assertEquals(HtmlDecoder.DEFAULT_CHARSET, detect(new byte[0], null));
+  }
+
+  @Test
+  public void testDecodeSkipsByteOrderMark() throws IOException {
+    final byte[] html = concat(new byte[] {(byte) 0xFF, (byte) 0xFE},
+        TEXT.getBytes(StandardCharsets.UTF_16LE));
+    assertEquals(TEXT, decode(HtmlDecoder.DEFAULT, html, null));
+  }
+
+  @Test
+  public void testDecodeWithMetaCharset() throws IOException {
+    final String text = "<meta charset=utf-8>" + TEXT;
+    assertEquals(text, decode(HtmlDecoder.DEFAULT,
+        text.getBytes(StandardCharsets.UTF_8), null));
+    assertEquals(text, decode(HtmlDecoder.DEFAULT,
+        text.getBytes(StandardCharsets.UTF_8),
+        new BasicHeader("Content-Type", "text/html")));
+  }
+
+  @Test
+  public void testDecodeTruncates() throws IOException {
+    final HtmlDecoder decoder = new HtmlDecoder(5);
+    assertEquals(TEXT.substring(0, 5),
+        decode(decoder, TEXT.getBytes(StandardCharsets.UTF_8),
+            new BasicHeader("Content-Type", "text/html; charset=utf-8")));
+    assertEquals(1, decoder.getNumTruncated());
+    assertEquals("<p>", decode(decoder, "<p>".getBytes(), null));
+    assertEquals(1, decoder.getNumTruncated());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static Charset detect(final String html, final Header contentType) {
+    return detect(html.getBytes(StandardCharsets.ISO_8859_1), contentType);
+  }
+
+  private static Charset detect(final byte[] html, final Header contentType) {
+    return HtmlDecoder.detectCharset(html, html.length, contentType);
+  }
+
+  private static String decode(
+      final HtmlDecoder decoder, final byte[] html, final Header contentType)
+  throws IOException {
+    final ByteArrayEntity entity = new ByteArrayEntity(html);
+    entity.setContentType(contentType);
+    return decoder.decode(entity).toString();
+  }
+
+  private static byte[] concat(final byte[] first, final byte[] second) {
+    final byte[] both = new byte[first.length + second.length];
+    System.arraycopy(first, 0, both, 0, first.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+    return both;
+  }
+
+}
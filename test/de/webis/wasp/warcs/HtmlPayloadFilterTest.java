@@ -0,0 +1,98 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Tests for {@link HtmlPayloadFilter}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class HtmlPayloadFilterTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final String BODY = "<html><body>hello</body></html>";
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testAgreesWithResponse() throws Exception {
+    final String[] headers = {
+        "Content-Type: text/html",
+        "Content-Type: text/html; charset=utf-8",
+        "content-type:TEXT/HTML",
+        "Content-Type: application/xhtml+xml",
+        "Content-Type: text/plain",
+        "Content-Type: text/plain\r\nContent-Type: text/html",
+        "Content-Type: text/html\r\nContent-Type: text/plain",
+        "Content-Length: 31"
+    };
+    for (final String header : headers) {
+      final String content = response(header);
+      final boolean expected =
+          WarcHttpResponse.parse(record(content)).isHtml();
+      assertEquals(expected, test(content), header);
+    }
+  }
+
+  @Test
+  public void testIgnoreIdentifiedPayloadType() {
+    final String content = response("Content-Type: text/html");
+    final WarcRecord record = record(content);
+    record.addHeaderMetadata(
+        "WARC-Identified-Payload-Type", "application/octet-stream");
+    assertTrue(HtmlPayloadFilter.INSTANCE.test(record, buffer(content)));
+  }
+
+  @Test
+  public void testAcceptIncompleteHeaderBlock() {
+    assertTrue(test("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"));
+  }
+
+  @Test
+  public void testAcceptOtherRecords() {
+    final WarcRecord record = new WarcRecord();
+    record.setWarcRecordType("request");
+    assertTrue(HtmlPayloadFilter.INSTANCE.test(
+        record, buffer(response("Content-Type: text/plain"))));
+    assertFalse(test(response("Content-Type: text/plain")));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static boolean test(final String content) {
+    return HtmlPayloadFilter.INSTANCE.test(record(content), buffer(content));
+  }
+
+  private static String response(final String headers) {
+    return "HTTP/1.1 200 OK\r\n" + headers + "\r\n\r\n" + BODY;
+  }
+
+  private static WarcRecord record(final String content) {
+    final WarcRecord record = new WarcRecord();
+    record.setWarcRecordType(Warcs.HEADER_TYPE_RESPONSE);
+    record.setContent(content.getBytes(StandardCharsets.ISO_8859_1));
+    return record;
+  }
+
+  private static ByteBuffer buffer(final String content) {
+    return ByteBuffer.wrap(content.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+}
@@ -0,0 +1,78 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Tests for {@link ParallelWarcRecordConsumer}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class ParallelWarcRecordConsumerTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testFlushWaitsForAllRecords() throws IOException {
+    final Set<String> consumed = ConcurrentHashMap.newKeySet();
+    try (final ParallelWarcRecordConsumer consumer =
+        new ParallelWarcRecordConsumer(
+            record -> consumed.add(Warcs.getId(record)), 4, 2)) {
+      for (int r = 0; r < 100; ++r) { consumer.accept(record("r" + r)); }
+      consumer.flush();
+      assertEquals(100, consumed.size());
+    }
+  }
+
+  @Test
+  public void testFlushReportsFailedRecords() throws IOException {
+    final Consumer<WarcRecord> failing = record -> {
+      if (Warcs.getId(record).equals("r3")) {
+        throw new IllegalStateException("failed");
+      }
+    };
+    try (final ParallelWarcRecordConsumer consumer =
+        new ParallelWarcRecordConsumer(failing, 2)) {
+      for (int r = 0; r < 10; ++r) { consumer.accept(record("r" + r)); }
+      assertThrows(IOException.class, consumer::flush);
+      // reported only once
+      consumer.flush();
+    }
+  }
+
+  @Test
+  public void testCloseReportsFailedRecords() {
+    final ParallelWarcRecordConsumer consumer =
+        new ParallelWarcRecordConsumer(record -> {
+          throw new IllegalStateException("failed");
+        }, 2);
+    consumer.accept(record("r"));
+    assertThrows(IOException.class, consumer::close);
+    assertThrows(IllegalStateException.class,
+        () -> consumer.accept(record("s")));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static WarcRecord record(final String id) {
+    final WarcRecord record = new WarcRecord();
+    record.setWarcRecordType(Warcs.HEADER_TYPE_RESPONSE);
+    record.setWarcUUID(id);
+    return record;
+  }
+
+}
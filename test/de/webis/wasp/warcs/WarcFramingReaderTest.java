@@ -0,0 +1,266 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Tests for {@link WarcFramingReader}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class WarcFramingReaderTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final long HUGE_CONTENT_LENGTH = 3000000000L;
+
+  private static final String CONTENT = "HTTP/1.1 200 OK\r\n"
+      + "Content-Type: text/html\r\n\r\n<html>hello</html>";
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testReadFromStream() throws IOException {
+    final String archive = record("a", CONTENT) + record("b", CONTENT);
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive), 16)) {
+      assertRecord(reader.read(), "a", CONTENT);
+      assertEquals(0, reader.getRecordOffset());
+      assertRecord(reader.read(), "b", CONTENT);
+      assertEquals(record("a", CONTENT).length(), reader.getRecordOffset());
+      assertNull(reader.read());
+      assertEquals(archive.length(), reader.getOffset());
+    }
+  }
+
+  @Test
+  public void testReadFromBuffer() throws IOException {
+    final String archive = record("a", CONTENT) + record("b", CONTENT);
+    try (final WarcFramingReader reader = new WarcFramingReader(
+        ByteBuffer.wrap(archive.getBytes(StandardCharsets.UTF_8)))) {
+      assertRecord(reader.read(), "a", CONTENT);
+      assertRecord(reader.read(), "b", CONTENT);
+      assertNull(reader.read());
+    }
+  }
+
+  @Test
+  public void testSkipRecordLongerThanIntegerRange() throws IOException {
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(hugeRecordThenSmallRecord())) {
+      final WarcRecord huge = reader.read();
+      assertEquals("<urn:a>", huge.getHeaderMetadataItem(Warcs.HEADER_ID));
+      assertEquals(RecordLimits.TRUNCATED_LENGTH,
+          huge.getHeaderMetadataItem(Warcs.HEADER_TRUNCATED));
+      assertEquals(0, huge.getContentBuffer().remaining());
+
+      assertRecord(reader.read(), "b", CONTENT);
+      assertNull(reader.read());
+    }
+  }
+
+  @Test
+  public void testTruncateRecordLongerThanIntegerRange() throws IOException {
+    final RecordLimits limits =
+        new RecordLimits(1024, RecordLimits.Mode.TRUNCATE);
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(hugeRecordThenSmallRecord())) {
+      reader.setRecordLimits(limits);
+      final WarcRecord huge = reader.read();
+      assertEquals("<urn:a>", huge.getHeaderMetadataItem(Warcs.HEADER_ID));
+      assertEquals(RecordLimits.TRUNCATED_LENGTH,
+          huge.getHeaderMetadataItem(Warcs.HEADER_TRUNCATED));
+      assertEquals(1024, huge.getContentBuffer().remaining());
+
+      assertRecord(reader.read(), "b", CONTENT);
+      assertNull(reader.read());
+    }
+    assertEquals(1, limits.getNumTruncated());
+  }
+
+  @Test
+  public void testSkipRecordExceedingLimits() throws IOException {
+    final RecordLimits limits = new RecordLimits(10, RecordLimits.Mode.SKIP);
+    final String archive = record("a", CONTENT) + record("b", "short");
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      reader.setRecordLimits(limits);
+      final WarcRecord skipped = reader.read();
+      assertEquals(RecordLimits.TRUNCATED_LENGTH,
+          skipped.getHeaderMetadataItem(Warcs.HEADER_TRUNCATED));
+      assertEquals(CONTENT.indexOf("<html>"),
+          skipped.getContentBuffer().remaining());
+      assertRecord(reader.read(), "b", "short");
+    }
+    assertEquals(1, limits.getNumSkipped());
+  }
+
+  @Test
+  public void testInvalidContentLength() throws IOException {
+    final String archive = record("a", CONTENT)
+        .replace("Content-Length: ", "Content-Length: x");
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      assertThrows(IOException.class, reader::read);
+    }
+  }
+
+  @Test
+  public void testNegativeContentLength() throws IOException {
+    final String archive = record("a", CONTENT)
+        .replace("Content-Length: ", "Content-Length: -");
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      assertThrows(IOException.class, reader::read);
+    }
+  }
+
+  @Test
+  public void testMissingContentLength() throws IOException {
+    final String archive = record("a", CONTENT)
+        .replaceFirst("Content-Length: [0-9]+\r\n", "")
+        + record("b", CONTENT);
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      assertThrows(IOException.class, reader::read);
+    }
+  }
+
+  @Test
+  public void testSkipLongLineBetweenRecords() throws IOException {
+    final char[] garbage = new char[4 * WarcFramingReader.MAX_LINE_LENGTH];
+    Arrays.fill(garbage, 'x');
+    final String archive = record("a", CONTENT) + new String(garbage)
+        + "\r\n" + record("b", CONTENT);
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      assertRecord(reader.read(), "a", CONTENT);
+      assertRecord(reader.read(), "b", CONTENT);
+      assertNull(reader.read());
+    }
+  }
+
+  @Test
+  public void testLongHeaderLine() throws IOException {
+    final char[] value = new char[2 * WarcFramingReader.MAX_LINE_LENGTH];
+    Arrays.fill(value, 'x');
+    final String archive = record("a", CONTENT).replace(
+        "WARC-Type:", "X-Long: " + new String(value) + "\r\nWARC-Type:");
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      assertThrows(IOException.class, reader::read);
+    }
+  }
+
+  @Test
+  public void testContentFilter() throws IOException {
+    final String archive = record("a", CONTENT) + record("b", CONTENT);
+    try (final WarcFramingReader reader =
+        new WarcFramingReader(stream(archive))) {
+      reader.setContentFilter((record, peek) ->
+        !record.getHeaderMetadataItem(Warcs.HEADER_ID).equals("<urn:a>"));
+      final WarcRecord rejected = reader.read();
+      assertEquals(CONTENT.indexOf("<html>"),
+          rejected.getContentBuffer().remaining());
+      assertRecord(reader.read(), "b", CONTENT);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static String header(final String id, final long contentLength) {
+    return "WARC/1.0\r\n"
+        + "WARC-Type: response\r\n"
+        + "WARC-Record-ID: <urn:" + id + ">\r\n"
+        + "WARC-Date: 2022-01-01T00:00:00Z\r\n"
+        + "Content-Length: " + contentLength + "\r\n"
+        + "\r\n";
+  }
+
+  private static String record(final String id, final String content) {
+    return header(id, content.getBytes(StandardCharsets.UTF_8).length)
+        + content + "\r\n\r\n";
+  }
+
+  private static InputStream stream(final String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static InputStream hugeRecordThenSmallRecord() {
+    final List<InputStream> parts = List.of(
+        stream(header("a", HUGE_CONTENT_LENGTH)),
+        new FilledInputStream(HUGE_CONTENT_LENGTH),
+        stream("\r\n\r\n" + record("b", CONTENT)));
+    return new SequenceInputStream(Collections.enumeration(parts));
+  }
+
+  private static void assertRecord(
+      final WarcRecord record, final String id, final String content) {
+    assertEquals("response", record.getHeaderRecordType());
+    assertEquals("<urn:" + id + ">",
+        record.getHeaderMetadataItem(Warcs.HEADER_ID));
+    assertArrayEquals(
+        content.getBytes(StandardCharsets.UTF_8), record.getContent());
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPER CLASSES
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Stream of a fixed number of bytes of binary content (without line
+   * breaks), generated while reading.
+   *
+   * @author johannes.kiesel@uni-weimar.de
+   *
+   */
+  private static class FilledInputStream extends InputStream {
+
+    private long remaining;
+
+    public FilledInputStream(final long length) {
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() {
+      if (this.remaining == 0) { return -1; }
+      --this.remaining;
+      return 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+      if (this.remaining == 0) { return -1; }
+      final int read = (int) Math.min(length, this.remaining);
+      Arrays.fill(buffer, offset, offset + read, (byte) 0xFF);
+      this.remaining -= read;
+      return read;
+    }
+
+  }
+
+}
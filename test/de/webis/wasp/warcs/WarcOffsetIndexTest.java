@@ -0,0 +1,154 @@
+package de.webis.wasp.warcs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.cmu.lemurproject.WarcRecord;
+
+/**
+ * Tests for {@link WarcOffsetIndex}.
+ *
+ * @author johannes.kiesel@uni-weimar.de
+ *
+ */
+public class WarcOffsetIndexTest {
+
+  /////////////////////////////////////////////////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final List<String> IDS =
+      List.of("<urn:a>", "<urn:b>", "<urn:c>");
+
+  /////////////////////////////////////////////////////////////////////////////
+  // TESTS
+  /////////////////////////////////////////////////////////////////////////////
+
+  @Test
+  public void testResumeUncompressed(@TempDir final Path directory)
+  throws IOException {
+    final Path archive = directory.resolve("a.warc");
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (final String id : IDS) {
+      output.write(record(id).getBytes(StandardCharsets.UTF_8));
+    }
+    Files.write(archive, output.toByteArray());
+    final long recordEnd = record(IDS.get(0)).length() - 4;
+
+    this.assertResume(archive, directory,
+        new CheckpointStore.Checkpoint(
+            recordEnd, recordEnd, recordEnd, IDS.get(0)),
+        List.of(IDS.get(1), IDS.get(2)));
+  }
+
+  @Test
+  public void testResumeGzip(@TempDir final Path directory)
+  throws IOException {
+    final Path archive = directory.resolve("a.warc.gz");
+    final List<Long> memberOffsets = new ArrayList<>();
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (final String id : IDS) {
+      memberOffsets.add((long) output.size());
+      try (final GZIPOutputStream member = new GZIPOutputStream(output) {
+        @Override
+        public void close() throws IOException {
+          this.finish(); // without closing the archive
+        }
+      }) {
+        member.write(record(id).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    Files.write(archive, output.toByteArray());
+    final long recordLength = record(IDS.get(0)).length();
+
+    // resume in the member of the second record
+    this.assertResume(archive, directory,
+        new CheckpointStore.Checkpoint(memberOffsets.get(1),
+            recordLength, 2 * recordLength - 4, IDS.get(1)),
+        List.of(IDS.get(2)));
+  }
+
+  @Test
+  public void testResumeDropsPartialEntry(@TempDir final Path directory)
+  throws IOException {
+    final Path archive = directory.resolve("a.warc");
+    Files.write(archive, record(IDS.get(0)).getBytes(StandardCharsets.UTF_8));
+    final Path indexFile = directory.resolve("a.warc.offsets");
+    Files.write(indexFile, "<urn:x> 1".getBytes(StandardCharsets.UTF_8));
+
+    final WarcOffsetIndex offsetIndex =
+        new WarcOffsetIndex(archive, indexFile);
+    offsetIndex.resumeAt(new CheckpointStore.Checkpoint(0, 0, 0, null));
+    read(archive, offsetIndex, null);
+    assertEquals(List.of(IDS.get(0)), readIds(indexFile));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // HELPERS
+  /////////////////////////////////////////////////////////////////////////////
+
+  private void assertResume(
+      final Path archive, final Path directory,
+      final CheckpointStore.Checkpoint checkpoint,
+      final List<String> expectedResumed)
+  throws IOException {
+    final Path indexFile = WarcOffsetIndex.getIndexFile(archive, directory);
+    assertEquals(IDS, read(archive,
+        new WarcOffsetIndex(archive, indexFile), null));
+    assertEquals(IDS, readIds(indexFile));
+
+    assertEquals(expectedResumed, read(archive,
+        new WarcOffsetIndex(archive, indexFile), checkpoint));
+    assertEquals(IDS, readIds(indexFile));
+    for (final String id : IDS) {
+      final WarcRecord record =
+          WarcOffsetIndex.read(archive, indexFile, id);
+      assertNotNull(record, id);
+      assertEquals(id, Warcs.getId(record));
+    }
+  }
+
+  private static List<String> read(
+      final Path archive, final WarcOffsetIndex offsetIndex,
+      final CheckpointStore.Checkpoint checkpoint)
+  throws IOException {
+    final List<String> ids = new ArrayList<>();
+    final WarcRecordReader reader = new WarcRecordReader(
+        archive, record -> ids.add(Warcs.getId(record)), checkpoint);
+    reader.setOffsetIndex(offsetIndex);
+    reader.run();
+    return ids;
+  }
+
+  private static List<String> readIds(final Path indexFile)
+  throws IOException {
+    final List<String> ids = new ArrayList<>();
+    for (final String line : Files.readAllLines(indexFile)) {
+      ids.add(WarcOffsetIndex.Entry.parse(line).getId());
+    }
+    return ids;
+  }
+
+  private static String record(final String id) {
+    return "WARC/1.0\r\n"
+        + "WARC-Type: resource\r\n"
+        + "WARC-Record-ID: " + id + "\r\n"
+        + "WARC-Date: 2022-01-01T00:00:00Z\r\n"
+        + "Content-Length: 5\r\n"
+        + "\r\n"
+        + "hello\r\n\r\n";
+  }
+
+}